@@ -33,74 +33,150 @@ package com.mattbertolini.camclient.net.httpclient;
 import com.mattbertolini.camclient.CamCredentials;
 import com.mattbertolini.camclient.net.AbstractCamConnection;
 import com.mattbertolini.camclient.net.CamConnection;
-import com.mattbertolini.camclient.net.Parameter;
+import com.mattbertolini.camclient.net.CamConnectionException;
+import com.mattbertolini.camclient.net.FormRequestEncoder;
+import com.mattbertolini.camclient.net.ResponseDecoder;
 import com.mattbertolini.camclient.request.CamRequest;
-import com.mattbertolini.camclient.request.RequestParameter;
 import com.mattbertolini.camclient.response.CamResponse;
+import org.apache.http.Consts;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.Configurable;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.message.BasicHeader;
-import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.nio.charset.Charset;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
+ * A CamConnection that uses the Apache HttpClient. Any HttpClient can be supplied; {@link PoolingHttpClientFactory}
+ * creates one that keeps connections to the CAM alive between requests.
+ *
  * @author Matt Bertolini
  */
 public class HttpClientCamConnection extends AbstractCamConnection<HttpPost, HttpResponse> implements CamConnection {
+    private static final ContentType FORM_CONTENT_TYPE = ContentType.create(URLEncodedUtils.CONTENT_TYPE, Consts.ISO_8859_1);
+    private static final Charset DEFAULT_CHARSET = Consts.ISO_8859_1;
+
     private HttpClient httpClient;
+    private final FormRequestEncoder requestEncoder;
+    private volatile Header userAgentHeader;
 
     public HttpClientCamConnection(URI uri, CamCredentials credentials, HttpClient httpClient) {
         super(uri, credentials);
         this.httpClient = httpClient;
+        this.requestEncoder = new FormRequestEncoder(FORM_CONTENT_TYPE.getCharset());
     }
 
     @Override
     public HttpPost buildRequest(CamRequest camRequest) {
-        HttpPost request = null;
-        try {
-            request = new HttpPost(this.getUri());
-            List<NameValuePair> formParams = new LinkedList<NameValuePair>();
-            formParams.add(new BasicNameValuePair(RequestParameter.OPERATION.getName(), camRequest.getOperation().getName()));
-            Map<Parameter, String> parameters = camRequest.getParameters();
-            for(Map.Entry<Parameter, String> parameter : parameters.entrySet()) {
-                formParams.add(new BasicNameValuePair(parameter.getKey().getName(), parameter.getValue()));
-            }
-            formParams.add(new BasicNameValuePair(RequestParameter.ADMIN_USERNAME.getName(), this.getCredentials().getUsername()));
-            formParams.add(new BasicNameValuePair(RequestParameter.ADMIN_PASSWORD.getName(), this.getCredentials().getPassword()));
-            UrlEncodedFormEntity postData = new UrlEncodedFormEntity(formParams);
-            request.setEntity(postData);
-            request.setHeader(new BasicHeader(USER_AGENT, this.getUserAgent()));
-        } catch (UnsupportedEncodingException e) {
-            //
+        HttpPost request = new HttpPost(this.getUri());
+        String sessionCookie = this.getSessionCookie(camRequest);
+        CamCredentials credentials = null;
+        if(sessionCookie == null) {
+            credentials = this.getCredentials();
+        } else {
+            request.setHeader(new BasicHeader(COOKIE, sessionCookie));
+        }
+        request.setEntity(new ByteArrayEntity(this.requestEncoder.encode(camRequest, credentials), FORM_CONTENT_TYPE));
+        request.setHeader(this.getUserAgentHeader());
+        String acceptEncoding = this.getAcceptEncoding();
+        if(acceptEncoding != null) {
+            request.setHeader(new BasicHeader(ResponseDecoder.ACCEPT_ENCODING, acceptEncoding));
         }
         return request;
     }
 
+    /**
+     * Gets the User-Agent header, built once and reused until the user agent provider hands out a different string.
+     */
+    private Header getUserAgentHeader() {
+        String userAgent = this.getUserAgent();
+        Header header = this.userAgentHeader;
+        if(header == null || !header.getValue().equals(userAgent)) {
+            header = new BasicHeader(USER_AGENT, userAgent);
+            this.userAgentHeader = header;
+        }
+        return header;
+    }
+
+    /**
+     * Parses the response and releases its connection. The entity is always consumed to the end, even if parsing
+     * fails, so that the connection goes back to the pool for reuse instead of being leaked or closed.
+     */
     @Override
     public CamResponse buildResponse(HttpResponse httpResponse) {
         HttpEntity entity = httpResponse.getEntity();
-        ContentType contentType = ContentType.get(entity);
-        Charset charset = contentType.getCharset();
-        InputStream content = null;
         try {
-            content = entity.getContent();
-        } catch (IOException e) {
-            // TODO
+            if(entity == null) {
+                throw new CamConnectionException("Response from " + this.getUri() + " has no body.");
+            }
+            ContentType contentType = ContentType.get(entity);
+            Charset charset = (contentType == null) ? null : contentType.getCharset();
+            if(charset == null) {
+                charset = DEFAULT_CHARSET;
+            }
+            InputStream content;
+            try {
+                content = entity.getContent();
+            } catch (IOException e) {
+                throw new CamConnectionException("Unable to read response from " + this.getUri(), e);
+            }
+            // A client with content compression enabled has already decoded the body and removed the header.
+            Header contentEncoding = entity.getContentEncoding();
+            content = this.decodeResponseBody(content, (contentEncoding == null) ? null : contentEncoding.getValue());
+            return this.parseResponse(content, charset.name());
+        } finally {
+            EntityUtils.consumeQuietly(entity);
+            if(httpResponse instanceof Closeable) {
+                // A no-op once the entity has been consumed; otherwise it discards the connection.
+                try {
+                    ((Closeable) httpResponse).close();
+                } catch (IOException e) {
+                    // The connection has been discarded either way.
+                }
+            }
+        }
+    }
+
+    @Override
+    public String extractSessionCookie(HttpResponse httpResponse) {
+        List<String> values = new ArrayList<String>();
+        for(Header header : httpResponse.getHeaders(SET_COOKIE)) {
+            values.add(header.getValue());
+        }
+        return toCookieHeader(values);
+    }
+
+    @Override
+    public void setTimeout(HttpPost httpPost, int timeoutMillis) {
+        RequestConfig config = httpPost.getConfig();
+        if(config == null && this.httpClient instanceof Configurable) {
+            // Start from the client's defaults so proxy and cookie settings are kept.
+            config = ((Configurable) this.httpClient).getConfig();
         }
-        return this.parseResponse(content, charset.toString());
+        RequestConfig.Builder builder = (config == null) ? RequestConfig.custom() : RequestConfig.copy(config);
+        httpPost.setConfig(builder.setConnectionRequestTimeout(timeoutMillis)
+                .setConnectTimeout(timeoutMillis)
+                .setSocketTimeout(timeoutMillis)
+                .build());
+    }
+
+    @Override
+    public void abortRequest(HttpPost httpPost) {
+        httpPost.abort();
     }
 
     @Override
@@ -108,8 +184,7 @@ public class HttpClientCamConnection extends AbstractCamConnection<HttpPost, Htt
         try {
             return this.httpClient.execute(httpPost);
         } catch (IOException e) {
-            // TODO: Finish
-            throw new RuntimeException(e);
+            throw new CamConnectionException("Unable to complete request to " + this.getUri(), e);
         }
     }
 }
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.httpclient;
+
+import com.mattbertolini.camclient.net.EndpointResolver;
+import com.mattbertolini.camclient.net.TlsContext;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates HttpClients tuned for talking to the CAM: connections are pooled and kept alive between requests so that
+ * most requests skip the TCP and TLS handshakes, stale connections are checked before reuse, and idle connections are
+ * closed in the background before the CAM or a firewall drops them.
+ * <p>
+ * The CAM is usually a single host, so the per-route limit is what bounds concurrency; it defaults to the same value
+ * as the total limit.
+ *
+ * @author Matt Bertolini
+ */
+public class PoolingHttpClientFactory {
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long DEFAULT_MAX_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final int DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+    private static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+    private static final String TIMEOUT_PARAMETER = "timeout";
+
+    private int maxConnections;
+    private int maxConnectionsPerRoute;
+    private long keepAliveMillis;
+    private long maxIdleMillis;
+    private long timeToLiveMillis;
+    private int validateAfterInactivityMillis;
+    private int timeoutMillis;
+    private TlsContext tlsContext;
+    private EndpointResolver endpointResolver;
+
+    public PoolingHttpClientFactory() {
+        this.maxConnections = DEFAULT_MAX_CONNECTIONS;
+        this.maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS;
+        this.keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+        this.maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+        this.timeToLiveMillis = -1L;
+        this.validateAfterInactivityMillis = DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS;
+        this.timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Creates a client with its own connection pool. The client must be closed when it is no longer needed to shut
+     * down the pool and its eviction thread.
+     *
+     * @return A new HttpClient.
+     */
+    public CloseableHttpClient createHttpClient() {
+        return this.createHttpClient(this.createConnectionManager());
+    }
+
+    /**
+     * Creates a client using the given connection manager, e.g. to watch the pool's statistics. The client owns the
+     * connection manager and shuts it down when closed.
+     *
+     * @param connectionManager The connection manager.
+     * @return A new HttpClient.
+     */
+    public CloseableHttpClient createHttpClient(PoolingHttpClientConnectionManager connectionManager) {
+        if(connectionManager == null) {
+            throw new IllegalArgumentException("Connection manager cannot be null.");
+        }
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(this.timeoutMillis)
+                .setConnectTimeout(this.timeoutMillis)
+                .setSocketTimeout(this.timeoutMillis)
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(new CappedKeepAliveStrategy(this.keepAliveMillis))
+                .setDefaultRequestConfig(requestConfig)
+                // HttpClientCamConnection negotiates and decodes compression itself so it can count the bytes saved.
+                .disableContentCompression()
+                .evictExpiredConnections()
+                .evictIdleConnections(this.maxIdleMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Creates a connection manager with this factory's pool settings.
+     *
+     * @return A new connection manager.
+     */
+    public PoolingHttpClientConnectionManager createConnectionManager() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                this.createSocketFactoryRegistry(), null, null, this.createDnsResolver(), this.timeToLiveMillis,
+                TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(this.maxConnections);
+        connectionManager.setDefaultMaxPerRoute(this.maxConnectionsPerRoute);
+        connectionManager.setValidateAfterInactivity(this.validateAfterInactivityMillis);
+        return connectionManager;
+    }
+
+    private DnsResolver createDnsResolver() {
+        if(this.endpointResolver == null) {
+            return null;
+        }
+        return new EndpointDnsResolver(this.endpointResolver);
+    }
+
+    private Registry<ConnectionSocketFactory> createSocketFactoryRegistry() {
+        SSLConnectionSocketFactory sslSocketFactory;
+        if(this.tlsContext == null) {
+            sslSocketFactory = SSLConnectionSocketFactory.getSocketFactory();
+        } else {
+            sslSocketFactory = new SSLConnectionSocketFactory(this.tlsContext.getSocketFactory(),
+                    SSLConnectionSocketFactory.getDefaultHostnameVerifier());
+        }
+        return RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", sslSocketFactory)
+                .build();
+    }
+
+    public int getMaxConnections() {
+        return this.maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        if(maxConnections < 1) {
+            throw new IllegalArgumentException("Max connections must be at least one.");
+        }
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return this.maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        if(maxConnectionsPerRoute < 1) {
+            throw new IllegalArgumentException("Max connections per route must be at least one.");
+        }
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public long getKeepAlive(TimeUnit unit) {
+        return unit.convert(this.keepAliveMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets how long an idle connection is kept when the CAM does not say in a Keep-Alive header. A shorter time sent
+     * by the CAM is respected; a longer one is capped to this value.
+     *
+     * @param keepAlive The keep alive time.
+     * @param unit The unit of the keep alive time.
+     */
+    public void setKeepAlive(long keepAlive, TimeUnit unit) {
+        if(keepAlive <= 0) {
+            throw new IllegalArgumentException("Keep alive must be greater than zero.");
+        }
+        this.keepAliveMillis = unit.toMillis(keepAlive);
+    }
+
+    public long getMaxIdle(TimeUnit unit) {
+        return unit.convert(this.maxIdleMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets how long a connection may sit unused in the pool before the background evictor closes it.
+     *
+     * @param maxIdle The maximum idle time.
+     * @param unit The unit of the idle time.
+     */
+    public void setMaxIdle(long maxIdle, TimeUnit unit) {
+        if(maxIdle <= 0) {
+            throw new IllegalArgumentException("Max idle time must be greater than zero.");
+        }
+        this.maxIdleMillis = unit.toMillis(maxIdle);
+    }
+
+    /**
+     * Sets the total lifetime of a pooled connection, after which it is closed even if in regular use. Useful when
+     * the CAM sits behind a load balancer whose membership changes. Zero or less means no limit, the default.
+     *
+     * @param timeToLive The time to live.
+     * @param unit The unit of the time to live.
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        this.timeToLiveMillis = (timeToLive <= 0) ? -1L : unit.toMillis(timeToLive);
+    }
+
+    /**
+     * Sets how long a connection must have been idle before it is checked for staleness when it is leased. Checking
+     * costs a short blocking read, so connections used within this period are handed out without one.
+     *
+     * @param validateAfterInactivity The inactivity period.
+     * @param unit The unit of the inactivity period.
+     */
+    public void setValidateAfterInactivity(int validateAfterInactivity, TimeUnit unit) {
+        this.validateAfterInactivityMillis = (int) unit.toMillis(validateAfterInactivity);
+    }
+
+    /**
+     * Sets the default connect, read and pool wait timeouts. A per-call timeout set on the client takes precedence.
+     *
+     * @param timeout The timeout.
+     * @param unit The unit of the timeout.
+     */
+    public void setTimeout(int timeout, TimeUnit unit) {
+        if(timeout < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative.");
+        }
+        this.timeoutMillis = (int) unit.toMillis(timeout);
+    }
+
+    public TlsContext getTlsContext() {
+        return this.tlsContext;
+    }
+
+    /**
+     * Sets the TLS configuration used for HTTPS connections. Clients created from factories sharing one context share
+     * its session cache, so new connections to a CAM resume the TLS session instead of doing a full handshake.
+     *
+     * @param tlsContext The TLS context, or null to use the JVM defaults.
+     */
+    public void setTlsContext(TlsContext tlsContext) {
+        this.tlsContext = tlsContext;
+    }
+
+    public EndpointResolver getEndpointResolver() {
+        return this.endpointResolver;
+    }
+
+    /**
+     * Sets the resolver used to look up the CAM's address when a new connection is opened, in place of the JVM
+     * resolver. Cached addresses let new connections be opened while DNS is unavailable.
+     *
+     * @param endpointResolver The resolver, or null to use the JVM resolver.
+     */
+    public void setEndpointResolver(EndpointResolver endpointResolver) {
+        this.endpointResolver = endpointResolver;
+    }
+
+    private static final class EndpointDnsResolver implements DnsResolver {
+        private final EndpointResolver endpointResolver;
+
+        private EndpointDnsResolver(EndpointResolver endpointResolver) {
+            this.endpointResolver = endpointResolver;
+        }
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return this.endpointResolver.resolve(host);
+        }
+    }
+
+    private static final class CappedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        private final long maxKeepAliveMillis;
+
+        private CappedKeepAliveStrategy(long maxKeepAliveMillis) {
+            this.maxKeepAliveMillis = maxKeepAliveMillis;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while(it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if(TIMEOUT_PARAMETER.equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        long serverMillis = Long.parseLong(element.getValue()) * 1000L;
+                        return Math.min(serverMillis, this.maxKeepAliveMillis);
+                    } catch (NumberFormatException e) {
+                        // Fall back to the default.
+                    }
+                }
+            }
+            return this.maxKeepAliveMillis;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.httpclient;
+
+import com.mattbertolini.camclient.BasicCamCredentials;
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.net.EndpointResolver;
+import com.mattbertolini.camclient.net.ResponseDecoder;
+import com.mattbertolini.camclient.net.UserAgentProvider;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.Header;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class HttpClientCamConnectionTest {
+    private static final String PATH = "/admin/cisco_api.jsp";
+
+    private HttpServer server;
+    private volatile String responseBody;
+    private volatile String contentType;
+    private volatile String acceptEncoding;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private HttpClientCamConnection connection;
+
+    @Before
+    public void setUp() throws IOException {
+        this.responseBody = "<!--error=0-->\n<!--version=4.9.0-->\n";
+        this.contentType = "text/html; charset=ISO-8859-1";
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while(in.read() != -1) {
+                    //
+                }
+                byte[] response = responseBody.getBytes(Charset.forName("ISO-8859-1"));
+                if(contentType != null) {
+                    exchange.getResponseHeaders().add("Content-Type", contentType);
+                }
+                acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if(acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                    gzip.write(response);
+                    gzip.close();
+                    response = compressed.toByteArray();
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        this.server.start();
+        PoolingHttpClientFactory factory = new PoolingHttpClientFactory();
+        this.connectionManager = factory.createConnectionManager();
+        this.httpClient = factory.createHttpClient(this.connectionManager);
+        URI uri = URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + PATH);
+        this.connection = new HttpClientCamConnection(uri, new BasicCamCredentials("admin", "secret"), this.httpClient);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.httpClient.close();
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testConnectionIsReleasedAndReused() {
+        for(int i = 0; i < 5; i++) {
+            CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+        }
+        PoolStats stats = this.connectionManager.getTotalStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(1, stats.getAvailable());
+    }
+
+    @Test
+    public void testConnectionIsReleasedWhenParsingFails() {
+        this.responseBody = "<!--error=0,version-->";
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected a malformed response.");
+        } catch (CamClientException e) {
+            // expected
+        }
+        assertEquals(0, this.connectionManager.getTotalStats().getLeased());
+    }
+
+    @Test
+    public void testMissingCharsetDefaultsToLatin1() {
+        this.contentType = null;
+        this.responseBody = "<!--error=0-->\n<!--version=4.9.0 é-->";
+        CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals("4.9.0 é", response.getResponseData().get(0).get("version"));
+    }
+
+    @Test
+    public void testGzipResponseIsDecodedAndCounted() {
+        StringBuilder body = new StringBuilder("<!--error=0-->\n");
+        for(int i = 0; i < 200; i++) {
+            body.append("<!--mac=00:11:22:33:44:55,ip=10.0.0.").append(i % 250).append(",type=userinfo-->\n");
+        }
+        this.responseBody = body.toString();
+        CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_MAC_ADDRESS_LIST));
+        assertEquals(200, response.getResponseData().size());
+        assertEquals("gzip, deflate", this.acceptEncoding);
+        ResponseDecoder decoder = this.connection.getResponseDecoder();
+        assertEquals(1, decoder.getCompressedResponseCount());
+        assertEquals(this.responseBody.length(), decoder.getDecodedBytes());
+        assertTrue(decoder.getWireBytes() < decoder.getDecodedBytes() / 5);
+        assertEquals(0, this.connectionManager.getTotalStats().getLeased());
+    }
+
+    @Test
+    public void testCompressionCanBeDisabled() {
+        this.connection.getResponseDecoder().setEnabled(false);
+        CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+        assertNull(this.acceptEncoding);
+        assertEquals(0, this.connection.getResponseDecoder().getCompressedResponseCount());
+    }
+
+    @Test
+    public void testUserAgentHeaderFollowsProviderRefresh() {
+        this.connection.setUserAgentProvider(new UserAgentProvider() {
+            private int version = 1;
+
+            @Override
+            public String getUserAgentString() {
+                // A new but equal string each time, as a provider that does not cache would return.
+                return new StringBuilder("agent/").append(this.version).toString();
+            }
+
+            @Override
+            public String refresh() {
+                this.version++;
+                return this.getUserAgentString();
+            }
+        });
+        Header first = this.userAgentHeader();
+        Header second = this.userAgentHeader();
+        assertSame(first, second);
+        this.connection.getUserAgentProvider().refresh();
+        Header refreshed = this.userAgentHeader();
+        assertNotSame(first, refreshed);
+        assertEquals("agent/2", refreshed.getValue());
+    }
+
+    private Header userAgentHeader() {
+        return this.connection.buildRequest(new CamRequestImpl(Operation.GET_VERSION)).getFirstHeader("User-Agent");
+    }
+
+    @Test
+    public void testEndpointResolverResolvesNewConnections() throws IOException {
+        EndpointResolver resolver = new EndpointResolver() {
+            @Override
+            protected InetAddress[] lookup(String host) throws UnknownHostException {
+                if(!"cam.invalid".equals(host)) {
+                    throw new UnknownHostException(host);
+                }
+                return new InetAddress[] {InetAddress.getLoopbackAddress()};
+            }
+        };
+        PoolingHttpClientFactory factory = new PoolingHttpClientFactory();
+        factory.setEndpointResolver(resolver);
+        CloseableHttpClient client = factory.createHttpClient();
+        try {
+            URI uri = URI.create("http://cam.invalid:" + this.server.getAddress().getPort() + PATH);
+            HttpClientCamConnection resolved = new HttpClientCamConnection(uri, new BasicCamCredentials("admin",
+                    "secret"), client);
+            CamResponse response = resolved.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+            assertEquals(1, resolver.getLookupCount());
+        } finally {
+            client.close();
+            resolver.close();
+        }
+    }
+}
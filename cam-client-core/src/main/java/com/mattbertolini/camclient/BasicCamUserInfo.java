@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient;
+
+import java.net.InetAddress;
+
+/**
+ * @author Matt Bertolini
+ */
+public class BasicCamUserInfo implements CamUserInfo {
+    private InetAddress ipAddress;
+    private MacAddress macAddress;
+    private String name;
+    private String provider;
+    private String role;
+    private String originalRole;
+    private String vlan;
+    private String newVlan;
+    private String operatingSystem;
+
+    public BasicCamUserInfo() {
+        //
+    }
+
+    @Override
+    public InetAddress getIpAddress() {
+        return this.ipAddress;
+    }
+
+    public void setIpAddress(InetAddress ipAddress) {
+        this.ipAddress = ipAddress;
+    }
+
+    @Override
+    public MacAddress getMacAddress() {
+        return this.macAddress;
+    }
+
+    public void setMacAddress(MacAddress macAddress) {
+        this.macAddress = macAddress;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getProvider() {
+        return this.provider;
+    }
+
+    public void setProvider(String provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public String getRole() {
+        return this.role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
+    @Override
+    public String getOriginalRole() {
+        return this.originalRole;
+    }
+
+    public void setOriginalRole(String originalRole) {
+        this.originalRole = originalRole;
+    }
+
+    @Override
+    public String getVlan() {
+        return this.vlan;
+    }
+
+    public void setVlan(String vlan) {
+        this.vlan = vlan;
+    }
+
+    @Override
+    public String getNewVlan() {
+        return this.newVlan;
+    }
+
+    public void setNewVlan(String newVlan) {
+        this.newVlan = newVlan;
+    }
+
+    @Override
+    public String getOperatingSystem() {
+        return this.operatingSystem;
+    }
+
+    public void setOperatingSystem(String operatingSystem) {
+        this.operatingSystem = operatingSystem;
+    }
+
+    @Override
+    public String toString() {
+        return "BasicCamUserInfo: " +
+                "ipAddress=" + this.ipAddress + ", " +
+                "macAddress=" + this.macAddress + ", " +
+                "name=" + this.name + ", " +
+                "provider=" + this.provider + ", " +
+                "role=" + this.role + ", " +
+                "originalRole=" + this.originalRole + ", " +
+                "vlan=" + this.vlan + ", " +
+                "newVlan=" + this.newVlan + ", " +
+                "operatingSystem=" + this.operatingSystem;
+    }
+}
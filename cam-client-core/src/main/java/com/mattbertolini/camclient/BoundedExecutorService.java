@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ExecutorService that runs tasks on another executor but lets at most a fixed number of them run at the same time.
+ * Tasks over the limit wait on the delegate's thread rather than the caller's, so submission never blocks. This is
+ * meant for executors that start a cheap thread per task (such as virtual threads), where waiting costs next to
+ * nothing.
+ *
+ * @author Matt Bertolini
+ */
+public class BoundedExecutorService extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+
+    public BoundedExecutorService(ExecutorService delegate, int maxConcurrency) {
+        if(delegate == null) {
+            throw new IllegalArgumentException("Delegate cannot be null.");
+        }
+        if(maxConcurrency < 1) {
+            throw new IllegalArgumentException("Max concurrency must be at least one.");
+        }
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if(command == null) {
+            throw new IllegalArgumentException("Command cannot be null.");
+        }
+        this.delegate.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    // Shut down while waiting for a permit.
+                    if(command instanceof Future) {
+                        ((Future<?>) command).cancel(false);
+                    }
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    public int getMaxConcurrency() {
+        return this.maxConcurrency;
+    }
+
+    /**
+     * Gets the number of tasks currently running.
+     *
+     * @return The number of permits in use.
+     */
+    public int getRunning() {
+        return this.maxConcurrency - this.permits.availablePermits();
+    }
+
+    /**
+     * Gets an estimate of the number of tasks waiting for a permit.
+     *
+     * @return The number of waiting tasks.
+     */
+    public int getWaiting() {
+        return this.permits.getQueueLength();
+    }
+
+    @Override
+    public void shutdown() {
+        this.delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return this.delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.delegate.awaitTermination(timeout, unit);
+    }
+}
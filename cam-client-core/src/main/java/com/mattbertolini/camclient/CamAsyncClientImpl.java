@@ -30,19 +30,37 @@
 
 package com.mattbertolini.camclient;
 
+import com.mattbertolini.camclient.net.CallContext;
 import com.mattbertolini.camclient.net.CamConnection;
+import com.mattbertolini.camclient.request.Operation;
 
 import java.net.InetAddress;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Runs each client call on an executor. When the executor is a {@link PriorityExecutorService} the calls are scheduled
+ * by {@link Priority}, inferred from the operation (see {@link Priority#forOperation(Operation)}) unless overridden with
+ * {@link #withPriority(Priority)}. Cancelling a returned future aborts the HTTP request if it is in flight.
+ * <p>
+ * By default every call is handed to the executor, however many are already waiting. Set a {@link RequestWindow} to
+ * cap the number of queued plus running calls and choose what happens to calls over the cap.
+ *
  * @author Matt Bertolini
  */
 public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient {
     private ExecutorService executorService;
+    private RequestWindow requestWindow;
+    private Priority priorityOverride;
 
     public CamAsyncClientImpl() {
         //
@@ -53,9 +71,14 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
         this.executorService = executorService;
     }
 
+    public CamAsyncClientImpl(CamConnection connection, ExecutorService executorService, RequestWindow requestWindow) {
+        this(connection, executorService);
+        this.requestWindow = requestWindow;
+    }
+
     @Override
     public Future<Void> addCleanMacAddressAsync(final MacAddress macAddress) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.ADD_CLEAN_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 addCleanMacAddress(macAddress);
@@ -66,7 +89,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> addCleanMacAddressAsync(final MacAddress macAddress, final InetAddress ssip) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.ADD_CLEAN_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 addCleanMacAddress(macAddress, ssip);
@@ -77,7 +100,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> addLocalUserAsync(final String username, final String password, final String role) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.ADD_LOCAL_USER, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 addLocalUser(username, password, role);
@@ -88,7 +111,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> addMacAddressAsync(final MacAddress macAddress) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.ADD_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 addMacAddress(macAddress);
@@ -100,7 +123,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
     @Override
     public Future<Void> addMacAddressAsync(final MacAddress macAddress, final InetAddress ipAddress, final Type type,
                                            final String role, final String description, final InetAddress ssip) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.ADD_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 addMacAddress(macAddress, ipAddress, type, role, description, ssip);
@@ -111,7 +134,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> addSubnetAsync(final InetAddress subnet, final String mask) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.ADD_SUBNET, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 addSubnet(subnet, mask);
@@ -123,7 +146,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
     @Override
     public Future<Void> addSubnetAsync(final InetAddress subnet, final String mask, final Type type, final String role,
                                        final String description, final InetAddress ssip) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.ADD_SUBNET, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 addSubnet(subnet, mask, type, role, description, ssip);
@@ -134,7 +157,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> bouncePortAsync(final String switchId, final int port) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.BOUNCE_PORT, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 bouncePort(switchId, port);
@@ -145,7 +168,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> bouncePortByMacAddressAsync(final MacAddress macAddress) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.BOUNCE_PORT_BY_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 bouncePortByMacAddress(macAddress);
@@ -156,7 +179,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> changeLoggedInUserRoleAsync(final InetAddress ipAddress, final String role) {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.CHANGE_LOGGED_IN_USER_ROLE, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 changeLoggedInUserRole(ipAddress, role);
@@ -167,7 +190,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> changeUserRoleAsync(final InetAddress ipAddress, final String role) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.CHANGE_USER_ROLE, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 changeUserRole(ipAddress, role);
@@ -178,7 +201,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<CamDevice> checkMacAddressAsync(final MacAddress macAddress) throws CamClientException {
-        return this.executorService.submit(new Callable<CamDevice>() {
+        return this.submit(Operation.CHECK_MAC_ADDRESS, new Callable<CamDevice>() {
             @Override
             public CamDevice call() throws Exception {
                 return checkMacAddress(macAddress);
@@ -188,7 +211,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<CamDevice> checkMacAddressAsync(final MacAddress macAddress, final InetAddress ssip) throws CamClientException {
-        return this.executorService.submit(new Callable<CamDevice>() {
+        return this.submit(Operation.CHECK_MAC_ADDRESS, new Callable<CamDevice>() {
             @Override
             public CamDevice call() throws Exception {
                 return checkMacAddress(macAddress, ssip);
@@ -198,7 +221,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> clearCertifiedListAsync() throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.CLEAR_CERTIFIED_LIST, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 clearCertifiedList();
@@ -209,7 +232,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> deleteAllLocalUsersAsync() throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Priority.BULK, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 deleteAllLocalUsers();
@@ -220,7 +243,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> deleteLocalUserAsync(final String username) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.DELETE_LOCAL_USER, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 deleteLocalUser(username);
@@ -231,7 +254,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<String> getCamVersionAsync() throws CamClientException {
-        return this.executorService.submit(new Callable<String>() {
+        return this.submit(Operation.GET_VERSION, new Callable<String>() {
             @Override
             public String call() throws Exception {
                 return getCamVersion();
@@ -241,7 +264,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<List<CamLocalUser>> getLocalUserListAsync() throws CamClientException {
-        return this.executorService.submit(new Callable<List<CamLocalUser>>() {
+        return this.submit(Operation.GET_LOCAL_USER_LIST, new Callable<List<CamLocalUser>>() {
             @Override
             public List<CamLocalUser> call() throws Exception {
                 return getLocalUserList();
@@ -251,7 +274,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<List<CamDevice>> getMacAddressListAsync() throws CamClientException {
-        return this.executorService.submit(new Callable<List<CamDevice>>() {
+        return this.submit(Operation.GET_MAC_ADDRESS_LIST, new Callable<List<CamDevice>>() {
             @Override
             public List<CamDevice> call() throws Exception {
                 return getMacAddressList();
@@ -261,7 +284,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<List<CamUserInfo>> getUserInfoAsync(final QueryType queryType, final String queryValue) {
-        return this.executorService.submit(new Callable<List<CamUserInfo>>() {
+        return this.submit(Operation.GET_USER_INFO, new Callable<List<CamUserInfo>>() {
             @Override
             public List<CamUserInfo> call() throws Exception {
                 return getUserInfo(queryType, queryValue);
@@ -271,7 +294,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> kickOutOfBandUserAsync(final MacAddress macAddress) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.KICK_OOB_USER, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 kickOutOfBandUser(macAddress);
@@ -282,7 +305,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> kickUserAsync(final InetAddress ipAddress) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.KICK_USER, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 kickUser(ipAddress);
@@ -293,7 +316,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> kickUserByMacAddressAsync(final MacAddress macAddress) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.KICK_USER_BY_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 kickUserByMacAddress(macAddress);
@@ -304,7 +327,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> removeCleanMacAddressAsync(final MacAddress macAddress) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.REMOVE_CLEAN_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 removeCleanMacAddress(macAddress);
@@ -315,7 +338,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> removeCleanMacAddressAsync(final MacAddress macAddress, final InetAddress ssip) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.REMOVE_CLEAN_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 removeCleanMacAddress(macAddress, ssip);
@@ -326,7 +349,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> removeMacAddressAsync(final MacAddress macAddress) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.REMOVE_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 removeMacAddress(macAddress);
@@ -337,7 +360,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> removeMacAddressAsync(final MacAddress macAddress, final InetAddress ssip) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.REMOVE_MAC_ADDRESS, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 removeMacAddress(macAddress, ssip);
@@ -348,7 +371,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> removeMacAddressListAsync() throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.REMOVE_MAC_ADDRESS_LIST, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 removeMacAddressList();
@@ -359,7 +382,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> removeSubnetAsync(final InetAddress subnet, final String mask) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.REMOVE_SUBNET, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 removeSubnet(subnet, mask);
@@ -370,7 +393,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> removeSubnetAsync(final InetAddress subnet, final String mask, final InetAddress ssip) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.REMOVE_SUBNET, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 removeSubnet(subnet, mask, ssip);
@@ -381,7 +404,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> renewUserSessionTimeAsync(final InetAddress ipAddress) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.RENEW_USER_SESSION_TIME, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 renewUserSessionTime(ipAddress);
@@ -392,7 +415,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
 
     @Override
     public Future<Void> updateSubnetAsync(final InetAddress subnet, final String mask) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.UPDATE_SUBNET, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 updateSubnet(subnet, mask);
@@ -404,7 +427,7 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
     @Override
     public Future<Void> updateSubnetAsync(final InetAddress subnet, final String mask, final Type type,
                                           final String role, final String description, final InetAddress ssip) throws CamClientException {
-        return this.executorService.submit(new Callable<Void>() {
+        return this.submit(Operation.UPDATE_SUBNET, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 updateSubnet(subnet, mask, type, role, description, ssip);
@@ -413,7 +436,195 @@ public class CamAsyncClientImpl extends CamClientImpl implements CamAsyncClient
         });
     }
 
+    /**
+     * Gets a view of this client that schedules every request with the given priority instead of the priority inferred
+     * from its operation. The view shares this client's connection, executor, request window and timeout.
+     *
+     * @param priority The priority to use.
+     * @return A client that submits all requests with the given priority.
+     */
+    public CamAsyncClientImpl withPriority(Priority priority) {
+        if(priority == null) {
+            throw new IllegalArgumentException("Priority cannot be null.");
+        }
+        CamAsyncClientImpl client = this.copy();
+        client.priorityOverride = priority;
+        return client;
+    }
+
+    @Override
+    public CamAsyncClientImpl withTimeout(long timeout, TimeUnit unit) {
+        CamAsyncClientImpl client = this.copy();
+        client.setTimeout(timeout, unit);
+        return client;
+    }
+
+    private CamAsyncClientImpl copy() {
+        CamAsyncClientImpl client = new CamAsyncClientImpl(this.getCamConnection(), this.executorService,
+                this.requestWindow);
+        client.priorityOverride = this.priorityOverride;
+        client.setTimeout(this.getTimeout(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        return client;
+    }
+
+    private <T> Future<T> submit(Operation operation, Callable<T> task) {
+        return this.submit(Priority.forOperation(operation), task);
+    }
+
+    /**
+     * Submits a call with its own {@link CallContext}, so that cancelling the returned future aborts the HTTP request
+     * if it is already in flight.
+     */
+    private <T> Future<T> submit(Priority priority, final Callable<T> task) {
+        Priority effective = (this.priorityOverride != null) ? this.priorityOverride : priority;
+        final CallContext context = new CallContext(null);
+        final WindowSlot slot;
+        if(this.requestWindow == null) {
+            slot = null;
+        } else if(this.requestWindow.acquire()) {
+            slot = new WindowSlot(this.requestWindow);
+        } else {
+            // Caller runs: the call is made on this thread and the returned future is already complete.
+            FutureTask<T> futureTask = new FutureTask<T>(new ContextCallable<T>(task, context, null));
+            futureTask.run();
+            return new CancellableFuture<T>(futureTask, context, null);
+        }
+        Callable<T> contextTask = new ContextCallable<T>(task, context, slot);
+        Future<T> future;
+        try {
+            if(this.executorService instanceof PriorityExecutorService) {
+                future = ((PriorityExecutorService) this.executorService).submit(effective, contextTask);
+            } else {
+                future = this.executorService.submit(contextTask);
+            }
+        } catch (RejectedExecutionException e) {
+            if(slot != null) {
+                slot.abandon();
+            }
+            throw e;
+        }
+        return new CancellableFuture<T>(future, context, slot);
+    }
+
     public void setExecutorService(ExecutorService executorService) {
         this.executorService = executorService;
     }
+
+    public RequestWindow getRequestWindow() {
+        return this.requestWindow;
+    }
+
+    /**
+     * Sets the cap on queued plus running calls. Null, the default, leaves calls uncapped.
+     *
+     * @param requestWindow The request window or null.
+     */
+    public void setRequestWindow(RequestWindow requestWindow) {
+        this.requestWindow = requestWindow;
+    }
+
+    private static final class ContextCallable<T> implements Callable<T> {
+        private final Callable<T> task;
+        private final CallContext context;
+        private final WindowSlot slot;
+
+        private ContextCallable(Callable<T> task, CallContext context, WindowSlot slot) {
+            this.task = task;
+            this.context = context;
+            this.slot = slot;
+        }
+
+        @Override
+        public T call() throws Exception {
+            if(this.slot != null && !this.slot.start()) {
+                throw new CancellationException("Request was cancelled before it started.");
+            }
+            CallContext previous = CallContext.attach(this.context);
+            try {
+                return this.task.call();
+            } finally {
+                CallContext.restore(previous);
+                if(this.slot != null) {
+                    this.slot.finish();
+                }
+            }
+        }
+    }
+
+    /**
+     * A call's place in the request window. The place is given back exactly once: when the call finishes if it
+     * started, or when it is cancelled or refused while still queued.
+     */
+    private static final class WindowSlot {
+        private final RequestWindow window;
+        private final AtomicBoolean settled;
+
+        private WindowSlot(RequestWindow window) {
+            this.window = window;
+            this.settled = new AtomicBoolean();
+        }
+
+        private boolean start() {
+            if(!this.settled.compareAndSet(false, true)) {
+                return false;
+            }
+            this.window.started();
+            return true;
+        }
+
+        private void finish() {
+            this.window.finished();
+        }
+
+        private void abandon() {
+            if(this.settled.compareAndSet(false, true)) {
+                this.window.abandoned();
+            }
+        }
+    }
+
+    private static final class CancellableFuture<T> implements Future<T> {
+        private final Future<T> delegate;
+        private final CallContext context;
+        private final WindowSlot slot;
+
+        private CancellableFuture(Future<T> delegate, CallContext context, WindowSlot slot) {
+            this.delegate = delegate;
+            this.context = context;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = this.delegate.cancel(mayInterruptIfRunning);
+            if(cancelled) {
+                this.context.cancel();
+                if(this.slot != null) {
+                    // Frees the place straight away if the call never started; otherwise it is freed when it stops.
+                    this.slot.abandon();
+                }
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.delegate.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.delegate.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return this.delegate.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return this.delegate.get(timeout, unit);
+        }
+    }
 }
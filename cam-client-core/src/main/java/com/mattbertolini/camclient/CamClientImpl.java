@@ -30,7 +30,10 @@
 
 package com.mattbertolini.camclient;
 
+import com.mattbertolini.camclient.net.CallContext;
 import com.mattbertolini.camclient.net.CamConnection;
+import com.mattbertolini.camclient.net.Deadline;
+import com.mattbertolini.camclient.net.DeadlineExceededException;
 import com.mattbertolini.camclient.request.CamRequest;
 import com.mattbertolini.camclient.request.CamRequestImpl;
 import com.mattbertolini.camclient.request.Operation;
@@ -40,9 +43,11 @@ import com.mattbertolini.camclient.response.CamResponse;
 import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class CamClientImpl implements CamClient {
     private CamConnection connection;
+    private volatile long timeoutNanos;
 
     public CamClientImpl() {
         //
@@ -67,7 +72,7 @@ public class CamClientImpl implements CamClient {
         if(ssip != null) {
             request.addParameter(RequestParameter.SERVER_IP_ADDRESS, ssip.getHostAddress());
         }
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -88,7 +93,7 @@ public class CamClientImpl implements CamClient {
         request.addParameter(RequestParameter.USERNAME, username);
         request.addParameter(RequestParameter.USER_PASSWORD, password);
         request.addParameter(RequestParameter.USER_ROLE, role);
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -124,7 +129,7 @@ public class CamClientImpl implements CamClient {
         if(ssip != null) {
             request.addParameter(RequestParameter.SERVER_IP_ADDRESS, ssip.getHostAddress());
         }
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -161,7 +166,7 @@ public class CamClientImpl implements CamClient {
         if(ssip != null) {
             request.addParameter(RequestParameter.SERVER_IP_ADDRESS, ssip.getHostAddress());
         }
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -178,7 +183,7 @@ public class CamClientImpl implements CamClient {
         CamRequest request = new CamRequestImpl(Operation.BOUNCE_PORT);
         request.addParameter(RequestParameter.SWITCH_ID, switchId);
         request.addParameter(RequestParameter.SWITCH_PORT, Integer.toString(port));
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -191,7 +196,7 @@ public class CamClientImpl implements CamClient {
         }
         CamRequest request = new CamRequestImpl(Operation.BOUNCE_PORT_BY_MAC_ADDRESS);
         request.addParameter(RequestParameter.MAC_ADDRESS, macAddress.toString(MacAddress.Delimiter.NONE));
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -208,7 +213,7 @@ public class CamClientImpl implements CamClient {
         CamRequest request = new CamRequestImpl(Operation.CHANGE_LOGGED_IN_USER_ROLE);
         request.addParameter(RequestParameter.IP_ADDRESS, ipAddress.getHostAddress());
         request.addParameter(RequestParameter.ROLE_NAME, role);
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -225,7 +230,7 @@ public class CamClientImpl implements CamClient {
         CamRequest request = new CamRequestImpl(Operation.CHANGE_USER_ROLE);
         request.addParameter(RequestParameter.IP_ADDRESS, ipAddress.getHostAddress());
         request.addParameter(RequestParameter.ROLE_NAME, role);
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -246,7 +251,7 @@ public class CamClientImpl implements CamClient {
         if(ssip != null) {
             request.addParameter(RequestParameter.SERVER_IP_ADDRESS, ssip.getHostAddress());
         }
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -257,7 +262,7 @@ public class CamClientImpl implements CamClient {
     @Override
     public void clearCertifiedList() throws CamClientException {
         CamRequest request = new CamRequestImpl(Operation.CLEAR_CERTIFIED_LIST);
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -268,7 +273,7 @@ public class CamClientImpl implements CamClient {
         CamRequest request = new CamRequestImpl(Operation.DELETE_LOCAL_USER);
         request.addParameter(RequestParameter.QUERY_TYPE, QueryType.ALL.getValue());
         request.addParameter(RequestParameter.QUERY_VALUE, "");
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -282,7 +287,7 @@ public class CamClientImpl implements CamClient {
         CamRequest request = new CamRequestImpl(Operation.DELETE_LOCAL_USER);
         request.addParameter(RequestParameter.QUERY_TYPE, QueryType.USERNAME.getValue());
         request.addParameter(RequestParameter.QUERY_VALUE, username);
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -291,7 +296,7 @@ public class CamClientImpl implements CamClient {
     @Override
     public String getCamVersion() throws CamClientException {
         CamRequest request = new CamRequestImpl(Operation.GET_VERSION);
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -307,7 +312,7 @@ public class CamClientImpl implements CamClient {
     @Override
     public List<CamDevice> getMacAddressList() throws CamClientException {
         CamRequest request = new CamRequestImpl(Operation.GET_MAC_ADDRESS_LIST);
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -332,11 +337,12 @@ public class CamClientImpl implements CamClient {
             safeValue = queryValue;
         }
         request.addParameter(RequestParameter.QUERY_VALUE, safeValue);
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
-        return null;
+        CamUserInfoAdapter adapter = new CamUserInfoAdapter();
+        return adapter.buildCamUserInfoListFromResponse(response);
     }
 
     @Override
@@ -346,7 +352,7 @@ public class CamClientImpl implements CamClient {
         }
         CamRequest request = new CamRequestImpl(Operation.KICK_OOB_USER);
         request.addParameter(RequestParameter.MAC_ADDRESS, macAddress.toString(MacAddress.Delimiter.NONE));
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -359,7 +365,7 @@ public class CamClientImpl implements CamClient {
         }
         CamRequest request = new CamRequestImpl(Operation.KICK_OOB_USER);
         request.addParameter(RequestParameter.IP_ADDRESS, ipAddress.getHostAddress());
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -372,7 +378,7 @@ public class CamClientImpl implements CamClient {
         }
         CamRequest request = new CamRequestImpl(Operation.KICK_USER_BY_MAC_ADDRESS);
         request.addParameter(RequestParameter.MAC_ADDRESS, macAddress.toString(MacAddress.Delimiter.NONE));
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -393,7 +399,7 @@ public class CamClientImpl implements CamClient {
         if(ssip != null) {
             request.addParameter(RequestParameter.SERVER_IP_ADDRESS, ssip.getHostAddress());
         }
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -414,7 +420,7 @@ public class CamClientImpl implements CamClient {
         if(ssip != null) {
             request.addParameter(RequestParameter.SERVER_IP_ADDRESS, ssip.getHostAddress());
         }
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -423,7 +429,7 @@ public class CamClientImpl implements CamClient {
     @Override
     public void removeMacAddressList() throws CamClientException {
         CamRequest request = new CamRequestImpl(Operation.REMOVE_MAC_ADDRESS_LIST);
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -448,7 +454,7 @@ public class CamClientImpl implements CamClient {
         if(ssip != null) {
             request.addParameter(RequestParameter.SERVER_IP_ADDRESS, ssip.getHostAddress());
         }
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -461,7 +467,7 @@ public class CamClientImpl implements CamClient {
         }
         CamRequest request = new CamRequestImpl(Operation.RENEW_USER_SESSION_TIME);
         request.addParameter(RequestParameter.IP_ADDRESS, ipAddress.getHostAddress());
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
@@ -498,12 +504,76 @@ public class CamClientImpl implements CamClient {
         if(ssip != null) {
             request.addParameter(RequestParameter.SERVER_IP_ADDRESS, ssip.getHostAddress());
         }
-        CamResponse response = this.connection.executeRequest(request);
+        CamResponse response = this.executeRequest(request);
         if(response.isError()) {
             throw this.createCamClientExceptionFromResponse(response);
         }
     }
 
+    /**
+     * Gets a view of this client that gives every call the given amount of time to complete. The view shares this
+     * client's connection.
+     *
+     * @param timeout The time each call may take.
+     * @param unit The unit of the timeout.
+     * @return A client whose calls time out.
+     */
+    public CamClientImpl withTimeout(long timeout, TimeUnit unit) {
+        CamClientImpl client = new CamClientImpl(this.connection);
+        client.setTimeout(timeout, unit);
+        return client;
+    }
+
+    /**
+     * Sends a request, bounded by this client's timeout. If the calling thread already has a {@link CallContext} the
+     * earlier of the two deadlines applies.
+     */
+    private CamResponse executeRequest(CamRequest request) {
+        long timeout = this.timeoutNanos;
+        if(timeout <= 0L) {
+            return this.connection.executeRequest(request);
+        }
+        Deadline deadline = Deadline.after(timeout, TimeUnit.NANOSECONDS);
+        CallContext context = CallContext.current();
+        if(context == null) {
+            CallContext previous = CallContext.attach(new CallContext(deadline));
+            try {
+                return this.connection.executeRequest(request);
+            } finally {
+                CallContext.restore(previous);
+            }
+        }
+        Deadline previousDeadline = context.getDeadline();
+        context.setDeadline(Deadline.earliest(previousDeadline, deadline));
+        try {
+            return this.connection.executeRequest(request);
+        } finally {
+            context.setDeadline(previousDeadline);
+        }
+    }
+
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(this.timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets how long each call may take before it fails with a {@link DeadlineExceededException}. The timeout is passed
+     * to the transport as its connect and read timeouts.
+     *
+     * @param timeout The timeout or zero for none.
+     * @param unit The unit of the timeout.
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if(timeout < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative.");
+        }
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    public CamConnection getCamConnection() {
+        return this.connection;
+    }
+
     public void setCamConnection(CamConnection connection) {
         this.connection = connection;
     }
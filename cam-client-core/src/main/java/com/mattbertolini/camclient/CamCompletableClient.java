@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An asynchronous client whose calls return {@link CompletionStage}s, so that CAM calls can be chained and combined
+ * without parking a thread on each result.
+ *
+ * @author Matt Bertolini
+ */
+public interface CamCompletableClient {
+    CompletionStage<Void> addCleanMacAddressAsync(MacAddress macAddress);
+    CompletionStage<Void> addCleanMacAddressAsync(MacAddress macAddress, InetAddress ssip);
+    CompletionStage<Void> addLocalUserAsync(String username, String password, String role);
+    CompletionStage<Void> addMacAddressAsync(MacAddress macAddress);
+    CompletionStage<Void> addMacAddressAsync(MacAddress macAddress, InetAddress ipAddress, Type type, String role, String description, InetAddress ssip);
+    CompletionStage<Void> addSubnetAsync(InetAddress subnet, String mask);
+    CompletionStage<Void> addSubnetAsync(InetAddress subnet, String mask, Type type, String role, String description, InetAddress ssip);
+    CompletionStage<Void> bouncePortAsync(String switchId, int port);
+    CompletionStage<Void> bouncePortByMacAddressAsync(MacAddress macAddress);
+    CompletionStage<Void> changeLoggedInUserRoleAsync(InetAddress ipAddress, String role);
+    CompletionStage<Void> changeUserRoleAsync(InetAddress ipAddress, String role) throws CamClientException;
+    CompletionStage<CamDevice> checkMacAddressAsync(MacAddress macAddress) throws CamClientException;
+    CompletionStage<CamDevice> checkMacAddressAsync(MacAddress macAddress, InetAddress ssip) throws CamClientException;
+    CompletionStage<Void> clearCertifiedListAsync() throws CamClientException;
+    CompletionStage<Void> deleteAllLocalUsersAsync() throws CamClientException;
+    CompletionStage<Void> deleteLocalUserAsync(String username) throws CamClientException;
+    CompletionStage<String> getCamVersionAsync() throws CamClientException;
+    CompletionStage<List<CamLocalUser>> getLocalUserListAsync() throws CamClientException;
+    CompletionStage<List<CamDevice>> getMacAddressListAsync() throws CamClientException;
+    CompletionStage<List<CamUserInfo>> getUserInfoAsync(QueryType queryType, String queryValue);
+    CompletionStage<Void> kickOutOfBandUserAsync(MacAddress macAddress) throws CamClientException;
+    CompletionStage<Void> kickUserAsync(InetAddress ipAddress) throws CamClientException;
+    CompletionStage<Void> kickUserByMacAddressAsync(MacAddress macAddress) throws CamClientException;
+    CompletionStage<Void> removeCleanMacAddressAsync(MacAddress macAddress) throws CamClientException;
+    CompletionStage<Void> removeCleanMacAddressAsync(MacAddress macAddress, InetAddress ssip) throws CamClientException;
+    CompletionStage<Void> removeMacAddressAsync(MacAddress macAddress) throws CamClientException;
+    CompletionStage<Void> removeMacAddressAsync(MacAddress macAddress, InetAddress ssip) throws CamClientException;
+    CompletionStage<Void> removeMacAddressListAsync() throws CamClientException;
+    CompletionStage<Void> removeSubnetAsync(InetAddress subnet, String mask) throws CamClientException;
+    CompletionStage<Void> removeSubnetAsync(InetAddress subnet, String mask, InetAddress ssip) throws CamClientException;
+    CompletionStage<Void> renewUserSessionTimeAsync(InetAddress ipAddress) throws CamClientException;
+    CompletionStage<Void> updateSubnetAsync(InetAddress subnet, String mask) throws CamClientException;
+    CompletionStage<Void> updateSubnetAsync(InetAddress subnet, String mask, Type type, String role, String description, InetAddress ssip) throws CamClientException;
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import com.mattbertolini.camclient.net.CallContext;
+import com.mattbertolini.camclient.net.CamConnection;
+import com.mattbertolini.camclient.request.Operation;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each client call on an executor and completes a {@link CompletableFuture} with the result. The executor can be
+ * swapped for a single call with {@link #withExecutor(Executor)}. As with {@link CamAsyncClientImpl}, calls on a
+ * {@link PriorityExecutorService} are scheduled by the priority of their operation, and cancelling a returned future
+ * aborts the HTTP request if it is in flight.
+ *
+ * @author Matt Bertolini
+ */
+public class CamCompletableClientImpl extends CamClientImpl implements CamCompletableClient {
+    private Executor executor;
+
+    public CamCompletableClientImpl() {
+        //
+    }
+
+    public CamCompletableClientImpl(CamConnection connection, Executor executor) {
+        super(connection);
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletionStage<Void> addCleanMacAddressAsync(final MacAddress macAddress) {
+        return this.supply(Operation.ADD_CLEAN_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                addCleanMacAddress(macAddress);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> addCleanMacAddressAsync(final MacAddress macAddress, final InetAddress ssip) {
+        return this.supply(Operation.ADD_CLEAN_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                addCleanMacAddress(macAddress, ssip);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> addLocalUserAsync(final String username, final String password, final String role) {
+        return this.supply(Operation.ADD_LOCAL_USER, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                addLocalUser(username, password, role);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> addMacAddressAsync(final MacAddress macAddress) {
+        return this.supply(Operation.ADD_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                addMacAddress(macAddress);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> addMacAddressAsync(final MacAddress macAddress, final InetAddress ipAddress, final Type type,
+                                           final String role, final String description, final InetAddress ssip) {
+        return this.supply(Operation.ADD_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                addMacAddress(macAddress, ipAddress, type, role, description, ssip);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> addSubnetAsync(final InetAddress subnet, final String mask) {
+        return this.supply(Operation.ADD_SUBNET, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                addSubnet(subnet, mask);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> addSubnetAsync(final InetAddress subnet, final String mask, final Type type, final String role,
+                                       final String description, final InetAddress ssip) {
+        return this.supply(Operation.ADD_SUBNET, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                addSubnet(subnet, mask, type, role, description, ssip);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> bouncePortAsync(final String switchId, final int port) {
+        return this.supply(Operation.BOUNCE_PORT, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                bouncePort(switchId, port);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> bouncePortByMacAddressAsync(final MacAddress macAddress) {
+        return this.supply(Operation.BOUNCE_PORT_BY_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                bouncePortByMacAddress(macAddress);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> changeLoggedInUserRoleAsync(final InetAddress ipAddress, final String role) {
+        return this.supply(Operation.CHANGE_LOGGED_IN_USER_ROLE, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                changeLoggedInUserRole(ipAddress, role);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> changeUserRoleAsync(final InetAddress ipAddress, final String role) throws CamClientException {
+        return this.supply(Operation.CHANGE_USER_ROLE, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                changeUserRole(ipAddress, role);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<CamDevice> checkMacAddressAsync(final MacAddress macAddress) throws CamClientException {
+        return this.supply(Operation.CHECK_MAC_ADDRESS, new Callable<CamDevice>() {
+            @Override
+            public CamDevice call() throws Exception {
+                return checkMacAddress(macAddress);
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<CamDevice> checkMacAddressAsync(final MacAddress macAddress, final InetAddress ssip) throws CamClientException {
+        return this.supply(Operation.CHECK_MAC_ADDRESS, new Callable<CamDevice>() {
+            @Override
+            public CamDevice call() throws Exception {
+                return checkMacAddress(macAddress, ssip);
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> clearCertifiedListAsync() throws CamClientException {
+        return this.supply(Operation.CLEAR_CERTIFIED_LIST, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                clearCertifiedList();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> deleteAllLocalUsersAsync() throws CamClientException {
+        return this.supply(Priority.BULK, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                deleteAllLocalUsers();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> deleteLocalUserAsync(final String username) throws CamClientException {
+        return this.supply(Operation.DELETE_LOCAL_USER, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                deleteLocalUser(username);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<String> getCamVersionAsync() throws CamClientException {
+        return this.supply(Operation.GET_VERSION, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return getCamVersion();
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<List<CamLocalUser>> getLocalUserListAsync() throws CamClientException {
+        return this.supply(Operation.GET_LOCAL_USER_LIST, new Callable<List<CamLocalUser>>() {
+            @Override
+            public List<CamLocalUser> call() throws Exception {
+                return getLocalUserList();
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<List<CamDevice>> getMacAddressListAsync() throws CamClientException {
+        return this.supply(Operation.GET_MAC_ADDRESS_LIST, new Callable<List<CamDevice>>() {
+            @Override
+            public List<CamDevice> call() throws Exception {
+                return getMacAddressList();
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<List<CamUserInfo>> getUserInfoAsync(final QueryType queryType, final String queryValue) {
+        return this.supply(Operation.GET_USER_INFO, new Callable<List<CamUserInfo>>() {
+            @Override
+            public List<CamUserInfo> call() throws Exception {
+                return getUserInfo(queryType, queryValue);
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> kickOutOfBandUserAsync(final MacAddress macAddress) throws CamClientException {
+        return this.supply(Operation.KICK_OOB_USER, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                kickOutOfBandUser(macAddress);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> kickUserAsync(final InetAddress ipAddress) throws CamClientException {
+        return this.supply(Operation.KICK_USER, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                kickUser(ipAddress);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> kickUserByMacAddressAsync(final MacAddress macAddress) throws CamClientException {
+        return this.supply(Operation.KICK_USER_BY_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                kickUserByMacAddress(macAddress);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> removeCleanMacAddressAsync(final MacAddress macAddress) throws CamClientException {
+        return this.supply(Operation.REMOVE_CLEAN_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                removeCleanMacAddress(macAddress);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> removeCleanMacAddressAsync(final MacAddress macAddress, final InetAddress ssip) throws CamClientException {
+        return this.supply(Operation.REMOVE_CLEAN_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                removeCleanMacAddress(macAddress, ssip);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> removeMacAddressAsync(final MacAddress macAddress) throws CamClientException {
+        return this.supply(Operation.REMOVE_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                removeMacAddress(macAddress);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> removeMacAddressAsync(final MacAddress macAddress, final InetAddress ssip) throws CamClientException {
+        return this.supply(Operation.REMOVE_MAC_ADDRESS, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                removeMacAddress(macAddress, ssip);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> removeMacAddressListAsync() throws CamClientException {
+        return this.supply(Operation.REMOVE_MAC_ADDRESS_LIST, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                removeMacAddressList();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> removeSubnetAsync(final InetAddress subnet, final String mask) throws CamClientException {
+        return this.supply(Operation.REMOVE_SUBNET, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                removeSubnet(subnet, mask);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> removeSubnetAsync(final InetAddress subnet, final String mask, final InetAddress ssip) throws CamClientException {
+        return this.supply(Operation.REMOVE_SUBNET, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                removeSubnet(subnet, mask, ssip);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> renewUserSessionTimeAsync(final InetAddress ipAddress) throws CamClientException {
+        return this.supply(Operation.RENEW_USER_SESSION_TIME, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                renewUserSessionTime(ipAddress);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> updateSubnetAsync(final InetAddress subnet, final String mask) throws CamClientException {
+        return this.supply(Operation.UPDATE_SUBNET, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                updateSubnet(subnet, mask);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> updateSubnetAsync(final InetAddress subnet, final String mask, final Type type,
+                                          final String role, final String description, final InetAddress ssip) throws CamClientException {
+        return this.supply(Operation.UPDATE_SUBNET, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                updateSubnet(subnet, mask, type, role, description, ssip);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gets a view of this client that runs its calls on a different executor, e.g. to keep one caller's work off a
+     * shared pool. The view shares this client's connection and timeout.
+     *
+     * @param executor The executor to run calls on.
+     * @return A client that uses the given executor.
+     */
+    public CamCompletableClientImpl withExecutor(Executor executor) {
+        if(executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null.");
+        }
+        CamCompletableClientImpl client = new CamCompletableClientImpl(this.getCamConnection(), executor);
+        client.setTimeout(this.getTimeout(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        return client;
+    }
+
+    @Override
+    public CamCompletableClientImpl withTimeout(long timeout, TimeUnit unit) {
+        CamCompletableClientImpl client = new CamCompletableClientImpl(this.getCamConnection(), this.executor);
+        client.setTimeout(timeout, unit);
+        return client;
+    }
+
+    private <T> CompletionStage<T> supply(Operation operation, Callable<T> task) {
+        return this.supply(Priority.forOperation(operation), task);
+    }
+
+    private <T> CompletionStage<T> supply(Priority priority, final Callable<T> task) {
+        final CallContext context = new CallContext(null);
+        final ContextFuture<T> future = new ContextFuture<T>(context);
+        Runnable completion = new Runnable() {
+            @Override
+            public void run() {
+                if(future.isDone()) {
+                    return;
+                }
+                CallContext previous = CallContext.attach(context);
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    CallContext.restore(previous);
+                }
+            }
+        };
+        try {
+            if(this.executor instanceof PriorityExecutorService) {
+                ((PriorityExecutorService) this.executor).submit(priority, Executors.callable(completion));
+            } else {
+                this.executor.execute(completion);
+            }
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    private static final class ContextFuture<T> extends CompletableFuture<T> {
+        private final CallContext context;
+
+        private ContextFuture(CallContext context) {
+            this.context = context;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if(cancelled) {
+                this.context.cancel();
+            }
+            return cancelled;
+        }
+    }
+}
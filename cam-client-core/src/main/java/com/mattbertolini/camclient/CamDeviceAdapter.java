@@ -19,13 +19,31 @@ public class CamDeviceAdapter {
         if(Boolean.FALSE == Boolean.valueOf(foundStr)) {
             return null;
         }
-        Map<String, String> map = responseData.get(1);
-        String macAddressStr = map.get("mac");
-        String ipAddressStr = map.get("ip");
-        String casAddressStr = map.get("cas");
-        String typeStr = map.get("type");
-        String role = map.get("role");
-        String description = map.get("description");
+        return this.buildCamDevice(responseData.get(1));
+    }
+
+    public List<CamDevice> buildCamDeviceListFromResponse(CamResponse response) {
+        List<CamDevice> retList = new ArrayList<CamDevice>();
+        List<Map<String, String>> responseData = response.getResponseData();
+        for(Map<String, String> record : responseData) {
+            retList.add(this.buildCamDevice(record));
+        }
+        return retList;
+    }
+
+    /**
+     * Builds a device from a single record of a device list or device lookup response.
+     *
+     * @param record The record's name/value pairs.
+     * @return The device.
+     */
+    public CamDevice buildCamDevice(Map<String, String> record) {
+        String macAddressStr = record.get("mac");
+        String ipAddressStr = record.get("ip");
+        String casAddressStr = record.get("cas");
+        String typeStr = record.get("type");
+        String role = record.get("role");
+        String description = record.get("description");
         MacAddress macAddress = null;
         InetAddress ipAddress = null;
         InetAddress casAddress = null;
@@ -40,33 +58,4 @@ public class CamDeviceAdapter {
         }
         return new CamDevice(macAddress, ipAddress, casAddress, type, role, description);
     }
-
-    public List<CamDevice> buildCamDeviceListFromResponse(CamResponse response) {
-        List<CamDevice> retList = new ArrayList<CamDevice>();
-        List<Map<String, String>> responseData = response.getResponseData();
-        for(Map<String, String> record : responseData) {
-            String macAddressStr = record.get("mac");
-            String ipAddressStr = record.get("ip");
-            String casAddressStr = record.get("cas");
-            String typeStr = record.get("type");
-            String role = record.get("role");
-            String description = record.get("description");
-            MacAddress macAddress = null;
-            InetAddress ipAddress = null;
-            InetAddress casAddress = null;
-            Type type = null;
-            try {
-                macAddress = MacAddress.valueOf(macAddressStr);
-                ipAddress = InetAddress.getByName(ipAddressStr);
-                casAddress = InetAddress.getByName(casAddressStr);
-                type = Type.fromName(typeStr);
-            } catch (UnknownHostException e) {
-                //
-            }
-            CamDevice device = new CamDevice(macAddress, ipAddress, casAddress, type, role, description);
-            retList.add(device);
-
-        }
-        return retList;
-    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Factory methods for executors suited to running blocking CAM calls.
+ *
+ * @author Matt Bertolini
+ */
+public final class CamExecutors {
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadFactoryMethod();
+    private static final boolean VIRTUAL_THREADS_SUPPORTED = checkVirtualThreadSupport();
+
+    private CamExecutors() {
+        //
+    }
+
+    private static Method findVirtualThreadFactoryMethod() {
+        // Looked up reflectively so the library still builds for and runs on Java 8.
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static boolean checkVirtualThreadSupport() {
+        if(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+            return false;
+        }
+        // On Java 19 and 20 the method exists but throws unless preview features are enabled.
+        try {
+            ((ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null)).shutdown();
+            return true;
+        } catch (IllegalAccessException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reports whether this JVM can run tasks on virtual threads (Java 21 and later).
+     *
+     * @return True if virtual threads are available.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_THREADS_SUPPORTED;
+    }
+
+    /**
+     * Creates an executor that runs each CAM call on its own virtual thread, with at most <code>maxConcurrency</code>
+     * calls in flight at once. Thousands of calls may be outstanding without an OS thread for each. On JVMs without
+     * virtual threads this falls back to a fixed pool of <code>maxConcurrency</code> platform threads.
+     *
+     * @param maxConcurrency The most calls that may run at once.
+     * @return The executor.
+     */
+    public static ExecutorService newVirtualThreadExecutor(int maxConcurrency) {
+        if(maxConcurrency < 1) {
+            throw new IllegalArgumentException("Max concurrency must be at least one.");
+        }
+        if(!VIRTUAL_THREADS_SUPPORTED) {
+            return Executors.newFixedThreadPool(maxConcurrency);
+        }
+        try {
+            ExecutorService virtualThreads = (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+            return new BoundedExecutorService(virtualThreads, maxConcurrency);
+        } catch (IllegalAccessException e) {
+            return Executors.newFixedThreadPool(maxConcurrency);
+        } catch (InvocationTargetException e) {
+            return Executors.newFixedThreadPool(maxConcurrency);
+        }
+    }
+}
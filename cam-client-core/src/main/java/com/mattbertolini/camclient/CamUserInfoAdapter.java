@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient;
+
+import com.mattbertolini.camclient.response.CamResponse;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Matt Bertolini
+ */
+public class CamUserInfoAdapter {
+    public List<CamUserInfo> buildCamUserInfoListFromResponse(CamResponse response) {
+        List<CamUserInfo> retList = new ArrayList<CamUserInfo>();
+        List<Map<String, String>> responseData = response.getResponseData();
+        for(Map<String, String> record : responseData) {
+            retList.add(this.buildCamUserInfo(record));
+        }
+        return retList;
+    }
+
+    /**
+     * Builds the information for one online user from a single record of a user info response. A MAC or IP address
+     * that cannot be parsed is left null rather than failing the whole response.
+     *
+     * @param record The record's name/value pairs.
+     * @return The user information.
+     */
+    public CamUserInfo buildCamUserInfo(Map<String, String> record) {
+        BasicCamUserInfo userInfo = new BasicCamUserInfo();
+        String ipAddressStr = record.get("ip");
+        if(ipAddressStr != null) {
+            try {
+                userInfo.setIpAddress(InetAddress.getByName(ipAddressStr));
+            } catch (UnknownHostException e) {
+                //
+            }
+        }
+        String macAddressStr = record.get("mac");
+        if(macAddressStr != null) {
+            try {
+                userInfo.setMacAddress(MacAddress.valueOf(macAddressStr));
+            } catch (IllegalArgumentException e) {
+                //
+            }
+        }
+        userInfo.setName(record.get("name"));
+        userInfo.setProvider(record.get("provider"));
+        userInfo.setRole(record.get("role"));
+        userInfo.setOriginalRole(record.get("origrole"));
+        userInfo.setVlan(record.get("vlan"));
+        userInfo.setNewVlan(record.get("newvlan"));
+        userInfo.setOperatingSystem(record.get("os"));
+        return userInfo;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import com.mattbertolini.camclient.request.Operation;
+
+/**
+ * Scheduling classes for asynchronous requests. Urgent enforcement actions (kicking a user off the network or bouncing
+ * a port) run ahead of everything else, while whole-list operations run behind ordinary requests.
+ *
+ * @author Matt Bertolini
+ */
+public enum Priority {
+    URGENT,
+    NORMAL,
+    BULK;
+
+    /**
+     * Gets the default priority for an operation.
+     *
+     * @param operation The operation.
+     * @return The priority the operation is scheduled with unless overridden.
+     */
+    public static Priority forOperation(Operation operation) {
+        if(operation == null) {
+            throw new IllegalArgumentException("Operation cannot be null.");
+        }
+        switch(operation) {
+            case BOUNCE_PORT:
+            case BOUNCE_PORT_BY_MAC_ADDRESS:
+            case KICK_OOB_USER:
+            case KICK_USER:
+            case KICK_USER_BY_MAC_ADDRESS:
+                return URGENT;
+            case CLEAR_CERTIFIED_LIST:
+            case GET_LOCAL_USER_LIST:
+            case GET_MAC_ADDRESS_LIST:
+            case GET_REPORTS:
+            case REMOVE_MAC_ADDRESS_LIST:
+                return BULK;
+            default:
+                return NORMAL;
+        }
+    }
+}
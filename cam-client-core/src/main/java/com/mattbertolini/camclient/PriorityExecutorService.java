@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed-size thread pool that runs tasks in {@link Priority} order. Urgent tasks always run first and a number of
+ * threads are held back for them, so a backlog of normal or bulk work can never occupy every thread while a kick or
+ * port bounce waits. Normal tasks run before bulk tasks, but not indefinitely: while bulk work is waiting, one bulk task
+ * runs after every {@link #getBulkInterval()} normal tasks, so a steady stream of normal work slows bulk work down
+ * without starving it. Tasks within the same priority run in submission order. The time each task spent queued is
+ * recorded per priority.
+ *
+ * @author Matt Bertolini
+ */
+public class PriorityExecutorService extends AbstractExecutorService {
+    private static final int DEFAULT_BULK_INTERVAL = 8;
+
+    private final ReentrantLock lock;
+    private final Condition taskAvailable;
+    private final Condition terminated;
+    private final Map<Priority, ArrayDeque<PriorityTask<?>>> queues;
+    private final Map<Priority, QueueStats> stats;
+    private final List<Thread> workers;
+    private final int reservedThreads;
+    private int runningNonUrgent;
+    private int normalSinceBulk;
+    private int bulkInterval;
+    private int liveWorkers;
+    private boolean shutdown;
+
+    public PriorityExecutorService(int threads, int reservedThreads) {
+        this(threads, reservedThreads, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * @param threads The number of worker threads.
+     * @param reservedThreads The number of those threads that only run urgent tasks.
+     * @param threadFactory The factory used to create the worker threads.
+     */
+    public PriorityExecutorService(int threads, int reservedThreads, ThreadFactory threadFactory) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least one.");
+        }
+        if(reservedThreads < 0 || reservedThreads >= threads) {
+            throw new IllegalArgumentException("Reserved threads must be at least zero and less than the thread count.");
+        }
+        if(threadFactory == null) {
+            throw new IllegalArgumentException("Thread factory cannot be null.");
+        }
+        this.lock = new ReentrantLock();
+        this.taskAvailable = this.lock.newCondition();
+        this.terminated = this.lock.newCondition();
+        this.queues = new EnumMap<Priority, ArrayDeque<PriorityTask<?>>>(Priority.class);
+        this.stats = new EnumMap<Priority, QueueStats>(Priority.class);
+        for(Priority priority : Priority.values()) {
+            this.queues.put(priority, new ArrayDeque<PriorityTask<?>>());
+            this.stats.put(priority, new QueueStats());
+        }
+        this.reservedThreads = reservedThreads;
+        this.bulkInterval = DEFAULT_BULK_INTERVAL;
+        this.workers = new ArrayList<Thread>(threads);
+        for(int i = 0; i < threads; i++) {
+            this.workers.add(threadFactory.newThread(new Worker()));
+        }
+        this.liveWorkers = threads;
+        for(Thread worker : this.workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Submits a task with the given priority.
+     *
+     * @param priority The scheduling class of the task.
+     * @param task The task.
+     * @param <T> The result type.
+     * @return A future for the result of the task.
+     */
+    public <T> Future<T> submit(Priority priority, Callable<T> task) {
+        if(priority == null) {
+            throw new IllegalArgumentException("Priority cannot be null.");
+        }
+        if(task == null) {
+            throw new IllegalArgumentException("Task cannot be null.");
+        }
+        PriorityTask<T> priorityTask = new PriorityTask<T>(task, priority);
+        this.enqueue(priorityTask);
+        return priorityTask;
+    }
+
+    /**
+     * Runs the command with {@link Priority#NORMAL} priority.
+     */
+    @Override
+    public void execute(Runnable command) {
+        if(command == null) {
+            throw new IllegalArgumentException("Command cannot be null.");
+        }
+        PriorityTask<?> task = (command instanceof PriorityTask) ? (PriorityTask<?>) command
+                : new PriorityTask<Object>(Executors.callable(command), Priority.NORMAL);
+        this.enqueue(task);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PriorityTask<T>(callable, Priority.NORMAL);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PriorityTask<T>(Executors.callable(runnable, value), Priority.NORMAL);
+    }
+
+    private void enqueue(PriorityTask<?> task) {
+        this.lock.lock();
+        try {
+            if(this.shutdown) {
+                throw new RejectedExecutionException("Executor has been shut down.");
+            }
+            task.enqueuedAt = System.nanoTime();
+            this.queues.get(task.priority).addLast(task);
+            this.taskAvailable.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private PriorityTask<?> take() throws InterruptedException {
+        this.lock.lock();
+        try {
+            while(true) {
+                PriorityTask<?> task = this.queues.get(Priority.URGENT).pollFirst();
+                if(task == null && this.runningNonUrgent < this.workers.size() - this.reservedThreads) {
+                    task = this.takeNonUrgent();
+                    if(task != null) {
+                        this.runningNonUrgent++;
+                    }
+                }
+                if(task != null) {
+                    this.stats.get(task.priority).record(System.nanoTime() - task.enqueuedAt);
+                    return task;
+                }
+                if(this.shutdown && this.isQueueEmpty()) {
+                    return null;
+                }
+                this.taskAvailable.await();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next normal task, or a bulk task if there are no normal tasks or bulk work has waited through its
+     * share of normal tasks. Called with the lock held.
+     */
+    private PriorityTask<?> takeNonUrgent() {
+        ArrayDeque<PriorityTask<?>> bulk = this.queues.get(Priority.BULK);
+        PriorityTask<?> task = null;
+        if(this.normalSinceBulk < this.bulkInterval || bulk.isEmpty()) {
+            task = this.queues.get(Priority.NORMAL).pollFirst();
+        }
+        if(task == null) {
+            task = bulk.pollFirst();
+            this.normalSinceBulk = 0;
+        } else if(!bulk.isEmpty()) {
+            this.normalSinceBulk++;
+        }
+        return task;
+    }
+
+    private void finished(PriorityTask<?> task) {
+        if(task.priority == Priority.URGENT) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            this.runningNonUrgent--;
+            this.taskAvailable.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean isQueueEmpty() {
+        for(ArrayDeque<PriorityTask<?>> queue : this.queues.values()) {
+            if(!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of tasks waiting to run with the given priority.
+     *
+     * @param priority The priority.
+     * @return The queue length.
+     */
+    public int getQueueLength(Priority priority) {
+        this.lock.lock();
+        try {
+            return this.queues.get(priority).size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks with the given priority that have left the queue and started running.
+     *
+     * @param priority The priority.
+     * @return The number of tasks started.
+     */
+    public long getStartedCount(Priority priority) {
+        this.lock.lock();
+        try {
+            return this.stats.get(priority).count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the average time tasks with the given priority waited in the queue before starting.
+     *
+     * @param priority The priority.
+     * @param unit The unit to return the time in.
+     * @return The average queue wait or zero if no task has started.
+     */
+    public long getAverageQueueWait(Priority priority, TimeUnit unit) {
+        this.lock.lock();
+        try {
+            QueueStats queueStats = this.stats.get(priority);
+            return (queueStats.count == 0) ? 0L : unit.convert(queueStats.totalWait / queueStats.count, TimeUnit.NANOSECONDS);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the longest time a task with the given priority waited in the queue before starting.
+     *
+     * @param priority The priority.
+     * @param unit The unit to return the time in.
+     * @return The longest queue wait.
+     */
+    public long getMaxQueueWait(Priority priority, TimeUnit unit) {
+        this.lock.lock();
+        try {
+            return unit.convert(this.stats.get(priority).maxWait, TimeUnit.NANOSECONDS);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getReservedThreads() {
+        return this.reservedThreads;
+    }
+
+    public int getBulkInterval() {
+        this.lock.lock();
+        try {
+            return this.bulkInterval;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets how many normal tasks may run ahead of a waiting bulk task before the bulk task gets its turn.
+     *
+     * @param bulkInterval The number of normal tasks per bulk task.
+     */
+    public void setBulkInterval(int bulkInterval) {
+        if(bulkInterval < 1) {
+            throw new IllegalArgumentException("Bulk interval must be at least one.");
+        }
+        this.lock.lock();
+        try {
+            this.bulkInterval = bulkInterval;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.lock.lock();
+        try {
+            this.shutdown = true;
+            this.taskAvailable.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = new ArrayList<Runnable>();
+        this.lock.lock();
+        try {
+            this.shutdown = true;
+            for(ArrayDeque<PriorityTask<?>> queue : this.queues.values()) {
+                pending.addAll(queue);
+                queue.clear();
+            }
+            this.taskAvailable.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        for(Thread worker : this.workers) {
+            worker.interrupt();
+        }
+        return Collections.unmodifiableList(pending);
+    }
+
+    @Override
+    public boolean isShutdown() {
+        this.lock.lock();
+        try {
+            return this.shutdown;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        this.lock.lock();
+        try {
+            return this.shutdown && this.liveWorkers == 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        this.lock.lock();
+        try {
+            while(!(this.shutdown && this.liveWorkers == 0)) {
+                if(remaining <= 0L) {
+                    return false;
+                }
+                remaining = this.terminated.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while(true) {
+                    PriorityTask<?> task;
+                    try {
+                        task = take();
+                    } catch (InterruptedException e) {
+                        if(isShutdown()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    if(task == null) {
+                        return;
+                    }
+                    try {
+                        task.run();
+                    } finally {
+                        finished(task);
+                    }
+                }
+            } finally {
+                lock.lock();
+                try {
+                    liveWorkers--;
+                    terminated.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static final class PriorityTask<T> extends FutureTask<T> {
+        private final Priority priority;
+        private long enqueuedAt;
+
+        private PriorityTask(Callable<T> callable, Priority priority) {
+            super(callable);
+            this.priority = priority;
+        }
+    }
+
+    private static final class QueueStats {
+        private long count;
+        private long totalWait;
+        private long maxWait;
+
+        private void record(long wait) {
+            this.count++;
+            this.totalWait += wait;
+            this.maxWait = Math.max(this.maxWait, wait);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of asynchronous requests a client has queued or in flight at once. Without a cap every call adds a
+ * task to the executor's queue, and a caller that submits faster than the CAM responds can fill the heap long before
+ * the CAM has worked through the backlog. What happens to a request submitted while the window is full is chosen with
+ * an {@link OverflowPolicy}.
+ * <p>
+ * A window may be shared by several clients to give them one combined cap.
+ *
+ * @author Matt Bertolini
+ */
+public class RequestWindow {
+    /**
+     * What to do with a request that arrives while the window is full.
+     */
+    public enum OverflowPolicy {
+        /** Block the submitting thread until a request completes. */
+        BLOCK,
+        /** Throw a {@link RequestRejectedException} straight away. */
+        FAIL_FAST,
+        /** Run the request on the submitting thread, outside the window. This slows the caller down to the CAM's pace. */
+        CALLER_RUNS
+    }
+
+    private final int maxRequests;
+    private final OverflowPolicy policy;
+    private final Semaphore permits;
+    private final AtomicInteger queued;
+    private final AtomicInteger running;
+    private final AtomicLong blockedCount;
+    private final AtomicLong rejectedCount;
+    private final AtomicLong callerRunsCount;
+
+    public RequestWindow(int maxRequests, OverflowPolicy policy) {
+        if(maxRequests < 1) {
+            throw new IllegalArgumentException("Max requests must be at least one.");
+        }
+        if(policy == null) {
+            throw new IllegalArgumentException("Overflow policy cannot be null.");
+        }
+        this.maxRequests = maxRequests;
+        this.policy = policy;
+        this.permits = new Semaphore(maxRequests, true);
+        this.queued = new AtomicInteger();
+        this.running = new AtomicInteger();
+        this.blockedCount = new AtomicLong();
+        this.rejectedCount = new AtomicLong();
+        this.callerRunsCount = new AtomicLong();
+    }
+
+    /**
+     * Claims a place in the window for a new request, applying the overflow policy if the window is full.
+     *
+     * @return True if a place was claimed and the request should be queued, false if it should run on the caller's
+     * thread.
+     * @throws RequestRejectedException If the window is full and the policy is FAIL_FAST.
+     */
+    boolean acquire() {
+        if(this.permits.tryAcquire()) {
+            this.queued.incrementAndGet();
+            return true;
+        }
+        switch(this.policy) {
+            case BLOCK:
+                this.blockedCount.incrementAndGet();
+                try {
+                    this.permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CamClientException("Interrupted while waiting to submit a request to the CAM.", e);
+                }
+                this.queued.incrementAndGet();
+                return true;
+            case CALLER_RUNS:
+                this.callerRunsCount.incrementAndGet();
+                return false;
+            default:
+                this.rejectedCount.incrementAndGet();
+                throw new RequestRejectedException("Too many requests outstanding; the limit is " + this.maxRequests
+                        + ".");
+        }
+    }
+
+    /**
+     * Records that a queued request has started running.
+     */
+    void started() {
+        this.queued.decrementAndGet();
+        this.running.incrementAndGet();
+    }
+
+    /**
+     * Frees the place of a request that has finished running.
+     */
+    void finished() {
+        this.running.decrementAndGet();
+        this.permits.release();
+    }
+
+    /**
+     * Frees the place of a request that left the queue without running, because it was cancelled or the executor
+     * refused it.
+     */
+    void abandoned() {
+        this.queued.decrementAndGet();
+        this.permits.release();
+    }
+
+    public int getMaxRequests() {
+        return this.maxRequests;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Gets the number of requests waiting in the executor's queue.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return this.queued.get();
+    }
+
+    /**
+     * Gets the number of requests currently running, not counting any running on a caller's thread.
+     *
+     * @return The number of running requests.
+     */
+    public int getRunning() {
+        return this.running.get();
+    }
+
+    /**
+     * Gets the number of places in use, i.e. queued plus running requests.
+     *
+     * @return The number of outstanding requests.
+     */
+    public int getOutstanding() {
+        return this.maxRequests - this.permits.availablePermits();
+    }
+
+    /**
+     * Gets how many submissions had to wait for a place under the BLOCK policy.
+     *
+     * @return The number of blocked submissions.
+     */
+    public long getBlockedCount() {
+        return this.blockedCount.get();
+    }
+
+    /**
+     * Gets how many submissions were refused under the FAIL_FAST policy.
+     *
+     * @return The number of rejected submissions.
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * Gets how many submissions ran on the caller's thread under the CALLER_RUNS policy.
+     *
+     * @return The number of caller-run submissions.
+     */
+    public long getCallerRunsCount() {
+        return this.callerRunsCount.get();
+    }
+}
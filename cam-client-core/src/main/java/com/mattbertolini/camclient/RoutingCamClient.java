@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import com.mattbertolini.camclient.net.CamConnection;
+import com.mattbertolini.camclient.net.RoutingCamConnection;
+import com.mattbertolini.camclient.net.RoutingStrategy;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A CamClient that talks to several Clean Access Managers at once, for example one per campus. Each call is routed
+ * to a single CAM by the given {@link RoutingStrategy}, while list-wide operations such as
+ * {@link #getMacAddressList()} are sent to every CAM in parallel and their results merged.
+ *
+ * @author Matt Bertolini
+ * @see RoutingCamConnection
+ */
+public class RoutingCamClient extends CamClientImpl {
+    private final RoutingCamConnection routingConnection;
+
+    public RoutingCamClient(List<CamConnection> connections, RoutingStrategy routingStrategy,
+                            ExecutorService executorService) {
+        this(new RoutingCamConnection(connections, routingStrategy, executorService));
+    }
+
+    public RoutingCamClient(RoutingCamConnection routingConnection) {
+        super(routingConnection);
+        this.routingConnection = routingConnection;
+    }
+
+    public RoutingCamConnection getRoutingConnection() {
+        return this.routingConnection;
+    }
+}
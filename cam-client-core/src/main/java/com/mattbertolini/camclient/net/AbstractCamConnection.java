@@ -30,45 +30,59 @@
 
 package com.mattbertolini.camclient.net;
 
+import com.mattbertolini.camclient.CamClientException;
 import com.mattbertolini.camclient.CamCredentials;
 import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
 import com.mattbertolini.camclient.response.CamResponse;
-import com.mattbertolini.camclient.response.CamResponseImpl;
+import com.mattbertolini.camclient.response.CamResponseParser;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 /**
  * @param <Request> The type to translate the CamRequest into.
  * @param <Response> The type to be translated into a CamResponse.
  * @author Matt Bertolini
  */
-public abstract class AbstractCamConnection<Request, Response> implements CamConnection {
+public abstract class AbstractCamConnection<Request, Response> implements CamConnection, Closeable {
     protected static final String USER_AGENT = "User-Agent";
-    private static final String COMMENT_BEGIN_PATTERN = "\\s*<!--\\s*";
-    private static final String COMMENT_END_PATTERN = "\\s*-->\\s*";
-    private static final String NAME_VALUE_DELIMITER_PATTERN = "[=,]";
-    private static final String ERROR_KEY = "error";
-    private static final String COUNT_KEY = "count";
-    private static final String EMPTY_STRING = "";
-    private static final String ZERO = "0";
-    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    protected static final String COOKIE = "Cookie";
+    protected static final String SET_COOKIE = "Set-Cookie";
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final String ADMIN_SESSION_EXPIRED_ERROR = "session expired. please login again";
 
     private final URI uri;
     private final CamCredentials credentials;
+    private final Object sessionLock;
     private UserAgentProvider userAgentProvider;
+    private ResponseDecoder responseDecoder;
+    private volatile boolean sessionAuthentication;
+    private volatile String sessionCookie;
+    private CompletableFuture<String> pendingLogin;
 
     public AbstractCamConnection(URI uri, CamCredentials credentials) {
         this.uri = uri;
         this.credentials = credentials;
+        this.sessionLock = new Object();
         this.userAgentProvider = new DefaultUserAgentProvider();
+        this.responseDecoder = new ResponseDecoder();
     }
 
     /**
@@ -92,19 +106,359 @@ public abstract class AbstractCamConnection<Request, Response> implements CamCon
      */
     public abstract Response submitRequest(Request request);
 
+    /**
+     * Read the session cookie the CAM set in response to an admin login.
+     * @param httpResponse The response to the login request.
+     * @return The cookie in <code>name=value</code> form, suitable for a Cookie header, or null if none was set.
+     */
+    public abstract String extractSessionCookie(Response httpResponse);
+
+    /**
+     * Limit how long the underlying HTTP connection may take to connect and to wait for data.
+     * @param httpRequest The HTTP request that is about to be submitted.
+     * @param timeoutMillis The timeout in milliseconds. Always greater than zero.
+     */
+    public abstract void setTimeout(Request httpRequest, int timeoutMillis);
+
+    /**
+     * Abort an in-flight HTTP request, releasing its connection. Called from another thread when the call is
+     * cancelled.
+     * @param httpRequest The HTTP request to abort.
+     */
+    public abstract void abortRequest(Request httpRequest);
+
     public String getUserAgent() {
         return this.userAgentProvider.getUserAgentString();
     }
 
     @Override
     public CamResponse executeRequest(CamRequest camRequest) {
-        Request request = this.buildRequest(camRequest);
-        Response response = this.submitRequest(request);
+        if(!this.sessionAuthentication || this.isSessionOperation(camRequest)) {
+            return this.send(camRequest);
+        }
+        String session = this.getSession();
+        CamResponse response = this.send(camRequest);
+        if(response.isError() && this.isSessionExpired(response)) {
+            this.invalidateSession(session);
+            this.getSession();
+            response = this.send(camRequest);
+        }
+        return response;
+    }
+
+    private CamResponse send(CamRequest camRequest) {
+        return this.send(camRequest, null);
+    }
+
+    /**
+     * Sends a request under the current thread's {@link CallContext}, if any.
+     *
+     * @param camRequest The request.
+     * @param sessionCookie If not null, its first element receives the session cookie the response set.
+     * @return The response.
+     */
+    private CamResponse send(CamRequest camRequest, String[] sessionCookie) {
+        final Request request = this.buildRequest(camRequest);
+        CallContext context = CallContext.current();
+        if(context == null) {
+            return this.toCamResponse(this.submitRequest(request), sessionCookie);
+        }
+        context.checkActive();
+        Deadline deadline = context.getDeadline();
+        if(deadline != null) {
+            this.setTimeout(request, Math.max(1, deadline.timeRemainingMillis()));
+        }
+        Runnable abortAction = new Runnable() {
+            @Override
+            public void run() {
+                abortRequest(request);
+            }
+        };
+        context.addAbortAction(abortAction);
+        try {
+            return this.toCamResponse(this.submitRequest(request), sessionCookie);
+        } catch (RuntimeException e) {
+            // Report the reason the call was cut short rather than the I/O error the abort or timeout caused.
+            if(context.isCancelled()) {
+                throw new RequestCancelledException("Request to " + this.getUri() + " was cancelled.", e);
+            }
+            if(deadline != null && deadline.isExpired()) {
+                throw new DeadlineExceededException("Deadline passed before the request to " + this.getUri()
+                        + " completed.", e);
+            }
+            throw e;
+        } finally {
+            context.removeAbortAction(abortAction);
+        }
+    }
+
+    private CamResponse toCamResponse(Response response, String[] sessionCookie) {
+        if(sessionCookie != null) {
+            sessionCookie[0] = this.extractSessionCookie(response);
+        }
         return this.buildResponse(response);
     }
 
     /**
-     * This method will close the given input stream.
+     * Gets the session cookie that should authenticate the given request. Implementations send this as a Cookie header
+     * in place of the admin user name and password when it is not null.
+     *
+     * @param camRequest The request being built.
+     * @return The session cookie or null if the request must carry the admin credentials.
+     */
+    protected String getSessionCookie(CamRequest camRequest) {
+        if(!this.sessionAuthentication || camRequest.getOperation() == Operation.ADMIN_LOGIN) {
+            return null;
+        }
+        return this.sessionCookie;
+    }
+
+    /**
+     * Builds a Cookie header value from the Set-Cookie header values of a response, dropping the cookie attributes.
+     *
+     * @param setCookieValues The Set-Cookie header values. May be null.
+     * @return The Cookie header value or null if no cookies were set.
+     */
+    protected static String toCookieHeader(List<String> setCookieValues) {
+        if(setCookieValues == null || setCookieValues.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for(String setCookie : setCookieValues) {
+            int end = setCookie.indexOf(';');
+            String cookie = ((end < 0) ? setCookie : setCookie.substring(0, end)).trim();
+            if(cookie.isEmpty()) {
+                continue;
+            }
+            if(sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(cookie);
+        }
+        return (sb.length() > 0) ? sb.toString() : null;
+    }
+
+    private boolean isSessionOperation(CamRequest camRequest) {
+        return camRequest.getOperation() == Operation.ADMIN_LOGIN || camRequest.getOperation() == Operation.ADMIN_LOGOUT;
+    }
+
+    /**
+     * Gets the admin session, logging in if there is none. Only one caller logs in; the rest wait for and share its
+     * session. No lock is held while the login is on the wire, and both the login and the wait for it honor each
+     * caller's own {@link CallContext}.
+     */
+    private String getSession() {
+        while(true) {
+            CompletableFuture<String> login;
+            boolean owner = false;
+            synchronized(this.sessionLock) {
+                if(this.sessionCookie != null) {
+                    return this.sessionCookie;
+                }
+                login = this.pendingLogin;
+                if(login == null) {
+                    login = new CompletableFuture<String>();
+                    this.pendingLogin = login;
+                    owner = true;
+                }
+            }
+            if(owner) {
+                return this.runLogin(login);
+            }
+            String cookie = this.awaitLogin(login);
+            if(cookie != null) {
+                return cookie;
+            }
+            // The caller that was logging in gave up on its own deadline or was cancelled; try again on ours.
+        }
+    }
+
+    private String runLogin(CompletableFuture<String> login) {
+        try {
+            String cookie = this.login();
+            synchronized(this.sessionLock) {
+                this.sessionCookie = cookie;
+                this.pendingLogin = null;
+            }
+            login.complete(cookie);
+            return cookie;
+        } catch (RuntimeException e) {
+            this.abandonLogin(login, e);
+            throw e;
+        } catch (Error e) {
+            this.abandonLogin(login, e);
+            throw e;
+        }
+    }
+
+    private void abandonLogin(CompletableFuture<String> login, Throwable cause) {
+        synchronized(this.sessionLock) {
+            this.pendingLogin = null;
+        }
+        login.completeExceptionally(cause);
+    }
+
+    /**
+     * Waits for another caller's login within the current caller's deadline and cancellation.
+     *
+     * @param login The login in progress.
+     * @return The session cookie, or null if the login was cut short by the other caller's deadline or cancellation
+     * and should be tried again.
+     */
+    private String awaitLogin(CompletableFuture<String> login) {
+        CallContext context = CallContext.current();
+        if(context == null) {
+            return this.getLoginResult(login, null);
+        }
+        context.checkActive();
+        final CompletableFuture<String> waiter = new CompletableFuture<String>();
+        login.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String cookie, Throwable failure) {
+                if(failure == null) {
+                    waiter.complete(cookie);
+                } else {
+                    waiter.completeExceptionally(failure);
+                }
+            }
+        });
+        Runnable abortAction = new Runnable() {
+            @Override
+            public void run() {
+                waiter.cancel(false);
+            }
+        };
+        context.addAbortAction(abortAction);
+        try {
+            return this.getLoginResult(waiter, context.getDeadline());
+        } finally {
+            context.removeAbortAction(abortAction);
+        }
+    }
+
+    private String getLoginResult(CompletableFuture<String> login, Deadline deadline) {
+        try {
+            if(deadline == null) {
+                return login.get();
+            }
+            return login.get(deadline.timeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        } catch (CancellationException e) {
+            throw new RequestCancelledException("Request to " + this.getUri()
+                    + " was cancelled while waiting for the admin login.", e);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("Deadline passed while waiting for the admin login to "
+                    + this.getUri() + ".", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CamClientException("Interrupted while waiting for the admin login.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RequestCancelledException || cause instanceof DeadlineExceededException) {
+                return null;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CamClientException(cause);
+        }
+    }
+
+    private void invalidateSession(String expiredCookie) {
+        synchronized(this.sessionLock) {
+            if(expiredCookie != null && expiredCookie.equals(this.sessionCookie)) {
+                this.sessionCookie = null;
+            }
+        }
+    }
+
+    private String login() {
+        String[] sessionCookie = new String[1];
+        CamResponse camResponse = this.send(new CamRequestImpl(Operation.ADMIN_LOGIN), sessionCookie);
+        String cookie = sessionCookie[0];
+        if(camResponse.isError()) {
+            throw new CamClientException("Admin login failed: " + camResponse.getErrorText());
+        }
+        if(cookie == null) {
+            throw new CamClientException("Admin login succeeded but the CAM did not return a session cookie.");
+        }
+        return cookie;
+    }
+
+    /**
+     * Decides whether an error response means the admin session has expired and a new login is needed. The default
+     * implementation matches the error the CAM returns when the admin session cookie is no longer valid ("Session
+     * expired. Please login again."), so errors about an end user's session, e.g. from renewuserstime, do not force a
+     * new admin login. Override it for CAM versions that word the error differently.
+     *
+     * @param response The error response.
+     * @return True if the session should be refreshed and the request retried once.
+     */
+    protected boolean isSessionExpired(CamResponse response) {
+        String errorText = response.getErrorText();
+        if(errorText == null) {
+            return false;
+        }
+        return errorText.toLowerCase(Locale.ROOT).contains(ADMIN_SESSION_EXPIRED_ERROR);
+    }
+
+    /**
+     * Logs out of the admin session if one is open. The connection can still be used afterwards; it will simply log
+     * in again.
+     */
+    @Override
+    public void close() {
+        String cookie = this.sessionCookie;
+        if(cookie == null) {
+            return;
+        }
+        try {
+            this.send(new CamRequestImpl(Operation.ADMIN_LOGOUT));
+        } catch (RuntimeException e) {
+            // The session will expire on its own.
+        } finally {
+            this.invalidateSession(cookie);
+        }
+    }
+
+    /**
+     * Wraps a response body with the connection's {@link ResponseDecoder} so that a compressed body is decompressed as
+     * it is parsed. The body is closed if it cannot be decoded.
+     *
+     * @param responseBody The response body as received.
+     * @param contentEncoding The Content-Encoding response header, or null if there was none.
+     * @return The decoded body.
+     */
+    protected InputStream decodeResponseBody(InputStream responseBody, String contentEncoding) {
+        if(responseBody == null) {
+            throw new IllegalArgumentException("Response body stream is null.");
+        }
+        try {
+            return this.responseDecoder.decode(responseBody, contentEncoding);
+        } catch (IOException e) {
+            try {
+                responseBody.close();
+            } catch (IOException ignored) {
+                // Already failing.
+            }
+            throw new CamConnectionException("Unable to decode response from " + this.getUri(), e);
+        }
+    }
+
+    /**
+     * Sends the Accept-Encoding header value the connection's {@link ResponseDecoder} can handle.
+     *
+     * @return The header value, or null if compressed responses are disabled.
+     */
+    protected String getAcceptEncoding() {
+        return this.responseDecoder.getAcceptEncoding();
+    }
+
+    /**
+     * This method will close the given input stream. The body is decoded through buffers borrowed from the shared
+     * {@link BufferPool}, so parsing a response does not allocate read buffers.
      *
      * @param responseBody The input stream containing the response body.
      * @param encoding The input stream's corresponding character encoding.
@@ -114,63 +468,66 @@ public abstract class AbstractCamConnection<Request, Response> implements CamCon
         if(responseBody == null) {
             throw new IllegalArgumentException("Response body stream is null.");
         }
-        Scanner scanner = new Scanner(responseBody, encoding);
-        StringBuilder sb = new StringBuilder();
-        while(scanner.hasNextLine()) {
-            sb.append(scanner.nextLine());
-            sb.append(LINE_SEPARATOR);
+        CharsetDecoder decoder;
+        try {
+            decoder = Charset.forName(encoding).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        } catch (IllegalArgumentException e) {
+            closeQuietly(responseBody);
+            throw new CamConnectionException("Unsupported response encoding " + encoding + " from " + this.getUri(), e);
+        }
+        CamResponseParser parser = new CamResponseParser();
+        BufferPool pool = BufferPool.getDefault();
+        byte[] bytes = pool.acquireBytes(READ_BUFFER_SIZE);
+        char[] chars = pool.acquireChars(READ_BUFFER_SIZE);
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            CharBuffer out = CharBuffer.wrap(chars);
+            int read;
+            while((read = responseBody.read(bytes, in.position(), in.remaining())) != -1) {
+                in.position(in.position() + read);
+                in.flip();
+                decode(decoder, in, out, false, parser);
+                in.compact();
+            }
+            in.flip();
+            decode(decoder, in, out, true, parser);
+            while(decoder.flush(out).isOverflow()) {
+                feed(out, parser);
+            }
+            feed(out, parser);
+        } catch (IOException e) {
+            throw new CamConnectionException("Unable to read response from " + this.getUri(), e);
+        } finally {
+            pool.releaseBytes(bytes);
+            pool.releaseChars(chars);
+            closeQuietly(responseBody);
         }
-        scanner.close();
+        return parser.finish();
+    }
+
+    private static void closeQuietly(InputStream responseBody) {
         try {
             responseBody.close();
         } catch (IOException e) {
-            // TODO: finish
-        }
-
-        boolean error = false;
-        String errorText = null;
-        String responseString = sb.toString();
-        String[] rows = responseString.split(COMMENT_END_PATTERN);
-        if(rows == null || rows.length == 0) {
-            // TODO: throw exception
-            throw new RuntimeException();
-        }
-        List<Map<String, String>> data = new ArrayList<Map<String, String>>(rows.length);
-        for(String row : rows) {
-            Map<String, String> rowData = new HashMap<String, String>();
-            row = row.replaceAll(COMMENT_BEGIN_PATTERN, EMPTY_STRING);
-            String[] nvp = row.split(NAME_VALUE_DELIMITER_PATTERN);
-            if(nvp.length % 2 != 0) {
-                // TODO: throw exception
-                throw new RuntimeException();
-            }
-
-            for(int i = 0; i < nvp.length; i += 2) {
-                rowData.put(nvp[i].trim().toLowerCase(), nvp[i + 1].trim());
-            }
-
-            if(rowData.containsKey(ERROR_KEY)
-                    && !rowData.get(ERROR_KEY).equals(ZERO)) {
-                error = true;
-                errorText = "CAM Error - " + rowData.get(ERROR_KEY);
-                data = Collections.emptyList();
-                break;
-            } else if(rowData.containsKey(COUNT_KEY)) {
-                if(rowData.get(COUNT_KEY).equals(ZERO)) {
-                    data = Collections.emptyList();
-                    break;
-                }
-            } else {
-                // Since the error value is zero (success), we don't need it
-                // anymore. Not adding it to the final data collection.
-                if(!rowData.containsKey(ERROR_KEY)
-                        && !rowData.containsKey(COUNT_KEY)) {
-                    data.add(rowData);
-                }
-            }
+            // Nothing more can be done with the stream.
         }
+    }
 
-        return new CamResponseImpl(responseString, data, error, errorText);
+    private static void decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer out, boolean endOfInput,
+                               CamResponseParser parser) {
+        while(decoder.decode(in, out, endOfInput).isOverflow()) {
+            feed(out, parser);
+        }
+    }
+
+    private static void feed(CharBuffer out, CamResponseParser parser) {
+        out.flip();
+        if(out.hasRemaining()) {
+            parser.feed(out.array(), out.arrayOffset() + out.position(), out.remaining());
+        }
+        out.clear();
     }
 
     public URI getUri() {
@@ -180,4 +537,42 @@ public abstract class AbstractCamConnection<Request, Response> implements CamCon
     public CamCredentials getCredentials() {
         return this.credentials;
     }
+
+    public boolean isSessionAuthentication() {
+        return this.sessionAuthentication;
+    }
+
+    /**
+     * Switches between function-based authentication, where the admin credentials are sent with every request, and
+     * session-based authentication, where the connection logs in once with <code>adminlogin</code>, reuses the
+     * session cookie across requests and threads, logs in again when the session expires and logs out on
+     * {@link #close()}.
+     *
+     * @param sessionAuthentication True to use session-based authentication.
+     */
+    public void setSessionAuthentication(boolean sessionAuthentication) {
+        this.sessionAuthentication = sessionAuthentication;
+    }
+
+    public UserAgentProvider getUserAgentProvider() {
+        return this.userAgentProvider;
+    }
+
+    public void setUserAgentProvider(UserAgentProvider userAgentProvider) {
+        if(userAgentProvider == null) {
+            throw new IllegalArgumentException("User agent provider cannot be null.");
+        }
+        this.userAgentProvider = userAgentProvider;
+    }
+
+    public ResponseDecoder getResponseDecoder() {
+        return this.responseDecoder;
+    }
+
+    public void setResponseDecoder(ResponseDecoder responseDecoder) {
+        if(responseDecoder == null) {
+            throw new IllegalArgumentException("Response decoder cannot be null.");
+        }
+        this.responseDecoder = responseDecoder;
+    }
 }
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.Operation;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An additive-increase/multiplicative-decrease (AIMD) limit on the number of requests that may be in flight to the
+ * CAM at the same time. The limit grows by one for every healthy response received while the window is at least half
+ * used and is cut by the backoff ratio whenever a request fails or takes noticeably longer than the observed baseline
+ * latency. A separate baseline is kept per operation, so a bulk listing that is always slower than a single MAC check
+ * is compared with earlier listings rather than read as overload.
+ *
+ * @author Matt Bertolini
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final int DEFAULT_INITIAL_LIMIT = 10;
+    private static final int DEFAULT_MIN_LIMIT = 1;
+    private static final int DEFAULT_MAX_LIMIT = 200;
+    private static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    private static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final ReentrantLock lock;
+    private final Condition slotAvailable;
+    private final int minLimit;
+    private final int maxLimit;
+    private double backoffRatio;
+    private double latencyTolerance;
+    private double limit;
+    private int inFlight;
+    private long baselineLatency;
+    private final Map<Operation, Long> operationBaselines;
+
+    public AdaptiveConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if(minLimit < 1) {
+            throw new IllegalArgumentException("Minimum limit must be at least one.");
+        }
+        if(maxLimit < minLimit) {
+            throw new IllegalArgumentException("Maximum limit cannot be less than the minimum limit.");
+        }
+        if(initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Initial limit must be between the minimum and maximum limits.");
+        }
+        this.lock = new ReentrantLock();
+        this.slotAvailable = this.lock.newCondition();
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = DEFAULT_BACKOFF_RATIO;
+        this.latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+        this.limit = initialLimit;
+        this.inFlight = 0;
+        this.baselineLatency = -1L;
+        this.operationBaselines = new EnumMap<Operation, Long>(Operation.class);
+    }
+
+    /**
+     * Blocks until the number of requests in flight is below the current limit and then claims a slot. Every
+     * successful call must be paired with a call to {@link #release(long, boolean)}.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting for a slot.
+     */
+    public void acquire() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while(this.inFlight >= this.getLimitLocked()) {
+                this.slotAvailable.await();
+            }
+            this.inFlight++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a slot claimed with {@link #acquire()} and feeds the outcome of the request into the limit.
+     *
+     * @param latency The time the request took, in nanoseconds.
+     * @param dropped True if the request failed in a way that indicates the CAM is struggling.
+     */
+    public void release(long latency, boolean dropped) {
+        this.release(null, latency, dropped);
+    }
+
+    /**
+     * Returns a slot claimed with {@link #acquire()} and feeds the outcome of the request into the limit, comparing its
+     * latency with the baseline for its operation.
+     *
+     * @param operation The request's operation, or null to use the shared baseline.
+     * @param latency The time the request took, in nanoseconds.
+     * @param dropped True if the request failed in a way that indicates the CAM is struggling.
+     */
+    public void release(Operation operation, long latency, boolean dropped) {
+        this.lock.lock();
+        try {
+            int window = this.inFlight;
+            this.inFlight--;
+            if(dropped) {
+                this.decrease();
+            } else {
+                this.sample(operation, latency, window);
+            }
+            this.slotAvailable.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a slot claimed with {@link #acquire()} without feeding the request into the limit, for requests that
+     * ended for reasons that say nothing about the CAM's health, such as the caller cancelling.
+     */
+    public void release() {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            this.slotAvailable.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void sample(Operation operation, long latency, int window) {
+        long baseline = this.getBaselineLocked(operation);
+        if(baseline < 0 || latency < baseline) {
+            baseline = latency;
+        } else {
+            // Let the baseline creep up slowly so a CAM that is permanently slower (e.g. after an upgrade) does not
+            // pin the limit at the minimum forever.
+            baseline += (long) ((latency - baseline) * BASELINE_DRIFT);
+        }
+        if(operation == null) {
+            this.baselineLatency = baseline;
+        } else {
+            this.operationBaselines.put(operation, baseline);
+        }
+        if(latency > baseline * this.latencyTolerance) {
+            this.decrease();
+        } else if(window * 2 >= this.getLimitLocked()) {
+            this.limit = Math.min(this.maxLimit, this.limit + 1);
+        }
+    }
+
+    private void decrease() {
+        this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+    }
+
+    private long getBaselineLocked(Operation operation) {
+        if(operation == null) {
+            return this.baselineLatency;
+        }
+        Long baseline = this.operationBaselines.get(operation);
+        return (baseline == null) ? -1L : baseline;
+    }
+
+    private int getLimitLocked() {
+        return (int) this.limit;
+    }
+
+    /**
+     * Gets the current number of requests that may be in flight at once.
+     *
+     * @return The current limit.
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return this.getLimitLocked();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests currently holding a slot.
+     *
+     * @return The number of in-flight requests.
+     */
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the shared baseline latency used for requests released without an operation.
+     *
+     * @param unit The unit to return the latency in.
+     * @return The baseline latency or -1 if no request has completed yet.
+     */
+    public long getBaselineLatency(TimeUnit unit) {
+        return this.getBaselineLatency(null, unit);
+    }
+
+    /**
+     * Gets the lowest latency observed so far for an operation, which is used as its healthy reference point.
+     *
+     * @param operation The operation, or null for the shared baseline.
+     * @param unit The unit to return the latency in.
+     * @return The baseline latency or -1 if no request for the operation has completed yet.
+     */
+    public long getBaselineLatency(Operation operation, TimeUnit unit) {
+        this.lock.lock();
+        try {
+            long baseline = this.getBaselineLocked(operation);
+            return (baseline < 0) ? -1L : unit.convert(baseline, TimeUnit.NANOSECONDS);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getMinLimit() {
+        return this.minLimit;
+    }
+
+    public int getMaxLimit() {
+        return this.maxLimit;
+    }
+
+    public void setBackoffRatio(double backoffRatio) {
+        if(backoffRatio <= 0.0 || backoffRatio >= 1.0) {
+            throw new IllegalArgumentException("Backoff ratio must be between zero and one.");
+        }
+        this.lock.lock();
+        try {
+            this.backoffRatio = backoffRatio;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets how many times slower than the baseline a response may be before it is treated as a sign of overload.
+     *
+     * @param latencyTolerance A multiplier greater than one.
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        if(latencyTolerance <= 1.0) {
+            throw new IllegalArgumentException("Latency tolerance must be greater than one.");
+        }
+        this.lock.lock();
+        try {
+            this.latencyTolerance = latencyTolerance;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+/**
+ * Parses IPv4 and IPv6 address literals without ever falling back to a DNS lookup, unlike
+ * {@link java.net.InetAddress#getByName(String)}. Used on the routing path, where a request value that happens to be a
+ * host name must not stall the calling thread.
+ *
+ * @author Matt Bertolini
+ */
+final class AddressLiterals {
+    private static final int IPV4_LENGTH = 4;
+    private static final int IPV6_LENGTH = 16;
+
+    private AddressLiterals() {
+        //
+    }
+
+    /**
+     * Parses an address literal. IPv6 literals may be enclosed in brackets and carry a zone id, which is ignored.
+     *
+     * @param text The literal.
+     * @return The address bytes in network order, or null if the text is not an address literal.
+     */
+    static byte[] parse(String text) {
+        if(text == null || text.isEmpty()) {
+            return null;
+        }
+        if(text.indexOf(':') < 0) {
+            return parseIpv4(text);
+        }
+        return parseIpv6(text);
+    }
+
+    private static byte[] parseIpv4(String text) {
+        byte[] address = new byte[IPV4_LENGTH];
+        int octet = 0;
+        int value = -1;
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(c == '.') {
+                if(value < 0 || octet == IPV4_LENGTH - 1) {
+                    return null;
+                }
+                address[octet++] = (byte) value;
+                value = -1;
+            } else if(c >= '0' && c <= '9') {
+                value = ((value < 0) ? 0 : value * 10) + (c - '0');
+                if(value > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        if(value < 0 || octet != IPV4_LENGTH - 1) {
+            return null;
+        }
+        address[octet] = (byte) value;
+        return address;
+    }
+
+    private static byte[] parseIpv6(String text) {
+        String value = text;
+        if(value.startsWith("[") && value.endsWith("]")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        int zone = value.indexOf('%');
+        if(zone >= 0) {
+            value = value.substring(0, zone);
+        }
+        int gap = value.indexOf("::");
+        if(gap < 0) {
+            byte[] address = new byte[IPV6_LENGTH];
+            return (parseGroups(value, address, true) == IPV6_LENGTH) ? unmapIpv4(address) : null;
+        }
+        if(value.indexOf("::", gap + 1) >= 0) {
+            return null;
+        }
+        byte[] head = new byte[IPV6_LENGTH];
+        byte[] tail = new byte[IPV6_LENGTH];
+        int headLength = parseGroups(value.substring(0, gap), head, false);
+        int tailLength = parseGroups(value.substring(gap + 2), tail, true);
+        if(headLength < 0 || tailLength < 0 || headLength + tailLength > IPV6_LENGTH - 2) {
+            return null;
+        }
+        byte[] address = new byte[IPV6_LENGTH];
+        System.arraycopy(head, 0, address, 0, headLength);
+        System.arraycopy(tail, 0, address, IPV6_LENGTH - tailLength, tailLength);
+        return unmapIpv4(address);
+    }
+
+    /**
+     * Returns IPv4-mapped addresses (<code>::ffff:a.b.c.d</code>) as plain IPv4 addresses, the same way
+     * InetAddress does, so they match IPv4 routes.
+     */
+    private static byte[] unmapIpv4(byte[] address) {
+        for(int i = 0; i < 10; i++) {
+            if(address[i] != 0) {
+                return address;
+            }
+        }
+        if(address[10] != (byte) 0xff || address[11] != (byte) 0xff) {
+            return address;
+        }
+        byte[] ipv4 = new byte[IPV4_LENGTH];
+        System.arraycopy(address, 12, ipv4, 0, IPV4_LENGTH);
+        return ipv4;
+    }
+
+    /**
+     * Parses colon separated groups of up to four hex digits into the buffer.
+     *
+     * @return The number of bytes written or -1 if the groups are malformed.
+     */
+    private static int parseGroups(String part, byte[] out, boolean allowIpv4) {
+        if(part.isEmpty()) {
+            return 0;
+        }
+        String[] groups = part.split(":", -1);
+        int length = 0;
+        for(int i = 0; i < groups.length; i++) {
+            String group = groups[i];
+            if(allowIpv4 && i == groups.length - 1 && group.indexOf('.') >= 0) {
+                byte[] ipv4 = parseIpv4(group);
+                if(ipv4 == null || length + IPV4_LENGTH > IPV6_LENGTH) {
+                    return -1;
+                }
+                System.arraycopy(ipv4, 0, out, length, IPV4_LENGTH);
+                return length + IPV4_LENGTH;
+            }
+            if(group.isEmpty() || group.length() > 4 || length + 2 > IPV6_LENGTH) {
+                return -1;
+            }
+            int value = 0;
+            for(int j = 0; j < group.length(); j++) {
+                int digit = hexValue(group.charAt(j));
+                if(digit < 0) {
+                    return -1;
+                }
+                value = (value << 4) | digit;
+            }
+            out[length++] = (byte) (value >> 8);
+            out[length++] = (byte) value;
+        }
+        return length;
+    }
+
+    private static int hexValue(char c) {
+        if(c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if(c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if(c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
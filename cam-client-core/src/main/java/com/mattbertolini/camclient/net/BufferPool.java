@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread safe pool of byte and char arrays for request and response bodies, so that steady-state request handling
+ * reuses the same few buffers instead of allocating new ones for every request.
+ * <p>
+ * Buffers come in fixed size classes. A request for a buffer is served from the smallest class that is large enough;
+ * requests larger than the largest class are allocated outright and are not retained when released. Each class keeps
+ * at most {@link #getMaxRetainedPerClass()} idle buffers, and taking or returning a buffer does not allocate.
+ * <p>
+ * A buffer must not be used after it has been released.
+ *
+ * @author Matt Bertolini
+ */
+public class BufferPool {
+    private static final int[] DEFAULT_SIZE_CLASSES = {1024, 4096, 16384, 65536};
+    private static final int DEFAULT_MAX_RETAINED_PER_CLASS = 32;
+    private static final BufferPool DEFAULT = new BufferPool();
+
+    private final int[] sizeClasses;
+    private final int maxRetainedPerClass;
+    private final List<Slots<byte[]>> byteSlots;
+    private final List<Slots<char[]>> charSlots;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+
+    public BufferPool() {
+        this(DEFAULT_SIZE_CLASSES, DEFAULT_MAX_RETAINED_PER_CLASS);
+    }
+
+    /**
+     * @param sizeClasses The buffer sizes to pool, in ascending order.
+     * @param maxRetainedPerClass How many idle buffers of each size and type to keep.
+     */
+    public BufferPool(int[] sizeClasses, int maxRetainedPerClass) {
+        if(sizeClasses == null || sizeClasses.length == 0) {
+            throw new IllegalArgumentException("Size classes cannot be empty.");
+        }
+        for(int i = 0; i < sizeClasses.length; i++) {
+            if(sizeClasses[i] < 1 || (i > 0 && sizeClasses[i] <= sizeClasses[i - 1])) {
+                throw new IllegalArgumentException("Size classes must be positive and in ascending order.");
+            }
+        }
+        if(maxRetainedPerClass < 0) {
+            throw new IllegalArgumentException("Max retained buffers cannot be negative.");
+        }
+        this.sizeClasses = sizeClasses.clone();
+        this.maxRetainedPerClass = maxRetainedPerClass;
+        this.byteSlots = new ArrayList<Slots<byte[]>>(sizeClasses.length);
+        this.charSlots = new ArrayList<Slots<char[]>>(sizeClasses.length);
+        for(int i = 0; i < sizeClasses.length; i++) {
+            this.byteSlots.add(new Slots<byte[]>(maxRetainedPerClass));
+            this.charSlots.add(new Slots<char[]>(maxRetainedPerClass));
+        }
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+
+    /**
+     * Gets the pool shared by the transports and the response parser.
+     *
+     * @return The shared pool.
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Borrows a byte array of at least the given size. It may be larger and its contents are undefined.
+     *
+     * @param minimumSize The smallest acceptable length.
+     * @return The buffer.
+     */
+    public byte[] acquireBytes(int minimumSize) {
+        int index = this.classFor(minimumSize);
+        if(index < 0) {
+            this.missCount.incrementAndGet();
+            return new byte[minimumSize];
+        }
+        byte[] buffer = this.byteSlots.get(index).poll();
+        if(buffer == null) {
+            this.missCount.incrementAndGet();
+            return new byte[this.sizeClasses[index]];
+        }
+        this.hitCount.incrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a byte array to the pool. Arrays that are not exactly one of the size classes, or that arrive when the
+     * class is already full, are left for the garbage collector.
+     *
+     * @param buffer The buffer, or null.
+     */
+    public void releaseBytes(byte[] buffer) {
+        if(buffer == null) {
+            return;
+        }
+        int index = this.exactClass(buffer.length);
+        if(index >= 0) {
+            this.byteSlots.get(index).offer(buffer);
+        }
+    }
+
+    /**
+     * Replaces a buffer with a larger one, copying the bytes in use and releasing the old buffer.
+     *
+     * @param buffer The buffer to grow.
+     * @param length The number of bytes in use.
+     * @param minimumSize The smallest acceptable length of the new buffer.
+     * @return The new buffer.
+     */
+    public byte[] growBytes(byte[] buffer, int length, int minimumSize) {
+        byte[] larger = this.acquireBytes(Math.max(minimumSize, buffer.length * 2));
+        System.arraycopy(buffer, 0, larger, 0, length);
+        this.releaseBytes(buffer);
+        return larger;
+    }
+
+    /**
+     * Borrows a char array of at least the given size. It may be larger and its contents are undefined.
+     *
+     * @param minimumSize The smallest acceptable length.
+     * @return The buffer.
+     */
+    public char[] acquireChars(int minimumSize) {
+        int index = this.classFor(minimumSize);
+        if(index < 0) {
+            this.missCount.incrementAndGet();
+            return new char[minimumSize];
+        }
+        char[] buffer = this.charSlots.get(index).poll();
+        if(buffer == null) {
+            this.missCount.incrementAndGet();
+            return new char[this.sizeClasses[index]];
+        }
+        this.hitCount.incrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a char array to the pool. See {@link #releaseBytes(byte[])}.
+     *
+     * @param buffer The buffer, or null.
+     */
+    public void releaseChars(char[] buffer) {
+        if(buffer == null) {
+            return;
+        }
+        int index = this.exactClass(buffer.length);
+        if(index >= 0) {
+            this.charSlots.get(index).offer(buffer);
+        }
+    }
+
+    /**
+     * Replaces a buffer with a larger one, copying the chars in use and releasing the old buffer.
+     *
+     * @param buffer The buffer to grow.
+     * @param length The number of chars in use.
+     * @param minimumSize The smallest acceptable length of the new buffer.
+     * @return The new buffer.
+     */
+    public char[] growChars(char[] buffer, int length, int minimumSize) {
+        char[] larger = this.acquireChars(Math.max(minimumSize, buffer.length * 2));
+        System.arraycopy(buffer, 0, larger, 0, length);
+        this.releaseChars(buffer);
+        return larger;
+    }
+
+    public int[] getSizeClasses() {
+        return this.sizeClasses.clone();
+    }
+
+    public int getMaxRetainedPerClass() {
+        return this.maxRetainedPerClass;
+    }
+
+    /**
+     * Gets the number of requests served with a pooled buffer.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Gets the number of requests that had to allocate a new buffer.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Gets the number of idle buffers currently held, of both types.
+     *
+     * @return The retained buffer count.
+     */
+    public int getRetainedCount() {
+        int count = 0;
+        for(int i = 0; i < this.sizeClasses.length; i++) {
+            count += this.byteSlots.get(i).count() + this.charSlots.get(i).count();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{sizeClasses=" + Arrays.toString(this.sizeClasses) + ", maxRetainedPerClass="
+                + this.maxRetainedPerClass + ", hits=" + this.hitCount.get() + ", misses=" + this.missCount.get() + "}";
+    }
+
+    private int classFor(int size) {
+        for(int i = 0; i < this.sizeClasses.length; i++) {
+            if(size <= this.sizeClasses[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int exactClass(int length) {
+        for(int i = 0; i < this.sizeClasses.length; i++) {
+            if(length == this.sizeClasses[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A fixed set of slots claimed and filled with compare-and-set, so neither side takes a lock or allocates.
+     */
+    private static final class Slots<T> {
+        private final AtomicReferenceArray<T> slots;
+
+        private Slots(int size) {
+            this.slots = new AtomicReferenceArray<T>(size);
+        }
+
+        private T poll() {
+            for(int i = 0; i < this.slots.length(); i++) {
+                T value = this.slots.get(i);
+                if(value != null && this.slots.compareAndSet(i, value, null)) {
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        private void offer(T value) {
+            for(int i = 0; i < this.slots.length(); i++) {
+                if(this.slots.get(i) == null && this.slots.compareAndSet(i, null, value)) {
+                    return;
+                }
+            }
+        }
+
+        private int count() {
+            int count = 0;
+            for(int i = 0; i < this.slots.length(); i++) {
+                if(this.slots.get(i) != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
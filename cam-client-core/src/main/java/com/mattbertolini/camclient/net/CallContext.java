@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Carries the deadline and cancellation state of a call down to the transport. A context is attached to the calling
+ * thread with {@link #attach(CallContext)}; transports read it with {@link #current()}, derive socket timeouts from
+ * its deadline and register an abort action that closes the underlying HTTP connection if the call is cancelled.
+ *
+ * <pre>
+ * CallContext context = new CallContext(Deadline.after(2, TimeUnit.SECONDS));
+ * CallContext previous = CallContext.attach(context);
+ * try {
+ *     client.kickUser(ipAddress);
+ * } finally {
+ *     CallContext.restore(previous);
+ * }
+ * </pre>
+ *
+ * @author Matt Bertolini
+ */
+public final class CallContext {
+    private static final ThreadLocal<CallContext> CURRENT = new ThreadLocal<CallContext>();
+
+    private final List<Runnable> abortActions;
+    private volatile Deadline deadline;
+    private volatile boolean cancelled;
+    private CallContext parent;
+    private Runnable parentAbortAction;
+
+    /**
+     * @param deadline The deadline for the call or null for none.
+     */
+    public CallContext(Deadline deadline) {
+        this.abortActions = new ArrayList<Runnable>();
+        this.deadline = deadline;
+        this.cancelled = false;
+    }
+
+    /**
+     * Gets the context attached to the current thread.
+     *
+     * @return The current context or null if there is none.
+     */
+    public static CallContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Attaches a context to the current thread.
+     *
+     * @param context The context to attach.
+     * @return The previously attached context, to be passed to {@link #restore(CallContext)}.
+     */
+    public static CallContext attach(CallContext context) {
+        CallContext previous = CURRENT.get();
+        CURRENT.set(context);
+        return previous;
+    }
+
+    /**
+     * Restores the context that was attached before a call to {@link #attach(CallContext)}.
+     *
+     * @param previous The context returned by attach. May be null.
+     */
+    public static void restore(CallContext previous) {
+        if(previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Wraps a task so that it runs with the current thread's context attached, for handing work to another thread.
+     *
+     * @param task The task.
+     * @param <T> The result type.
+     * @return The wrapped task or the task itself if there is no current context.
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        final CallContext context = CURRENT.get();
+        if(context == null) {
+            return task;
+        }
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                CallContext previous = attach(context);
+                try {
+                    return task.call();
+                } finally {
+                    restore(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a context for one of several calls made on behalf of the current context. It shares the current
+     * deadline and is cancelled along with it, but can also be cancelled on its own. Release it with
+     * {@link #release()} when the call finishes.
+     *
+     * @return A child of the current context or a new context without a deadline if there is none.
+     */
+    public static CallContext forkCurrent() {
+        CallContext current = CURRENT.get();
+        return (current == null) ? new CallContext(null) : current.newChild();
+    }
+
+    private CallContext newChild() {
+        final CallContext child = new CallContext(this.deadline);
+        child.parent = this;
+        child.parentAbortAction = new Runnable() {
+            @Override
+            public void run() {
+                child.cancel();
+            }
+        };
+        this.addAbortAction(child.parentAbortAction);
+        return child;
+    }
+
+    /**
+     * Unlinks a context created by {@link #forkCurrent()} from its parent.
+     */
+    public void release() {
+        if(this.parent != null) {
+            this.parent.removeAbortAction(this.parentAbortAction);
+        }
+    }
+
+    public Deadline getDeadline() {
+        return this.deadline;
+    }
+
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Cancels the call, running every registered abort action.
+     */
+    public void cancel() {
+        List<Runnable> actions;
+        synchronized(this.abortActions) {
+            if(this.cancelled) {
+                return;
+            }
+            this.cancelled = true;
+            actions = new ArrayList<Runnable>(this.abortActions);
+            this.abortActions.clear();
+        }
+        for(Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /**
+     * Registers an action that aborts in-flight work when the call is cancelled. If the call has already been
+     * cancelled the action runs immediately.
+     *
+     * @param action The abort action.
+     */
+    public void addAbortAction(Runnable action) {
+        synchronized(this.abortActions) {
+            if(!this.cancelled) {
+                this.abortActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    public void removeAbortAction(Runnable action) {
+        synchronized(this.abortActions) {
+            this.abortActions.remove(action);
+        }
+    }
+
+    /**
+     * Throws if the call has been cancelled or its deadline has passed.
+     *
+     * @throws RequestCancelledException If the call was cancelled.
+     * @throws DeadlineExceededException If the deadline has passed.
+     */
+    public void checkActive() {
+        if(this.cancelled) {
+            throw new RequestCancelledException("Request to the CAM was cancelled.");
+        }
+        Deadline current = this.deadline;
+        if(current != null && current.isExpired()) {
+            throw new DeadlineExceededException("Deadline passed before the request to the CAM completed.");
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker that tracks the outcome of the most recent calls in a count-based sliding window.
+ * <p>
+ * While CLOSED, calls flow normally. Once the window holds at least the minimum number of calls and either the
+ * failure rate or the slow-call rate reaches its threshold, the breaker moves to OPEN and rejects calls for the wait
+ * duration. It then moves to HALF_OPEN and lets a small number of trial calls through; if they are healthy the
+ * breaker closes again, otherwise it re-opens.
+ *
+ * @author Matt Bertolini
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final int DEFAULT_WINDOW_SIZE = 100;
+    private static final int DEFAULT_MIN_CALLS = 20;
+    private static final int DEFAULT_HALF_OPEN_CALLS = 5;
+    private static final float DEFAULT_FAILURE_RATE_THRESHOLD = 50.0f;
+    private static final float DEFAULT_SLOW_CALL_RATE_THRESHOLD = 80.0f;
+    private static final long DEFAULT_SLOW_CALL_DURATION = TimeUnit.SECONDS.toNanos(5);
+    private static final long DEFAULT_WAIT_DURATION = TimeUnit.SECONDS.toNanos(30);
+    private static final byte OUTCOME_FAILURE = 1;
+    private static final byte OUTCOME_SLOW = 2;
+
+    private final String name;
+    private final List<CircuitBreakerListener> listeners;
+    private final byte[] window;
+    private final int minCalls;
+    private final int halfOpenCalls;
+    private float failureRateThreshold;
+    private float slowCallRateThreshold;
+    private long slowCallDuration;
+    private long waitDuration;
+
+    private State state;
+    private int windowIndex;
+    private int windowCount;
+    private int windowFailures;
+    private int windowSlowCalls;
+    private long openedAt;
+    private int halfOpenPermitted;
+    private int halfOpenCompleted;
+    private int halfOpenFailures;
+    private int halfOpenSlowCalls;
+
+    public CircuitBreaker(String name) {
+        this(name, DEFAULT_WINDOW_SIZE, DEFAULT_MIN_CALLS, DEFAULT_HALF_OPEN_CALLS);
+    }
+
+    /**
+     * @param name A name for the guarded endpoint, used in exception messages and by listeners.
+     * @param windowSize The number of most recent calls to evaluate.
+     * @param minCalls The number of calls that must be recorded before the breaker may open.
+     * @param halfOpenCalls The number of trial calls allowed while HALF_OPEN.
+     */
+    public CircuitBreaker(String name, int windowSize, int minCalls, int halfOpenCalls) {
+        if(windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be at least one.");
+        }
+        if(minCalls < 1 || minCalls > windowSize) {
+            throw new IllegalArgumentException("Minimum calls must be between one and the window size.");
+        }
+        if(halfOpenCalls < 1) {
+            throw new IllegalArgumentException("Half-open calls must be at least one.");
+        }
+        this.name = name;
+        this.listeners = new CopyOnWriteArrayList<CircuitBreakerListener>();
+        this.window = new byte[windowSize];
+        this.minCalls = minCalls;
+        this.halfOpenCalls = halfOpenCalls;
+        this.failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+        this.slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+        this.slowCallDuration = DEFAULT_SLOW_CALL_DURATION;
+        this.waitDuration = DEFAULT_WAIT_DURATION;
+        this.state = State.CLOSED;
+    }
+
+    /**
+     * Asks the breaker whether a call may proceed. A call that is permitted must be reported with
+     * {@link #onSuccess(long)} or {@link #onError(long)}, or handed back with {@link #releasePermission()} if its
+     * outcome says nothing about the CAM.
+     *
+     * @return True if the call may proceed.
+     */
+    public boolean tryAcquirePermission() {
+        boolean permitted;
+        boolean halfOpened = false;
+        synchronized(this) {
+            if(this.state == State.OPEN && System.nanoTime() - this.openedAt >= this.waitDuration) {
+                this.transitionTo(State.HALF_OPEN);
+                halfOpened = true;
+            }
+            if(this.state == State.CLOSED) {
+                permitted = true;
+            } else if(this.state == State.HALF_OPEN && this.halfOpenPermitted < this.halfOpenCalls) {
+                this.halfOpenPermitted++;
+                permitted = true;
+            } else {
+                permitted = false;
+            }
+        }
+        if(halfOpened) {
+            this.notifyListeners(State.OPEN, State.HALF_OPEN);
+        }
+        return permitted;
+    }
+
+    /**
+     * Hands back a permission without recording an outcome, e.g. for a call the caller cancelled. While HALF_OPEN
+     * this frees the trial slot for another call.
+     */
+    public synchronized void releasePermission() {
+        if(this.state == State.HALF_OPEN && this.halfOpenPermitted > this.halfOpenCompleted) {
+            this.halfOpenPermitted--;
+        }
+    }
+
+    public void onSuccess(long duration) {
+        this.record(duration, false);
+    }
+
+    public void onError(long duration) {
+        this.record(duration, true);
+    }
+
+    private void record(long duration, boolean failure) {
+        State from;
+        State to;
+        synchronized(this) {
+            boolean slow = duration >= this.slowCallDuration;
+            from = this.state;
+            if(this.state == State.HALF_OPEN) {
+                this.recordHalfOpen(failure, slow);
+            } else if(this.state == State.CLOSED) {
+                this.recordClosed(failure, slow);
+            }
+            to = this.state;
+        }
+        if(from != to) {
+            this.notifyListeners(from, to);
+        }
+    }
+
+    private void recordClosed(boolean failure, boolean slow) {
+        byte outcome = 0;
+        if(failure) {
+            outcome |= OUTCOME_FAILURE;
+        }
+        if(slow) {
+            outcome |= OUTCOME_SLOW;
+        }
+        if(this.windowCount == this.window.length) {
+            byte evicted = this.window[this.windowIndex];
+            if((evicted & OUTCOME_FAILURE) != 0) {
+                this.windowFailures--;
+            }
+            if((evicted & OUTCOME_SLOW) != 0) {
+                this.windowSlowCalls--;
+            }
+        } else {
+            this.windowCount++;
+        }
+        this.window[this.windowIndex] = outcome;
+        this.windowIndex = (this.windowIndex + 1) % this.window.length;
+        if(failure) {
+            this.windowFailures++;
+        }
+        if(slow) {
+            this.windowSlowCalls++;
+        }
+        if(this.windowCount >= this.minCalls
+                && this.exceedsThresholds(this.windowFailures, this.windowSlowCalls, this.windowCount)) {
+            this.transitionTo(State.OPEN);
+        }
+    }
+
+    private void recordHalfOpen(boolean failure, boolean slow) {
+        this.halfOpenCompleted++;
+        if(failure) {
+            this.halfOpenFailures++;
+        }
+        if(slow) {
+            this.halfOpenSlowCalls++;
+        }
+        if(this.halfOpenCompleted >= this.halfOpenCalls) {
+            if(this.exceedsThresholds(this.halfOpenFailures, this.halfOpenSlowCalls, this.halfOpenCompleted)) {
+                this.transitionTo(State.OPEN);
+            } else {
+                this.transitionTo(State.CLOSED);
+            }
+        }
+    }
+
+    private boolean exceedsThresholds(int failures, int slowCalls, int calls) {
+        float failureRate = failures * 100.0f / calls;
+        float slowCallRate = slowCalls * 100.0f / calls;
+        return failureRate >= this.failureRateThreshold || slowCallRate >= this.slowCallRateThreshold;
+    }
+
+    private void transitionTo(State newState) {
+        this.state = newState;
+        this.windowIndex = 0;
+        this.windowCount = 0;
+        this.windowFailures = 0;
+        this.windowSlowCalls = 0;
+        this.halfOpenPermitted = 0;
+        this.halfOpenCompleted = 0;
+        this.halfOpenFailures = 0;
+        this.halfOpenSlowCalls = 0;
+        if(newState == State.OPEN) {
+            this.openedAt = System.nanoTime();
+        }
+    }
+
+    private void notifyListeners(State from, State to) {
+        for(CircuitBreakerListener listener : this.listeners) {
+            listener.onStateTransition(this, from, to);
+        }
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void addListener(CircuitBreakerListener listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(CircuitBreakerListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * @param failureRateThreshold The percentage of failed calls (0-100) at or above which the breaker opens.
+     */
+    public synchronized void setFailureRateThreshold(float failureRateThreshold) {
+        if(failureRateThreshold <= 0.0f || failureRateThreshold > 100.0f) {
+            throw new IllegalArgumentException("Failure rate threshold must be greater than 0 and at most 100.");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * @param slowCallRateThreshold The percentage of slow calls (0-100) at or above which the breaker opens.
+     */
+    public synchronized void setSlowCallRateThreshold(float slowCallRateThreshold) {
+        if(slowCallRateThreshold <= 0.0f || slowCallRateThreshold > 100.0f) {
+            throw new IllegalArgumentException("Slow call rate threshold must be greater than 0 and at most 100.");
+        }
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * @param slowCallDuration Calls taking at least this long are counted as slow.
+     * @param unit The unit of the duration.
+     */
+    public synchronized void setSlowCallDuration(long slowCallDuration, TimeUnit unit) {
+        if(slowCallDuration < 0) {
+            throw new IllegalArgumentException("Slow call duration cannot be negative.");
+        }
+        this.slowCallDuration = unit.toNanos(slowCallDuration);
+    }
+
+    /**
+     * @param waitDuration How long the breaker stays OPEN before allowing trial calls.
+     * @param unit The unit of the duration.
+     */
+    public synchronized void setWaitDuration(long waitDuration, TimeUnit unit) {
+        if(waitDuration < 0) {
+            throw new IllegalArgumentException("Wait duration cannot be negative.");
+        }
+        this.waitDuration = unit.toNanos(waitDuration);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.response.CamResponse;
+
+/**
+ * A CamConnection decorator that stops sending requests to a CAM that is failing or responding slowly. While the
+ * {@link CircuitBreaker} is open, calls fail immediately with a {@link CircuitBreakerOpenException} instead of tying
+ * up a thread until the socket times out.
+ * <p>
+ * Calls that end because the caller cancelled them ({@link RequestCancelledException}) are not counted, since the
+ * caller gave up rather than the CAM failing. A call whose deadline passes ({@link DeadlineExceededException}) is
+ * counted as a failure: a CAM that hangs shows up as exactly that, and it is what the breaker is for.
+ *
+ * @author Matt Bertolini
+ */
+public class CircuitBreakerCamConnection implements CamConnection {
+    private final CamConnection connection;
+    private final CircuitBreaker circuitBreaker;
+
+    public CircuitBreakerCamConnection(CamConnection connection, CircuitBreaker circuitBreaker) {
+        if(connection == null) {
+            throw new IllegalArgumentException("Connection cannot be null.");
+        }
+        if(circuitBreaker == null) {
+            throw new IllegalArgumentException("Circuit breaker cannot be null.");
+        }
+        this.connection = connection;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public CamResponse executeRequest(CamRequest request) {
+        if(!this.circuitBreaker.tryAcquirePermission()) {
+            throw new CircuitBreakerOpenException("Circuit breaker " + this.circuitBreaker.getName()
+                    + " is " + this.circuitBreaker.getState() + "; not sending request.");
+        }
+        long start = System.nanoTime();
+        CamResponse response;
+        try {
+            response = this.connection.executeRequest(request);
+        } catch (RequestCancelledException e) {
+            this.circuitBreaker.releasePermission();
+            throw e;
+        } catch (RuntimeException e) {
+            this.circuitBreaker.onError(System.nanoTime() - start);
+            throw e;
+        } catch (Error e) {
+            this.circuitBreaker.releasePermission();
+            throw e;
+        }
+        this.circuitBreaker.onSuccess(System.nanoTime() - start);
+        return response;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return this.circuitBreaker;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.response.CamResponse;
+
+/**
+ * A CamConnection decorator that caps the number of concurrent requests sent to the CAM using an
+ * {@link AdaptiveConcurrencyLimiter}. Callers over the limit wait for a slot instead of piling more work onto a CAM
+ * that is already slowing down.
+ * <p>
+ * Transport failures ({@link CamConnectionException}) and requests whose deadline passed while waiting on the CAM
+ * ({@link DeadlineExceededException}) count as a sign of overload. Requests that end with any other exception, e.g.
+ * because the caller cancelled or the response could not be parsed, free their slot without affecting the limit.
+ * Latencies are compared per operation.
+ *
+ * @author Matt Bertolini
+ */
+public class ConcurrencyLimitedCamConnection implements CamConnection {
+    private final CamConnection connection;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitedCamConnection(CamConnection connection) {
+        this(connection, new AdaptiveConcurrencyLimiter());
+    }
+
+    public ConcurrencyLimitedCamConnection(CamConnection connection, AdaptiveConcurrencyLimiter limiter) {
+        if(connection == null) {
+            throw new IllegalArgumentException("Connection cannot be null.");
+        }
+        if(limiter == null) {
+            throw new IllegalArgumentException("Limiter cannot be null.");
+        }
+        this.connection = connection;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public CamResponse executeRequest(CamRequest request) {
+        try {
+            this.limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CamClientException("Interrupted while waiting to send a request to the CAM.", e);
+        }
+        long start = System.nanoTime();
+        CamResponse response;
+        try {
+            response = this.connection.executeRequest(request);
+        } catch (CamConnectionException e) {
+            this.limiter.release(request.getOperation(), System.nanoTime() - start, true);
+            throw e;
+        } catch (DeadlineExceededException e) {
+            this.limiter.release(request.getOperation(), System.nanoTime() - start, true);
+            throw e;
+        } catch (RuntimeException e) {
+            this.limiter.release();
+            throw e;
+        } catch (Error e) {
+            this.limiter.release();
+            throw e;
+        }
+        this.limiter.release(request.getOperation(), System.nanoTime() - start, false);
+        return response;
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return this.limiter;
+    }
+}
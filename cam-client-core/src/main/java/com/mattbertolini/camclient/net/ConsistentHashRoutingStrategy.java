@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequest;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Base class for strategies that place connections on a consistent hash ring and route each request by a numeric
+ * key taken from the request. Each connection is given a number of virtual nodes so keys spread evenly, and adding a
+ * connection only moves the keys that land on its new nodes.
+ *
+ * @author Matt Bertolini
+ */
+public abstract class ConsistentHashRoutingStrategy implements RoutingStrategy {
+    private static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final int virtualNodes;
+    private final ConcurrentMap<Integer, SortedMap<Long, Integer>> rings;
+
+    public ConsistentHashRoutingStrategy() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRoutingStrategy(int virtualNodes) {
+        if(virtualNodes < 1) {
+            throw new IllegalArgumentException("Virtual nodes must be at least one.");
+        }
+        this.virtualNodes = virtualNodes;
+        this.rings = new ConcurrentHashMap<Integer, SortedMap<Long, Integer>>();
+    }
+
+    /**
+     * Extracts the routing key from the request.
+     *
+     * @param request The request to route.
+     * @return The key or null if the request does not contain one.
+     */
+    protected abstract Long getRoutingKey(CamRequest request);
+
+    @Override
+    public int selectConnection(CamRequest request, int connectionCount) {
+        if(connectionCount < 1) {
+            throw new IllegalArgumentException("There must be at least one connection.");
+        }
+        Long key = this.getRoutingKey(request);
+        if(key == null) {
+            return -1;
+        }
+        SortedMap<Long, Integer> ring = this.getRing(connectionCount);
+        SortedMap<Long, Integer> tail = ring.tailMap(mix(key));
+        if(tail.isEmpty()) {
+            return ring.get(ring.firstKey());
+        }
+        return tail.get(tail.firstKey());
+    }
+
+    private SortedMap<Long, Integer> getRing(int connectionCount) {
+        SortedMap<Long, Integer> ring = this.rings.get(connectionCount);
+        if(ring == null) {
+            TreeMap<Long, Integer> newRing = new TreeMap<Long, Integer>();
+            for(int i = 0; i < connectionCount; i++) {
+                for(int v = 0; v < this.virtualNodes; v++) {
+                    newRing.put(mix(((long) i << 32) | v), i);
+                }
+            }
+            SortedMap<Long, Integer> existing = this.rings.putIfAbsent(connectionCount, newRing);
+            ring = (existing == null) ? newRing : existing;
+        }
+        return ring;
+    }
+
+    /**
+     * Scrambles the bits of a key (the finalizer from MurmurHash3) so that sequential keys such as MAC addresses
+     * from the same vendor prefix land far apart on the ring.
+     */
+    static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Looks up a parameter value on the request.
+     *
+     * @param request The request.
+     * @param parameter The parameter to look up.
+     * @return The value or null if the parameter is not set.
+     */
+    protected static String getParameter(CamRequest request, Parameter parameter) {
+        Map<Parameter, String> parameters = request.getParameters();
+        return parameters.get(parameter);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed point in time by which a call to the CAM must complete. Immutable.
+ *
+ * @author Matt Bertolini
+ */
+public final class Deadline {
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Creates a deadline the given amount of time from now.
+     *
+     * @param timeout The time allowed.
+     * @param unit The unit of the timeout.
+     * @return The deadline.
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        if(timeout < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative.");
+        }
+        if(unit == null) {
+            throw new IllegalArgumentException("Unit cannot be null.");
+        }
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Gets the earlier of two deadlines, either of which may be null.
+     *
+     * @param first A deadline or null.
+     * @param second A deadline or null.
+     * @return The earlier deadline or null if both are null.
+     */
+    public static Deadline earliest(Deadline first, Deadline second) {
+        if(first == null) {
+            return second;
+        }
+        if(second == null) {
+            return first;
+        }
+        return (first.deadlineNanos - second.deadlineNanos <= 0) ? first : second;
+    }
+
+    /**
+     * Gets the time left before the deadline.
+     *
+     * @param unit The unit to return the time in.
+     * @return The time remaining or zero if the deadline has passed.
+     */
+    public long timeRemaining(TimeUnit unit) {
+        long remaining = this.deadlineNanos - System.nanoTime();
+        return (remaining <= 0) ? 0L : unit.convert(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the time left before the deadline in whole milliseconds, rounded up so that a deadline that has not passed
+     * never maps to zero (which socket APIs treat as no timeout).
+     *
+     * @return The milliseconds remaining or zero if the deadline has passed.
+     */
+    public int timeRemainingMillis() {
+        long remaining = this.deadlineNanos - System.nanoTime();
+        if(remaining <= 0) {
+            return 0;
+        }
+        long millis = (remaining + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+        return (int) Math.min(Integer.MAX_VALUE, millis);
+    }
+
+    public boolean isExpired() {
+        return this.deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{remaining=" + this.timeRemaining(TimeUnit.MILLISECONDS) + "ms}";
+    }
+}
@@ -37,7 +37,8 @@ import java.util.Properties;
 
 /**
  * Default user agent provider reads the version and build information from a properties file and combines it with
- * other system information.
+ * other system information. The string is built on first use and then reused for every request; call
+ * {@link #refresh()} to build it again.
  *
  * @author Matt Bertolini
  */
@@ -51,8 +52,32 @@ public class DefaultUserAgentProvider implements UserAgentProvider {
     private static final String OS_VERSION = "os.version";
     private static final String OS_ARCHITECTURE = "os.arch";
 
+    private volatile String userAgent;
+
     @Override
     public String getUserAgentString() {
+        String cached = this.userAgent;
+        if(cached == null) {
+            // Racing threads may both build the string; they build the same value, so either result is fine.
+            cached = this.buildUserAgentString();
+            this.userAgent = cached;
+        }
+        return cached;
+    }
+
+    /**
+     * Rebuilds the user agent string, re-reading the version information and system properties.
+     *
+     * @return The new user agent string.
+     */
+    @Override
+    public String refresh() {
+        String rebuilt = this.buildUserAgentString();
+        this.userAgent = rebuilt;
+        return rebuilt;
+    }
+
+    private String buildUserAgentString() {
         String libraryName = null;
         String libraryVersion = null;
         String libraryBuildDate = null;
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves CAM host names and caches the addresses, so requests keep flowing while DNS is slow or unavailable.
+ * <p>
+ * A cached address is used until its time to live runs out. Shortly before then a lookup is started on a background
+ * thread, so callers normally never wait for DNS after the first lookup of a host. If a refresh fails, the last
+ * address that resolved is kept and served, and lookups are retried in the background. Only a host that has never
+ * resolved, or whose last good address is older than the max stale age, is looked up on the calling thread; if that
+ * lookup fails the stale address is still used when there is one.
+ * <p>
+ * Resolvers are thread safe and meant to be shared by every connection to the same CAM. Close the resolver to stop
+ * its refresh thread.
+ *
+ * @author Matt Bertolini
+ */
+public class EndpointResolver implements Closeable {
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final long DEFAULT_REFRESH_AHEAD_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long DEFAULT_MAX_STALE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long RETRY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final ConcurrentMap<String, Entry> cache;
+    private final ThreadPoolExecutor refreshExecutor;
+    private volatile long ttlNanos;
+    private volatile long refreshAheadNanos;
+    private volatile long maxStaleNanos;
+    private final AtomicLong lookupCount;
+    private final AtomicLong lookupFailureCount;
+    private final AtomicLong cacheHitCount;
+    private final AtomicLong staleHitCount;
+    private final AtomicLong totalLookupNanos;
+    private final AtomicLong maxLookupNanos;
+
+    public EndpointResolver() {
+        this.cache = new ConcurrentHashMap<String, Entry>();
+        this.refreshExecutor = new ThreadPoolExecutor(1, 1, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "cam-endpoint-resolver-" + THREAD_COUNT.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // The thread only exists while refreshes are happening.
+        this.refreshExecutor.allowCoreThreadTimeOut(true);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL_MILLIS);
+        this.refreshAheadNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_REFRESH_AHEAD_MILLIS);
+        this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_STALE_MILLIS);
+        this.lookupCount = new AtomicLong();
+        this.lookupFailureCount = new AtomicLong();
+        this.cacheHitCount = new AtomicLong();
+        this.staleHitCount = new AtomicLong();
+        this.totalLookupNanos = new AtomicLong();
+        this.maxLookupNanos = new AtomicLong();
+    }
+
+    /**
+     * Gets the addresses of a host, from the cache when possible.
+     *
+     * @param host The host name or address literal.
+     * @return The host's addresses.
+     * @throws UnknownHostException If the host cannot be resolved and no earlier address is known.
+     */
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        if(host == null) {
+            throw new IllegalArgumentException("Host cannot be null.");
+        }
+        Entry entry = this.cache.get(host);
+        if(entry != null) {
+            long age = System.nanoTime() - entry.resolvedAt;
+            if(age < this.ttlNanos) {
+                this.cacheHitCount.incrementAndGet();
+                if(age >= this.ttlNanos - this.refreshAheadNanos) {
+                    this.refreshAsync(host, entry);
+                }
+                return entry.addresses.clone();
+            }
+            if(age < this.maxStaleNanos) {
+                // Expired, most likely because the background refresh is failing. Keep serving the last good
+                // address instead of making the caller wait on DNS.
+                this.staleHitCount.incrementAndGet();
+                this.refreshAsync(host, entry);
+                return entry.addresses.clone();
+            }
+        }
+        try {
+            return this.refresh(host).clone();
+        } catch (UnknownHostException e) {
+            if(entry == null) {
+                throw e;
+            }
+            this.staleHitCount.incrementAndGet();
+            return entry.addresses.clone();
+        }
+    }
+
+    /**
+     * Looks up a host's addresses, bypassing the cache. Override to resolve through something other than the JVM
+     * resolver.
+     *
+     * @param host The host name or address literal.
+     * @return The host's addresses.
+     * @throws UnknownHostException If the host cannot be resolved.
+     */
+    protected InetAddress[] lookup(String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    /**
+     * Drops a host from the cache, e.g. after its address stopped accepting connections.
+     *
+     * @param host The host name.
+     */
+    public void invalidate(String host) {
+        this.cache.remove(host);
+    }
+
+    private InetAddress[] refresh(String host) throws UnknownHostException {
+        long start = System.nanoTime();
+        this.lookupCount.incrementAndGet();
+        InetAddress[] addresses;
+        try {
+            addresses = this.lookup(host);
+        } catch (UnknownHostException e) {
+            this.lookupFailureCount.incrementAndGet();
+            throw e;
+        } finally {
+            this.recordLookupTime(System.nanoTime() - start);
+        }
+        if(addresses == null || addresses.length == 0) {
+            this.lookupFailureCount.incrementAndGet();
+            throw new UnknownHostException(host);
+        }
+        this.cache.put(host, new Entry(addresses.clone(), System.nanoTime()));
+        return addresses;
+    }
+
+    private void refreshAsync(final String host, final Entry entry) {
+        if(System.nanoTime() - entry.lastFailure < RETRY_INTERVAL_NANOS) {
+            return;
+        }
+        if(!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh(host);
+                    } catch (UnknownHostException e) {
+                        entry.lastFailure = System.nanoTime();
+                    } finally {
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed; the cached address keeps being served.
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void recordLookupTime(long nanos) {
+        this.totalLookupNanos.addAndGet(nanos);
+        long max = this.maxLookupNanos.get();
+        while(nanos > max && !this.maxLookupNanos.compareAndSet(max, nanos)) {
+            max = this.maxLookupNanos.get();
+        }
+    }
+
+    public long getTtl(TimeUnit unit) {
+        return unit.convert(this.ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets how long a resolved address is used before it is looked up again. This replaces the JVM's own DNS cache
+     * time for hosts resolved here.
+     *
+     * @param ttl The time to live.
+     * @param unit The unit of the time to live.
+     */
+    public void setTtl(long ttl, TimeUnit unit) {
+        if(ttl <= 0) {
+            throw new IllegalArgumentException("TTL must be positive.");
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    public long getRefreshAhead(TimeUnit unit) {
+        return unit.convert(this.refreshAheadNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets how long before an address expires the background refresh starts.
+     *
+     * @param refreshAhead The refresh window, zero to only refresh once the address has expired.
+     * @param unit The unit of the refresh window.
+     */
+    public void setRefreshAhead(long refreshAhead, TimeUnit unit) {
+        if(refreshAhead < 0) {
+            throw new IllegalArgumentException("Refresh ahead cannot be negative.");
+        }
+        this.refreshAheadNanos = unit.toNanos(refreshAhead);
+    }
+
+    public long getMaxStale(TimeUnit unit) {
+        return unit.convert(this.maxStaleNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets how old the last good address may get before callers wait for a fresh lookup rather than being served the
+     * old address straight away. The old address is still used if that lookup fails.
+     *
+     * @param maxStale The maximum age.
+     * @param unit The unit of the maximum age.
+     */
+    public void setMaxStale(long maxStale, TimeUnit unit) {
+        if(maxStale < 0) {
+            throw new IllegalArgumentException("Max stale cannot be negative.");
+        }
+        this.maxStaleNanos = unit.toNanos(maxStale);
+    }
+
+    /**
+     * Gets the number of DNS lookups made, in the foreground and background.
+     *
+     * @return The lookup count.
+     */
+    public long getLookupCount() {
+        return this.lookupCount.get();
+    }
+
+    public long getLookupFailureCount() {
+        return this.lookupFailureCount.get();
+    }
+
+    /**
+     * Gets the number of calls answered from a cached address that had not yet expired.
+     *
+     * @return The cache hit count.
+     */
+    public long getCacheHitCount() {
+        return this.cacheHitCount.get();
+    }
+
+    /**
+     * Gets the number of calls answered with an expired address because no fresh one was available.
+     *
+     * @return The stale hit count.
+     */
+    public long getStaleHitCount() {
+        return this.staleHitCount.get();
+    }
+
+    /**
+     * Gets the mean time a DNS lookup took.
+     *
+     * @param unit The unit to return the time in.
+     * @return The average lookup time, or 0 if no lookups have been made.
+     */
+    public long getAverageLookupTime(TimeUnit unit) {
+        long count = this.lookupCount.get();
+        return (count == 0) ? 0L : unit.convert(this.totalLookupNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxLookupTime(TimeUnit unit) {
+        return unit.convert(this.maxLookupNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops background refreshes. Cached addresses continue to be served.
+     */
+    @Override
+    public void close() {
+        this.refreshExecutor.shutdownNow();
+    }
+
+    private static final class Entry {
+        private final InetAddress[] addresses;
+        private final long resolvedAt;
+        private final AtomicBoolean refreshing;
+        private volatile long lastFailure;
+
+        private Entry(InetAddress[] addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+            this.refreshing = new AtomicBoolean();
+            this.lastFailure = resolvedAt - RETRY_INTERVAL_NANOS;
+        }
+    }
+}
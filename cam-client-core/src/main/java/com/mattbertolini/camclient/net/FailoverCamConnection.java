@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A CamConnection for an active/standby group of CAMs. Requests go to the first connection in the list that is
+ * currently healthy. Once started, every connection is probed in the background with a cheap <code>getversion</code>
+ * request at a fixed rate, so when the primary stops answering traffic moves to the standby within one and a half probe
+ * intervals, and moves back once the primary has answered enough probes in a row.
+ * <p>
+ * The connections are probed in parallel, each under a {@link CallContext} whose deadline is half the probe interval,
+ * so a CAM that hangs instead of refusing connections is marked down as quickly as one that is unreachable and a slow
+ * round never delays the next one. A connection
+ * whose previous probe is still running counts as failed without being sent another.
+ * <p>
+ * A transport failure on a live request also marks that connection down immediately. The failed request itself is
+ * not re-sent; wrap this connection in a {@link RetryingCamConnection} to have safe requests retried against the
+ * standby.
+ *
+ * @author Matt Bertolini
+ */
+public class FailoverCamConnection implements CamConnection, Closeable {
+    private static final long DEFAULT_PROBE_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    private static final int DEFAULT_RECOVERY_THRESHOLD = 2;
+    private static final int PROBE_TIMEOUT_DIVISOR = 2;
+    private static final long PROBE_THREAD_KEEP_ALIVE_SECONDS = 30L;
+    private static final AtomicInteger PROBE_THREAD_COUNT = new AtomicInteger();
+
+    private final List<CamConnection> connections;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicIntegerArray healthy;
+    private final AtomicIntegerArray consecutiveSuccesses;
+    private final AtomicReferenceArray<Future<Boolean>> pendingProbes;
+    private final ExecutorService probeExecutor;
+    private volatile long probeInterval;
+    private volatile int recoveryThreshold;
+    private ScheduledFuture<?> probeTask;
+    private boolean closed;
+
+    /**
+     * @param connections One connection per CAM, in order of preference.
+     * @param scheduler The scheduler the health probes run on.
+     */
+    public FailoverCamConnection(List<CamConnection> connections, ScheduledExecutorService scheduler) {
+        if(connections == null || connections.isEmpty()) {
+            throw new IllegalArgumentException("At least one connection is required.");
+        }
+        if(scheduler == null) {
+            throw new IllegalArgumentException("Scheduler cannot be null.");
+        }
+        this.connections = Collections.unmodifiableList(new ArrayList<CamConnection>(connections));
+        this.scheduler = scheduler;
+        this.healthy = new AtomicIntegerArray(this.connections.size());
+        this.consecutiveSuccesses = new AtomicIntegerArray(this.connections.size());
+        this.pendingProbes = new AtomicReferenceArray<Future<Boolean>>(this.connections.size());
+        // Probe threads are daemons that exit once idle; close() interrupts any probe that is still stuck.
+        this.probeExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, PROBE_THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        String name = "cam-failover-probe-" + PROBE_THREAD_COUNT.incrementAndGet();
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        for(int i = 0; i < this.connections.size(); i++) {
+            this.healthy.set(i, 1);
+        }
+        this.probeInterval = DEFAULT_PROBE_INTERVAL;
+        this.recoveryThreshold = DEFAULT_RECOVERY_THRESHOLD;
+    }
+
+    /**
+     * Starts probing the connections in the background.
+     */
+    public synchronized void start() {
+        if(this.closed) {
+            throw new IllegalStateException("Connection has been closed.");
+        }
+        if(this.probeTask != null) {
+            throw new IllegalStateException("Probing has already been started.");
+        }
+        this.probeTask = this.scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                probe();
+            }
+        }, 0L, this.probeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background probes and interrupts any that are still running. The scheduler itself is owned by the
+     * caller and is left running. Probing cannot be started again afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if(this.probeTask != null) {
+            this.probeTask.cancel(false);
+            this.probeTask = null;
+        }
+        this.closed = true;
+        this.probeExecutor.shutdownNow();
+    }
+
+    @Override
+    public CamResponse executeRequest(CamRequest request) {
+        int index = this.getActiveIndex();
+        try {
+            return this.connections.get(index).executeRequest(request);
+        } catch (CamConnectionException e) {
+            this.markDown(index);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends one probe to every connection in parallel and updates their health. Returns once every probe has
+     * answered or half the probe interval has passed. This is what the background task runs; it is public so callers can
+     * force an immediate check.
+     */
+    public void probe() {
+        if(this.probeExecutor.isShutdown()) {
+            return;
+        }
+        int size = this.connections.size();
+        Deadline deadline = Deadline.after(Math.max(1L, this.probeInterval / PROBE_TIMEOUT_DIVISOR),
+                TimeUnit.MILLISECONDS);
+        List<CallContext> contexts = new ArrayList<CallContext>(size);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(size);
+        for(int i = 0; i < size; i++) {
+            CallContext context = new CallContext(deadline);
+            contexts.add(context);
+            futures.add(this.submitProbe(i, context));
+        }
+        for(int i = 0; i < size; i++) {
+            Future<Boolean> future = futures.get(i);
+            boolean success = false;
+            if(future != null) {
+                try {
+                    success = future.get(deadline.timeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.cancelAll(contexts, futures);
+                    return;
+                } catch (ExecutionException e) {
+                    success = false;
+                } catch (TimeoutException e) {
+                    contexts.get(i).cancel();
+                    future.cancel(true);
+                    success = false;
+                }
+            }
+            if(success) {
+                this.markUp(i);
+            } else {
+                this.markDown(i);
+            }
+        }
+    }
+
+    private Future<Boolean> submitProbe(int index, final CallContext context) {
+        Future<Boolean> previous = this.pendingProbes.get(index);
+        if(previous != null && !previous.isDone()) {
+            // Still stuck in the last round; sending another would only pile up threads.
+            return null;
+        }
+        final CamConnection connection = this.connections.get(index);
+        try {
+            Future<Boolean> future = this.probeExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    CallContext previousContext = CallContext.attach(context);
+                    try {
+                        CamResponse response = connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+                        return !response.isError();
+                    } catch (RuntimeException e) {
+                        return false;
+                    } finally {
+                        CallContext.restore(previousContext);
+                    }
+                }
+            });
+            this.pendingProbes.set(index, future);
+            return future;
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private void cancelAll(List<CallContext> contexts, List<Future<Boolean>> futures) {
+        for(int i = 0; i < futures.size(); i++) {
+            contexts.get(i).cancel();
+            if(futures.get(i) != null) {
+                futures.get(i).cancel(true);
+            }
+        }
+    }
+
+    private void markUp(int index) {
+        int successes = this.consecutiveSuccesses.incrementAndGet(index);
+        if(successes >= this.recoveryThreshold) {
+            this.healthy.set(index, 1);
+        }
+    }
+
+    private void markDown(int index) {
+        this.consecutiveSuccesses.set(index, 0);
+        this.healthy.set(index, 0);
+    }
+
+    private int getActiveIndex() {
+        for(int i = 0; i < this.connections.size(); i++) {
+            if(this.healthy.get(i) == 1) {
+                return i;
+            }
+        }
+        // Nothing is known to be healthy; keep trying the primary rather than failing without sending anything.
+        return 0;
+    }
+
+    /**
+     * Gets the connection that requests are currently sent to.
+     *
+     * @return The active connection.
+     */
+    public CamConnection getActiveConnection() {
+        return this.connections.get(this.getActiveIndex());
+    }
+
+    public boolean isHealthy(int index) {
+        return this.healthy.get(index) == 1;
+    }
+
+    public List<CamConnection> getConnections() {
+        return this.connections;
+    }
+
+    /**
+     * Sets how often the connections are probed. Each probe may take up to half of this. Takes effect the next time
+     * probing is started.
+     *
+     * @param probeInterval The delay between probe rounds.
+     * @param unit The unit of the interval.
+     */
+    public void setProbeInterval(long probeInterval, TimeUnit unit) {
+        if(probeInterval <= 0) {
+            throw new IllegalArgumentException("Probe interval must be positive.");
+        }
+        this.probeInterval = unit.toMillis(probeInterval);
+    }
+
+    /**
+     * Sets how many probes in a row a connection that was marked down must answer before it takes traffic again.
+     *
+     * @param recoveryThreshold The number of consecutive successful probes.
+     */
+    public void setRecoveryThreshold(int recoveryThreshold) {
+        if(recoveryThreshold < 1) {
+            throw new IllegalArgumentException("Recovery threshold must be at least one.");
+        }
+        this.recoveryThreshold = recoveryThreshold;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.CamCredentials;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.request.RequestParameter;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Encodes CAM requests into <code>application/x-www-form-urlencoded</code> bytes. The constant parts of every request
+ * are encoded ahead of time: the <code>op=...</code> prefix for each {@link Operation} is built once when the encoder is
+ * created and the <code>&amp;admin=...&amp;passwd=...</code> suffix is built once per set of credentials. Only the
+ * request parameters are encoded per call, into a buffer borrowed from the shared {@link BufferPool} and returned
+ * once the body has been copied out, so a large request does not leave a large buffer pinned to the thread that sent
+ * it. The output is byte for byte the same as encoding each name and value with {@link java.net.URLEncoder}.
+ *
+ * @author Matt Bertolini
+ */
+public class FormRequestEncoder {
+    private static final byte EQUALS_SIGN = '=';
+    private static final byte AMPERSAND = '&';
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final FormUrlEncoder urlEncoder;
+    private final Map<Operation, byte[]> operationPrefixes;
+    private volatile CredentialSuffix credentialSuffix;
+
+    public FormRequestEncoder(Charset charset) {
+        if(charset == null) {
+            throw new IllegalArgumentException("Charset cannot be null.");
+        }
+        this.urlEncoder = new FormUrlEncoder(charset);
+        this.operationPrefixes = new EnumMap<Operation, byte[]>(Operation.class);
+        for(Operation operation : Operation.values()) {
+            ByteArrayBuilder prefix = new ByteArrayBuilder(INITIAL_BUFFER_SIZE);
+            try {
+                this.appendParameter(prefix, RequestParameter.OPERATION.getName(), operation.getName());
+                this.operationPrefixes.put(operation, prefix.toByteArray());
+            } finally {
+                prefix.release();
+            }
+        }
+    }
+
+    /**
+     * Encodes a request.
+     *
+     * @param request The request to encode.
+     * @param credentials The admin credentials to append or null to leave them out (e.g. when a session cookie is
+     * used).
+     * @return The encoded form body.
+     */
+    public byte[] encode(CamRequest request, CamCredentials credentials) {
+        if(request == null) {
+            throw new IllegalArgumentException("Request cannot be null.");
+        }
+        ByteArrayBuilder buffer = new ByteArrayBuilder(INITIAL_BUFFER_SIZE);
+        try {
+            buffer.append(this.operationPrefixes.get(request.getOperation()));
+            for(Map.Entry<Parameter, String> parameter : request.getParameters().entrySet()) {
+                buffer.append(AMPERSAND);
+                this.appendParameter(buffer, parameter.getKey().getName(), parameter.getValue());
+            }
+            if(credentials != null) {
+                buffer.append(this.getCredentialSuffix(credentials));
+            }
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    public Charset getCharset() {
+        return this.urlEncoder.getCharset();
+    }
+
+    private byte[] getCredentialSuffix(CamCredentials credentials) {
+        String username = credentials.getUsername();
+        String password = credentials.getPassword();
+        CredentialSuffix suffix = this.credentialSuffix;
+        if(suffix == null || !suffix.matches(username, password)) {
+            // Credentials are mutable, so the cached suffix is rebuilt whenever they no longer match.
+            ByteArrayBuilder buffer = new ByteArrayBuilder(INITIAL_BUFFER_SIZE);
+            try {
+                buffer.append(AMPERSAND);
+                this.appendParameter(buffer, RequestParameter.ADMIN_USERNAME.getName(), username);
+                buffer.append(AMPERSAND);
+                this.appendParameter(buffer, RequestParameter.ADMIN_PASSWORD.getName(), password);
+                suffix = new CredentialSuffix(username, password, buffer.toByteArray());
+            } finally {
+                buffer.release();
+            }
+            this.credentialSuffix = suffix;
+        }
+        return suffix.bytes;
+    }
+
+    private void appendParameter(ByteArrayBuilder buffer, String name, String value) {
+        this.appendEncoded(buffer, name);
+        buffer.append(EQUALS_SIGN);
+        this.appendEncoded(buffer, value);
+    }
+
+    private void appendEncoded(ByteArrayBuilder buffer, String value) {
+        if(value == null) {
+            // Mirrors the NullPointerException URLEncoder throws.
+            throw new IllegalArgumentException("Parameter value cannot be null.");
+        }
+        this.urlEncoder.encode(value, buffer);
+    }
+
+    private static final class CredentialSuffix {
+        private final String username;
+        private final String password;
+        private final byte[] bytes;
+
+        private CredentialSuffix(String username, String password, byte[] bytes) {
+            this.username = username;
+            this.password = password;
+            this.bytes = bytes;
+        }
+
+        private boolean matches(String username, String password) {
+            return this.username.equals(username) && this.password.equals(password);
+        }
+    }
+
+    private static final class ByteArrayBuilder implements FormUrlEncoder.Sink {
+        private byte[] bytes;
+        private int size;
+
+        private ByteArrayBuilder(int initialCapacity) {
+            this.bytes = BufferPool.getDefault().acquireBytes(initialCapacity);
+            this.size = 0;
+        }
+
+        @Override
+        public void write(byte b) {
+            this.append(b);
+        }
+
+        private void append(byte b) {
+            this.ensureCapacity(this.size + 1);
+            this.bytes[this.size++] = b;
+        }
+
+        private void append(byte[] b) {
+            this.ensureCapacity(this.size + b.length);
+            System.arraycopy(b, 0, this.bytes, this.size, b.length);
+            this.size += b.length;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if(capacity > this.bytes.length) {
+                this.bytes = BufferPool.getDefault().growBytes(this.bytes, this.size, capacity);
+            }
+        }
+
+        private void release() {
+            BufferPool.getDefault().releaseBytes(this.bytes);
+            this.bytes = null;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(this.bytes, this.size);
+        }
+    }
+}
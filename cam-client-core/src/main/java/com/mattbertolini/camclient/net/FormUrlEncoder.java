@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Percent-encodes form parameter names and values the same way as {@link java.net.URLEncoder#encode(String, String)}:
+ * letters, digits and <code>.-*_</code> are written as they are, spaces become <code>+</code> and every other run of
+ * characters is encoded in the charset and written as <code>%XX</code> escapes. Bytes go straight to a {@link Sink},
+ * so no intermediate string is built.
+ * <p>
+ * Instances are immutable and safe to share between threads.
+ *
+ * @author Matt Bertolini
+ */
+public final class FormUrlEncoder {
+    private static final byte PLUS_SIGN = '+';
+    private static final byte PERCENT_SIGN = '%';
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    private static final int ASCII_LIMIT = 0x80;
+
+    private final Charset charset;
+    private final boolean asciiCompatible;
+
+    public FormUrlEncoder(Charset charset) {
+        if(charset == null) {
+            throw new IllegalArgumentException("Charset cannot be null.");
+        }
+        this.charset = charset;
+        this.asciiCompatible = isAsciiCompatible(charset);
+    }
+
+    /**
+     * Receives encoded bytes.
+     */
+    public interface Sink {
+        void write(byte b);
+    }
+
+    /**
+     * Encodes a string into the sink.
+     *
+     * @param input The string to encode.
+     * @param sink Receives the encoded bytes.
+     */
+    public void encode(String input, Sink sink) {
+        if(input == null) {
+            throw new IllegalArgumentException("Input cannot be null.");
+        }
+        int length = input.length();
+        int i = 0;
+        while(i < length) {
+            char c = input.charAt(i);
+            if(isUnreserved(c)) {
+                sink.write((byte) c);
+                i++;
+            } else if(c == ' ') {
+                sink.write(PLUS_SIGN);
+                i++;
+            } else {
+                int end = i + 1;
+                while(end < length && !isUnreserved(input.charAt(end)) && input.charAt(end) != ' ') {
+                    end++;
+                }
+                if(end - i == 1 && c < ASCII_LIMIT && this.asciiCompatible) {
+                    // The charset encodes ASCII as itself, so a lone ASCII character needs no encoder.
+                    writeEscaped((byte) c, sink);
+                } else {
+                    ByteBuffer encoded = this.charset.encode(CharBuffer.wrap(input, i, end));
+                    while(encoded.hasRemaining()) {
+                        writeEscaped(encoded.get(), sink);
+                    }
+                }
+                i = end;
+            }
+        }
+    }
+
+    public Charset getCharset() {
+        return this.charset;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '.' || c == '-' || c == '*' || c == '_';
+    }
+
+    private static void writeEscaped(byte b, Sink sink) {
+        sink.write(PERCENT_SIGN);
+        sink.write(HEX_DIGITS[(b >> 4) & 0x0F]);
+        sink.write(HEX_DIGITS[b & 0x0F]);
+    }
+
+    /**
+     * Checks whether the charset encodes every ASCII character as the single byte of the same value. True for
+     * ISO-8859-1 and UTF-8, false for UTF-16 and UTF-32.
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        if(!charset.canEncode()) {
+            return false;
+        }
+        char[] ascii = new char[ASCII_LIMIT];
+        for(int i = 0; i < ascii.length; i++) {
+            ascii[i] = (char) i;
+        }
+        ByteBuffer encoded = charset.encode(CharBuffer.wrap(ascii));
+        if(encoded.remaining() != ascii.length) {
+            return false;
+        }
+        for(int i = 0; i < ascii.length; i++) {
+            if(encoded.get() != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
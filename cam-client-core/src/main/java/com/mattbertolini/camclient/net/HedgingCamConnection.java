@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.response.CamResponse;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A CamConnection that hedges read-only requests across two redundant CAMs.
+ * <p>
+ * A read-only request (see {@link com.mattbertolini.camclient.request.Operation#isReadOnly()}) is sent to the primary
+ * connection first. If no response has arrived after the hedge delay, which follows a percentile of recently observed
+ * latencies, the same request is also sent to the secondary connection and whichever answers first wins; the other
+ * call is cancelled. Hedged requests are drawn from a budget that is a fraction of total traffic, so a slow CAM can
+ * never cause more than that share of extra load. Requests that change state are always sent only to the primary.
+ * <p>
+ * The hedge delay follows the primary's own latency, not the latency the caller sees: every primary call is timed
+ * whether it succeeds, fails or is cancelled because the secondary won, and a cancelled call counts the time it had
+ * been running. Otherwise a slow primary that keeps losing to hedges would pull the delay down to the secondary's
+ * latency and hedge ever more requests.
+ *
+ * @author Matt Bertolini
+ */
+public class HedgingCamConnection implements CamConnection {
+    private static final int LATENCY_WINDOW_SIZE = 1000;
+    private static final int MIN_SAMPLES = 20;
+    private static final double DEFAULT_PERCENTILE = 95.0;
+    private static final double DEFAULT_MAX_HEDGE_RATIO = 0.05;
+    private static final int DEFAULT_HEDGE_BURST = 10;
+    private static final long DEFAULT_INITIAL_DELAY = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long DEFAULT_MIN_DELAY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final CamConnection primary;
+    private final CamConnection secondary;
+    private final ExecutorService executorService;
+    private final LatencyWindow primaryLatencies;
+    private final LatencyWindow responseLatencies;
+    private final RetryBudget hedgeBudget;
+    private final AtomicLong hedgedRequests;
+    private final AtomicLong hedgeWins;
+    private volatile double percentile;
+    private volatile long initialDelay;
+    private volatile long minDelay;
+
+    public HedgingCamConnection(CamConnection primary, CamConnection secondary, ExecutorService executorService) {
+        this(primary, secondary, executorService, DEFAULT_MAX_HEDGE_RATIO);
+    }
+
+    /**
+     * @param primary The connection every request is sent to first.
+     * @param secondary The connection that receives hedged duplicates.
+     * @param executorService The executor the calls run on. It needs a free thread for the hedge, otherwise hedging
+     * simply waits for the primary.
+     * @param maxHedgeRatio The largest fraction of requests that may be hedged (e.g. 0.05 for 5%).
+     */
+    public HedgingCamConnection(CamConnection primary, CamConnection secondary, ExecutorService executorService,
+                                double maxHedgeRatio) {
+        if(primary == null || secondary == null) {
+            throw new IllegalArgumentException("Connections cannot be null.");
+        }
+        if(executorService == null) {
+            throw new IllegalArgumentException("Executor service cannot be null.");
+        }
+        if(maxHedgeRatio < 0.0 || maxHedgeRatio > 1.0) {
+            throw new IllegalArgumentException("Max hedge ratio must be between 0 and 1.");
+        }
+        this.primary = primary;
+        this.secondary = secondary;
+        this.executorService = executorService;
+        this.primaryLatencies = new LatencyWindow(LATENCY_WINDOW_SIZE);
+        this.responseLatencies = new LatencyWindow(LATENCY_WINDOW_SIZE);
+        // The budget for hedges works exactly like a retry budget: every request earns a fraction of an extra call.
+        this.hedgeBudget = new RetryBudget(maxHedgeRatio, DEFAULT_HEDGE_BURST);
+        this.hedgedRequests = new AtomicLong();
+        this.hedgeWins = new AtomicLong();
+        this.percentile = DEFAULT_PERCENTILE;
+        this.initialDelay = DEFAULT_INITIAL_DELAY;
+        this.minDelay = DEFAULT_MIN_DELAY;
+    }
+
+    @Override
+    public CamResponse executeRequest(CamRequest request) {
+        if(request.getOperation() == null || !request.getOperation().isReadOnly()) {
+            return this.primary.executeRequest(request);
+        }
+        this.hedgeBudget.deposit();
+        long start = System.nanoTime();
+        CompletionService<CamResponse> completionService = new ExecutorCompletionService<CamResponse>(this.executorService);
+        CallContext primaryContext = CallContext.forkCurrent();
+        CallContext secondaryContext = null;
+        TimedCall primaryCall = new TimedCall(this.primary, request, primaryContext);
+        Future<CamResponse> primaryFuture = completionService.submit(primaryCall);
+        Future<CamResponse> secondaryFuture = null;
+        try {
+            Future<CamResponse> done = completionService.poll(this.getHedgeDelay(), TimeUnit.NANOSECONDS);
+            if(done == null && this.hedgeBudget.tryWithdraw()) {
+                this.hedgedRequests.incrementAndGet();
+                secondaryContext = CallContext.forkCurrent();
+                secondaryFuture = completionService.submit(this.newCall(this.secondary, request, secondaryContext));
+            }
+            if(done == null) {
+                done = completionService.take();
+            }
+            CamResponse response;
+            try {
+                response = done.get();
+            } catch (ExecutionException e) {
+                if(secondaryFuture == null) {
+                    throw e;
+                }
+                // One of the two calls failed; the other may still succeed.
+                done = completionService.take();
+                response = done.get();
+            }
+            if(done == secondaryFuture) {
+                this.hedgeWins.incrementAndGet();
+            }
+            this.responseLatencies.record(System.nanoTime() - start);
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CamClientException("Interrupted while waiting for a response.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CamClientException(cause);
+        } finally {
+            // A primary that is still running is cut short here; count the time it had taken so far.
+            primaryCall.recordLatency();
+            // Aborting the loser's context closes its HTTP connection rather than leaving it to finish unobserved.
+            primaryFuture.cancel(true);
+            primaryContext.cancel();
+            primaryContext.release();
+            if(secondaryFuture != null) {
+                secondaryFuture.cancel(true);
+                secondaryContext.cancel();
+                secondaryContext.release();
+            }
+        }
+    }
+
+    private Callable<CamResponse> newCall(final CamConnection connection, final CamRequest request,
+                                          final CallContext context) {
+        return new Callable<CamResponse>() {
+            @Override
+            public CamResponse call() throws Exception {
+                CallContext previous = CallContext.attach(context);
+                try {
+                    return connection.executeRequest(request);
+                } finally {
+                    CallContext.restore(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets how long a read-only request waits for the primary before it is hedged.
+     *
+     * @return The delay in nanoseconds.
+     */
+    public long getHedgeDelay() {
+        if(this.primaryLatencies.getCount() < MIN_SAMPLES) {
+            return this.initialDelay;
+        }
+        return Math.max(this.minDelay, this.primaryLatencies.getPercentile(this.percentile));
+    }
+
+    /**
+     * Gets a percentile of the primary's own latency over recent read-only requests, including calls that failed or
+     * were cancelled.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency in nanoseconds or -1 if nothing has been recorded.
+     */
+    public long getPrimaryLatency(double percentile) {
+        return this.primaryLatencies.getPercentile(percentile);
+    }
+
+    /**
+     * Gets a percentile of the latency callers saw for recent successful read-only requests, hedged or not.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency in nanoseconds or -1 if nothing has been recorded.
+     */
+    public long getResponseLatency(double percentile) {
+        return this.responseLatencies.getPercentile(percentile);
+    }
+
+    public long getHedgedRequests() {
+        return this.hedgedRequests.get();
+    }
+
+    public long getHedgeWins() {
+        return this.hedgeWins.get();
+    }
+
+    /**
+     * @param percentile The latency percentile (0-100) after which a request is hedged.
+     */
+    public void setPercentile(double percentile) {
+        if(percentile <= 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be greater than 0 and at most 100.");
+        }
+        this.percentile = percentile;
+    }
+
+    /**
+     * @param initialDelay The hedge delay used until enough latencies have been observed.
+     * @param unit The unit of the delay.
+     */
+    public void setInitialDelay(long initialDelay, TimeUnit unit) {
+        if(initialDelay < 0) {
+            throw new IllegalArgumentException("Initial delay cannot be negative.");
+        }
+        this.initialDelay = unit.toNanos(initialDelay);
+    }
+
+    /**
+     * @param minDelay The shortest hedge delay, whatever the observed latencies.
+     * @param unit The unit of the delay.
+     */
+    public void setMinDelay(long minDelay, TimeUnit unit) {
+        if(minDelay < 0) {
+            throw new IllegalArgumentException("Minimum delay cannot be negative.");
+        }
+        this.minDelay = unit.toNanos(minDelay);
+    }
+
+    /**
+     * A call to the primary that times itself from submission. The latency is recorded once: when the call finishes,
+     * or when the caller stops waiting for it, whichever comes first.
+     */
+    private final class TimedCall implements Callable<CamResponse> {
+        private final Callable<CamResponse> call;
+        private final long start;
+        private final AtomicBoolean recorded;
+
+        private TimedCall(CamConnection connection, CamRequest request, CallContext context) {
+            this.call = newCall(connection, request, context);
+            this.start = System.nanoTime();
+            this.recorded = new AtomicBoolean();
+        }
+
+        @Override
+        public CamResponse call() throws Exception {
+            try {
+                return this.call.call();
+            } finally {
+                this.recordLatency();
+            }
+        }
+
+        private void recordLatency() {
+            if(this.recorded.compareAndSet(false, true)) {
+                primaryLatencies.record(System.nanoTime() - this.start);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples and answers percentile queries over them. Sorting the window is not free,
+ * so a computed percentile is reused until a number of new samples have arrived.
+ *
+ * @author Matt Bertolini
+ */
+public class LatencyWindow {
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final long[] samples;
+    private int index;
+    private int count;
+    private int samplesSinceSort;
+    private long[] sorted;
+
+    public LatencyWindow(int size) {
+        if(size < 1) {
+            throw new IllegalArgumentException("Window size must be at least one.");
+        }
+        this.samples = new long[size];
+    }
+
+    public synchronized void record(long latency) {
+        this.samples[this.index] = latency;
+        this.index = (this.index + 1) % this.samples.length;
+        if(this.count < this.samples.length) {
+            this.count++;
+        }
+        this.samplesSinceSort++;
+    }
+
+    /**
+     * Gets a percentile of the recorded samples.
+     *
+     * @param percentile The percentile to compute, between 0 and 100.
+     * @return The sample at the given percentile or -1 if nothing has been recorded.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if(percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        if(this.count == 0) {
+            return -1L;
+        }
+        if(this.sorted == null || this.samplesSinceSort >= RECOMPUTE_INTERVAL) {
+            this.sorted = Arrays.copyOf(this.samples, this.count);
+            Arrays.sort(this.sorted);
+            this.samplesSinceSort = 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * this.sorted.length) - 1;
+        return this.sorted[Math.max(0, Math.min(rank, this.sorted.length - 1))];
+    }
+
+    public synchronized int getCount() {
+        return this.count;
+    }
+}
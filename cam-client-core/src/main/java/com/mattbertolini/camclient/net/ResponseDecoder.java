@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Negotiates compressed responses and decompresses them as they are read. Device lists and reports are repetitive
+ * text that typically compresses ten to twenty times, which matters over slow links to remote CAMs. Bodies are
+ * decoded as a stream, so nothing is buffered beyond what the parser is reading.
+ * <p>
+ * Keeps running totals of bytes received on the wire and bytes after decoding, so the saving can be measured.
+ *
+ * @author Matt Bertolini
+ */
+public class ResponseDecoder {
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String SUPPORTED_ENCODINGS = "gzip, deflate";
+    private static final String GZIP = "gzip";
+    private static final String X_GZIP = "x-gzip";
+    private static final String DEFLATE = "deflate";
+    private static final String IDENTITY = "identity";
+    private static final int BUFFER_SIZE = 4096;
+
+    private volatile boolean enabled;
+    private final AtomicLong responseCount;
+    private final AtomicLong compressedResponseCount;
+    private final AtomicLong wireBytes;
+    private final AtomicLong decodedBytes;
+
+    public ResponseDecoder() {
+        this.enabled = true;
+        this.responseCount = new AtomicLong();
+        this.compressedResponseCount = new AtomicLong();
+        this.wireBytes = new AtomicLong();
+        this.decodedBytes = new AtomicLong();
+    }
+
+    /**
+     * Gets the value to send in the Accept-Encoding request header.
+     *
+     * @return The accepted encodings, or null if compression is disabled and no header should be sent.
+     */
+    public String getAcceptEncoding() {
+        return this.enabled ? SUPPORTED_ENCODINGS : null;
+    }
+
+    /**
+     * Wraps a response body so that it is decompressed, and counted, as it is read. Closing the returned stream closes
+     * the body.
+     *
+     * @param body The response body as received.
+     * @param contentEncoding The value of the Content-Encoding response header, or null if there was none.
+     * @return The decoded body.
+     * @throws IOException If the encoding is not supported or the compressed header cannot be read.
+     */
+    public InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if(body == null) {
+            throw new IllegalArgumentException("Body cannot be null.");
+        }
+        this.responseCount.incrementAndGet();
+        InputStream wire = new CountingInputStream(body, this.wireBytes);
+        String encoding = (contentEncoding == null) ? IDENTITY : contentEncoding.trim().toLowerCase(Locale.ROOT);
+        InputStream decoded;
+        if(encoding.isEmpty() || IDENTITY.equals(encoding)) {
+            decoded = wire;
+        } else if(GZIP.equals(encoding) || X_GZIP.equals(encoding)) {
+            decoded = new GZIPInputStream(wire, BUFFER_SIZE);
+            this.compressedResponseCount.incrementAndGet();
+        } else if(DEFLATE.equals(encoding)) {
+            decoded = inflate(wire);
+            this.compressedResponseCount.incrementAndGet();
+        } else {
+            throw new IOException("Unsupported response content encoding: " + contentEncoding);
+        }
+        return new CountingInputStream(decoded, this.decodedBytes);
+    }
+
+    private static InputStream inflate(InputStream wire) throws IOException {
+        // "deflate" is meant to be zlib-wrapped, but some servers send raw deflate data. A zlib stream starts with a
+        // two-byte header whose first byte names the deflate method and which is a multiple of 31.
+        PushbackInputStream in = new PushbackInputStream(wire, 2);
+        int first = in.read();
+        int second = (first == -1) ? -1 : in.read();
+        if(second != -1) {
+            in.unread(second);
+        }
+        if(first != -1) {
+            in.unread(first);
+        }
+        boolean zlib = first != -1 && second != -1 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+        return new DeflateInputStream(in, new Inflater(!zlib));
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Turns compressed responses on or off. When off no Accept-Encoding header is sent, though a compressed response
+     * is still decoded if the server sends one anyway.
+     *
+     * @param enabled True to ask for compressed responses.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getResponseCount() {
+        return this.responseCount.get();
+    }
+
+    public long getCompressedResponseCount() {
+        return this.compressedResponseCount.get();
+    }
+
+    /**
+     * Gets the number of body bytes read off the wire, compressed or not.
+     *
+     * @return The wire byte count.
+     */
+    public long getWireBytes() {
+        return this.wireBytes.get();
+    }
+
+    /**
+     * Gets the number of body bytes after decompression. The difference from {@link #getWireBytes()} is the saving.
+     *
+     * @return The decoded byte count.
+     */
+    public long getDecodedBytes() {
+        return this.decodedBytes.get();
+    }
+
+    /**
+     * InflaterInputStream only ends inflaters it created itself. This one is handed its inflater, so it ends it on
+     * close to free the native zlib memory straight away instead of at finalization.
+     */
+    private static final class DeflateInputStream extends InflaterInputStream {
+        private final Inflater inflater;
+
+        private DeflateInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater, BUFFER_SIZE);
+            this.inflater = inflater;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.inflater.end();
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        private CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = this.in.read();
+            if(b != -1) {
+                this.counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = this.in.read(b, off, len);
+            if(read > 0) {
+                this.counter.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = this.in.skip(n);
+            if(skipped > 0) {
+                this.counter.addAndGet(skipped);
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+/**
+ * Caps retries to a fraction of the overall request volume. Every original request deposits a fraction of a token
+ * and every retry withdraws a whole one, so while the CAM is healthy retries are cheap, but during a real outage the
+ * budget drains and failures surface instead of being multiplied.
+ *
+ * @author Matt Bertolini
+ */
+public class RetryBudget {
+    private static final double DEFAULT_RETRY_RATIO = 0.1;
+    private static final int DEFAULT_MIN_RETRIES = 10;
+
+    private final double retryRatio;
+    private final double maxTokens;
+    private double tokens;
+
+    public RetryBudget() {
+        this(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES);
+    }
+
+    /**
+     * @param retryRatio The number of retries allowed per original request (e.g. 0.1 for one retry in ten).
+     * @param minRetries The number of retries available before any traffic has been seen. This is also the most
+     * retries that can be saved up.
+     */
+    public RetryBudget(double retryRatio, int minRetries) {
+        if(retryRatio < 0.0) {
+            throw new IllegalArgumentException("Retry ratio cannot be negative.");
+        }
+        if(minRetries < 0) {
+            throw new IllegalArgumentException("Minimum retries cannot be negative.");
+        }
+        this.retryRatio = retryRatio;
+        this.maxTokens = minRetries;
+        this.tokens = minRetries;
+    }
+
+    /**
+     * Records an original (non-retry) request.
+     */
+    public synchronized void deposit() {
+        this.tokens = Math.min(this.maxTokens, this.tokens + this.retryRatio);
+    }
+
+    /**
+     * Attempts to take the budget for one retry.
+     *
+     * @return True if the retry may go ahead.
+     */
+    public synchronized boolean tryWithdraw() {
+        if(this.tokens < 1.0) {
+            return false;
+        }
+        this.tokens -= 1.0;
+        return true;
+    }
+
+    public synchronized double getAvailable() {
+        return this.tokens;
+    }
+}
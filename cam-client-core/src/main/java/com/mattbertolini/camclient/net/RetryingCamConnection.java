@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.response.CamResponse;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A CamConnection decorator that retries transport failures with jittered exponential backoff.
+ * <p>
+ * Idempotent operations (see {@link com.mattbertolini.camclient.request.Operation#isIdempotent()}) are retried on any
+ * {@link CamConnectionException}. Other operations, such as bouncing a port or kicking a user, are only retried when
+ * the failure proves the request never reached the CAM (the connection was refused or the host could not be
+ * resolved). Error responses from the CAM itself are never retried. All retries are drawn from a shared
+ * {@link RetryBudget}.
+ *
+ * @author Matt Bertolini
+ */
+public class RetryingCamConnection implements CamConnection {
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BASE_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long DEFAULT_MAX_DELAY = TimeUnit.SECONDS.toNanos(2);
+
+    private final CamConnection connection;
+    private final RetryBudget retryBudget;
+    private volatile int maxAttempts;
+    private volatile long baseDelay;
+    private volatile long maxDelay;
+
+    public RetryingCamConnection(CamConnection connection) {
+        this(connection, new RetryBudget());
+    }
+
+    public RetryingCamConnection(CamConnection connection, RetryBudget retryBudget) {
+        if(connection == null) {
+            throw new IllegalArgumentException("Connection cannot be null.");
+        }
+        if(retryBudget == null) {
+            throw new IllegalArgumentException("Retry budget cannot be null.");
+        }
+        this.connection = connection;
+        this.retryBudget = retryBudget;
+        this.maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        this.baseDelay = DEFAULT_BASE_DELAY;
+        this.maxDelay = DEFAULT_MAX_DELAY;
+    }
+
+    @Override
+    public CamResponse executeRequest(CamRequest request) {
+        this.retryBudget.deposit();
+        int attempt = 1;
+        while(true) {
+            try {
+                return this.connection.executeRequest(request);
+            } catch (CamConnectionException e) {
+                if(attempt >= this.maxAttempts || !this.isRetryable(request, e) || !this.retryBudget.tryWithdraw()) {
+                    throw e;
+                }
+                this.backoff(attempt, e);
+                attempt++;
+            }
+        }
+    }
+
+    /**
+     * Decides whether a failed request may be sent again.
+     *
+     * @param request The request that failed.
+     * @param e The transport failure.
+     * @return True if sending the request again cannot cause a duplicate effect on the CAM.
+     */
+    protected boolean isRetryable(CamRequest request, CamConnectionException e) {
+        if(request.getOperation() != null && request.getOperation().isIdempotent()) {
+            return true;
+        }
+        return this.isNotSent(e);
+    }
+
+    private boolean isNotSent(Throwable e) {
+        Throwable cause = e;
+        while(cause != null) {
+            if(cause instanceof ConnectException
+                    || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    private void backoff(int attempt, CamConnectionException failure) {
+        // "Full jitter": sleep a random amount between zero and the exponential ceiling so that clients that failed
+        // together do not retry together.
+        int shift = Math.min(attempt - 1, 30);
+        long ceiling;
+        if(this.baseDelay > (this.maxDelay >> shift)) {
+            ceiling = this.maxDelay;
+        } else {
+            ceiling = this.baseDelay << shift;
+        }
+        if(ceiling <= 0) {
+            return;
+        }
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        CallContext context = CallContext.current();
+        if(context != null && context.getDeadline() != null
+                && context.getDeadline().timeRemaining(TimeUnit.NANOSECONDS) <= delay) {
+            // The retry could not finish before the caller's deadline.
+            throw failure;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+
+    public RetryBudget getRetryBudget() {
+        return this.retryBudget;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        if(maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least one.");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setBaseDelay(long baseDelay, TimeUnit unit) {
+        if(baseDelay < 0) {
+            throw new IllegalArgumentException("Base delay cannot be negative.");
+        }
+        this.baseDelay = unit.toNanos(baseDelay);
+    }
+
+    public void setMaxDelay(long maxDelay, TimeUnit unit) {
+        if(maxDelay < 0) {
+            throw new IllegalArgumentException("Max delay cannot be negative.");
+        }
+        this.maxDelay = unit.toNanos(maxDelay);
+    }
+}
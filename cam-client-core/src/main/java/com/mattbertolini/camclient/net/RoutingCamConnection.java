@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.QueryType;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.request.RequestParameter;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A CamConnection that spreads requests across several CAMs.
+ * <p>
+ * Requests for a single device, user or subnet are sent to the connection picked by the {@link RoutingStrategy}.
+ * Requests that carry no address at all, such as getting the version, go to the first connection. A request that
+ * names an address the strategy cannot place is never guessed: read-only operations are broadcast and anything else
+ * is rejected with a {@link CamClientException}, since it could otherwise act on the wrong CAM.
+ * <p>
+ * Broadcast operations, which act on or list everything a CAM knows about, are sent to every connection in parallel
+ * and the responses are merged: the record lists are concatenated in connection order. A "not found" error from a
+ * CAM is ignored when another CAM returned records. Any other error response is returned instead of the merged result,
+ * so a CAM that failed never turns a broadcast into a partial list reported as success.
+ * <p>
+ * User info queries keyed by IP or MAC address are routed like any other single device request. Only when the
+ * strategy cannot place the key are they broadcast.
+ *
+ * @author Matt Bertolini
+ */
+public class RoutingCamConnection implements CamConnection {
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final String NOT_FOUND_ERROR = "not found";
+    private static final RequestParameter[] ADDRESS_PARAMETERS = {
+            RequestParameter.MAC_ADDRESS,
+            RequestParameter.IP_ADDRESS,
+            RequestParameter.SUBNET,
+            RequestParameter.SERVER_IP_ADDRESS
+    };
+
+    private final List<CamConnection> connections;
+    private final RoutingStrategy routingStrategy;
+    private final ExecutorService executorService;
+    private volatile Set<Operation> broadcastOperations;
+
+    public RoutingCamConnection(List<CamConnection> connections, RoutingStrategy routingStrategy,
+                                ExecutorService executorService) {
+        if(connections == null || connections.isEmpty()) {
+            throw new IllegalArgumentException("At least one connection is required.");
+        }
+        if(routingStrategy == null) {
+            throw new IllegalArgumentException("Routing strategy cannot be null.");
+        }
+        if(executorService == null) {
+            throw new IllegalArgumentException("Executor service cannot be null.");
+        }
+        this.connections = Collections.unmodifiableList(new ArrayList<CamConnection>(connections));
+        this.routingStrategy = routingStrategy;
+        this.executorService = executorService;
+        this.broadcastOperations = Collections.unmodifiableSet(EnumSet.of(
+                Operation.CLEAR_CERTIFIED_LIST,
+                Operation.GET_CLEAN_USER_INFO,
+                Operation.GET_LOCAL_USER_LIST,
+                Operation.GET_MAC_ADDRESS_LIST,
+                Operation.GET_OOB_USER_INFO,
+                Operation.GET_REPORTS,
+                Operation.GET_USER_INFO,
+                Operation.REMOVE_MAC_ADDRESS_LIST));
+    }
+
+    @Override
+    public CamResponse executeRequest(CamRequest request) {
+        if(request == null) {
+            throw new IllegalArgumentException("Request cannot be null.");
+        }
+        if(this.connections.size() > 1 && this.broadcastOperations.contains(request.getOperation())) {
+            int index = this.selectKeyedConnection(request);
+            if(index < 0) {
+                return this.broadcast(request);
+            }
+            return this.connections.get(index).executeRequest(request);
+        }
+        CamConnection connection = this.route(request);
+        if(connection != null) {
+            return connection.executeRequest(request);
+        }
+        if(request.getOperation() != null && request.getOperation().isReadOnly()) {
+            return this.broadcast(request);
+        }
+        throw new CamClientException("Unable to route " + request.getOperation()
+                + " request: no connection is responsible for the address it names.");
+    }
+
+    /**
+     * Gets the connection a non-broadcast request would be sent to.
+     *
+     * @param request The request to route.
+     * @return The selected connection, or null if the request names an address the strategy cannot place.
+     */
+    public CamConnection route(CamRequest request) {
+        if(this.connections.size() == 1) {
+            return this.connections.get(0);
+        }
+        int index = this.routingStrategy.selectConnection(request, this.connections.size());
+        if(index >= 0 && index < this.connections.size()) {
+            return this.connections.get(index);
+        }
+        if(hasAddress(request)) {
+            return null;
+        }
+        return this.connections.get(0);
+    }
+
+    private static boolean hasAddress(CamRequest request) {
+        for(RequestParameter parameter : ADDRESS_PARAMETERS) {
+            String value = request.getParameters().get(parameter);
+            if(value != null && !value.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks the connection for a user info query keyed by IP or MAC address. The query value is presented to the
+     * strategy as the matching address parameter, since that is what the strategies route on.
+     *
+     * @param request The request to route.
+     * @return The connection index or -1 if the request is not a keyed query or cannot be routed.
+     */
+    private int selectKeyedConnection(CamRequest request) {
+        if(request.getOperation() != Operation.GET_USER_INFO) {
+            return -1;
+        }
+        String queryType = request.getParameters().get(RequestParameter.QUERY_TYPE);
+        String queryValue = request.getParameters().get(RequestParameter.QUERY_VALUE);
+        if(queryValue == null || queryValue.isEmpty()) {
+            return -1;
+        }
+        CamRequest routingRequest = new CamRequestImpl(Operation.GET_USER_INFO);
+        if(QueryType.IP_ADDRESS.getValue().equals(queryType)) {
+            routingRequest.addParameter(RequestParameter.IP_ADDRESS, queryValue);
+        } else if(QueryType.MAC_ADDRESS.getValue().equals(queryType)) {
+            routingRequest.addParameter(RequestParameter.MAC_ADDRESS, queryValue);
+        } else {
+            return -1;
+        }
+        int index = this.routingStrategy.selectConnection(routingRequest, this.connections.size());
+        if(index >= this.connections.size()) {
+            return -1;
+        }
+        return index;
+    }
+
+    private CamResponse broadcast(final CamRequest request) {
+        List<Future<CamResponse>> futures = new ArrayList<Future<CamResponse>>(this.connections.size());
+        for(final CamConnection connection : this.connections) {
+            futures.add(this.executorService.submit(CallContext.wrap(new Callable<CamResponse>() {
+                @Override
+                public CamResponse call() throws Exception {
+                    return connection.executeRequest(request);
+                }
+            })));
+        }
+        List<CamResponse> responses = new ArrayList<CamResponse>(futures.size());
+        try {
+            for(Future<CamResponse> future : futures) {
+                responses.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            this.cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new CamClientException("Interrupted while waiting for broadcast responses.", e);
+        } catch (ExecutionException e) {
+            this.cancelAll(futures);
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CamClientException(cause);
+        }
+        return this.merge(responses);
+    }
+
+    private CamResponse merge(List<CamResponse> responses) {
+        List<Map<String, String>> data = new ArrayList<Map<String, String>>();
+        StringBuilder rawText = new StringBuilder();
+        CamResponse notFound = null;
+        for(CamResponse response : responses) {
+            if(response.isError()) {
+                if(!isNotFound(response)) {
+                    return response;
+                }
+                if(notFound == null) {
+                    notFound = response;
+                }
+                continue;
+            }
+            data.addAll(response.getResponseData());
+            if(rawText.length() > 0) {
+                rawText.append(LINE_SEPARATOR);
+            }
+            rawText.append(response.getRawResponseText());
+        }
+        if(notFound != null && data.isEmpty()) {
+            return notFound;
+        }
+        return new CamResponseImpl(rawText.toString(), data, false, null);
+    }
+
+    private static boolean isNotFound(CamResponse response) {
+        String errorText = response.getErrorText();
+        return errorText != null && errorText.toLowerCase(Locale.ROOT).contains(NOT_FOUND_ERROR);
+    }
+
+    private void cancelAll(List<Future<CamResponse>> futures) {
+        for(Future<CamResponse> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    public List<CamConnection> getConnections() {
+        return this.connections;
+    }
+
+    public Set<Operation> getBroadcastOperations() {
+        return this.broadcastOperations;
+    }
+
+    /**
+     * Replaces the set of operations that are sent to every connection.
+     *
+     * @param broadcastOperations The operations to broadcast.
+     */
+    public void setBroadcastOperations(Set<Operation> broadcastOperations) {
+        if(broadcastOperations == null) {
+            throw new IllegalArgumentException("Broadcast operations cannot be null.");
+        }
+        if(broadcastOperations.isEmpty()) {
+            this.broadcastOperations = Collections.emptySet();
+        } else {
+            this.broadcastOperations = Collections.unmodifiableSet(EnumSet.copyOf(broadcastOperations));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.RequestParameter;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Routes requests to the CAM responsible for the subnet that an address in the request belongs to. The IP address,
+ * subnet and Clean Access Server IP parameters are checked in that order and the longest matching route wins. Only
+ * address literals are matched; a host name in a request is skipped rather than resolved.
+ *
+ * @author Matt Bertolini
+ */
+public class SubnetRoutingStrategy implements RoutingStrategy {
+    private static final RequestParameter[] ADDRESS_PARAMETERS = {
+            RequestParameter.IP_ADDRESS,
+            RequestParameter.SUBNET,
+            RequestParameter.SERVER_IP_ADDRESS
+    };
+
+    private final List<Route> routes;
+
+    public SubnetRoutingStrategy() {
+        this.routes = new CopyOnWriteArrayList<Route>();
+    }
+
+    /**
+     * Adds a route for a subnet.
+     *
+     * @param subnet The network address of the subnet.
+     * @param prefixLength The subnet mask in CIDR format (e.g. 16).
+     * @param connectionIndex The index of the connection that serves the subnet.
+     */
+    public void addRoute(InetAddress subnet, int prefixLength, int connectionIndex) {
+        if(subnet == null) {
+            throw new IllegalArgumentException("Subnet cannot be null.");
+        }
+        int maxPrefix = subnet.getAddress().length * 8;
+        if(prefixLength < 0 || prefixLength > maxPrefix) {
+            throw new IllegalArgumentException("Prefix length must be between 0 and " + maxPrefix + ".");
+        }
+        if(connectionIndex < 0) {
+            throw new IllegalArgumentException("Connection index cannot be negative.");
+        }
+        this.routes.add(new Route(subnet.getAddress(), prefixLength, connectionIndex));
+    }
+
+    @Override
+    public int selectConnection(CamRequest request, int connectionCount) {
+        for(RequestParameter parameter : ADDRESS_PARAMETERS) {
+            byte[] address = AddressLiterals.parse(request.getParameters().get(parameter));
+            if(address == null) {
+                continue;
+            }
+            Route best = null;
+            for(Route route : this.routes) {
+                if(route.matches(address) && (best == null || route.prefixLength > best.prefixLength)) {
+                    best = route;
+                }
+            }
+            if(best != null && best.connectionIndex < connectionCount) {
+                return best.connectionIndex;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Route {
+        private final byte[] network;
+        private final int prefixLength;
+        private final int connectionIndex;
+
+        private Route(byte[] network, int prefixLength, int connectionIndex) {
+            this.network = network;
+            this.prefixLength = prefixLength;
+            this.connectionIndex = connectionIndex;
+        }
+
+        private boolean matches(byte[] address) {
+            if(address.length != this.network.length) {
+                return false;
+            }
+            int fullBytes = this.prefixLength / 8;
+            for(int i = 0; i < fullBytes; i++) {
+                if(address[i] != this.network[i]) {
+                    return false;
+                }
+            }
+            int remainingBits = this.prefixLength % 8;
+            if(remainingBits == 0) {
+                return true;
+            }
+            int mask = (0xff << (8 - remainingBits)) & 0xff;
+            return (address[fullBytes] & mask) == (this.network[fullBytes] & mask);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.CamClientException;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TLS configuration to share between connections to the CAM. Every connection made with the same context draws on
+ * one client session cache, so after the first full handshake with a CAM later connections resume the session and
+ * skip the certificate exchange and key agreement.
+ * <p>
+ * The context is built on first use; configure it before handing it to a transport. Counts of full and resumed
+ * handshakes are kept for every socket created through {@link #getSocketFactory()}. A handshake is counted as resumed
+ * when it completes without the server's certificate being checked, which holds for both TLS 1.2 session IDs and TLS
+ * 1.3 tickets. Handshake events are delivered on a JDK thread, so the counts may lag the handshake slightly.
+ *
+ * @author Matt Bertolini
+ */
+public class TlsContext {
+    private static final String DEFAULT_PROTOCOL = "TLS";
+    private static final int DEFAULT_SESSION_CACHE_SIZE = 64;
+    private static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    private String protocol;
+    private int sessionCacheSize;
+    private int sessionTimeoutSeconds;
+    private KeyStore trustStore;
+    private SSLContext sslContext;
+    private SSLSocketFactory socketFactory;
+    private final Map<Socket, Boolean> certificateChecked;
+    private final AtomicLong handshakeCount;
+    private final AtomicLong resumedHandshakeCount;
+
+    public TlsContext() {
+        this.protocol = DEFAULT_PROTOCOL;
+        this.sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+        this.sessionTimeoutSeconds = DEFAULT_SESSION_TIMEOUT_SECONDS;
+        this.certificateChecked = Collections.synchronizedMap(new WeakHashMap<Socket, Boolean>());
+        this.handshakeCount = new AtomicLong();
+        this.resumedHandshakeCount = new AtomicLong();
+    }
+
+    /**
+     * Gets the SSL context, building it on the first call.
+     *
+     * @return The SSL context.
+     * @throws CamClientException If the context cannot be initialised.
+     */
+    public synchronized SSLContext getSSLContext() {
+        if(this.sslContext == null) {
+            try {
+                TrustManagerFactory trustManagerFactory =
+                        TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                trustManagerFactory.init(this.trustStore);
+                TrustManager[] trustManagers = trustManagerFactory.getTrustManagers();
+                for(int i = 0; i < trustManagers.length; i++) {
+                    if(trustManagers[i] instanceof X509ExtendedTrustManager) {
+                        trustManagers[i] = new TrackingTrustManager((X509ExtendedTrustManager) trustManagers[i]);
+                    }
+                }
+                SSLContext context = SSLContext.getInstance(this.protocol);
+                context.init(null, trustManagers, null);
+                SSLSessionContext sessionContext = context.getClientSessionContext();
+                sessionContext.setSessionCacheSize(this.sessionCacheSize);
+                sessionContext.setSessionTimeout(this.sessionTimeoutSeconds);
+                this.sslContext = context;
+            } catch (GeneralSecurityException e) {
+                throw new CamClientException("Unable to initialise the TLS context.", e);
+            }
+        }
+        return this.sslContext;
+    }
+
+    /**
+     * Gets the socket factory for this context. The same instance is returned on every call, which HttpURLConnection
+     * needs in order to keep connections alive.
+     *
+     * @return The socket factory.
+     */
+    public synchronized SSLSocketFactory getSocketFactory() {
+        if(this.socketFactory == null) {
+            this.socketFactory = new TrackingSocketFactory(this.getSSLContext().getSocketFactory());
+        }
+        return this.socketFactory;
+    }
+
+    public synchronized String getProtocol() {
+        return this.protocol;
+    }
+
+    /**
+     * Sets the SSLContext protocol. Defaults to "TLS", which negotiates the highest version both sides support.
+     *
+     * @param protocol The protocol name.
+     */
+    public synchronized void setProtocol(String protocol) {
+        if(protocol == null) {
+            throw new IllegalArgumentException("Protocol cannot be null.");
+        }
+        this.checkNotBuilt();
+        this.protocol = protocol;
+    }
+
+    public synchronized int getSessionCacheSize() {
+        return this.sessionCacheSize;
+    }
+
+    /**
+     * Sets how many sessions the client session cache holds. One per CAM is enough; the default is 64.
+     *
+     * @param sessionCacheSize The cache size, or zero for no limit.
+     */
+    public synchronized void setSessionCacheSize(int sessionCacheSize) {
+        if(sessionCacheSize < 0) {
+            throw new IllegalArgumentException("Session cache size cannot be negative.");
+        }
+        this.checkNotBuilt();
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    public synchronized int getSessionTimeoutSeconds() {
+        return this.sessionTimeoutSeconds;
+    }
+
+    /**
+     * Sets how long a cached session may be resumed for. The CAM may expire sessions sooner.
+     *
+     * @param sessionTimeoutSeconds The timeout in seconds, or zero for no limit.
+     */
+    public synchronized void setSessionTimeoutSeconds(int sessionTimeoutSeconds) {
+        if(sessionTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("Session timeout cannot be negative.");
+        }
+        this.checkNotBuilt();
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+    }
+
+    public synchronized KeyStore getTrustStore() {
+        return this.trustStore;
+    }
+
+    /**
+     * Pins the certificates that are trusted. When set, only the CAM certificates or issuing CAs in this key store are
+     * accepted and the JVM's default trust store is ignored.
+     *
+     * @param trustStore The trusted certificates, or null to use the JVM default.
+     */
+    public synchronized void setTrustStore(KeyStore trustStore) {
+        this.checkNotBuilt();
+        this.trustStore = trustStore;
+    }
+
+    /**
+     * Gets the number of TLS handshakes completed on sockets from this context.
+     *
+     * @return The handshake count.
+     */
+    public long getHandshakeCount() {
+        return this.handshakeCount.get();
+    }
+
+    /**
+     * Gets the number of handshakes that resumed a cached session.
+     *
+     * @return The resumed handshake count.
+     */
+    public long getResumedHandshakeCount() {
+        return this.resumedHandshakeCount.get();
+    }
+
+    /**
+     * Gets the number of handshakes that had to authenticate the server from scratch.
+     *
+     * @return The full handshake count.
+     */
+    public long getFullHandshakeCount() {
+        return this.handshakeCount.get() - this.resumedHandshakeCount.get();
+    }
+
+    /**
+     * Gets the share of handshakes that resumed a cached session.
+     *
+     * @return A ratio between zero and one, or zero if no handshake has completed.
+     */
+    public double getResumptionRatio() {
+        long handshakes = this.handshakeCount.get();
+        return (handshakes == 0) ? 0.0 : (double) this.resumedHandshakeCount.get() / handshakes;
+    }
+
+    private void checkNotBuilt() {
+        if(this.sslContext != null) {
+            throw new IllegalStateException("TLS context cannot be changed once it is in use.");
+        }
+    }
+
+    private void handshakeCompleted(Socket socket) {
+        Boolean checked = this.certificateChecked.remove(socket);
+        this.handshakeCount.incrementAndGet();
+        if(checked == null) {
+            this.resumedHandshakeCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Notes which sockets authenticated the server. A resumed handshake does not check the certificate again.
+     */
+    private class TrackingTrustManager extends X509ExtendedTrustManager {
+        private final X509ExtendedTrustManager delegate;
+
+        private TrackingTrustManager(X509ExtendedTrustManager delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            this.delegate.checkServerTrusted(chain, authType, socket);
+            if(socket != null) {
+                certificateChecked.put(socket, Boolean.TRUE);
+            }
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            this.delegate.checkServerTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            this.delegate.checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            this.delegate.checkClientTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            this.delegate.checkClientTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            this.delegate.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return this.delegate.getAcceptedIssuers();
+        }
+    }
+
+    /**
+     * Registers a handshake listener on every socket it creates.
+     */
+    private class TrackingSocketFactory extends SSLSocketFactory implements HandshakeCompletedListener {
+        private final SSLSocketFactory delegate;
+
+        private TrackingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            TlsContext.this.handshakeCompleted(event.getSocket());
+        }
+
+        private Socket track(Socket socket) {
+            if(socket instanceof SSLSocket) {
+                ((SSLSocket) socket).addHandshakeCompletedListener(this);
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return this.delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return this.delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return this.track(this.delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return this.track(this.delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return this.track(this.delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return this.track(this.delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return this.track(this.delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return this.track(this.delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
@@ -35,4 +35,14 @@ package com.mattbertolini.camclient.net;
  */
 public interface UserAgentProvider {
     String getUserAgentString();
+
+    /**
+     * Discards any cached user agent string and builds it again. Providers that do not cache simply return the
+     * current string.
+     *
+     * @return The new user agent string.
+     */
+    default String refresh() {
+        return this.getUserAgentString();
+    }
 }
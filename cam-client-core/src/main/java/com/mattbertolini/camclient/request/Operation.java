@@ -34,44 +34,70 @@ package com.mattbertolini.camclient.request;
  * @author Matt Bertolini
  */
 public enum Operation {
-    ADD_CLEAN_MAC_ADDRESS("addcleanmac"),
-    ADD_LOCAL_USER("addlocaluser"),
-    ADD_MAC_ADDRESS("addmac"),
-    ADD_SUBNET("addsubnet"),
-    ADMIN_LOGIN("adminlogin"),
-    ADMIN_LOGOUT("adminlogout"),
-    BOUNCE_PORT("bounceport"),
-    BOUNCE_PORT_BY_MAC_ADDRESS("bounceportbymac"),
-    CHANGE_LOGGED_IN_USER_ROLE("cangeloggedinuserrole"),
-    CHANGE_USER_ROLE("changeuserrole"),
-    CHECK_MAC_ADDRESS("checkmac"),
-    CLEAR_CERTIFIED_LIST("clearcertified"),
-    DELETE_LOCAL_USER("deletelocaluser"),
-    GET_CLEAN_USER_INFO("getcleanuserinfo"),
-    GET_LOCAL_USER_LIST("getlocaluserlist"),
-    GET_MAC_ADDRESS_LIST("getmaclist"),
-    GET_OOB_USER_INFO("getoobuserinfo"),
-    GET_REPORTS("getreports"),
-    GET_USER_INFO("getuserinfo"),
-    GET_VERSION("getversion"),
-    KICK_OOB_USER("kickoobuser"),
-    KICK_USER("kickuser"),
-    KICK_USER_BY_MAC_ADDRESS("kickuserbymac"),
-    QUERY_USER_SESSION_TIME("queryuserstime"),
-    REMOVE_CLEAN_MAC_ADDRESS("removecleanmac"),
-    REMOVE_MAC_ADDRESS("removemac"),
-    REMOVE_MAC_ADDRESS_LIST("removemaclist"),
-    REMOVE_SUBNET("removesubnet"),
-    RENEW_USER_SESSION_TIME("renewuserstime"),
-    UPDATE_SUBNET("updatesubnet");
+    ADD_CLEAN_MAC_ADDRESS("addcleanmac", false, false),
+    ADD_LOCAL_USER("addlocaluser", false, false),
+    ADD_MAC_ADDRESS("addmac", false, false),
+    ADD_SUBNET("addsubnet", false, false),
+    ADMIN_LOGIN("adminlogin", false, false),
+    ADMIN_LOGOUT("adminlogout", true, false),
+    BOUNCE_PORT("bounceport", false, false),
+    BOUNCE_PORT_BY_MAC_ADDRESS("bounceportbymac", false, false),
+    // Both role changes move a live session into the new role, which can trigger a VLAN change and port bounce on
+    // the switch. Repeating one after an ambiguous failure is not harmless, so neither is treated as idempotent and
+    // RetryingCamConnection only retries them when the request never reached the CAM.
+    CHANGE_LOGGED_IN_USER_ROLE("cangeloggedinuserrole", false, false),
+    CHANGE_USER_ROLE("changeuserrole", false, false),
+    CHECK_MAC_ADDRESS("checkmac", true, true),
+    CLEAR_CERTIFIED_LIST("clearcertified", true, false),
+    DELETE_LOCAL_USER("deletelocaluser", true, false),
+    GET_CLEAN_USER_INFO("getcleanuserinfo", true, true),
+    GET_LOCAL_USER_LIST("getlocaluserlist", true, true),
+    GET_MAC_ADDRESS_LIST("getmaclist", true, true),
+    GET_OOB_USER_INFO("getoobuserinfo", true, true),
+    GET_REPORTS("getreports", true, true),
+    GET_USER_INFO("getuserinfo", true, true),
+    GET_VERSION("getversion", true, true),
+    KICK_OOB_USER("kickoobuser", false, false),
+    KICK_USER("kickuser", false, false),
+    KICK_USER_BY_MAC_ADDRESS("kickuserbymac", false, false),
+    QUERY_USER_SESSION_TIME("queryuserstime", true, true),
+    REMOVE_CLEAN_MAC_ADDRESS("removecleanmac", true, false),
+    REMOVE_MAC_ADDRESS("removemac", true, false),
+    REMOVE_MAC_ADDRESS_LIST("removemaclist", true, false),
+    REMOVE_SUBNET("removesubnet", true, false),
+    RENEW_USER_SESSION_TIME("renewuserstime", false, false),
+    UPDATE_SUBNET("updatesubnet", true, false);
 
     private String name;
+    private boolean idempotent;
+    private boolean readOnly;
 
-    private Operation(String name) {
+    private Operation(String name, boolean idempotent, boolean readOnly) {
         this.name = name;
+        this.idempotent = idempotent;
+        this.readOnly = readOnly;
     }
 
     public String getName() {
         return this.name;
     }
+
+    /**
+     * Whether sending the operation more than once leaves the CAM in the same state as sending it once. Operations
+     * such as bouncing a port or kicking a user have a visible effect every time they run and are not idempotent.
+     *
+     * @return True if the operation is safe to repeat.
+     */
+    public boolean isIdempotent() {
+        return this.idempotent;
+    }
+
+    /**
+     * Whether the operation only reads data from the CAM. Read-only operations are always idempotent.
+     *
+     * @return True if the operation does not change anything on the CAM.
+     */
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.response;
+
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.net.BufferPool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the body of a CAM API response as it arrives. The CAM returns one record per HTML comment, e.g.
+ * <code>&lt;!--error=0--&gt;</code> or <code>&lt;!--mac=001122334455,ip=10.0.0.1--&gt;</code>; each record is parsed
+ * as soon as its closing <code>--&gt;</code> has been fed, so only the unfinished tail of the body is held back.
+ * <p>
+ * When created with a {@link CamRecordListener} the data records are handed to the listener as they are parsed
+ * instead of being collected, and the raw text is not kept, so a response of any size can be processed in constant
+ * memory. The response returned by {@link #finish()} then only carries the error status.
+ * <p>
+ * Not thread safe; use one parser per response.
+ *
+ * @author Matt Bertolini
+ */
+public class CamResponseParser {
+    private static final Pattern COMMENT_BEGIN_PATTERN = Pattern.compile("\\s*<!--\\s*");
+    private static final Pattern NAME_VALUE_DELIMITER_PATTERN = Pattern.compile("[=,]");
+    private static final String COMMENT_END = "-->";
+    private static final String ERROR_KEY = "error";
+    private static final String COUNT_KEY = "count";
+    private static final String EMPTY_STRING = "";
+    private static final String ZERO = "0";
+
+    private static final int RAW_TEXT_INITIAL_SIZE = 1024;
+
+    private final boolean keepRawText;
+    private final StringBuilder pending;
+    private final List<Map<String, String>> data;
+    private final CamRecordListener listener;
+    private int scanIndex;
+    private int emptyRows;
+    private int rows;
+    private boolean done;
+    private boolean error;
+    private String errorText;
+    private boolean finished;
+    private char[] rawText;
+    private int rawLength;
+
+    public CamResponseParser() {
+        this.keepRawText = true;
+        this.pending = new StringBuilder();
+        this.data = new ArrayList<Map<String, String>>();
+        this.listener = null;
+    }
+
+    public CamResponseParser(CamRecordListener listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        this.keepRawText = false;
+        this.pending = new StringBuilder();
+        this.data = new ArrayList<Map<String, String>>();
+        this.listener = listener;
+    }
+
+    /**
+     * Feeds the next piece of the response body to the parser.
+     *
+     * @param chunk The characters received.
+     * @throws CamClientException If a completed record is malformed.
+     */
+    public void feed(CharSequence chunk) {
+        if(this.finished) {
+            throw new IllegalStateException("Parser has already finished.");
+        }
+        if(this.keepRawText) {
+            this.ensureRawCapacity(chunk.length());
+            for(int i = 0; i < chunk.length(); i++) {
+                this.rawText[this.rawLength++] = chunk.charAt(i);
+            }
+        }
+        if(this.done) {
+            return;
+        }
+        this.pending.append(chunk);
+        this.scan();
+    }
+
+    public void feed(char[] chars, int offset, int length) {
+        if(this.finished) {
+            throw new IllegalStateException("Parser has already finished.");
+        }
+        if(this.keepRawText) {
+            this.ensureRawCapacity(length);
+            System.arraycopy(chars, offset, this.rawText, this.rawLength, length);
+            this.rawLength += length;
+        }
+        if(this.done) {
+            return;
+        }
+        this.pending.append(chars, offset, length);
+        this.scan();
+    }
+
+    private void scan() {
+        // Completed records are consumed by moving a start index and the buffer is compacted once per chunk, so a
+        // chunk holding many records is not shifted once per record.
+        int start = 0;
+        while(!this.done) {
+            int end = this.pending.indexOf(COMMENT_END, Math.max(start, this.scanIndex));
+            if(end < 0) {
+                // The closing marker may be split across chunks; rescan the last two characters next time.
+                this.scanIndex = Math.max(0, this.pending.length() - (COMMENT_END.length() - 1) - start);
+                break;
+            }
+            String row = trim(this.pending, start, end);
+            start = end + COMMENT_END.length();
+            this.scanIndex = 0;
+            this.acceptRow(row);
+        }
+        if(this.done) {
+            this.pending.setLength(0);
+        } else {
+            this.pending.delete(0, start);
+        }
+    }
+
+    /**
+     * The raw text is collected in a buffer borrowed from the shared pool and handed back when parsing finishes.
+     */
+    private void ensureRawCapacity(int additional) {
+        int required = this.rawLength + additional;
+        if(this.rawText == null) {
+            this.rawText = BufferPool.getDefault().acquireChars(Math.max(required, RAW_TEXT_INITIAL_SIZE));
+        } else if(required > this.rawText.length) {
+            this.rawText = BufferPool.getDefault().growChars(this.rawText, this.rawLength, required);
+        }
+    }
+
+    /**
+     * Completes parsing once the whole body has been fed.
+     *
+     * @return The parsed response.
+     * @throws CamClientException If the body is empty or a record is malformed.
+     */
+    public CamResponse finish() {
+        if(this.finished) {
+            throw new IllegalStateException("Parser has already finished.");
+        }
+        this.finished = true;
+        String raw = this.takeRawText();
+        if(!this.done) {
+            String row = trim(this.pending, 0, this.pending.length());
+            // Empty records at the very end are ignored, the same as String.split drops trailing empty strings.
+            if(!row.isEmpty()) {
+                this.acceptRow(row);
+            }
+            if(this.rows == 0) {
+                throw new CamClientException("CAM response contained no records.");
+            }
+        }
+        this.pending.setLength(0);
+        List<Map<String, String>> responseData = (this.done && (this.error || this.data.isEmpty()))
+                ? Collections.<Map<String, String>>emptyList() : this.data;
+        return new CamResponseImpl(raw, responseData, this.error, this.errorText);
+    }
+
+    private String takeRawText() {
+        if(this.rawText == null) {
+            return EMPTY_STRING;
+        }
+        String raw = new String(this.rawText, 0, this.rawLength);
+        BufferPool.getDefault().releaseChars(this.rawText);
+        this.rawText = null;
+        return raw;
+    }
+
+    private void acceptRow(String row) {
+        if(row.isEmpty()) {
+            // Only an error if a non-empty record follows.
+            this.emptyRows++;
+            return;
+        }
+        if(this.emptyRows > 0) {
+            throw new CamClientException("Malformed CAM response: empty record.");
+        }
+        this.rows++;
+        this.parseRow(row);
+    }
+
+    private void parseRow(String row) {
+        Map<String, String> rowData = new HashMap<String, String>();
+        String[] nvp = NAME_VALUE_DELIMITER_PATTERN.split(COMMENT_BEGIN_PATTERN.matcher(row).replaceAll(EMPTY_STRING));
+        if(nvp.length % 2 != 0) {
+            throw new CamClientException("Malformed CAM response record: " + row);
+        }
+        for(int i = 0; i < nvp.length; i += 2) {
+            rowData.put(nvp[i].trim().toLowerCase(), nvp[i + 1].trim());
+        }
+
+        if(rowData.containsKey(ERROR_KEY) && !rowData.get(ERROR_KEY).equals(ZERO)) {
+            this.error = true;
+            this.errorText = "CAM Error - " + rowData.get(ERROR_KEY);
+            this.done = true;
+        } else if(rowData.containsKey(COUNT_KEY)) {
+            if(rowData.get(COUNT_KEY).equals(ZERO)) {
+                this.data.clear();
+                this.done = true;
+            }
+        } else if(!rowData.containsKey(ERROR_KEY)) {
+            // The error value is zero (success), so it is not part of the data.
+            if(this.listener == null) {
+                this.data.add(rowData);
+            } else {
+                this.listener.onRecord(rowData);
+            }
+        }
+    }
+
+    private static String trim(CharSequence s, int start, int end) {
+        while(start < end && isWhitespace(s.charAt(start))) {
+            start++;
+        }
+        while(end > start && isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return s.subSequence(start, end).toString();
+    }
+
+    private static boolean isWhitespace(char c) {
+        // The characters matched by \s in java.util.regex.
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
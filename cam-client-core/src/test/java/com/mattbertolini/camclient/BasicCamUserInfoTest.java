@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class BasicCamUserInfoTest {
+    @Test
+    public void testNewInstanceIsEmpty() {
+        BasicCamUserInfo userInfo = new BasicCamUserInfo();
+        assertNull(userInfo.getIpAddress());
+        assertNull(userInfo.getMacAddress());
+        assertNull(userInfo.getName());
+        assertNull(userInfo.getProvider());
+        assertNull(userInfo.getRole());
+        assertNull(userInfo.getOriginalRole());
+        assertNull(userInfo.getVlan());
+        assertNull(userInfo.getNewVlan());
+        assertNull(userInfo.getOperatingSystem());
+    }
+
+    @Test
+    public void testSettersAndGetters() throws Exception {
+        InetAddress ipAddress = InetAddress.getByName("10.1.2.3");
+        MacAddress macAddress = MacAddress.valueOf("0123456789AB");
+        BasicCamUserInfo userInfo = new BasicCamUserInfo();
+        userInfo.setIpAddress(ipAddress);
+        userInfo.setMacAddress(macAddress);
+        userInfo.setName("jdoe");
+        userInfo.setProvider("LDAP");
+        userInfo.setRole("Students");
+        userInfo.setOriginalRole("Unauthenticated");
+        userInfo.setVlan("10");
+        userInfo.setNewVlan("20");
+        userInfo.setOperatingSystem("Windows");
+        assertEquals(ipAddress, userInfo.getIpAddress());
+        assertEquals(macAddress, userInfo.getMacAddress());
+        assertEquals("jdoe", userInfo.getName());
+        assertEquals("LDAP", userInfo.getProvider());
+        assertEquals("Students", userInfo.getRole());
+        assertEquals("Unauthenticated", userInfo.getOriginalRole());
+        assertEquals("10", userInfo.getVlan());
+        assertEquals("20", userInfo.getNewVlan());
+        assertEquals("Windows", userInfo.getOperatingSystem());
+    }
+
+    @Test
+    public void testToStringIncludesFields() {
+        BasicCamUserInfo userInfo = new BasicCamUserInfo();
+        userInfo.setName("jdoe");
+        userInfo.setRole("Students");
+        String text = userInfo.toString();
+        assertTrue(text.startsWith("BasicCamUserInfo: "));
+        assertTrue(text.contains("name=jdoe"));
+        assertTrue(text.contains("role=Students"));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class BoundedExecutorServiceTest {
+    private BoundedExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.executor = new BoundedExecutorService(Executors.newCachedThreadPool(), 2);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrencyNeverExceedsLimit() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for(int i = 0; i < 20; i++) {
+            futures.add(this.executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int now = running.incrementAndGet();
+                    synchronized(peak) {
+                        peak.set(Math.max(peak.get(), now));
+                    }
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return null;
+                }
+            }));
+        }
+        for(Future<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertTrue(peak.get() <= 2);
+        assertTrue(this.executor.getRunning() <= 2);
+    }
+
+    @Test
+    public void testSubmitDoesNotBlockWhenLimitReached() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<Void> blocker = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                release.await();
+                return null;
+            }
+        };
+        this.executor.submit(blocker);
+        this.executor.submit(blocker);
+        Future<Void> third = this.executor.submit(blocker);
+        release.countDown();
+        third.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testVirtualThreadExecutorMatchesJvmSupport() throws Exception {
+        ExecutorService service = CamExecutors.newVirtualThreadExecutor(4);
+        try {
+            assertEquals(CamExecutors.isVirtualThreadSupported(), service instanceof BoundedExecutorService);
+            assertEquals("ok", service.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "ok";
+                }
+            }).get(5, TimeUnit.SECONDS));
+        } finally {
+            service.shutdownNow();
+        }
+    }
+}
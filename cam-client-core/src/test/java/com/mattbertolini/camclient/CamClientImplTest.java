@@ -41,10 +41,15 @@ import org.junit.Test;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class CamClientImplTest {
@@ -511,4 +516,94 @@ public class CamClientImplTest {
         client.addSubnet(subnet, mask);
         verify(mockConnection).executeRequest(expectedRequest);
     }
+
+    @Test
+    public void testGetUserInfoSuccess() throws UnknownHostException {
+        CamRequest expectedRequest = new CamRequestImpl(Operation.GET_USER_INFO);
+        expectedRequest.addParameter(RequestParameter.QUERY_TYPE, QueryType.USERNAME.getValue());
+        expectedRequest.addParameter(RequestParameter.QUERY_VALUE, "jdoe");
+        Map<String, String> record = new HashMap<String, String>();
+        record.put("ip", "10.1.2.3");
+        record.put("mac", "0123456789AB");
+        record.put("name", "jdoe");
+        record.put("role", "Students");
+        List<Map<String, String>> responseData = new ArrayList<Map<String, String>>();
+        responseData.add(record);
+        StubConnection connection = new StubConnection(new CamResponseImpl("", responseData, false, null));
+
+        CamClientImpl client = new CamClientImpl(connection);
+        List<CamUserInfo> users = client.getUserInfo(QueryType.USERNAME, "jdoe");
+        assertEquals(expectedRequest, connection.request);
+        assertEquals(1, users.size());
+        assertEquals(InetAddress.getByName("10.1.2.3"), users.get(0).getIpAddress());
+        assertEquals(MacAddress.valueOf("0123456789AB"), users.get(0).getMacAddress());
+        assertEquals("jdoe", users.get(0).getName());
+        assertEquals("Students", users.get(0).getRole());
+    }
+
+    @Test
+    public void testGetUserInfoAllSendsEmptyQueryValue() {
+        CamRequest expectedRequest = new CamRequestImpl(Operation.GET_USER_INFO);
+        expectedRequest.addParameter(RequestParameter.QUERY_TYPE, QueryType.ALL.getValue());
+        expectedRequest.addParameter(RequestParameter.QUERY_VALUE, "");
+        List<Map<String, String>> responseData = Collections.emptyList();
+        StubConnection connection = new StubConnection(new CamResponseImpl("", responseData, false, null));
+
+        CamClientImpl client = new CamClientImpl(connection);
+        List<CamUserInfo> users = client.getUserInfo(QueryType.ALL, null);
+        assertEquals(expectedRequest, connection.request);
+        assertTrue(users.isEmpty());
+    }
+
+    @Test(expected = CamClientException.class)
+    public void testGetUserInfoErrorResponse() {
+        List<Map<String, String>> responseData = Collections.emptyList();
+        StubConnection connection = new StubConnection(
+                new CamResponseImpl(ERROR_RESPONSE_STRING, responseData, true, "CAM Error"));
+        CamClientImpl client = new CamClientImpl(connection);
+        client.getUserInfo(QueryType.IP_ADDRESS, "10.1.2.3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetUserInfoNullQueryType() {
+        CamClientImpl client = new CamClientImpl();
+        client.getUserInfo(null, "jdoe");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetUserInfoNullQueryValue() {
+        CamClientImpl client = new CamClientImpl();
+        client.getUserInfo(QueryType.MAC_ADDRESS, null);
+    }
+
+    @Test
+    public void testGetUserInfoUnparsableAddressesAreNull() {
+        Map<String, String> record = new HashMap<String, String>();
+        record.put("mac", "not a mac");
+        record.put("name", "jdoe");
+        List<Map<String, String>> responseData = new ArrayList<Map<String, String>>();
+        responseData.add(record);
+        StubConnection connection = new StubConnection(new CamResponseImpl("", responseData, false, null));
+
+        CamClientImpl client = new CamClientImpl(connection);
+        List<CamUserInfo> users = client.getUserInfo(QueryType.USERNAME, "jdoe");
+        assertNull(users.get(0).getMacAddress());
+        assertNull(users.get(0).getIpAddress());
+        assertEquals("jdoe", users.get(0).getName());
+    }
+
+    private static class StubConnection implements CamConnection {
+        private final CamResponse response;
+        private CamRequest request;
+
+        StubConnection(CamResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            this.request = request;
+            return this.response;
+        }
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import com.mattbertolini.camclient.net.CamConnection;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class CamCompletableClientImplTest {
+    private ExecutorService executorService;
+    private RecordingConnection connection;
+    private CamCompletableClientImpl client;
+
+    @Before
+    public void setUp() {
+        this.executorService = Executors.newFixedThreadPool(2);
+        this.connection = new RecordingConnection();
+        this.client = new CamCompletableClientImpl(this.connection, this.executorService);
+    }
+
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void testCallsCanBeChained() throws Exception {
+        Function<String, CompletionStage<Void>> clear = new Function<String, CompletionStage<Void>>() {
+            @Override
+            public CompletionStage<Void> apply(String version) {
+                return client.clearCertifiedListAsync();
+            }
+        };
+        CompletionStage<Void> chain = this.client.getCamVersionAsync().thenCompose(clear);
+        chain.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        List<Operation> expected = new ArrayList<Operation>();
+        expected.add(Operation.GET_VERSION);
+        expected.add(Operation.CLEAR_CERTIFIED_LIST);
+        assertEquals(expected, this.connection.operations);
+    }
+
+    @Test
+    public void testErrorResponseCompletesExceptionally() throws Exception {
+        this.connection.error = true;
+        CompletableFuture<Void> future = this.client.clearCertifiedListAsync().toCompletableFuture();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the call to fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CamClientException);
+        }
+    }
+
+    @Test
+    public void testWithExecutorRunsOnGivenExecutor() throws Exception {
+        final List<Runnable> submitted = new ArrayList<Runnable>();
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submitted.add(command);
+                command.run();
+            }
+        };
+        this.client.withExecutor(direct).getCamVersionAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(1, submitted.size());
+    }
+
+    private static class RecordingConnection implements CamConnection {
+        private final List<Operation> operations = Collections.synchronizedList(new ArrayList<Operation>());
+        private volatile boolean error;
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            this.operations.add(request.getOperation());
+            if(this.error) {
+                return new CamResponseImpl("", Collections.<Map<String, String>>emptyList(), true, "CAM Error - test");
+            }
+            List<Map<String, String>> data = new ArrayList<Map<String, String>>();
+            Map<String, String> row = new HashMap<String, String>();
+            row.put("version", "4.9.0");
+            data.add(row);
+            return new CamResponseImpl("", data, false, null);
+        }
+    }
+}
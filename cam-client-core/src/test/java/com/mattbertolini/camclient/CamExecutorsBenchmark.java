@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import com.mattbertolini.camclient.net.CamConnection;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the fixed platform thread pool path against the virtual thread path of {@link CamExecutors} by pushing a
+ * burst of calls through {@link CamAsyncClientImpl} against a connection that simulates CAM latency. Not run as part
+ * of the build; run the main method by hand on the JDK of interest:
+ *
+ * <pre>
+ * java -cp ... com.mattbertolini.camclient.CamExecutorsBenchmark [calls] [latencyMillis] [concurrency]
+ * </pre>
+ *
+ * @author Matt Bertolini
+ */
+public class CamExecutorsBenchmark {
+    public static void main(String[] args) throws Exception {
+        int calls = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        long latencyMillis = (args.length > 1) ? Long.parseLong(args[1]) : 50L;
+        int concurrency = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        System.out.println("Virtual threads supported: " + CamExecutors.isVirtualThreadSupported());
+        System.out.println(calls + " calls, " + latencyMillis + "ms simulated latency, concurrency " + concurrency);
+
+        // Warm up both paths before measuring.
+        run("warm-up", Executors.newFixedThreadPool(50), calls / 10, latencyMillis);
+        run("warm-up", CamExecutors.newVirtualThreadExecutor(concurrency), calls / 10, latencyMillis);
+
+        run("fixed pool (50 threads)", Executors.newFixedThreadPool(50), calls, latencyMillis);
+        run("fixed pool (" + concurrency + " threads)", Executors.newFixedThreadPool(concurrency), calls, latencyMillis);
+        run("virtual threads (cap " + concurrency + ")", CamExecutors.newVirtualThreadExecutor(concurrency), calls,
+                latencyMillis);
+    }
+
+    private static void run(String name, ExecutorService executor, int calls, long latencyMillis) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        CamAsyncClientImpl client = new CamAsyncClientImpl(new SlowCamConnection(latencyMillis), executor);
+        long start = System.nanoTime();
+        List<Future<String>> futures = new ArrayList<Future<String>>(calls);
+        for(int i = 0; i < calls; i++) {
+            futures.add(client.getCamVersionAsync());
+        }
+        for(Future<String> future : futures) {
+            future.get();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.printf("%-32s %6d ms  %8.0f calls/s  peak platform threads %d%n", name, elapsed,
+                calls * 1000.0 / Math.max(1, elapsed), threads.getPeakThreadCount());
+    }
+
+    private static class SlowCamConnection implements CamConnection {
+        private final long latencyMillis;
+        private final List<Map<String, String>> data;
+
+        private SlowCamConnection(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            Map<String, String> row = new HashMap<String, String>();
+            row.put("version", "4.9.0");
+            this.data = Collections.singletonList(row);
+        }
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            try {
+                Thread.sleep(this.latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new CamResponseImpl("", this.data, false, null);
+        }
+    }
+}
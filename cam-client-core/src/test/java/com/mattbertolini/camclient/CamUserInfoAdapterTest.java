@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class CamUserInfoAdapterTest {
+    @Test
+    public void testBuildCamUserInfoMapsAllFields() throws Exception {
+        Map<String, String> record = new HashMap<String, String>();
+        record.put("ip", "10.1.2.3");
+        record.put("mac", "01:23:45:67:89:AB");
+        record.put("name", "jdoe");
+        record.put("provider", "LDAP");
+        record.put("role", "Students");
+        record.put("origrole", "Unauthenticated");
+        record.put("vlan", "10");
+        record.put("newvlan", "20");
+        record.put("os", "Windows");
+
+        CamUserInfo userInfo = new CamUserInfoAdapter().buildCamUserInfo(record);
+        assertEquals(InetAddress.getByName("10.1.2.3"), userInfo.getIpAddress());
+        assertEquals(MacAddress.valueOf("0123456789AB"), userInfo.getMacAddress());
+        assertEquals("jdoe", userInfo.getName());
+        assertEquals("LDAP", userInfo.getProvider());
+        assertEquals("Students", userInfo.getRole());
+        assertEquals("Unauthenticated", userInfo.getOriginalRole());
+        assertEquals("10", userInfo.getVlan());
+        assertEquals("20", userInfo.getNewVlan());
+        assertEquals("Windows", userInfo.getOperatingSystem());
+    }
+
+    @Test
+    public void testBuildCamUserInfoMissingFieldsAreNull() {
+        CamUserInfo userInfo = new CamUserInfoAdapter().buildCamUserInfo(new HashMap<String, String>());
+        assertNull(userInfo.getIpAddress());
+        assertNull(userInfo.getMacAddress());
+        assertNull(userInfo.getName());
+        assertNull(userInfo.getOperatingSystem());
+    }
+
+    @Test
+    public void testBuildCamUserInfoInvalidMacAddressIsNull() {
+        Map<String, String> record = new HashMap<String, String>();
+        record.put("mac", "not a mac");
+        record.put("name", "jdoe");
+        CamUserInfo userInfo = new CamUserInfoAdapter().buildCamUserInfo(record);
+        assertNull(userInfo.getMacAddress());
+        assertEquals("jdoe", userInfo.getName());
+    }
+
+    @Test
+    public void testBuildCamUserInfoListKeepsRecordOrder() {
+        List<Map<String, String>> data = new ArrayList<Map<String, String>>();
+        for(String name : new String[] {"alice", "bob", "carol"}) {
+            Map<String, String> record = new HashMap<String, String>();
+            record.put("name", name);
+            data.add(record);
+        }
+        CamResponse response = new CamResponseImpl("", data, false, null);
+        List<CamUserInfo> users = new CamUserInfoAdapter().buildCamUserInfoListFromResponse(response);
+        assertEquals(3, users.size());
+        assertEquals("alice", users.get(0).getName());
+        assertEquals("bob", users.get(1).getName());
+        assertEquals("carol", users.get(2).getName());
+    }
+
+    @Test
+    public void testBuildCamUserInfoListEmptyResponse() {
+        List<Map<String, String>> data = new ArrayList<Map<String, String>>();
+        CamResponse response = new CamResponseImpl("", data, false, null);
+        assertTrue(new CamUserInfoAdapter().buildCamUserInfoListFromResponse(response).isEmpty());
+    }
+}
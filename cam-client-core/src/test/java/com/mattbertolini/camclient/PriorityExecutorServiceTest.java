@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient;
+
+import com.mattbertolini.camclient.request.Operation;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class PriorityExecutorServiceTest {
+    private PriorityExecutorService executor;
+
+    @After
+    public void tearDown() {
+        if(this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUrgentTasksJumpTheQueue() throws Exception {
+        this.executor = new PriorityExecutorService(1, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        this.executor.submit(Priority.NORMAL, block(release));
+        List<Priority> order = Collections.synchronizedList(new ArrayList<Priority>());
+        this.executor.submit(Priority.BULK, record(order, Priority.BULK));
+        this.executor.submit(Priority.NORMAL, record(order, Priority.NORMAL));
+        Future<Void> last = this.executor.submit(Priority.URGENT, record(order, Priority.URGENT));
+        release.countDown();
+        this.executor.shutdown();
+        assertTrue(this.executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(last.isDone());
+        assertEquals(Arrays.asList(Priority.URGENT, Priority.NORMAL, Priority.BULK), order);
+        assertEquals(2L, this.executor.getStartedCount(Priority.NORMAL));
+    }
+
+    @Test
+    public void testReservedThreadsOnlyRunUrgentTasks() throws Exception {
+        this.executor = new PriorityExecutorService(2, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        this.executor.submit(Priority.NORMAL, block(release));
+        this.executor.submit(Priority.BULK, block(release));
+        Future<Void> urgent = this.executor.submit(Priority.URGENT, record(new ArrayList<Priority>(), Priority.URGENT));
+        urgent.get(5, TimeUnit.SECONDS);
+        assertEquals(1, this.executor.getQueueLength(Priority.BULK));
+        release.countDown();
+    }
+
+    @Test
+    public void testBulkTasksGetAShareOfNormalTraffic() throws Exception {
+        this.executor = new PriorityExecutorService(1, 0);
+        this.executor.setBulkInterval(3);
+        CountDownLatch release = new CountDownLatch(1);
+        this.executor.submit(Priority.NORMAL, block(release));
+        while(this.executor.getStartedCount(Priority.NORMAL) == 0) {
+            Thread.sleep(5);
+        }
+        List<Priority> order = Collections.synchronizedList(new ArrayList<Priority>());
+        this.executor.submit(Priority.BULK, record(order, Priority.BULK));
+        this.executor.submit(Priority.BULK, record(order, Priority.BULK));
+        for(int i = 0; i < 7; i++) {
+            this.executor.submit(Priority.NORMAL, record(order, Priority.NORMAL));
+        }
+        release.countDown();
+        this.executor.shutdown();
+        assertTrue(this.executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Priority.NORMAL, Priority.NORMAL, Priority.NORMAL, Priority.BULK, Priority.NORMAL,
+                Priority.NORMAL, Priority.NORMAL, Priority.BULK, Priority.NORMAL), order);
+    }
+
+    @Test
+    public void testDefaultPriorities() {
+        assertEquals(Priority.URGENT, Priority.forOperation(Operation.KICK_USER_BY_MAC_ADDRESS));
+        assertEquals(Priority.URGENT, Priority.forOperation(Operation.BOUNCE_PORT_BY_MAC_ADDRESS));
+        assertEquals(Priority.BULK, Priority.forOperation(Operation.GET_MAC_ADDRESS_LIST));
+        assertEquals(Priority.NORMAL, Priority.forOperation(Operation.ADD_MAC_ADDRESS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAllThreadsReserved() {
+        new PriorityExecutorService(2, 2);
+    }
+
+    private static Callable<Void> block(final CountDownLatch release) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                release.await();
+                return null;
+            }
+        };
+    }
+
+    private static Callable<Void> record(final List<Priority> order, final Priority priority) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                order.add(priority);
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient;
+
+import com.mattbertolini.camclient.net.CamConnection;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class RequestWindowTest {
+    private ExecutorService executorService;
+    private GatedConnection connection;
+
+    @Before
+    public void setUp() {
+        this.executorService = Executors.newSingleThreadExecutor();
+        this.connection = new GatedConnection();
+    }
+
+    @After
+    public void tearDown() {
+        this.connection.gate.countDown();
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void testFailFastRejectsOverflow() throws Exception {
+        RequestWindow window = new RequestWindow(2, RequestWindow.OverflowPolicy.FAIL_FAST);
+        CamAsyncClientImpl client = new CamAsyncClientImpl(this.connection, this.executorService, window);
+        Future<Void> first = client.clearCertifiedListAsync();
+        Future<Void> second = client.clearCertifiedListAsync();
+        try {
+            client.clearCertifiedListAsync();
+            fail("Expected the request to be rejected.");
+        } catch (RequestRejectedException e) {
+            // expected
+        }
+        assertTrue(this.connection.started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, window.getRunning());
+        assertEquals(1, window.getQueueDepth());
+        assertEquals(2, window.getOutstanding());
+        assertEquals(1, window.getRejectedCount());
+
+        this.connection.gate.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(0, window.getOutstanding());
+    }
+
+    @Test
+    public void testCallerRunsOverflowOnCallingThread() throws Exception {
+        RequestWindow window = new RequestWindow(1, RequestWindow.OverflowPolicy.CALLER_RUNS);
+        CamAsyncClientImpl client = new CamAsyncClientImpl(this.connection, this.executorService, window);
+        client.clearCertifiedListAsync();
+        assertTrue(this.connection.started.await(5, TimeUnit.SECONDS));
+        Future<Void> overflow = client.clearCertifiedListAsync();
+        assertTrue(overflow.isDone());
+        assertEquals(Thread.currentThread(), this.connection.threads.get(1));
+        assertEquals(1, window.getCallerRunsCount());
+        assertEquals(1, window.getOutstanding());
+    }
+
+    @Test
+    public void testBlockWaitsForAPlace() throws Exception {
+        RequestWindow window = new RequestWindow(1, RequestWindow.OverflowPolicy.BLOCK);
+        final CamAsyncClientImpl client = new CamAsyncClientImpl(this.connection, this.executorService, window);
+        client.clearCertifiedListAsync();
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                client.clearCertifiedListAsync();
+                submitted.countDown();
+            }
+        });
+        submitter.start();
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+        this.connection.gate.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, window.getBlockedCount());
+    }
+
+    @Test
+    public void testCancelledQueuedRequestFreesItsPlace() throws Exception {
+        RequestWindow window = new RequestWindow(2, RequestWindow.OverflowPolicy.FAIL_FAST);
+        CamAsyncClientImpl client = new CamAsyncClientImpl(this.connection, this.executorService, window);
+        client.clearCertifiedListAsync();
+        assertTrue(this.connection.started.await(5, TimeUnit.SECONDS));
+        Future<Void> queued = client.clearCertifiedListAsync();
+        assertTrue(queued.cancel(false));
+        assertEquals(0, window.getQueueDepth());
+        assertEquals(1, window.getOutstanding());
+        client.clearCertifiedListAsync();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxRequestsMustBePositive() {
+        new RequestWindow(0, RequestWindow.OverflowPolicy.BLOCK);
+    }
+
+    private static class GatedConnection implements CamConnection {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            this.threads.add(Thread.currentThread());
+            // Only the first call is held, so it keeps the window occupied.
+            if(this.calls.incrementAndGet() == 1) {
+                this.started.countDown();
+                try {
+                    this.gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new CamResponseImpl("", Collections.<Map<String, String>>emptyList(), false, null);
+        }
+    }
+}
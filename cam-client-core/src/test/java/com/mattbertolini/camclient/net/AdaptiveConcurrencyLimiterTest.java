@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.Operation;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class AdaptiveConcurrencyLimiterTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void testDroppedRequestShrinksLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 20);
+        limiter.acquire();
+        limiter.release(FAST, true);
+        assertEquals(9, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testHealthyRequestsGrowLimitWhenWindowIsBusy() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 20);
+        limiter.acquire();
+        limiter.acquire();
+        limiter.release(FAST, false);
+        limiter.release(FAST, false);
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void testHealthyRequestsDoNotGrowIdleWindow() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 20);
+        limiter.acquire();
+        limiter.release(FAST, false);
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testSlowRequestShrinksLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 20);
+        limiter.acquire();
+        limiter.release(FAST, false);
+        limiter.acquire();
+        limiter.release(SLOW, false);
+        assertTrue(limiter.getLimit() < 10);
+    }
+
+    @Test
+    public void testSlowOperationIsComparedWithItsOwnBaseline() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 20);
+        limiter.acquire();
+        limiter.release(Operation.CHECK_MAC_ADDRESS, FAST, false);
+        limiter.acquire();
+        limiter.release(Operation.GET_MAC_ADDRESS_LIST, SLOW, false);
+        limiter.acquire();
+        limiter.release(Operation.GET_MAC_ADDRESS_LIST, SLOW, false);
+        assertEquals(10, limiter.getLimit());
+        assertEquals(10, limiter.getBaselineLatency(Operation.CHECK_MAC_ADDRESS, TimeUnit.MILLISECONDS));
+        assertEquals(100, limiter.getBaselineLatency(Operation.GET_MAC_ADDRESS_LIST, TimeUnit.MILLISECONDS));
+        limiter.acquire();
+        limiter.release(Operation.CHECK_MAC_ADDRESS, SLOW, false);
+        assertTrue(limiter.getLimit() < 10);
+    }
+
+    @Test
+    public void testLimitNeverDropsBelowMinimum() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2, 20);
+        for(int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.release(FAST, true);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitNeverExceedsMaximum() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 3);
+        for(int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.release(FAST, false);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitialLimitOutOfRange() {
+        new AdaptiveConcurrencyLimiter(50, 1, 20);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Matt Bertolini
+ */
+public class AddressLiteralsTest {
+    @Test
+    public void testIpv4() throws Exception {
+        assertArrayEquals(InetAddress.getByName("10.1.200.12").getAddress(), AddressLiterals.parse("10.1.200.12"));
+        assertArrayEquals(new byte[] {0, 0, 0, 0}, AddressLiterals.parse("0.0.0.0"));
+    }
+
+    @Test
+    public void testIpv6() throws Exception {
+        String[] literals = {"::", "::1", "fe80::1", "2001:db8:0:0:0:0:2:1", "2001:DB8::2:1", "1::", "::ffff:10.1.2.3",
+                "1:2:3:4:5:6:7:8"};
+        for(String literal : literals) {
+            assertArrayEquals(literal, InetAddress.getByName(literal).getAddress(), AddressLiterals.parse(literal));
+        }
+        assertArrayEquals(InetAddress.getByName("fe80::1").getAddress(), AddressLiterals.parse("[fe80::1%eth0]"));
+    }
+
+    @Test
+    public void testNonLiteralsAreRejected() {
+        String[] values = {null, "", "cam.example.edu", "10.1.2", "10.1.2.3.4", "10.1.2.256", "10..2.3", "1:2:3:4:5:6:7",
+                "1:2:3:4:5:6:7:8:9", "1::2::3", "12345::", "g::1", ":::", "1:2:3:4:5:6:7::8"};
+        for(String value : values) {
+            assertNull(value, AddressLiterals.parse(value));
+        }
+    }
+}
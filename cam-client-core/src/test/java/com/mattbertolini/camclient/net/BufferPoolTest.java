@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Matt Bertolini
+ */
+public class BufferPoolTest {
+    @Test
+    public void testAcquireRoundsUpToSizeClass() {
+        BufferPool pool = new BufferPool(new int[] {16, 64}, 2);
+        assertEquals(16, pool.acquireBytes(1).length);
+        assertEquals(64, pool.acquireBytes(17).length);
+        assertEquals(64, pool.acquireChars(64).length);
+    }
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        BufferPool pool = new BufferPool(new int[] {16, 64}, 2);
+        byte[] bytes = pool.acquireBytes(10);
+        pool.releaseBytes(bytes);
+        assertSame(bytes, pool.acquireBytes(16));
+        char[] chars = pool.acquireChars(10);
+        pool.releaseChars(chars);
+        assertSame(chars, pool.acquireChars(16));
+        assertEquals(2, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    @Test
+    public void testOversizedBufferIsNotRetained() {
+        BufferPool pool = new BufferPool(new int[] {16}, 2);
+        byte[] bytes = pool.acquireBytes(100);
+        assertEquals(100, bytes.length);
+        pool.releaseBytes(bytes);
+        assertEquals(0, pool.getRetainedCount());
+    }
+
+    @Test
+    public void testRetentionLimit() {
+        BufferPool pool = new BufferPool(new int[] {16}, 2);
+        byte[] first = pool.acquireBytes(16);
+        byte[] second = pool.acquireBytes(16);
+        byte[] third = pool.acquireBytes(16);
+        pool.releaseBytes(first);
+        pool.releaseBytes(second);
+        pool.releaseBytes(third);
+        assertEquals(2, pool.getRetainedCount());
+    }
+
+    @Test
+    public void testGrowCopiesContentAndReleasesOldBuffer() {
+        BufferPool pool = new BufferPool(new int[] {4, 8}, 2);
+        char[] chars = pool.acquireChars(4);
+        chars[0] = 'a';
+        chars[1] = 'b';
+        char[] larger = pool.growChars(chars, 2, 5);
+        assertEquals(8, larger.length);
+        assertArrayEquals(new char[] {'a', 'b'}, new char[] {larger[0], larger[1]});
+        assertSame(chars, pool.acquireChars(4));
+        assertNotSame(larger, chars);
+    }
+
+    @Test
+    public void testSteadyStateDoesNotAllocate() {
+        BufferPool pool = new BufferPool();
+        for(int i = 0; i < 100; i++) {
+            pool.releaseBytes(pool.acquireBytes(4096));
+        }
+        assertEquals(1, pool.getMissCount());
+        assertEquals(99, pool.getHitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizeClassesMustAscend() {
+        new BufferPool(new int[] {64, 16}, 2);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.BasicCamCredentials;
+import com.mattbertolini.camclient.CamAsyncClientImpl;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class CallContextTest {
+    private ExecutorService executorService;
+    private BlockingCamConnection connection;
+
+    @Before
+    public void setUp() {
+        this.executorService = Executors.newSingleThreadExecutor();
+        this.connection = new BlockingCamConnection();
+    }
+
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void testCancellingFutureAbortsInFlightRequest() throws Exception {
+        CamAsyncClientImpl client = new CamAsyncClientImpl(this.connection, this.executorService);
+        Future<String> future = client.getCamVersionAsync();
+        assertTrue(this.connection.submitted.await(5, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        assertTrue(this.connection.aborted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDeadlineSetsTimeoutAndFailsCall() {
+        CallContext previous = CallContext.attach(new CallContext(Deadline.after(50, TimeUnit.MILLISECONDS)));
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the deadline to be exceeded.");
+        } catch (DeadlineExceededException e) {
+            assertTrue(this.connection.timeoutMillis > 0 && this.connection.timeoutMillis <= 50);
+        } finally {
+            CallContext.restore(previous);
+        }
+    }
+
+    @Test(expected = RequestCancelledException.class)
+    public void testCancelledContextFailsBeforeSending() {
+        CallContext context = new CallContext(null);
+        context.cancel();
+        CallContext previous = CallContext.attach(context);
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        } finally {
+            CallContext.restore(previous);
+        }
+    }
+
+    @Test
+    public void testCancellingParentCancelsChild() {
+        CallContext parent = new CallContext(null);
+        CallContext previous = CallContext.attach(parent);
+        CallContext child;
+        try {
+            child = CallContext.forkCurrent();
+        } finally {
+            CallContext.restore(previous);
+        }
+        parent.cancel();
+        assertTrue(child.isCancelled());
+    }
+
+    @Test
+    public void testEarliestDeadline() {
+        Deadline soon = Deadline.after(1, TimeUnit.SECONDS);
+        Deadline later = Deadline.after(1, TimeUnit.HOURS);
+        assertEquals(soon, Deadline.earliest(later, soon));
+        assertEquals(soon, Deadline.earliest(null, soon));
+    }
+
+    /**
+     * A connection whose requests never complete on their own. They end when aborted or when the timeout passes.
+     */
+    private static class BlockingCamConnection extends AbstractCamConnection<CountDownLatch, Boolean> {
+        private final CountDownLatch submitted = new CountDownLatch(1);
+        private final CountDownLatch aborted = new CountDownLatch(1);
+        private volatile int timeoutMillis;
+
+        private BlockingCamConnection() {
+            super(URI.create("http://localhost/admin/cisco_api.jsp"), new BasicCamCredentials("admin", "secret"));
+        }
+
+        @Override
+        public CountDownLatch buildRequest(CamRequest camRequest) {
+            return new CountDownLatch(1);
+        }
+
+        @Override
+        public CamResponse buildResponse(Boolean completed) {
+            return new CamResponseImpl("", Collections.<Map<String, String>>emptyList(), false, null);
+        }
+
+        @Override
+        public String extractSessionCookie(Boolean completed) {
+            return null;
+        }
+
+        @Override
+        public void setTimeout(CountDownLatch request, int timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void abortRequest(CountDownLatch request) {
+            request.countDown();
+        }
+
+        @Override
+        public Boolean submitRequest(CountDownLatch request) {
+            this.submitted.countDown();
+            // Like blocking socket I/O, waiting here ignores interrupts; only an abort or the timeout ends it.
+            long timeout = TimeUnit.MILLISECONDS.toNanos((this.timeoutMillis > 0) ? this.timeoutMillis : 60000);
+            long end = System.nanoTime() + timeout;
+            boolean completed = false;
+            boolean interrupted = false;
+            while(!completed && end - System.nanoTime() > 0) {
+                try {
+                    completed = request.await(end - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if(completed) {
+                this.aborted.countDown();
+            }
+            throw new CamConnectionException("Connection closed.");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class CircuitBreakerCamConnectionTest {
+    private StubConnection stub;
+    private CircuitBreaker breaker;
+    private CircuitBreakerCamConnection connection;
+
+    @Before
+    public void setUp() {
+        this.stub = new StubConnection();
+        this.breaker = new CircuitBreaker("cam", 4, 4, 1);
+        this.connection = new CircuitBreakerCamConnection(this.stub, this.breaker);
+    }
+
+    @Test
+    public void testTransportFailuresOpenBreaker() {
+        this.stub.failure = new CamConnectionException("Down", new IOException("Connection reset"));
+        for(int i = 0; i < 4; i++) {
+            this.execute();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+    }
+
+    @Test
+    public void testCallerCancellationIsNotAFailure() {
+        this.stub.failure = new RequestCancelledException("Cancelled");
+        for(int i = 0; i < 10; i++) {
+            this.execute();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+    }
+
+    @Test
+    public void testDeadlineExpiryOpensBreaker() {
+        this.stub.failure = new DeadlineExceededException("Too slow");
+        for(int i = 0; i < 4; i++) {
+            this.execute();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+    }
+
+    @Test
+    public void testErrorFreesHalfOpenSlot() {
+        this.breaker.setWaitDuration(0, TimeUnit.MILLISECONDS);
+        this.stub.failure = new CamConnectionException("Down", new IOException("Connection reset"));
+        for(int i = 0; i < 4; i++) {
+            this.execute();
+        }
+        this.stub.error = new AssertionError("Boom");
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the error to propagate.");
+        } catch (AssertionError e) {
+            assertEquals(this.stub.error, e);
+        }
+        this.stub.error = null;
+        this.stub.failure = null;
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+    }
+
+    @Test
+    public void testCancelledTrialCallFreesHalfOpenSlot() {
+        this.breaker.setWaitDuration(0, TimeUnit.MILLISECONDS);
+        this.stub.failure = new CamConnectionException("Down", new IOException("Connection reset"));
+        for(int i = 0; i < 4; i++) {
+            this.execute();
+        }
+        this.stub.failure = new RequestCancelledException("Cancelled");
+        this.execute();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, this.breaker.getState());
+        this.stub.failure = null;
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+    }
+
+    private void execute() {
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the request to fail.");
+        } catch (RuntimeException e) {
+            assertEquals(this.stub.failure, e);
+        }
+    }
+}
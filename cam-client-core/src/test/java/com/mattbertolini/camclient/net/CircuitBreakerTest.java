@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class CircuitBreakerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(5);
+
+    @Test
+    public void testOpensWhenFailureRateReached() {
+        CircuitBreaker breaker = new CircuitBreaker("cam", 10, 4, 2);
+        breaker.onSuccess(FAST);
+        breaker.onSuccess(FAST);
+        breaker.onError(FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onError(FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void testOpensWhenSlowCallRateReached() {
+        CircuitBreaker breaker = new CircuitBreaker("cam", 10, 2, 2);
+        breaker.setSlowCallDuration(1, TimeUnit.SECONDS);
+        breaker.onSuccess(TimeUnit.SECONDS.toNanos(2));
+        breaker.onSuccess(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOldOutcomesSlideOutOfWindow() {
+        CircuitBreaker breaker = new CircuitBreaker("cam", 4, 4, 2);
+        breaker.onError(FAST);
+        for(int i = 0; i < 6; i++) {
+            breaker.onSuccess(FAST);
+        }
+        breaker.onError(FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenClosesAfterHealthyTrialCalls() {
+        CircuitBreaker breaker = this.openBreaker();
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+        breaker.onSuccess(FAST);
+        breaker.onSuccess(FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenReopensAfterFailedTrialCalls() {
+        CircuitBreaker breaker = this.openBreaker();
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onError(FAST);
+        breaker.onError(FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testListenerSeesTransitions() {
+        final List<String> transitions = new ArrayList<String>();
+        CircuitBreaker breaker = new CircuitBreaker("cam", 2, 2, 1);
+        breaker.setWaitDuration(0, TimeUnit.MILLISECONDS);
+        breaker.addListener(new CircuitBreakerListener() {
+            @Override
+            public void onStateTransition(CircuitBreaker circuitBreaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+                transitions.add(from + "->" + to);
+            }
+        });
+        breaker.onError(FAST);
+        breaker.onError(FAST);
+        breaker.tryAcquirePermission();
+        breaker.onSuccess(FAST);
+        assertEquals(3, transitions.size());
+        assertEquals("CLOSED->OPEN", transitions.get(0));
+        assertEquals("OPEN->HALF_OPEN", transitions.get(1));
+        assertEquals("HALF_OPEN->CLOSED", transitions.get(2));
+    }
+
+    private CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("cam", 2, 2, 2);
+        breaker.setWaitDuration(0, TimeUnit.MILLISECONDS);
+        breaker.onError(FAST);
+        breaker.onError(FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
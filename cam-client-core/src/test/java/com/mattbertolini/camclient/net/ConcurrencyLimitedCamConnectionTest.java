@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class ConcurrencyLimitedCamConnectionTest {
+    private StubConnection stub;
+    private AdaptiveConcurrencyLimiter limiter;
+    private ConcurrencyLimitedCamConnection connection;
+
+    @Before
+    public void setUp() {
+        this.stub = new StubConnection();
+        this.limiter = new AdaptiveConcurrencyLimiter(10, 1, 20);
+        this.connection = new ConcurrencyLimitedCamConnection(this.stub, this.limiter);
+    }
+
+    @Test
+    public void testTransportFailureShrinksLimit() {
+        this.stub.failure = new CamConnectionException("Down", new IOException("Connection reset"));
+        this.execute();
+        assertEquals(9, this.limiter.getLimit());
+        assertEquals(0, this.limiter.getInFlight());
+    }
+
+    @Test
+    public void testDeadlineExpiryShrinksLimit() {
+        this.stub.failure = new DeadlineExceededException("Too slow");
+        this.execute();
+        assertEquals(9, this.limiter.getLimit());
+        assertEquals(0, this.limiter.getInFlight());
+    }
+
+    @Test
+    public void testCallerSideFailuresDoNotShrinkLimit() {
+        this.stub.failure = new RequestCancelledException("Cancelled");
+        this.execute();
+        this.stub.failure = new CircuitBreakerOpenException("Open");
+        this.execute();
+        assertEquals(10, this.limiter.getLimit());
+        assertEquals(0, this.limiter.getInFlight());
+    }
+
+    private void execute() {
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the request to fail.");
+        } catch (RuntimeException e) {
+            assertEquals(this.stub.failure, e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class DefaultUserAgentProviderTest {
+    @Test
+    public void testUserAgentIsBuiltOnce() {
+        DefaultUserAgentProvider provider = new DefaultUserAgentProvider();
+        String userAgent = provider.getUserAgentString();
+        assertTrue(userAgent.contains("Java/" + System.getProperty("java.version")));
+        assertSame(userAgent, provider.getUserAgentString());
+    }
+
+    @Test
+    public void testRefreshRebuildsUserAgent() {
+        DefaultUserAgentProvider provider = new DefaultUserAgentProvider();
+        String original = provider.getUserAgentString();
+        String osVersion = System.getProperty("os.version");
+        System.setProperty("os.version", "refresh-test");
+        try {
+            assertSame(original, provider.getUserAgentString());
+            String refreshed = provider.refresh();
+            assertNotSame(original, refreshed);
+            assertTrue(refreshed.contains("/refresh-test"));
+            assertSame(refreshed, provider.getUserAgentString());
+        } finally {
+            System.setProperty("os.version", osVersion);
+        }
+    }
+}
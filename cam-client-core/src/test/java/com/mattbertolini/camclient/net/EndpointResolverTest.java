@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class EndpointResolverTest {
+    private static final String HOST = "cam.example.com";
+
+    private StubResolver resolver;
+    private InetAddress first;
+    private InetAddress second;
+
+    @Before
+    public void setUp() throws UnknownHostException {
+        this.first = InetAddress.getByAddress(HOST, new byte[] {10, 0, 0, 1});
+        this.second = InetAddress.getByAddress(HOST, new byte[] {10, 0, 0, 2});
+        this.resolver = new StubResolver();
+        this.resolver.address = this.first;
+    }
+
+    @After
+    public void tearDown() {
+        this.resolver.close();
+    }
+
+    @Test
+    public void testAddressIsCached() throws UnknownHostException {
+        assertEquals(this.first, this.resolver.resolve(HOST)[0]);
+        this.resolver.address = this.second;
+        assertEquals(this.first, this.resolver.resolve(HOST)[0]);
+        assertEquals(1, this.resolver.getLookupCount());
+        assertEquals(1, this.resolver.getCacheHitCount());
+    }
+
+    @Test
+    public void testAddressIsRefreshedInBackgroundBeforeExpiry() throws Exception {
+        this.resolver.setTtl(10, TimeUnit.SECONDS);
+        this.resolver.setRefreshAhead(10, TimeUnit.SECONDS);
+        this.resolver.resolve(HOST);
+        this.resolver.address = this.second;
+        // Served from the cache while the refresh runs.
+        assertEquals(this.first, this.resolver.resolve(HOST)[0]);
+        this.awaitLookups(2);
+        assertEquals(this.second, this.resolver.resolve(HOST)[0]);
+    }
+
+    @Test
+    public void testLastGoodAddressIsServedWhenDnsFails() throws Exception {
+        this.resolver.setTtl(1, TimeUnit.MILLISECONDS);
+        this.resolver.setRefreshAhead(0, TimeUnit.MILLISECONDS);
+        this.resolver.resolve(HOST);
+        this.resolver.address = null;
+        Thread.sleep(5);
+        assertEquals(this.first, this.resolver.resolve(HOST)[0]);
+        assertEquals(1, this.resolver.getStaleHitCount());
+        this.awaitLookups(2);
+        assertEquals(this.first, this.resolver.resolve(HOST)[0]);
+        assertEquals(1, this.resolver.getLookupFailureCount());
+    }
+
+    @Test
+    public void testVeryStaleAddressIsLookedUpInForeground() throws Exception {
+        this.resolver.setTtl(1, TimeUnit.MILLISECONDS);
+        this.resolver.setMaxStale(1, TimeUnit.MILLISECONDS);
+        this.resolver.resolve(HOST);
+        this.resolver.address = this.second;
+        Thread.sleep(5);
+        assertEquals(this.second, this.resolver.resolve(HOST)[0]);
+        assertEquals(2, this.resolver.getLookupCount());
+        this.resolver.address = null;
+        Thread.sleep(5);
+        assertEquals(this.second, this.resolver.resolve(HOST)[0]);
+        assertEquals(1, this.resolver.getStaleHitCount());
+    }
+
+    @Test
+    public void testUnknownHostWithoutEarlierAddress() {
+        this.resolver.address = null;
+        try {
+            this.resolver.resolve(HOST);
+            fail("Expected the lookup to fail.");
+        } catch (UnknownHostException e) {
+            // expected
+        }
+        assertEquals(1, this.resolver.getLookupFailureCount());
+    }
+
+    private void awaitLookups(long lookups) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(this.resolver.getLookupCount() < lookups) {
+            if(System.currentTimeMillis() > deadline) {
+                fail("Background refresh did not run.");
+            }
+            Thread.sleep(5);
+        }
+        // Give the refresh a moment to store its result after the lookup returned.
+        Thread.sleep(20);
+    }
+
+    private static class StubResolver extends EndpointResolver {
+        private volatile InetAddress address;
+
+        @Override
+        protected InetAddress[] lookup(String host) throws UnknownHostException {
+            InetAddress result = this.address;
+            if(result == null) {
+                throw new UnknownHostException(host);
+            }
+            return new InetAddress[] {result};
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class FailoverCamConnectionTest {
+    private ScheduledExecutorService scheduler;
+    private SwitchableConnection primary;
+    private SwitchableConnection standby;
+    private FailoverCamConnection failover;
+
+    @Before
+    public void setUp() {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.primary = new SwitchableConnection();
+        this.standby = new SwitchableConnection();
+        List<CamConnection> connections = new ArrayList<CamConnection>();
+        connections.add(this.primary);
+        connections.add(this.standby);
+        this.failover = new FailoverCamConnection(connections, this.scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        this.failover.close();
+        this.scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testPrimaryIsUsedWhileHealthy() {
+        this.failover.probe();
+        assertSame(this.primary, this.failover.getActiveConnection());
+    }
+
+    @Test
+    public void testFailedProbeSwitchesToStandby() {
+        this.primary.up = false;
+        this.failover.probe();
+        assertFalse(this.failover.isHealthy(0));
+        assertSame(this.standby, this.failover.getActiveConnection());
+    }
+
+    @Test
+    public void testFailedRequestSwitchesToStandby() {
+        this.primary.up = false;
+        try {
+            this.failover.executeRequest(new CamRequestImpl(Operation.CHECK_MAC_ADDRESS));
+            fail("Expected CamConnectionException");
+        } catch (CamConnectionException e) {
+            assertSame(this.standby, this.failover.getActiveConnection());
+        }
+    }
+
+    @Test
+    public void testPrimaryRecoversAfterConsecutiveProbes() {
+        this.primary.up = false;
+        this.failover.probe();
+        this.primary.up = true;
+        this.failover.probe();
+        assertSame(this.standby, this.failover.getActiveConnection());
+        this.failover.probe();
+        assertTrue(this.failover.isHealthy(0));
+        assertSame(this.primary, this.failover.getActiveConnection());
+    }
+
+    @Test
+    public void testHangingPrimaryIsMarkedDownWithinProbeInterval() {
+        HangingConnection hanging = new HangingConnection();
+        List<CamConnection> connections = new ArrayList<CamConnection>();
+        connections.add(hanging);
+        connections.add(this.standby);
+        FailoverCamConnection hangingFailover = new FailoverCamConnection(connections, this.scheduler);
+        hangingFailover.setProbeInterval(200, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        hangingFailover.probe();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Probe took " + elapsed + "ms", elapsed < 2000);
+        assertFalse(hangingFailover.isHealthy(0));
+        assertTrue(hangingFailover.isHealthy(1));
+        assertSame(this.standby, hangingFailover.getActiveConnection());
+        assertTrue(hanging.contextHadDeadline);
+        hangingFailover.close();
+    }
+
+    @Test
+    public void testProbeTimeoutIsAFractionOfTheInterval() {
+        HangingConnection hanging = new HangingConnection();
+        List<CamConnection> connections = new ArrayList<CamConnection>();
+        connections.add(hanging);
+        FailoverCamConnection hangingFailover = new FailoverCamConnection(connections, this.scheduler);
+        hangingFailover.setProbeInterval(400, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        hangingFailover.probe();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Probe took " + elapsed + "ms", elapsed < 400);
+        hangingFailover.close();
+    }
+
+    @Test
+    public void testCloseInterruptsStuckProbes() throws Exception {
+        HangingConnection hanging = new HangingConnection();
+        List<CamConnection> connections = new ArrayList<CamConnection>();
+        connections.add(hanging);
+        FailoverCamConnection hangingFailover = new FailoverCamConnection(connections, this.scheduler);
+        hangingFailover.setProbeInterval(50, TimeUnit.MILLISECONDS);
+        hangingFailover.start();
+        assertTrue(hanging.entered.await(5, TimeUnit.SECONDS));
+        hangingFailover.close();
+        assertTrue(hanging.exited.await(5, TimeUnit.SECONDS));
+        try {
+            hangingFailover.start();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static class HangingConnection implements CamConnection {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch exited = new CountDownLatch(1);
+        private volatile boolean contextHadDeadline;
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            CallContext context = CallContext.current();
+            this.contextHadDeadline = context != null && context.getDeadline() != null;
+            this.entered.countDown();
+            try {
+                // Ignores the deadline, like a CAM that accepted the connection and never answers.
+                Thread.sleep(TimeUnit.MINUTES.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.exited.countDown();
+            throw new CamConnectionException("Interrupted");
+        }
+    }
+
+    private static class SwitchableConnection implements CamConnection {
+        private volatile boolean up = true;
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            if(!this.up) {
+                throw new CamConnectionException("Down", new IOException("Connection reset"));
+            }
+            List<Map<String, String>> data = Collections.emptyList();
+            return new CamResponseImpl("<!--version=4.9-->", data, false, null);
+        }
+    }
+}
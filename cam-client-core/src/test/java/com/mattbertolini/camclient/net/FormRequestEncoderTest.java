@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.BasicCamCredentials;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.request.RequestParameter;
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Matt Bertolini
+ */
+public class FormRequestEncoderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testEncodeMatchesUrlEncoder() throws Exception {
+        FormRequestEncoder encoder = new FormRequestEncoder(UTF_8);
+        CamRequestImpl request = new CamRequestImpl(Operation.ADD_LOCAL_USER);
+        request.addParameter(RequestParameter.USERNAME, "jörg smith");
+        request.addParameter(RequestParameter.USER_ROLE, "a&b=c*d_e.f-g~h");
+        String expected = "op=" + Operation.ADD_LOCAL_USER.getName()
+                + "&" + RequestParameter.USERNAME.getName() + "=" + URLEncoder.encode("jörg smith", "UTF-8")
+                + "&" + RequestParameter.USER_ROLE.getName() + "=" + URLEncoder.encode("a&b=c*d_e.f-g~h", "UTF-8")
+                + "&admin=" + URLEncoder.encode("ad min", "UTF-8") + "&passwd=" + URLEncoder.encode("p@ss%", "UTF-8");
+        byte[] encoded = encoder.encode(request, new BasicCamCredentials("ad min", "p@ss%"));
+        assertEquals(expected, new String(encoded, UTF_8));
+    }
+
+    @Test
+    public void testEncodeMatchesUrlEncoderForUtf16() throws Exception {
+        FormRequestEncoder encoder = new FormRequestEncoder(Charset.forName("UTF-16"));
+        CamRequestImpl request = new CamRequestImpl(Operation.ADD_LOCAL_USER);
+        request.addParameter(RequestParameter.USERNAME, "a/b c");
+        String expected = "op=" + Operation.ADD_LOCAL_USER.getName()
+                + "&" + RequestParameter.USERNAME.getName() + "=" + URLEncoder.encode("a/b c", "UTF-16");
+        byte[] encoded = encoder.encode(request, null);
+        assertEquals(expected, new String(encoded, UTF_8));
+    }
+
+    @Test
+    public void testLargeRequestGrowsBorrowedBuffer() throws Exception {
+        FormRequestEncoder encoder = new FormRequestEncoder(UTF_8);
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 50000; i++) {
+            sb.append("a b&");
+        }
+        CamRequestImpl request = new CamRequestImpl(Operation.ADD_LOCAL_USER);
+        request.addParameter(RequestParameter.USERNAME, sb.toString());
+        String expected = "op=" + Operation.ADD_LOCAL_USER.getName()
+                + "&" + RequestParameter.USERNAME.getName() + "=" + URLEncoder.encode(sb.toString(), "UTF-8");
+        assertEquals(expected, new String(encoder.encode(request, null), UTF_8));
+        assertEquals(expected, new String(encoder.encode(request, null), UTF_8));
+    }
+
+    @Test
+    public void testEncodeWithoutCredentials() {
+        FormRequestEncoder encoder = new FormRequestEncoder(UTF_8);
+        byte[] encoded = encoder.encode(new CamRequestImpl(Operation.GET_VERSION), null);
+        assertEquals("op=" + Operation.GET_VERSION.getName(), new String(encoded, UTF_8));
+    }
+
+    @Test
+    public void testChangedCredentialsAreReEncoded() {
+        FormRequestEncoder encoder = new FormRequestEncoder(UTF_8);
+        BasicCamCredentials credentials = new BasicCamCredentials("admin", "one");
+        encoder.encode(new CamRequestImpl(Operation.GET_VERSION), credentials);
+        credentials.setPassword("two");
+        byte[] encoded = encoder.encode(new CamRequestImpl(Operation.GET_VERSION), credentials);
+        assertEquals("op=" + Operation.GET_VERSION.getName() + "&admin=admin&passwd=two", new String(encoded, UTF_8));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class HedgingCamConnectionTest {
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() {
+        this.executorService = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void testSlowPrimaryIsHedged() {
+        DelayedConnection primary = new DelayedConnection("primary", 2000);
+        DelayedConnection secondary = new DelayedConnection("secondary", 0);
+        HedgingCamConnection connection = new HedgingCamConnection(primary, secondary, this.executorService);
+        connection.setInitialDelay(20, TimeUnit.MILLISECONDS);
+        CamResponse response = connection.executeRequest(new CamRequestImpl(Operation.CHECK_MAC_ADDRESS));
+        assertEquals("secondary", response.getRawResponseText());
+        assertEquals(1, connection.getHedgedRequests());
+        assertEquals(1, connection.getHedgeWins());
+    }
+
+    @Test
+    public void testFastPrimaryIsNotHedged() {
+        DelayedConnection primary = new DelayedConnection("primary", 0);
+        DelayedConnection secondary = new DelayedConnection("secondary", 0);
+        HedgingCamConnection connection = new HedgingCamConnection(primary, secondary, this.executorService);
+        CamResponse response = connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals("primary", response.getRawResponseText());
+        assertEquals(0, secondary.calls.get());
+    }
+
+    @Test
+    public void testWriteOperationIsNeverHedged() {
+        DelayedConnection primary = new DelayedConnection("primary", 100);
+        DelayedConnection secondary = new DelayedConnection("secondary", 0);
+        HedgingCamConnection connection = new HedgingCamConnection(primary, secondary, this.executorService);
+        connection.setInitialDelay(1, TimeUnit.MILLISECONDS);
+        CamResponse response = connection.executeRequest(new CamRequestImpl(Operation.KICK_USER));
+        assertEquals("primary", response.getRawResponseText());
+        assertEquals(0, secondary.calls.get());
+    }
+
+    @Test
+    public void testLosingPrimaryLatencyIsRecorded() {
+        DelayedConnection primary = new DelayedConnection("primary", 2000);
+        DelayedConnection secondary = new DelayedConnection("secondary", 0);
+        HedgingCamConnection connection = new HedgingCamConnection(primary, secondary, this.executorService);
+        connection.setInitialDelay(50, TimeUnit.MILLISECONDS);
+        connection.executeRequest(new CamRequestImpl(Operation.CHECK_MAC_ADDRESS));
+        long primaryLatency = connection.getPrimaryLatency(100.0);
+        assertTrue("Primary latency " + primaryLatency, primaryLatency >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(connection.getResponseLatency(100.0) >= 0);
+    }
+
+    @Test
+    public void testFailedPrimaryLatencyIsRecorded() {
+        DelayedConnection primary = new DelayedConnection("primary", 0);
+        primary.failure = new CamConnectionException("Connection refused");
+        DelayedConnection secondary = new DelayedConnection("secondary", 0);
+        HedgingCamConnection connection = new HedgingCamConnection(primary, secondary, this.executorService);
+        try {
+            connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected CamConnectionException");
+        } catch (CamConnectionException e) {
+            // expected
+        }
+        assertTrue(connection.getPrimaryLatency(100.0) >= 0);
+        assertEquals(-1L, connection.getResponseLatency(100.0));
+    }
+
+    private static class DelayedConnection implements CamConnection {
+        private final String name;
+        private final long delay;
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile RuntimeException failure;
+
+        DelayedConnection(String name, long delay) {
+            this.name = name;
+            this.delay = delay;
+        }
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            this.calls.incrementAndGet();
+            try {
+                Thread.sleep(this.delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if(this.failure != null) {
+                throw this.failure;
+            }
+            List<Map<String, String>> data = Collections.emptyList();
+            return new CamResponseImpl(this.name, data, false, null);
+        }
+    }
+}
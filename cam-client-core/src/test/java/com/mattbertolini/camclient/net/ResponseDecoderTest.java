@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Matt Bertolini
+ */
+public class ResponseDecoderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String BODY = "<!--error=0-->\n<!--mac=00:11:22:33:44:55,ip=10.0.0.1-->\n";
+
+    @Test
+    public void testIdentityPassesThrough() throws IOException {
+        ResponseDecoder decoder = new ResponseDecoder();
+        assertEquals(BODY, read(decoder.decode(new ByteArrayInputStream(BODY.getBytes(UTF_8)), null)));
+        assertEquals(1, decoder.getResponseCount());
+        assertEquals(0, decoder.getCompressedResponseCount());
+        assertEquals(BODY.length(), decoder.getWireBytes());
+        assertEquals(BODY.length(), decoder.getDecodedBytes());
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        ResponseDecoder decoder = new ResponseDecoder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(BODY.getBytes(UTF_8));
+        gzip.close();
+        byte[] compressed = out.toByteArray();
+        assertEquals(BODY, read(decoder.decode(new ByteArrayInputStream(compressed), "GZIP")));
+        assertEquals(1, decoder.getCompressedResponseCount());
+        assertEquals(compressed.length, decoder.getWireBytes());
+        assertEquals(BODY.length(), decoder.getDecodedBytes());
+    }
+
+    @Test
+    public void testZlibDeflate() throws IOException {
+        ResponseDecoder decoder = new ResponseDecoder();
+        byte[] compressed = deflate(BODY.getBytes(UTF_8), false);
+        assertEquals(BODY, read(decoder.decode(new ByteArrayInputStream(compressed), "deflate")));
+    }
+
+    @Test
+    public void testRawDeflate() throws IOException {
+        ResponseDecoder decoder = new ResponseDecoder();
+        byte[] compressed = deflate(BODY.getBytes(UTF_8), true);
+        assertEquals(BODY, read(decoder.decode(new ByteArrayInputStream(compressed), "deflate")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedEncoding() throws IOException {
+        new ResponseDecoder().decode(new ByteArrayInputStream(new byte[0]), "br");
+    }
+
+    @Test
+    public void testDisabledSendsNoAcceptEncoding() {
+        ResponseDecoder decoder = new ResponseDecoder();
+        assertEquals("gzip, deflate", decoder.getAcceptEncoding());
+        decoder.setEnabled(false);
+        assertNull(decoder.getAcceptEncoding());
+    }
+
+    private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        deflater.write(data);
+        deflater.close();
+        return out.toByteArray();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int read;
+        while((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
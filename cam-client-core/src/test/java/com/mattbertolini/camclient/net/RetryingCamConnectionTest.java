@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class RetryingCamConnectionTest {
+    private CamResponse successResponse;
+
+    @Before
+    public void setUp() {
+        List<Map<String, String>> responseData = Collections.emptyList();
+        this.successResponse = new CamResponseImpl("error=0", responseData, false, null);
+    }
+
+    @Test
+    public void testIdempotentOperationIsRetried() {
+        FailingConnection delegate = new FailingConnection(2, new IOException("Read timed out"));
+        RetryingCamConnection connection = this.newConnection(delegate, new RetryBudget());
+        CamResponse response = connection.executeRequest(new CamRequestImpl(Operation.CHECK_MAC_ADDRESS));
+        assertSame(this.successResponse, response);
+        assertEquals(3, delegate.calls);
+    }
+
+    @Test
+    public void testNonIdempotentOperationIsNotRetriedAfterSend() {
+        FailingConnection delegate = new FailingConnection(1, new IOException("Read timed out"));
+        RetryingCamConnection connection = this.newConnection(delegate, new RetryBudget());
+        try {
+            connection.executeRequest(new CamRequestImpl(Operation.BOUNCE_PORT));
+            fail("Expected CamConnectionException");
+        } catch (CamConnectionException e) {
+            assertEquals(1, delegate.calls);
+        }
+    }
+
+    @Test
+    public void testNonIdempotentOperationIsRetriedWhenNeverSent() {
+        FailingConnection delegate = new FailingConnection(1, new ConnectException("Connection refused"));
+        RetryingCamConnection connection = this.newConnection(delegate, new RetryBudget());
+        CamResponse response = connection.executeRequest(new CamRequestImpl(Operation.KICK_USER));
+        assertSame(this.successResponse, response);
+        assertEquals(2, delegate.calls);
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() {
+        FailingConnection delegate = new FailingConnection(10, new IOException("Read timed out"));
+        RetryingCamConnection connection = this.newConnection(delegate, new RetryBudget());
+        try {
+            connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected CamConnectionException");
+        } catch (CamConnectionException e) {
+            assertEquals(3, delegate.calls);
+        }
+    }
+
+    @Test
+    public void testEmptyBudgetStopsRetries() {
+        FailingConnection delegate = new FailingConnection(1, new IOException("Read timed out"));
+        RetryingCamConnection connection = this.newConnection(delegate, new RetryBudget(0.1, 0));
+        try {
+            connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected CamConnectionException");
+        } catch (CamConnectionException e) {
+            assertEquals(1, delegate.calls);
+        }
+    }
+
+    private RetryingCamConnection newConnection(CamConnection delegate, RetryBudget budget) {
+        RetryingCamConnection connection = new RetryingCamConnection(delegate, budget);
+        connection.setBaseDelay(1, TimeUnit.MILLISECONDS);
+        return connection;
+    }
+
+    private class FailingConnection implements CamConnection {
+        private final int failures;
+        private final IOException cause;
+        private int calls;
+
+        FailingConnection(int failures, IOException cause) {
+            this.failures = failures;
+            this.cause = cause;
+        }
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            this.calls++;
+            if(this.calls <= this.failures) {
+                throw new CamConnectionException("Simulated failure", this.cause);
+            }
+            return successResponse;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.QueryType;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.request.RequestParameter;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class RoutingCamConnectionTest {
+    private ExecutorService executorService;
+    private List<CamConnection> connections;
+
+    @Before
+    public void setUp() {
+        this.executorService = Executors.newFixedThreadPool(3);
+        this.connections = new ArrayList<CamConnection>();
+        for(int i = 0; i < 3; i++) {
+            this.connections.add(new NamedConnection("cam" + i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void testSameMacAddressAlwaysRoutesToSameConnection() {
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new MacAddressRoutingStrategy(),
+                this.executorService);
+        CamRequest first = new CamRequestImpl(Operation.CHECK_MAC_ADDRESS);
+        first.addParameter(RequestParameter.MAC_ADDRESS, "0123456789AB");
+        CamRequest second = new CamRequestImpl(Operation.REMOVE_MAC_ADDRESS);
+        second.addParameter(RequestParameter.MAC_ADDRESS, "0123456789AB");
+        assertSame(routing.route(first), routing.route(second));
+    }
+
+    @Test
+    public void testMacAddressesSpreadAcrossConnections() {
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new MacAddressRoutingStrategy(),
+                this.executorService);
+        Map<CamConnection, Integer> counts = new HashMap<CamConnection, Integer>();
+        for(long mac = 0; mac < 300; mac++) {
+            CamRequest request = new CamRequestImpl(Operation.CHECK_MAC_ADDRESS);
+            request.addParameter(RequestParameter.MAC_ADDRESS, String.format("0011%08X", mac));
+            CamConnection connection = routing.route(request);
+            Integer count = counts.get(connection);
+            counts.put(connection, (count == null) ? 1 : count + 1);
+        }
+        assertEquals(3, counts.size());
+    }
+
+    @Test
+    public void testUnroutableRequestGoesToFirstConnection() {
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new ServerIpRoutingStrategy(),
+                this.executorService);
+        CamResponse response = routing.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals("cam0", response.getResponseData().get(0).get("name"));
+    }
+
+    @Test
+    public void testSubnetRouting() throws Exception {
+        SubnetRoutingStrategy strategy = new SubnetRoutingStrategy();
+        strategy.addRoute(InetAddress.getByName("10.1.0.0"), 16, 1);
+        strategy.addRoute(InetAddress.getByName("10.1.128.0"), 17, 2);
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, strategy, this.executorService);
+        CamRequest request = new CamRequestImpl(Operation.KICK_USER);
+        request.addParameter(RequestParameter.IP_ADDRESS, "10.1.10.12");
+        assertSame(this.connections.get(1), routing.route(request));
+        request.addParameter(RequestParameter.IP_ADDRESS, "10.1.200.12");
+        assertSame(this.connections.get(2), routing.route(request));
+    }
+
+    @Test
+    public void testBroadcastMergesResponses() {
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new MacAddressRoutingStrategy(),
+                this.executorService);
+        CamResponse response = routing.executeRequest(new CamRequestImpl(Operation.GET_MAC_ADDRESS_LIST));
+        assertFalse(response.isError());
+        assertEquals(3, response.getResponseData().size());
+        assertEquals("cam0", response.getResponseData().get(0).get("name"));
+        assertEquals("cam2", response.getResponseData().get(2).get("name"));
+    }
+
+    @Test
+    public void testBroadcastReturnsErrorResponse() {
+        this.connections.set(0, new EmptyConnection());
+        this.connections.set(1, new ErrorConnection("failed"));
+        this.connections.set(2, new EmptyConnection());
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new MacAddressRoutingStrategy(),
+                this.executorService);
+        CamResponse response = routing.executeRequest(new CamRequestImpl(Operation.CLEAR_CERTIFIED_LIST));
+        assertTrue(response.isError());
+    }
+
+    @Test
+    public void testBroadcastIgnoresNotFoundWhenAnotherCamReturnsRecords() {
+        this.connections.set(0, new ErrorConnection("User not found"));
+        this.connections.set(2, new ErrorConnection("User not found"));
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new MacAddressRoutingStrategy(),
+                this.executorService);
+        CamRequest request = new CamRequestImpl(Operation.GET_USER_INFO);
+        request.addParameter(RequestParameter.QUERY_TYPE, QueryType.USERNAME.getValue());
+        request.addParameter(RequestParameter.QUERY_VALUE, "jdoe");
+        CamResponse response = routing.executeRequest(request);
+        assertFalse(response.isError());
+        assertEquals(1, response.getResponseData().size());
+        assertEquals("cam1", response.getResponseData().get(0).get("name"));
+    }
+
+    @Test
+    public void testBroadcastReturnsOtherErrorsEvenWithRecords() {
+        this.connections.set(1, new ErrorConnection("Invalid administrator credentials"));
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new MacAddressRoutingStrategy(),
+                this.executorService);
+        CamResponse response = routing.executeRequest(new CamRequestImpl(Operation.GET_MAC_ADDRESS_LIST));
+        assertTrue(response.isError());
+        assertEquals("Invalid administrator credentials", response.getErrorText());
+    }
+
+    @Test
+    public void testUnroutableAddressedWriteIsRejected() {
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new MacAddressRoutingStrategy(),
+                this.executorService);
+        CamRequest request = new CamRequestImpl(Operation.KICK_USER);
+        request.addParameter(RequestParameter.IP_ADDRESS, "10.1.10.12");
+        assertNull(routing.route(request));
+        try {
+            routing.executeRequest(request);
+            fail("Expected the request to be rejected.");
+        } catch (CamClientException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnroutableAddressedReadIsBroadcast() {
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new ServerIpRoutingStrategy(),
+                this.executorService);
+        CamRequest request = new CamRequestImpl(Operation.CHECK_MAC_ADDRESS);
+        request.addParameter(RequestParameter.MAC_ADDRESS, "0123456789AB");
+        CamResponse response = routing.executeRequest(request);
+        assertEquals(3, response.getResponseData().size());
+    }
+
+    @Test
+    public void testHostNameIsNotRoutedBySubnet() throws Exception {
+        SubnetRoutingStrategy strategy = new SubnetRoutingStrategy();
+        strategy.addRoute(InetAddress.getByName("10.1.0.0"), 16, 1);
+        CamRequest request = new CamRequestImpl(Operation.KICK_USER);
+        request.addParameter(RequestParameter.IP_ADDRESS, "cam.invalid");
+        assertEquals(-1, strategy.selectConnection(request, 3));
+        request.addParameter(RequestParameter.IP_ADDRESS, "10.1.2.3");
+        assertEquals(1, strategy.selectConnection(request, 3));
+    }
+
+    @Test
+    public void testKeyedUserInfoQueryIsRoutedToOneConnection() {
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new MacAddressRoutingStrategy(),
+                this.executorService);
+        CamRequest macRequest = new CamRequestImpl(Operation.CHECK_MAC_ADDRESS);
+        macRequest.addParameter(RequestParameter.MAC_ADDRESS, "0123456789AB");
+        String expected = routing.route(macRequest).executeRequest(macRequest).getResponseData().get(0).get("name");
+        CamRequest request = new CamRequestImpl(Operation.GET_USER_INFO);
+        request.addParameter(RequestParameter.QUERY_TYPE, QueryType.MAC_ADDRESS.getValue());
+        request.addParameter(RequestParameter.QUERY_VALUE, "0123456789AB");
+        CamResponse response = routing.executeRequest(request);
+        assertEquals(1, response.getResponseData().size());
+        assertEquals(expected, response.getResponseData().get(0).get("name"));
+    }
+
+    @Test
+    public void testKeyedUserInfoQueryIsRoutedBySubnet() throws Exception {
+        SubnetRoutingStrategy strategy = new SubnetRoutingStrategy();
+        strategy.addRoute(InetAddress.getByName("10.1.0.0"), 16, 2);
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, strategy, this.executorService);
+        CamRequest request = new CamRequestImpl(Operation.GET_USER_INFO);
+        request.addParameter(RequestParameter.QUERY_TYPE, QueryType.IP_ADDRESS.getValue());
+        request.addParameter(RequestParameter.QUERY_VALUE, "10.1.10.12");
+        CamResponse response = routing.executeRequest(request);
+        assertEquals(1, response.getResponseData().size());
+        assertEquals("cam2", response.getResponseData().get(0).get("name"));
+    }
+
+    @Test
+    public void testUnroutableKeyedUserInfoQueryIsBroadcast() {
+        RoutingCamConnection routing = new RoutingCamConnection(this.connections, new ServerIpRoutingStrategy(),
+                this.executorService);
+        CamRequest request = new CamRequestImpl(Operation.GET_USER_INFO);
+        request.addParameter(RequestParameter.QUERY_TYPE, QueryType.IP_ADDRESS.getValue());
+        request.addParameter(RequestParameter.QUERY_VALUE, "10.1.10.12");
+        CamResponse response = routing.executeRequest(request);
+        assertEquals(3, response.getResponseData().size());
+    }
+
+    private static class NamedConnection implements CamConnection {
+        private final String name;
+
+        NamedConnection(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            Map<String, String> record = new HashMap<String, String>();
+            record.put("name", this.name);
+            List<Map<String, String>> data = new ArrayList<Map<String, String>>();
+            data.add(record);
+            return new CamResponseImpl("<!--name=" + this.name + "-->", data, false, null);
+        }
+    }
+
+    private static class EmptyConnection implements CamConnection {
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            List<Map<String, String>> data = Collections.emptyList();
+            return new CamResponseImpl("", data, false, null);
+        }
+    }
+
+    private static class ErrorConnection implements CamConnection {
+        private final String errorText;
+
+        ErrorConnection(String errorText) {
+            this.errorText = errorText;
+        }
+
+        @Override
+        public CamResponse executeRequest(CamRequest request) {
+            List<Map<String, String>> data = Collections.emptyList();
+            return new CamResponseImpl("<!--error=" + this.errorText + "-->", data, true, this.errorText);
+        }
+    }
+}
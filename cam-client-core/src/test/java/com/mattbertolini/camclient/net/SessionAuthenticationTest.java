@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net;
+
+import com.mattbertolini.camclient.BasicCamCredentials;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class SessionAuthenticationTest {
+    private StubCamConnection connection;
+
+    @Before
+    public void setUp() {
+        this.connection = new StubCamConnection();
+        this.connection.setSessionAuthentication(true);
+    }
+
+    @Test
+    public void testLogsInOnceAndReusesSession() {
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals(Arrays.asList("adminlogin;null", "getversion;S1", "getversion;S1"), this.connection.sent);
+    }
+
+    @Test
+    public void testExpiredSessionIsRefreshedAndRequestRetried() {
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        this.connection.validSession = null;
+        CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertFalse(response.isError());
+        assertEquals(Arrays.asList("adminlogin;null", "getversion;S1", "getversion;S1", "adminlogin;null",
+                "getversion;S2"), this.connection.sent);
+    }
+
+    @Test
+    public void testUserSessionErrorDoesNotForceLogin() {
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        this.connection.errorText = "Unable to renew user session time";
+        CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.RENEW_USER_SESSION_TIME));
+        assertTrue(response.isError());
+        assertEquals(Arrays.asList("adminlogin;null", "getversion;S1", "renewuserstime;S1"), this.connection.sent);
+    }
+
+    @Test
+    public void testCancelledCallerAbortsItsLogin() throws Exception {
+        this.connection.loginGate = new CountDownLatch(1);
+        final CallContext context = new CallContext(null);
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                context.cancel();
+            }
+        });
+        CallContext previous = CallContext.attach(context);
+        canceller.start();
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the login to be cancelled.");
+        } catch (RequestCancelledException e) {
+            // expected
+        } finally {
+            CallContext.restore(previous);
+            canceller.join();
+        }
+        this.connection.loginGate = null;
+        assertFalse(this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION)).isError());
+        assertEquals(Arrays.asList("adminlogin;null", "adminlogin;null", "getversion;S1"), this.connection.sent);
+    }
+
+    @Test
+    public void testWaiterGivesUpOnItsOwnDeadline() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        this.connection.loginGate = gate;
+        Thread owner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            }
+        });
+        owner.start();
+        while(this.connection.sent.isEmpty()) {
+            Thread.sleep(5);
+        }
+        CallContext previous = CallContext.attach(new CallContext(Deadline.after(50, TimeUnit.MILLISECONDS)));
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the wait for the login to time out.");
+        } catch (DeadlineExceededException e) {
+            // expected
+        } finally {
+            CallContext.restore(previous);
+            gate.countDown();
+            owner.join();
+        }
+        assertEquals(Arrays.asList("adminlogin;null", "getversion;S1"), this.connection.sent);
+    }
+
+    @Test
+    public void testCloseLogsOut() {
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        this.connection.close();
+        assertEquals("adminlogout;S1", this.connection.sent.get(2));
+        this.connection.close();
+        assertEquals(3, this.connection.sent.size());
+    }
+
+    @Test
+    public void testFunctionBasedAuthenticationByDefault() {
+        this.connection.setSessionAuthentication(false);
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals(Collections.singletonList("getversion;null"), this.connection.sent);
+    }
+
+    @Test
+    public void testToCookieHeaderDropsAttributes() {
+        assertEquals("JSESSIONID=abc; other=1",
+                AbstractCamConnection.toCookieHeader(Arrays.asList("JSESSIONID=abc; Path=/; Secure", "other=1")));
+        assertNull(AbstractCamConnection.toCookieHeader(Collections.<String>emptyList()));
+    }
+
+    private static class StubCamConnection extends AbstractCamConnection<String, StubCamConnection.Reply> {
+        private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        private volatile String validSession;
+        private volatile String errorText;
+        private volatile CountDownLatch loginGate;
+        private volatile boolean aborted;
+        private int logins;
+
+        private StubCamConnection() {
+            super(URI.create("http://localhost/admin/cisco_api.jsp"), new BasicCamCredentials("admin", "secret"));
+        }
+
+        @Override
+        public String buildRequest(CamRequest camRequest) {
+            return camRequest.getOperation().getName() + ";" + this.getSessionCookie(camRequest);
+        }
+
+        @Override
+        public CamResponse buildResponse(Reply reply) {
+            return reply.response;
+        }
+
+        @Override
+        public String extractSessionCookie(Reply reply) {
+            return reply.cookie;
+        }
+
+        @Override
+        public void setTimeout(String request, int timeoutMillis) {
+            //
+        }
+
+        @Override
+        public void abortRequest(String request) {
+            this.aborted = true;
+            CountDownLatch gate = this.loginGate;
+            if(gate != null) {
+                gate.countDown();
+            }
+        }
+
+        @Override
+        public Reply submitRequest(String request) {
+            this.sent.add(request);
+            String[] parts = request.split(";");
+            if(parts[0].equals(Operation.ADMIN_LOGIN.getName())) {
+                this.awaitGate();
+                this.logins++;
+                this.validSession = "S" + this.logins;
+                return new Reply(this.validSession, success());
+            }
+            if(!parts[1].equals("null") && !parts[1].equals(this.validSession)) {
+                return new Reply(null, new CamResponseImpl("", Collections.<Map<String, String>>emptyList(), true,
+                        "CAM Error - Session expired. Please login again."));
+            }
+            if(this.errorText != null) {
+                return new Reply(null, new CamResponseImpl("", Collections.<Map<String, String>>emptyList(), true,
+                        this.errorText));
+            }
+            return new Reply(null, success());
+        }
+
+        private void awaitGate() {
+            CountDownLatch gate = this.loginGate;
+            if(gate == null) {
+                return;
+            }
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if(this.aborted) {
+                this.aborted = false;
+                throw new CamConnectionException("Request aborted.");
+            }
+        }
+
+        private static CamResponse success() {
+            return new CamResponseImpl("", Collections.<Map<String, String>>emptyList(), false, null);
+        }
+
+        private static class Reply {
+            private final String cookie;
+            private final CamResponse response;
+
+            private Reply(String cookie, CamResponse response) {
+                this.cookie = cookie;
+                this.response = response;
+            }
+        }
+    }
+}
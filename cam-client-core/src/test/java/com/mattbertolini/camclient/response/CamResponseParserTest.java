@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.response;
+
+import com.mattbertolini.camclient.CamClientException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class CamResponseParserTest {
+    private static final String LIST_RESPONSE = "<!--error=0-->\n"
+            + "<!--mac=00:11:22:33:44:55, ip=10.0.0.1, type=userole-->\r\n"
+            + "<!-- MAC=66:77:88:99:AA:BB,ip=10.0.0.2,type=ignore -->\n";
+
+    @Test
+    public void testParsesRecords() {
+        CamResponse response = parse(LIST_RESPONSE);
+        assertFalse(response.isError());
+        List<Map<String, String>> data = response.getResponseData();
+        assertEquals(2, data.size());
+        assertEquals("00:11:22:33:44:55", data.get(0).get("mac"));
+        assertEquals("10.0.0.2", data.get(1).get("ip"));
+        assertEquals("66:77:88:99:AA:BB", data.get(1).get("mac"));
+        assertEquals(LIST_RESPONSE, response.getRawResponseText());
+    }
+
+    @Test
+    public void testChunkBoundariesDoNotMatter() {
+        CamResponseParser parser = new CamResponseParser();
+        for(int i = 0; i < LIST_RESPONSE.length(); i++) {
+            parser.feed(LIST_RESPONSE.subSequence(i, i + 1));
+        }
+        CamResponse response = parser.finish();
+        assertEquals(parse(LIST_RESPONSE).getResponseData(), response.getResponseData());
+    }
+
+    @Test
+    public void testErrorStopsParsing() {
+        CamResponse response = parse("<!--error=Invalid MAC address-->\n<!--not a record-->");
+        assertTrue(response.isError());
+        assertEquals("CAM Error - Invalid MAC address", response.getErrorText());
+        assertTrue(response.getResponseData().isEmpty());
+    }
+
+    @Test
+    public void testZeroCountIsEmpty() {
+        CamResponse response = parse("<!--error=0-->\n<!--count=0-->\n");
+        assertFalse(response.isError());
+        assertTrue(response.getResponseData().isEmpty());
+    }
+
+    @Test(expected = CamClientException.class)
+    public void testOddNameValuePairs() {
+        parse("<!--error=0-->\n<!--mac=001122334455,ip-->");
+    }
+
+    @Test(expected = CamClientException.class)
+    public void testEmptyBody() {
+        parse("");
+    }
+
+    @Test(expected = CamClientException.class)
+    public void testEmptyRecordBeforeData() {
+        parse("--><!--error=0-->");
+    }
+
+    @Test
+    public void testListenerReceivesRecordsAsTheyComplete() {
+        final List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+        CamResponseParser parser = new CamResponseParser(new CamRecordListener() {
+            @Override
+            public void onRecord(Map<String, String> record) {
+                records.add(record);
+            }
+        });
+        parser.feed("<!--error=0-->\n<!--mac=00:11:22:33:44:55,ip=10.0.0.1-");
+        assertTrue(records.isEmpty());
+        parser.feed("->\n<!--mac=66:77:88:99:AA:BB,ip=10.0.0.2-->");
+        assertEquals(2, records.size());
+        assertEquals("10.0.0.1", records.get(0).get("ip"));
+        CamResponse response = parser.finish();
+        assertFalse(response.isError());
+        assertTrue(response.getResponseData().isEmpty());
+        assertEquals("", response.getRawResponseText());
+    }
+
+    private static CamResponse parse(String body) {
+        CamResponseParser parser = new CamResponseParser();
+        parser.feed(body);
+        return parser.finish();
+    }
+}
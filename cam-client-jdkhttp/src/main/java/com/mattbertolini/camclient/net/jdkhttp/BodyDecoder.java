@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.jdkhttp;
+
+import com.mattbertolini.camclient.net.BufferPool;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseParser;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes response body buffers into characters and feeds them to a {@link CamResponseParser}. Multi-byte characters
+ * split across buffers are carried over to the next buffer. The character buffer is borrowed from the shared
+ * {@link BufferPool} and returned once the body is finished.
+ *
+ * @author Matt Bertolini
+ */
+class BodyDecoder {
+    private static final int CHAR_BUFFER_SIZE = 4096;
+
+    private final CharsetDecoder decoder;
+    private final CamResponseParser parser;
+    private final CharBuffer chars;
+    private ByteBuffer carry;
+    private boolean finished;
+
+    BodyDecoder(Charset charset, CamResponseParser parser) {
+        if(charset == null) {
+            throw new IllegalArgumentException("Charset cannot be null.");
+        }
+        // Malformed input is replaced rather than reported, as InputStreamReader does for the blocking transports.
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.parser = parser;
+        this.chars = CharBuffer.wrap(BufferPool.getDefault().acquireChars(CHAR_BUFFER_SIZE));
+    }
+
+    void decode(ByteBuffer item) {
+        this.decode(item, false);
+    }
+
+    CamResponse finish() {
+        if(this.finished) {
+            throw new IllegalStateException("Body has already been finished.");
+        }
+        this.finished = true;
+        try {
+            this.decode(ByteBuffer.allocate(0), true);
+            this.decoder.flush(this.chars);
+            this.drain();
+        } finally {
+            BufferPool.getDefault().releaseChars(this.chars.array());
+        }
+        return this.parser.finish();
+    }
+
+    private void decode(ByteBuffer item, boolean endOfInput) {
+        ByteBuffer input = item;
+        if(this.carry != null) {
+            // A multi-byte character was split across buffers; join its start to the new bytes.
+            input = ByteBuffer.allocate(this.carry.remaining() + item.remaining());
+            input.put(this.carry).put(item).flip();
+            this.carry = null;
+        }
+        while(true) {
+            CoderResult result = this.decoder.decode(input, this.chars, endOfInput);
+            this.drain();
+            if(result.isUnderflow()) {
+                break;
+            }
+        }
+        if(input.hasRemaining()) {
+            this.carry = ByteBuffer.allocate(input.remaining());
+            this.carry.put(input).flip();
+        }
+    }
+
+    private void drain() {
+        this.chars.flip();
+        if(this.chars.hasRemaining()) {
+            this.parser.feed(this.chars.array(), this.chars.position(), this.chars.remaining());
+        }
+        this.chars.clear();
+    }
+}
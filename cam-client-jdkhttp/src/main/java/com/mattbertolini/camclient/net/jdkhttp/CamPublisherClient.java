@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.jdkhttp;
+
+import com.mattbertolini.camclient.CamDevice;
+import com.mattbertolini.camclient.CamDeviceAdapter;
+import com.mattbertolini.camclient.CamUserInfo;
+import com.mattbertolini.camclient.CamUserInfoAdapter;
+import com.mattbertolini.camclient.QueryType;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.request.RequestParameter;
+
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * Streaming variants of the CamClient list operations whose responses can cover a whole campus. Each publisher emits
+ * records as they arrive and honors subscriber demand by pausing reads from the connection, so a consumer such as a
+ * database loader processes the inventory in bounded memory.
+ *
+ * @author Matt Bertolini
+ */
+public class CamPublisherClient {
+    private final JdkHttpCamConnection connection;
+    private final CamDeviceAdapter deviceAdapter;
+    private final CamUserInfoAdapter userInfoAdapter;
+
+    public CamPublisherClient(JdkHttpCamConnection connection) {
+        if(connection == null) {
+            throw new IllegalArgumentException("Connection cannot be null.");
+        }
+        this.connection = connection;
+        this.deviceAdapter = new CamDeviceAdapter();
+        this.userInfoAdapter = new CamUserInfoAdapter();
+    }
+
+    /**
+     * Streams the devices in the CAM's device filter list.
+     *
+     * @return A publisher of devices.
+     * @see com.mattbertolini.camclient.CamClient#getMacAddressList()
+     */
+    public Flow.Publisher<CamDevice> publishMacAddressList() {
+        CamRequest request = new CamRequestImpl(Operation.GET_MAC_ADDRESS_LIST);
+        return this.connection.publishRecords(request, new Function<Map<String, String>, CamDevice>() {
+            @Override
+            public CamDevice apply(Map<String, String> record) {
+                return deviceAdapter.buildCamDevice(record);
+            }
+        });
+    }
+
+    /**
+     * Streams the online users matching the query.
+     *
+     * @param queryType The type of query.
+     * @param queryValue The value to query for. Can only be null for a query type of ALL.
+     * @return A publisher of user information.
+     * @see com.mattbertolini.camclient.CamClient#getUserInfo(QueryType, String)
+     */
+    public Flow.Publisher<CamUserInfo> publishUserInfo(QueryType queryType, String queryValue) {
+        if(queryType == null) {
+            throw new IllegalArgumentException("Query type cannot be null.");
+        }
+        if(QueryType.ALL != queryType && queryValue == null) {
+            throw new IllegalArgumentException("Query value can only be null for query type of ALL.");
+        }
+        CamRequest request = new CamRequestImpl(Operation.GET_USER_INFO);
+        request.addParameter(RequestParameter.QUERY_TYPE, queryType.getValue());
+        request.addParameter(RequestParameter.QUERY_VALUE, (QueryType.ALL == queryType) ? "" : queryValue);
+        return this.connection.publishRecords(request, new Function<Map<String, String>, CamUserInfo>() {
+            @Override
+            public CamUserInfo apply(Map<String, String> record) {
+                return userInfoAdapter.buildCamUserInfo(record);
+            }
+        });
+    }
+
+    public JdkHttpCamConnection getConnection() {
+        return this.connection;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.jdkhttp;
+
+import com.mattbertolini.camclient.request.CamRequest;
+
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * Publishes the records of a CAM response. The publisher is cold: every subscriber sends its own request, and nothing
+ * is sent until {@link #subscribe(Flow.Subscriber)} is called.
+ *
+ * @author Matt Bertolini
+ * @see JdkHttpCamConnection#publishRecords(CamRequest, Function)
+ */
+public class CamRecordPublisher<T> implements Flow.Publisher<T> {
+    private final JdkHttpCamConnection connection;
+    private final CamRequest request;
+    private final Function<Map<String, String>, ? extends T> mapper;
+
+    CamRecordPublisher(JdkHttpCamConnection connection, CamRequest request,
+                       Function<Map<String, String>, ? extends T> mapper) {
+        this.connection = connection;
+        this.request = request;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if(subscriber == null) {
+            // Required by the Flow contract.
+            throw new NullPointerException("Subscriber cannot be null.");
+        }
+        CamRecordSubscription<T> subscription = new CamRecordSubscription<T>(this.connection, subscriber, this.mapper);
+        subscriber.onSubscribe(subscription);
+        this.connection.executeStreamingRequest(this.request, subscription);
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.jdkhttp;
+
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.response.CamRecordListener;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseParser;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Connects one response body to one downstream subscriber. Body buffers are only requested from the HttpClient once
+ * every record parsed from the previous buffers has been delivered and the subscriber still has demand. While the
+ * subscriber has no demand nothing more is requested, so the HttpClient stops reading from the socket and TCP (or
+ * HTTP/2) flow control holds the CAM back. At most the records of one body buffer are held in memory.
+ * <p>
+ * All signals to the subscriber are made from a single drain loop, so they never overlap.
+ *
+ * @author Matt Bertolini
+ */
+class CamRecordSubscription<T> implements HttpResponse.BodySubscriber<Void>, Flow.Subscription, CamRecordListener {
+    private final JdkHttpCamConnection connection;
+    private final Flow.Subscriber<? super T> subscriber;
+    private final Function<Map<String, String>, ? extends T> mapper;
+    private final Queue<T> records;
+    private final AtomicLong demand;
+    private final AtomicInteger wip;
+    private BodyDecoder decoder;
+    private volatile JdkHttpExchange exchange;
+    private volatile Flow.Subscription upstream;
+    private volatile boolean upstreamRequested;
+    private volatile boolean upstreamDone;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+    private boolean terminated;
+
+    CamRecordSubscription(JdkHttpCamConnection connection, Flow.Subscriber<? super T> subscriber,
+                          Function<Map<String, String>, ? extends T> mapper) {
+        this.connection = connection;
+        this.subscriber = subscriber;
+        this.mapper = mapper;
+        this.records = new ConcurrentLinkedQueue<T>();
+        this.demand = new AtomicLong();
+        this.wip = new AtomicInteger();
+    }
+
+    /**
+     * Prepares to receive the body once the response headers, and with them the charset, are known.
+     *
+     * @param charset The charset of the response body.
+     * @return This subscription, as the subscriber of the body.
+     */
+    HttpResponse.BodySubscriber<Void> bind(Charset charset) {
+        this.decoder = new BodyDecoder(charset, new CamResponseParser(this));
+        return this;
+    }
+
+    void setExchange(JdkHttpExchange exchange) {
+        this.exchange = exchange;
+        if(this.cancelled) {
+            exchange.abort();
+        }
+    }
+
+    boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Ends the stream with an error once the records already parsed have been delivered. Only the first failure is
+     * reported.
+     *
+     * @param throwable The cause of the failure.
+     */
+    void fail(Throwable throwable) {
+        if(this.failure == null) {
+            this.failure = this.connection.translateFailure(throwable);
+        }
+        this.upstreamDone = true;
+        this.drain();
+    }
+
+    // Downstream subscription
+
+    @Override
+    public void request(long n) {
+        if(n <= 0) {
+            // Reactive Streams rule 3.9: a non-positive request is reported to the subscriber, not thrown.
+            this.records.clear();
+            this.cancelUpstream();
+            this.fail(new IllegalArgumentException("Requested number of records must be positive."));
+            return;
+        }
+        while(true) {
+            long current = this.demand.get();
+            long updated = current + n;
+            if(updated < 0) {
+                updated = Long.MAX_VALUE;
+            }
+            if(this.demand.compareAndSet(current, updated)) {
+                break;
+            }
+        }
+        this.drain();
+    }
+
+    @Override
+    public void cancel() {
+        this.cancelled = true;
+        this.cancelUpstream();
+        this.drain();
+    }
+
+    // Upstream body subscriber
+
+    @Override
+    public CompletionStage<Void> getBody() {
+        // Completed straight away so the response future does not wait for the whole body; the records are delivered
+        // through the subscriber instead.
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.upstream = subscription;
+        if(this.cancelled || this.upstreamDone) {
+            subscription.cancel();
+            return;
+        }
+        this.drain();
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        try {
+            for(ByteBuffer item : items) {
+                this.decoder.decode(item);
+            }
+        } catch (RuntimeException e) {
+            this.cancelUpstream();
+            this.fail(e);
+            return;
+        }
+        this.upstreamRequested = false;
+        this.drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        this.fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            CamResponse response = this.decoder.finish();
+            if(response.isError()) {
+                this.fail(new CamClientException(response.getErrorText()));
+                return;
+            }
+        } catch (RuntimeException e) {
+            this.fail(e);
+            return;
+        }
+        this.upstreamDone = true;
+        this.drain();
+    }
+
+    // Parser listener
+
+    @Override
+    public void onRecord(Map<String, String> record) {
+        if(!this.cancelled) {
+            this.records.offer(this.mapper.apply(record));
+        }
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription = this.upstream;
+        if(subscription != null) {
+            subscription.cancel();
+        }
+        JdkHttpExchange currentExchange = this.exchange;
+        if(currentExchange != null) {
+            currentExchange.abort();
+        }
+    }
+
+    private void drain() {
+        if(this.wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        while(true) {
+            this.emit();
+            missed = this.wip.addAndGet(-missed);
+            if(missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void emit() {
+        if(this.terminated) {
+            return;
+        }
+        long requested = this.demand.get();
+        long emitted = 0;
+        while(emitted != requested) {
+            if(this.cancelled) {
+                this.terminate();
+                return;
+            }
+            T record = this.records.poll();
+            if(record == null) {
+                break;
+            }
+            this.subscriber.onNext(record);
+            emitted++;
+        }
+        if(this.cancelled) {
+            this.terminate();
+            return;
+        }
+        if(emitted > 0 && requested != Long.MAX_VALUE) {
+            this.demand.addAndGet(-emitted);
+        }
+        // Read the completion flag before checking the queue; records are always queued before the flag is set.
+        boolean done = this.upstreamDone;
+        if(!this.records.isEmpty()) {
+            return;
+        }
+        if(done) {
+            this.terminate();
+            Throwable error = this.failure;
+            if(error == null) {
+                this.subscriber.onComplete();
+            } else {
+                this.subscriber.onError(error);
+            }
+            return;
+        }
+        Flow.Subscription subscription = this.upstream;
+        if(subscription != null && this.demand.get() > 0 && !this.upstreamRequested) {
+            this.upstreamRequested = true;
+            subscription.request(1);
+        }
+    }
+
+    private void terminate() {
+        this.terminated = true;
+        this.records.clear();
+    }
+}
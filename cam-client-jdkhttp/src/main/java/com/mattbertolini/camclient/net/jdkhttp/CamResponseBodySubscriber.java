@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.jdkhttp;
+
+import com.mattbertolini.camclient.response.CamResponse;
+import com.mattbertolini.camclient.response.CamResponseParser;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Decodes the response body as the HttpClient delivers it and feeds each piece to a {@link CamResponseParser}, so the
+ * body is never collected into one buffer before parsing starts.
+ *
+ * @author Matt Bertolini
+ */
+public class CamResponseBodySubscriber implements HttpResponse.BodySubscriber<CamResponse> {
+    private final BodyDecoder decoder;
+    private final CompletableFuture<CamResponse> body;
+    private final JdkHttpExchange exchange;
+    private Flow.Subscription subscription;
+
+    public CamResponseBodySubscriber(Charset charset) {
+        this(charset, null);
+    }
+
+    /**
+     * @param charset The charset of the response body.
+     * @param exchange The exchange the body belongs to, which is handed the body subscription so that aborting the
+     * exchange stops the download. May be null.
+     */
+    public CamResponseBodySubscriber(Charset charset, JdkHttpExchange exchange) {
+        this.decoder = new BodyDecoder(charset, new CamResponseParser());
+        this.body = new CompletableFuture<CamResponse>();
+        this.exchange = exchange;
+    }
+
+    @Override
+    public CompletionStage<CamResponse> getBody() {
+        return this.body;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if(this.exchange != null) {
+            this.exchange.setBodySubscription(subscription);
+        }
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        try {
+            for(ByteBuffer item : items) {
+                this.decoder.decode(item);
+            }
+        } catch (RuntimeException e) {
+            this.subscription.cancel();
+            this.body.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        this.body.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            this.body.complete(this.decoder.finish());
+        } catch (RuntimeException e) {
+            this.body.completeExceptionally(e);
+        }
+    }
+}
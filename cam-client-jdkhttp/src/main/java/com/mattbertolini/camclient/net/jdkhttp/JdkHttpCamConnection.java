@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.jdkhttp;
+
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.CamCredentials;
+import com.mattbertolini.camclient.net.AbstractCamConnection;
+import com.mattbertolini.camclient.net.CamConnectionException;
+import com.mattbertolini.camclient.net.FormRequestEncoder;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.response.CamResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A CamConnection built on the asynchronous java.net.http.HttpClient. The client keeps connections alive between
+ * requests and negotiates HTTP/2 when the CAM offers it. Response bodies are parsed as they arrive rather than after
+ * they have been read in full.
+ * <p>
+ * {@link #executeRequest(CamRequest)} waits for the response like the other transports. {@link
+ * #executeRequestAsync(CamRequest)} returns immediately and needs no thread while the request is outstanding. {@link
+ * #publishRecords(CamRequest, Function)} streams the records of a large response with backpressure.
+ *
+ * @author Matt Bertolini
+ */
+public class JdkHttpCamConnection extends AbstractCamConnection<JdkHttpExchange, HttpResponse<CamResponse>> {
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded; charset=ISO-8859-1";
+    private static final String CHARSET_PARAMETER = "charset=";
+    private static final Charset DEFAULT_CHARSET = StandardCharsets.ISO_8859_1;
+
+    private final HttpClient httpClient;
+    private final FormRequestEncoder requestEncoder;
+
+    public JdkHttpCamConnection(URI uri, CamCredentials credentials) {
+        this(uri, credentials, HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build());
+    }
+
+    public JdkHttpCamConnection(URI uri, CamCredentials credentials, HttpClient httpClient) {
+        super(uri, credentials);
+        if(httpClient == null) {
+            throw new IllegalArgumentException("HTTP client cannot be null.");
+        }
+        this.httpClient = httpClient;
+        this.requestEncoder = new FormRequestEncoder(DEFAULT_CHARSET);
+    }
+
+    /**
+     * Sends a request without waiting for the response. The request always carries the admin credentials: logging in
+     * and renewing an expired session both block, so this method cannot be used while session authentication is
+     * enabled.
+     *
+     * @param camRequest The request to send.
+     * @return A future completed with the response, or exceptionally with a {@link CamConnectionException} if the
+     * request could not be completed.
+     * @throws IllegalStateException If session authentication is enabled.
+     */
+    public CompletableFuture<CamResponse> executeRequestAsync(CamRequest camRequest) {
+        if(this.isSessionAuthentication()) {
+            throw new IllegalStateException("Asynchronous requests cannot be used with session authentication.");
+        }
+        JdkHttpExchange exchange = this.buildRequest(camRequest);
+        return this.httpClient.sendAsync(exchange.getRequestBuilder().build(), this.bodyHandlerFor(exchange))
+                .handle(new BiFunction<HttpResponse<CamResponse>, Throwable, CamResponse>() {
+                    @Override
+                    public CamResponse apply(HttpResponse<CamResponse> response, Throwable failure) {
+                        if(failure != null) {
+                            throw translateFailure(failure);
+                        }
+                        return buildResponse(response);
+                    }
+                });
+    }
+
+    /**
+     * Creates a publisher that sends the request once for each subscriber and emits the records of the response as
+     * they are parsed off the wire. Reading from the connection is paused whenever the subscriber has no outstanding
+     * demand, so a response of any size is consumed in bounded memory. An error response is signalled as a {@link
+     * CamClientException} after any records that preceded it.
+     * <p>
+     * The request uses the current session if there is one and the admin credentials otherwise; no login is made and
+     * an expired session is not renewed mid-stream.
+     *
+     * @param camRequest The request to send.
+     * @param mapper Converts each record's name/value pairs into the published type.
+     * @param <T> The published type.
+     * @return A publisher of the mapped records.
+     */
+    public <T> Flow.Publisher<T> publishRecords(CamRequest camRequest, Function<Map<String, String>, ? extends T> mapper) {
+        if(camRequest == null) {
+            throw new IllegalArgumentException("Request cannot be null.");
+        }
+        if(mapper == null) {
+            throw new IllegalArgumentException("Mapper cannot be null.");
+        }
+        return new CamRecordPublisher<T>(this, camRequest, mapper);
+    }
+
+    void executeStreamingRequest(CamRequest camRequest, final CamRecordSubscription<?> subscription) {
+        if(subscription.isCancelled()) {
+            return;
+        }
+        JdkHttpExchange exchange;
+        try {
+            exchange = this.buildRequest(camRequest);
+        } catch (RuntimeException e) {
+            subscription.fail(e);
+            return;
+        }
+        subscription.setExchange(exchange);
+        HttpResponse.BodyHandler<Void> handler = new HttpResponse.BodyHandler<Void>() {
+            @Override
+            public HttpResponse.BodySubscriber<Void> apply(HttpResponse.ResponseInfo responseInfo) {
+                return subscription.bind(getCharset(responseInfo.headers()));
+            }
+        };
+        CompletableFuture<HttpResponse<Void>> future =
+                this.httpClient.sendAsync(exchange.getRequestBuilder().build(), handler);
+        exchange.setResponseFuture(future);
+        future.whenComplete(new BiConsumer<HttpResponse<Void>, Throwable>() {
+            @Override
+            public void accept(HttpResponse<Void> response, Throwable failure) {
+                if(failure != null) {
+                    subscription.fail(failure);
+                }
+            }
+        });
+    }
+
+    @Override
+    public JdkHttpExchange buildRequest(CamRequest camRequest) {
+        if(camRequest == null) {
+            throw new IllegalArgumentException("Request cannot be null.");
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(this.getUri());
+        String sessionCookie = this.getSessionCookie(camRequest);
+        CamCredentials credentials = null;
+        if(sessionCookie == null) {
+            credentials = this.getCredentials();
+        } else {
+            builder.header(COOKIE, sessionCookie);
+        }
+        byte[] body = this.requestEncoder.encode(camRequest, credentials);
+        builder.header(USER_AGENT, this.getUserAgent())
+                .header(CONTENT_TYPE, FORM_CONTENT_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        return new JdkHttpExchange(builder);
+    }
+
+    @Override
+    public CamResponse buildResponse(HttpResponse<CamResponse> httpResponse) {
+        return httpResponse.body();
+    }
+
+    @Override
+    public String extractSessionCookie(HttpResponse<CamResponse> httpResponse) {
+        return toCookieHeader(httpResponse.headers().allValues(SET_COOKIE));
+    }
+
+    @Override
+    public void setTimeout(JdkHttpExchange exchange, int timeoutMillis) {
+        exchange.getRequestBuilder().timeout(Duration.ofMillis(timeoutMillis));
+    }
+
+    @Override
+    public void abortRequest(JdkHttpExchange exchange) {
+        exchange.abort();
+    }
+
+    @Override
+    public HttpResponse<CamResponse> submitRequest(JdkHttpExchange exchange) {
+        CompletableFuture<HttpResponse<CamResponse>> future =
+                this.httpClient.sendAsync(exchange.getRequestBuilder().build(), this.bodyHandlerFor(exchange));
+        exchange.setResponseFuture(future);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CamClientException("Interrupted while waiting for a response from " + this.getUri(), e);
+        } catch (ExecutionException e) {
+            throw this.translateFailure(e.getCause());
+        } catch (CancellationException e) {
+            throw new CamConnectionException("Request to " + this.getUri() + " was aborted.", e);
+        }
+    }
+
+    private HttpResponse.BodyHandler<CamResponse> bodyHandlerFor(final JdkHttpExchange exchange) {
+        return new HttpResponse.BodyHandler<CamResponse>() {
+            @Override
+            public HttpResponse.BodySubscriber<CamResponse> apply(HttpResponse.ResponseInfo responseInfo) {
+                return new CamResponseBodySubscriber(getCharset(responseInfo.headers()), exchange);
+            }
+        };
+    }
+
+    RuntimeException translateFailure(Throwable failure) {
+        Throwable cause = failure;
+        while((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if(cause instanceof CamClientException) {
+            return (CamClientException) cause;
+        }
+        if(cause instanceof IOException || cause instanceof CancellationException) {
+            return new CamConnectionException("Unable to complete request to " + this.getUri(), cause);
+        }
+        return new CamClientException(cause);
+    }
+
+    private static Charset getCharset(HttpHeaders headers) {
+        String contentType = headers.firstValue(CONTENT_TYPE).orElse(null);
+        if(contentType == null) {
+            return DEFAULT_CHARSET;
+        }
+        int index = contentType.toLowerCase(Locale.ROOT).indexOf(CHARSET_PARAMETER);
+        if(index < 0) {
+            return DEFAULT_CHARSET;
+        }
+        String name = contentType.substring(index + CHARSET_PARAMETER.length());
+        int end = name.indexOf(';');
+        if(end >= 0) {
+            name = name.substring(0, end);
+        }
+        name = name.trim().replace("\"", "");
+        try {
+            return Charset.forName(name);
+        } catch (IllegalCharsetNameException e) {
+            return DEFAULT_CHARSET;
+        } catch (UnsupportedCharsetException e) {
+            return DEFAULT_CHARSET;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.jdkhttp;
+
+import java.net.http.HttpRequest;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+
+/**
+ * A request being prepared for, and then sent by, the HttpClient. Holds on to the in-flight response future and the
+ * subscription to the response body so that the exchange can be aborted from another thread.
+ * <p>
+ * Cancelling the future returned by <code>HttpClient.sendAsync</code> only completes that future; before JDK 16 it
+ * does not stop the exchange underneath it. Once the response headers have arrived the abort therefore also cancels
+ * the body subscription, which makes the client close the connection. An exchange aborted while still waiting for the
+ * response headers keeps its connection until the request timeout set by {@link
+ * JdkHttpCamConnection#setTimeout(JdkHttpExchange, int)} expires.
+ *
+ * @author Matt Bertolini
+ */
+public class JdkHttpExchange {
+    private final HttpRequest.Builder requestBuilder;
+    private Future<?> responseFuture;
+    private Flow.Subscription bodySubscription;
+    private boolean aborted;
+
+    public JdkHttpExchange(HttpRequest.Builder requestBuilder) {
+        if(requestBuilder == null) {
+            throw new IllegalArgumentException("Request builder cannot be null.");
+        }
+        this.requestBuilder = requestBuilder;
+    }
+
+    public HttpRequest.Builder getRequestBuilder() {
+        return this.requestBuilder;
+    }
+
+    /**
+     * Records the future of the response once the request has been sent. If the exchange was aborted before that the
+     * future is cancelled straight away.
+     *
+     * @param responseFuture The response future.
+     */
+    public void setResponseFuture(Future<?> responseFuture) {
+        synchronized(this) {
+            if(!this.aborted) {
+                this.responseFuture = responseFuture;
+                return;
+            }
+        }
+        responseFuture.cancel(true);
+    }
+
+    /**
+     * Records the subscription to the response body once the headers have arrived. If the exchange was aborted before
+     * that the subscription is cancelled straight away.
+     *
+     * @param bodySubscription The body subscription.
+     */
+    public void setBodySubscription(Flow.Subscription bodySubscription) {
+        synchronized(this) {
+            if(!this.aborted) {
+                this.bodySubscription = bodySubscription;
+                return;
+            }
+        }
+        bodySubscription.cancel();
+    }
+
+    /**
+     * Aborts the exchange, cancelling the response future if the request has been sent and the body subscription if
+     * the response has started to arrive.
+     */
+    public void abort() {
+        Future<?> future;
+        Flow.Subscription subscription;
+        synchronized(this) {
+            this.aborted = true;
+            future = this.responseFuture;
+            subscription = this.bodySubscription;
+        }
+        if(subscription != null) {
+            subscription.cancel();
+        }
+        if(future != null) {
+            future.cancel(true);
+        }
+    }
+
+    public synchronized boolean isAborted() {
+        return this.aborted;
+    }
+}
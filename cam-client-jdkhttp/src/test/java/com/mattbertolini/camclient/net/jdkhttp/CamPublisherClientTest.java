@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.jdkhttp;
+
+import com.mattbertolini.camclient.BasicCamCredentials;
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.CamDevice;
+import com.mattbertolini.camclient.CamUserInfo;
+import com.mattbertolini.camclient.MacAddress;
+import com.mattbertolini.camclient.QueryType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class CamPublisherClientTest {
+    private static final String PATH = "/admin/cisco_api.jsp";
+    private static final int DEVICE_COUNT = 100000;
+
+    private static String deviceListBody;
+
+    private HttpServer server;
+    private volatile String responseBody;
+    private volatile int bytesWritten;
+    private CamPublisherClient client;
+
+    @BeforeClass
+    public static void setUpClass() {
+        // Large enough that it cannot all sit in the socket buffers while the client is not reading.
+        StringBuilder body = new StringBuilder("<!--error=0-->\n");
+        for(int i = 0; i < DEVICE_COUNT; i++) {
+            body.append("<!--mac=").append(MacAddress.valueOf(i).toString(MacAddress.Delimiter.COLON))
+                    .append(",ip=10.0.0.1,cas=10.0.0.2,type=userrole,role=Student,description=device ").append(i)
+                    .append("-->\n");
+        }
+        deviceListBody = body.toString();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        this.responseBody = deviceListBody;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                byte[] response = responseBody.getBytes(StandardCharsets.ISO_8859_1);
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    for(int offset = 0; offset < response.length; offset += 1024) {
+                        int length = Math.min(1024, response.length - offset);
+                        out.write(response, offset, length);
+                        bytesWritten = offset + length;
+                    }
+                    out.close();
+                } catch (IOException e) {
+                    // The client went away.
+                }
+            }
+        });
+        this.server.start();
+        URI uri = URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + PATH);
+        this.client = new CamPublisherClient(new JdkHttpCamConnection(uri, new BasicCamCredentials("admin", "secret")));
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testPublishesEveryRecordInOrder() throws InterruptedException {
+        RecordingSubscriber<CamDevice> subscriber = new RecordingSubscriber<CamDevice>(Long.MAX_VALUE);
+        this.client.publishMacAddressList().subscribe(subscriber);
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+        assertEquals(DEVICE_COUNT, subscriber.items.size());
+        assertEquals("device 0", subscriber.items.get(0).getDescription());
+        assertEquals(MacAddress.valueOf(DEVICE_COUNT - 1), subscriber.items.get(DEVICE_COUNT - 1).getMacAddress());
+    }
+
+    @Test
+    public void testReadingPausesWithoutDemand() throws InterruptedException {
+        RecordingSubscriber<CamDevice> subscriber = new RecordingSubscriber<CamDevice>(5);
+        this.client.publishMacAddressList().subscribe(subscriber);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(subscriber.items.size() < 5 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(5, subscriber.items.size());
+        assertEquals(1, subscriber.done.getCount());
+        // The server is left blocked on a full socket rather than having written the whole body.
+        assertTrue(this.bytesWritten < this.responseBody.length());
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void testErrorResponseIsSignalled() throws InterruptedException {
+        this.responseBody = "<!--error=Invalid query-->";
+        RecordingSubscriber<CamUserInfo> subscriber = new RecordingSubscriber<CamUserInfo>(1);
+        this.client.publishUserInfo(QueryType.ALL, null).subscribe(subscriber);
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof CamClientException);
+        assertEquals("CAM Error - Invalid query", subscriber.error.getMessage());
+    }
+
+    @Test
+    public void testUserInfoRecordsAreMapped() throws InterruptedException {
+        this.responseBody = "<!--count=1-->\n<!--IP=10.1.10.12,MAC=0A:13:07:9B:82:60,NAME=jdoe,PROVIDER=LDAP Server,"
+                + "ROLE=Student,ORIGROLE=Guest,VLAN=1024,NEWVLAN=2048,OS=Windows 7-->";
+        RecordingSubscriber<CamUserInfo> subscriber = new RecordingSubscriber<CamUserInfo>(Long.MAX_VALUE);
+        this.client.publishUserInfo(QueryType.ALL, null).subscribe(subscriber);
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+        assertEquals(1, subscriber.items.size());
+        CamUserInfo userInfo = subscriber.items.get(0);
+        assertEquals("jdoe", userInfo.getName());
+        assertEquals(MacAddress.valueOf("0A:13:07:9B:82:60"), userInfo.getMacAddress());
+        assertEquals("Guest", userInfo.getOriginalRole());
+        assertEquals("2048", userInfo.getNewVlan());
+    }
+
+    @Test
+    public void testCancelStopsDelivery() throws InterruptedException {
+        final RecordingSubscriber<CamDevice> subscriber = new RecordingSubscriber<CamDevice>(Long.MAX_VALUE) {
+            @Override
+            public void onNext(CamDevice item) {
+                super.onNext(item);
+                if(this.items.size() == 10) {
+                    this.subscription.cancel();
+                }
+            }
+        };
+        this.client.publishMacAddressList().subscribe(subscriber);
+        Thread.sleep(500);
+        assertEquals(10, subscriber.items.size());
+        assertFalse(subscriber.done.getCount() == 0);
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while(in.read(buffer) != -1) {
+            //
+        }
+    }
+
+    private static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        protected final List<T> items = Collections.synchronizedList(new ArrayList<T>());
+        protected final CountDownLatch done = new CountDownLatch(1);
+        private final long initialDemand;
+        protected volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        private RecordingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(this.initialDemand);
+        }
+
+        @Override
+        public void onNext(T item) {
+            this.items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+            this.done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            this.done.countDown();
+        }
+    }
+}
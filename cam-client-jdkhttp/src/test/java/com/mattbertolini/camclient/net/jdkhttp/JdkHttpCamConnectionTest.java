@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.jdkhttp;
+
+import com.mattbertolini.camclient.BasicCamCredentials;
+import com.mattbertolini.camclient.net.CallContext;
+import com.mattbertolini.camclient.net.CamConnectionException;
+import com.mattbertolini.camclient.net.RequestCancelledException;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class JdkHttpCamConnectionTest {
+    private static final String PATH = "/admin/cisco_api.jsp";
+
+    private HttpServer server;
+    private List<String> requestBodies;
+    private List<String> cookies;
+    private volatile String responseBody;
+    private CountDownLatch bodyStarted;
+    private CountDownLatch clientGone;
+    private JdkHttpCamConnection connection;
+
+    @Before
+    public void setUp() throws IOException {
+        this.requestBodies = Collections.synchronizedList(new ArrayList<String>());
+        this.cookies = Collections.synchronizedList(new ArrayList<String>());
+        this.responseBody = "<!--error=0-->\n<!--version=4.9.0-->\n";
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = read(exchange.getRequestBody());
+                requestBodies.add(body);
+                cookies.add(exchange.getRequestHeaders().getFirst("Cookie"));
+                if(body.startsWith("op=adminlogin")) {
+                    exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=abc123; Path=/admin; Secure");
+                }
+                byte[] response = responseBody.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        this.bodyStarted = new CountDownLatch(1);
+        this.clientGone = new CountDownLatch(1);
+        this.server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                read(exchange.getRequestBody());
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    // Trickles the body until the client goes away.
+                    for(int i = 0; i < 1000; i++) {
+                        out.write("<!--error=0-->\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        bodyStarted.countDown();
+                        Thread.sleep(20);
+                    }
+                } catch (IOException e) {
+                    clientGone.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        this.server.start();
+        URI uri = URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + PATH);
+        this.connection = new JdkHttpCamConnection(uri, new BasicCamCredentials("admin", "secret"));
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testExecuteRequest() {
+        CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertFalse(response.isError());
+        assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+        assertEquals("op=getversion&admin=admin&passwd=secret", this.requestBodies.get(0));
+    }
+
+    @Test
+    public void testExecuteRequestAsync() throws Exception {
+        this.responseBody = "<!--error=Invalid MAC address-->";
+        CamResponse response = this.connection.executeRequestAsync(new CamRequestImpl(Operation.CHECK_MAC_ADDRESS))
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(response.isError());
+        assertEquals("CAM Error - Invalid MAC address", response.getErrorText());
+    }
+
+    @Test
+    public void testSessionCookieIsSentInsteadOfCredentials() {
+        this.connection.setSessionAuthentication(true);
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertTrue(this.requestBodies.get(0).startsWith("op=adminlogin"));
+        assertEquals("op=getversion", this.requestBodies.get(1));
+        assertEquals("JSESSIONID=abc123", this.cookies.get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExecuteRequestAsyncRejectsSessionAuthentication() {
+        this.connection.setSessionAuthentication(true);
+        this.connection.executeRequestAsync(new CamRequestImpl(Operation.GET_VERSION));
+    }
+
+    @Test
+    public void testCancelledCallClosesConnectionMidBody() throws Exception {
+        URI uri = URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + "/slow");
+        JdkHttpCamConnection slowConnection = new JdkHttpCamConnection(uri, new BasicCamCredentials("admin", "secret"));
+        final CallContext context = new CallContext(null);
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    bodyStarted.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                context.cancel();
+            }
+        });
+        canceller.start();
+        CallContext previous = CallContext.attach(context);
+        try {
+            slowConnection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the request to be cancelled.");
+        } catch (RequestCancelledException e) {
+            // expected
+        } finally {
+            CallContext.restore(previous);
+            canceller.join();
+        }
+        assertTrue(this.clientGone.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConnectionFailure() throws Exception {
+        this.server.stop(0);
+        try {
+            this.connection.executeRequestAsync(new CamRequestImpl(Operation.GET_VERSION)).get(5, TimeUnit.SECONDS);
+            fail("Expected the request to fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CamConnectionException);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+}
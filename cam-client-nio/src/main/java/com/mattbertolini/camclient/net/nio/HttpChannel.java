@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.nio;
+
+import com.mattbertolini.camclient.net.CamConnectionException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * One persistent connection to a server. Requests are written in the order they are queued and, because HTTP/1.1
+ * answers pipelined requests in order, each response that is read completes the oldest outstanding request. Only the
+ * client's I/O thread touches a channel.
+ *
+ * @author Matt Bertolini
+ */
+final class HttpChannel {
+    private final InetSocketAddress address;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final DirectBufferPool bufferPool;
+    private final ByteBuffer readBuffer;
+    private final ByteBuffer writeBuffer;
+    private final ArrayDeque<ByteBuffer> outbound;
+    private final ArrayDeque<NioExchange> inFlight;
+    private final ResponseReader reader;
+    private boolean connected;
+    private boolean reusable;
+    private boolean closed;
+    private boolean closedByServer;
+    private long idleSince;
+    private long keepAliveTimeoutMillis;
+    private int responseCount;
+
+    private HttpChannel(InetSocketAddress address, SocketChannel channel, Selector selector, DirectBufferPool bufferPool,
+                        boolean connected) throws IOException {
+        this.address = address;
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+        this.readBuffer = bufferPool.acquire();
+        this.writeBuffer = bufferPool.acquire();
+        this.outbound = new ArrayDeque<ByteBuffer>();
+        this.inFlight = new ArrayDeque<NioExchange>();
+        this.reader = new ResponseReader();
+        this.connected = connected;
+        this.idleSince = System.nanoTime();
+        this.keepAliveTimeoutMillis = -1L;
+        this.key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+    }
+
+    /**
+     * Starts a non-blocking connect to the server.
+     *
+     * @param address The server address.
+     * @param selector The selector to register the channel with.
+     * @param bufferPool The pool to take the channel's read and write buffers from.
+     * @return The channel, which may still be connecting.
+     * @throws IOException If the connect could not be started.
+     */
+    static HttpChannel open(InetSocketAddress address, Selector selector, DirectBufferPool bufferPool)
+            throws IOException {
+        SocketChannel socketChannel = SocketChannel.open();
+        try {
+            socketChannel.configureBlocking(false);
+            // Requests are small and often pipelined; do not hold them back waiting for an ACK.
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+            boolean connected = socketChannel.connect(address);
+            return new HttpChannel(address, socketChannel, selector, bufferPool, connected);
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            // UnresolvedAddressException and friends.
+            socketChannel.close();
+            throw new IOException("Unable to connect to " + address, e);
+        }
+    }
+
+    /**
+     * Queues a request on the connection and writes as much of it as the socket will take.
+     *
+     * @param exchange The exchange to send.
+     * @throws IOException If writing fails.
+     */
+    void send(NioExchange exchange) throws IOException {
+        this.outbound.addLast(ByteBuffer.wrap(exchange.toBytes()));
+        this.inFlight.addLast(exchange);
+        if(this.connected) {
+            this.flush();
+        }
+    }
+
+    void finishConnect() throws IOException {
+        this.channel.finishConnect();
+        this.connected = true;
+        this.flush();
+    }
+
+    /**
+     * Writes queued request bytes until they are all written or the socket buffer is full, in which case the channel
+     * waits for the socket to become writable again. Request bytes are staged through the pooled direct buffer, which
+     * is what the socket write would otherwise allocate a temporary buffer for.
+     *
+     * @throws IOException If writing fails.
+     */
+    void flush() throws IOException {
+        while(true) {
+            while(!this.outbound.isEmpty() && this.writeBuffer.hasRemaining()) {
+                ByteBuffer next = this.outbound.peekFirst();
+                int length = Math.min(next.remaining(), this.writeBuffer.remaining());
+                this.writeBuffer.put(next.array(), next.arrayOffset() + next.position(), length);
+                next.position(next.position() + length);
+                if(!next.hasRemaining()) {
+                    this.outbound.pollFirst();
+                }
+            }
+            this.writeBuffer.flip();
+            int written = this.channel.write(this.writeBuffer);
+            this.writeBuffer.compact();
+            if(this.writeBuffer.position() == 0 && this.outbound.isEmpty()) {
+                this.key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            if(written == 0) {
+                this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads whatever has arrived and completes the requests whose responses are now whole.
+     *
+     * @return False if the connection must now be closed, either because the server closed it or because the last
+     * response said it would.
+     * @throws IOException If reading fails or the response is malformed.
+     */
+    boolean read() throws IOException {
+        int read = this.channel.read(this.readBuffer);
+        if(read < 0) {
+            if(this.reader.endOfStream()) {
+                this.completeResponse();
+            } else {
+                this.closedByServer = true;
+            }
+            return false;
+        }
+        this.readBuffer.flip();
+        try {
+            while(this.readBuffer.hasRemaining()) {
+                if(this.inFlight.isEmpty()) {
+                    throw new ProtocolException("Received data from " + this.address
+                            + " with no request outstanding.");
+                }
+                if(this.reader.read(this.readBuffer) && !this.completeResponse()) {
+                    return false;
+                }
+            }
+        } finally {
+            this.readBuffer.compact();
+        }
+        return true;
+    }
+
+    private boolean completeResponse() {
+        NioExchange exchange = this.inFlight.pollFirst();
+        NioHttpResponse response = this.reader.getResponse();
+        this.reusable = this.reader.isKeepAlive();
+        this.keepAliveTimeoutMillis = this.reader.getKeepAliveTimeoutMillis();
+        this.responseCount++;
+        this.reader.reset();
+        if(this.inFlight.isEmpty()) {
+            this.idleSince = System.nanoTime();
+        }
+        if(exchange != null) {
+            exchange.complete(response);
+        }
+        return this.reusable;
+    }
+
+    /**
+     * Takes back the requests that can be sent again on a new connection after the server closed this one. That is
+     * only the case when the connection had already been reused and the server closed it before sending any part of
+     * the next response, which is how a server drops a keep-alive connection it has timed out while a request is on
+     * its way. Only idempotent requests are taken, since the server may already have processed any of them, and
+     * each is sent again at most once. The rest fail with the connection.
+     *
+     * @return The requests to send again, oldest first.
+     */
+    List<NioExchange> takeUnansweredRequests() {
+        List<NioExchange> unanswered = new ArrayList<NioExchange>();
+        if(!this.closedByServer || this.responseCount == 0 || !this.reader.isIdle()) {
+            return unanswered;
+        }
+        Iterator<NioExchange> iterator = this.inFlight.iterator();
+        while(iterator.hasNext()) {
+            NioExchange exchange = iterator.next();
+            if(!exchange.isDone() && exchange.isIdempotent() && exchange.markResent()) {
+                iterator.remove();
+                unanswered.add(exchange);
+            }
+        }
+        return unanswered;
+    }
+
+    /**
+     * Closes the connection and fails every request still waiting on it. Safe to call more than once.
+     *
+     * @param cause Why the connection is being closed, or null if it was idle.
+     */
+    void close(Throwable cause) {
+        if(this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // Nothing more can be done with the channel.
+        }
+        CamConnectionException failure;
+        if(cause instanceof CamConnectionException) {
+            failure = (CamConnectionException) cause;
+        } else if(cause == null) {
+            failure = new CamConnectionException("Connection to " + this.address + " was closed.");
+        } else {
+            failure = new CamConnectionException("Connection to " + this.address + " failed.", cause);
+        }
+        NioExchange exchange;
+        while((exchange = this.inFlight.pollFirst()) != null) {
+            exchange.fail(failure);
+        }
+        this.outbound.clear();
+        this.bufferPool.release(this.readBuffer);
+        this.bufferPool.release(this.writeBuffer);
+    }
+
+    boolean contains(NioExchange exchange) {
+        return this.inFlight.contains(exchange);
+    }
+
+    int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    boolean isConnected() {
+        return this.connected;
+    }
+
+    /**
+     * @return True once a response has been read that leaves the connection open, which is when it is safe to
+     * pipeline further requests on it.
+     */
+    boolean isReusable() {
+        return this.reusable;
+    }
+
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    long getIdleSince() {
+        return this.idleSince;
+    }
+
+    /**
+     * @return The idle timeout the server announced in its last response's Keep-Alive header in milliseconds, or -1 if
+     * it did not announce one.
+     */
+    long getKeepAliveTimeoutMillis() {
+        return this.keepAliveTimeoutMillis;
+    }
+
+    /**
+     * @return True once at least one response has been read on the connection.
+     */
+    boolean isReused() {
+        return this.responseCount > 0;
+    }
+
+    boolean isIdle() {
+        return this.connected && this.inFlight.isEmpty() && this.reader.isIdle();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.nio;
+
+import com.mattbertolini.camclient.CamClientException;
+import com.mattbertolini.camclient.CamCredentials;
+import com.mattbertolini.camclient.net.AbstractCamConnection;
+import com.mattbertolini.camclient.net.CamConnectionException;
+import com.mattbertolini.camclient.net.EndpointResolver;
+import com.mattbertolini.camclient.net.FormRequestEncoder;
+import com.mattbertolini.camclient.net.ResponseDecoder;
+import com.mattbertolini.camclient.request.CamRequest;
+import com.mattbertolini.camclient.response.CamResponse;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A CamConnection that sends requests through a {@link NioHttpClient}. Intended for bulk jobs against a CAM on the
+ * local network, where request and response bodies are tiny and the per-request cost of the general purpose HTTP
+ * clients dominates. Only plain http URIs are supported.
+ * <p>
+ * Several connections may share one client; the client is not closed by {@link #close()}.
+ *
+ * @author Matt Bertolini
+ */
+public class NioCamConnection extends AbstractCamConnection<NioExchange, NioHttpResponse> {
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded; charset=ISO-8859-1";
+    private static final String CHARSET_PARAMETER = "charset=";
+    private static final Charset DEFAULT_CHARSET = Charset.forName("ISO-8859-1");
+    private static final int DEFAULT_HTTP_PORT = 80;
+
+    private final NioHttpClient httpClient;
+    private final FormRequestEncoder requestEncoder;
+    private final String host;
+    private final String path;
+    private EndpointResolver endpointResolver;
+
+    public NioCamConnection(URI uri, CamCredentials credentials, NioHttpClient httpClient) {
+        super(uri, credentials);
+        if(uri == null) {
+            throw new IllegalArgumentException("URI cannot be null.");
+        }
+        if(!"http".equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("The NIO transport only supports http URIs.");
+        }
+        if(uri.getHost() == null) {
+            throw new IllegalArgumentException("URI must have a host.");
+        }
+        if(httpClient == null) {
+            throw new IllegalArgumentException("HTTP client cannot be null.");
+        }
+        this.httpClient = httpClient;
+        this.requestEncoder = new FormRequestEncoder(DEFAULT_CHARSET);
+        this.host = (uri.getPort() < 0) ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+        String rawPath = uri.getRawPath();
+        if(rawPath == null || rawPath.isEmpty()) {
+            rawPath = "/";
+        }
+        this.path = (uri.getRawQuery() == null) ? rawPath : rawPath + "?" + uri.getRawQuery();
+    }
+
+    @Override
+    public NioExchange buildRequest(CamRequest camRequest) {
+        if(camRequest == null) {
+            throw new IllegalArgumentException("Request cannot be null.");
+        }
+        String sessionCookie = this.getSessionCookie(camRequest);
+        CamCredentials credentials = (sessionCookie == null) ? this.getCredentials() : null;
+        NioExchange exchange = new NioExchange(this.resolveAddress(), this.host, this.path,
+                this.requestEncoder.encode(camRequest, credentials));
+        exchange.setHeader(USER_AGENT, this.getUserAgent());
+        exchange.setHeader(CONTENT_TYPE, FORM_CONTENT_TYPE);
+        exchange.setHeader(ResponseDecoder.ACCEPT_ENCODING, this.getAcceptEncoding());
+        exchange.setHeader(COOKIE, sessionCookie);
+        exchange.setIdempotent(camRequest.getOperation() != null && camRequest.getOperation().isIdempotent());
+        return exchange;
+    }
+
+    private InetSocketAddress resolveAddress() {
+        URI uri = this.getUri();
+        int port = (uri.getPort() < 0) ? DEFAULT_HTTP_PORT : uri.getPort();
+        // Resolved on the calling thread so a slow lookup never stalls the shared I/O thread.
+        if(this.endpointResolver != null) {
+            try {
+                return new InetSocketAddress(this.endpointResolver.resolve(uri.getHost())[0], port);
+            } catch (UnknownHostException e) {
+                throw new CamConnectionException("Unable to resolve " + uri.getHost(), e);
+            }
+        }
+        InetSocketAddress address = new InetSocketAddress(uri.getHost(), port);
+        if(address.isUnresolved()) {
+            throw new CamConnectionException("Unable to resolve " + uri.getHost());
+        }
+        return address;
+    }
+
+    @Override
+    public CamResponse buildResponse(NioHttpResponse httpResponse) {
+        ByteArrayInputStream body = new ByteArrayInputStream(httpResponse.getBody());
+        String contentEncoding = httpResponse.getHeader(ResponseDecoder.CONTENT_ENCODING);
+        return this.parseResponse(this.decodeResponseBody(body, contentEncoding),
+                getCharset(httpResponse.getHeader(CONTENT_TYPE)).name());
+    }
+
+    @Override
+    public String extractSessionCookie(NioHttpResponse httpResponse) {
+        return toCookieHeader(httpResponse.getHeaders(SET_COOKIE));
+    }
+
+    @Override
+    public void setTimeout(NioExchange exchange, int timeoutMillis) {
+        exchange.setTimeoutMillis(timeoutMillis);
+    }
+
+    @Override
+    public void abortRequest(NioExchange exchange) {
+        exchange.abort();
+    }
+
+    @Override
+    public NioHttpResponse submitRequest(NioExchange exchange) {
+        CompletableFuture<NioHttpResponse> future = this.httpClient.send(exchange);
+        try {
+            if(exchange.getTimeoutMillis() < 0) {
+                return future.get();
+            }
+            return future.get(exchange.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            exchange.abort();
+            Thread.currentThread().interrupt();
+            throw new CamClientException("Interrupted while waiting for a response from " + this.getUri(), e);
+        } catch (TimeoutException e) {
+            exchange.abort();
+            throw new CamConnectionException("Timed out waiting for a response from " + this.getUri(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof CamClientException) {
+                throw (CamClientException) cause;
+            }
+            throw new CamConnectionException("Unable to complete request to " + this.getUri(), cause);
+        } catch (CancellationException e) {
+            throw new CamConnectionException("Request to " + this.getUri() + " was aborted.", e);
+        }
+    }
+
+    public NioHttpClient getHttpClient() {
+        return this.httpClient;
+    }
+
+    public EndpointResolver getEndpointResolver() {
+        return this.endpointResolver;
+    }
+
+    /**
+     * Sets the resolver used to look up the CAM's address for each request, in place of the JVM resolver.
+     *
+     * @param endpointResolver The resolver, or null to use the JVM resolver.
+     */
+    public void setEndpointResolver(EndpointResolver endpointResolver) {
+        this.endpointResolver = endpointResolver;
+    }
+
+    private static Charset getCharset(String contentType) {
+        if(contentType == null) {
+            return DEFAULT_CHARSET;
+        }
+        int index = contentType.toLowerCase(Locale.ROOT).indexOf(CHARSET_PARAMETER);
+        if(index < 0) {
+            return DEFAULT_CHARSET;
+        }
+        String name = contentType.substring(index + CHARSET_PARAMETER.length());
+        int end = name.indexOf(';');
+        if(end >= 0) {
+            name = name.substring(0, end);
+        }
+        name = name.trim().replace("\"", "");
+        try {
+            return Charset.forName(name);
+        } catch (IllegalCharsetNameException e) {
+            return DEFAULT_CHARSET;
+        } catch (UnsupportedCharsetException e) {
+            return DEFAULT_CHARSET;
+        }
+    }
+}
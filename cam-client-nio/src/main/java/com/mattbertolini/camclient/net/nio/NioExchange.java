@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.nio;
+
+import com.mattbertolini.camclient.net.CamConnectionException;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A single POST request and its eventual response. The exchange is built on the caller's thread, handed to {@link
+ * NioHttpClient#send(NioExchange)} and completed by the client's I/O thread.
+ *
+ * @author Matt Bertolini
+ */
+public class NioExchange {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final InetSocketAddress address;
+    private final String path;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final CompletableFuture<NioHttpResponse> responseFuture;
+    private NioHttpClient client;
+    private int timeoutMillis;
+    private boolean idempotent;
+    private boolean resent;
+
+    /**
+     * @param address The resolved address of the server.
+     * @param host The value of the Host header.
+     * @param path The request target, including any query string.
+     * @param body The request body.
+     */
+    public NioExchange(InetSocketAddress address, String host, String path, byte[] body) {
+        if(address == null) {
+            throw new IllegalArgumentException("Address cannot be null.");
+        }
+        if(host == null) {
+            throw new IllegalArgumentException("Host cannot be null.");
+        }
+        if(path == null) {
+            throw new IllegalArgumentException("Path cannot be null.");
+        }
+        if(body == null) {
+            throw new IllegalArgumentException("Body cannot be null.");
+        }
+        this.address = address;
+        this.path = path;
+        this.headers = new LinkedHashMap<String, String>();
+        this.headers.put("Host", host);
+        this.body = body;
+        this.responseFuture = new CompletableFuture<NioHttpResponse>();
+        this.timeoutMillis = -1;
+    }
+
+    public void setHeader(String name, String value) {
+        if(name == null) {
+            throw new IllegalArgumentException("Header name cannot be null.");
+        }
+        if(value == null) {
+            this.headers.remove(name);
+        } else {
+            this.headers.put(name, value);
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return this.address;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    public CompletableFuture<NioHttpResponse> getResponseFuture() {
+        return this.responseFuture;
+    }
+
+    public int getTimeoutMillis() {
+        return this.timeoutMillis;
+    }
+
+    /**
+     * Sets how long to wait for the response once the exchange has been sent.
+     *
+     * @param timeoutMillis The timeout in milliseconds, or a negative value to wait indefinitely.
+     */
+    public void setTimeoutMillis(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public boolean isIdempotent() {
+        return this.idempotent;
+    }
+
+    /**
+     * Sets whether the request is safe to send twice. Only idempotent exchanges are sent again after a reused
+     * connection is closed before they are answered; the rest fail and are left to the caller to retry. Exchanges are
+     * not idempotent unless marked so.
+     *
+     * @param idempotent True if the request can be repeated without side effects.
+     */
+    public void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * Aborts the exchange. If the request has already been written to a connection that connection is closed, which
+     * also fails any requests pipelined behind it.
+     */
+    public void abort() {
+        if(!this.responseFuture.completeExceptionally(new CamConnectionException("Request to " + this.address
+                + " was aborted."))) {
+            return;
+        }
+        NioHttpClient owner;
+        synchronized(this) {
+            owner = this.client;
+        }
+        if(owner != null) {
+            owner.abort(this);
+        }
+    }
+
+    public boolean isDone() {
+        return this.responseFuture.isDone();
+    }
+
+    synchronized boolean bind(NioHttpClient client) {
+        if(this.client != null) {
+            throw new IllegalStateException("Exchange has already been sent.");
+        }
+        this.client = client;
+        return !this.responseFuture.isDone();
+    }
+
+    /**
+     * Marks the exchange as being sent a second time. Only the client's I/O thread calls this.
+     *
+     * @return False if the exchange has already been sent again once.
+     */
+    boolean markResent() {
+        if(this.resent) {
+            return false;
+        }
+        this.resent = true;
+        return true;
+    }
+
+    boolean isResent() {
+        return this.resent;
+    }
+
+    boolean complete(NioHttpResponse response) {
+        return this.responseFuture.complete(response);
+    }
+
+    boolean fail(Throwable cause) {
+        return this.responseFuture.completeExceptionally(cause);
+    }
+
+    /**
+     * Serializes the request line, headers and body as they are written to the connection.
+     *
+     * @return The request bytes.
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(this.body.length + 256);
+        write(out, "POST " + this.path + " HTTP/1.1");
+        out.write(CRLF, 0, CRLF.length);
+        for(Map.Entry<String, String> header : this.headers.entrySet()) {
+            write(out, header.getKey() + ": " + header.getValue());
+            out.write(CRLF, 0, CRLF.length);
+        }
+        write(out, "Content-Length: " + this.body.length);
+        out.write(CRLF, 0, CRLF.length);
+        out.write(CRLF, 0, CRLF.length);
+        out.write(this.body, 0, this.body.length);
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(ISO_8859_1);
+        out.write(bytes, 0, bytes.length);
+    }
+}
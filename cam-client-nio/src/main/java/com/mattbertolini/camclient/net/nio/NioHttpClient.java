@@ -0,0 +1,548 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.nio;
+
+import com.mattbertolini.camclient.net.CamConnectionException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal HTTP/1.1 client that drives all of its connections from a single selector thread. It implements just
+ * what the CAM API needs: POST requests with small form bodies and responses delimited by length, chunking or
+ * connection close. There is no TLS support.
+ * <p>
+ * Each server address gets up to {@link #setMaxConnectionsPerRoute(int)} persistent connections. With a pipeline
+ * depth above one, requests that find every connection busy are written behind the outstanding ones on the least
+ * loaded connection instead of waiting, once that connection has shown it stays open. Pipelining cuts the per-request
+ * round trip for bulk jobs, but when a pipelined connection fails every request queued on it fails too, whether or not
+ * the CAM processed it; only enable it for operations that are safe to retry or check.
+ * <p>
+ * Idle connections are closed after {@link #setMaxIdleMillis(long)}, or sooner if the server's Keep-Alive header
+ * announced a shorter timeout. If the server still closes a reused connection before answering a request written to
+ * it, the request is sent once more on a new connection, but only if the exchange is marked idempotent. Every other
+ * request on that connection fails as described above and is left to the caller, e.g. a RetryingCamConnection.
+ * <p>
+ * Futures returned by {@link #send(NioExchange)} are completed on the I/O thread, so dependent stages should not
+ * block. Close the client to stop the thread and its connections.
+ *
+ * @author Matt Bertolini
+ */
+public class NioHttpClient implements Closeable {
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 4;
+    private static final int DEFAULT_PIPELINE_DEPTH = 1;
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final long DEFAULT_MAX_IDLE_MILLIS = 30000L;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000L;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final Queue<NioExchange> submitted;
+    private final Queue<NioExchange> aborted;
+    private final Map<InetSocketAddress, Route> routes;
+    private final AtomicLong connectionsOpened;
+    private final AtomicLong requestsSent;
+    private final AtomicLong pipelinedRequests;
+    private final AtomicLong resentRequests;
+    private final AtomicInteger openConnections;
+    private volatile int maxConnectionsPerRoute;
+    private volatile int pipelineDepth;
+    private volatile long maxIdleMillis;
+    private int bufferSize;
+    private DirectBufferPool bufferPool;
+    private Selector selector;
+    private Thread ioThread;
+    private volatile boolean closed;
+
+    public NioHttpClient() {
+        this.submitted = new ConcurrentLinkedQueue<NioExchange>();
+        this.aborted = new ConcurrentLinkedQueue<NioExchange>();
+        this.routes = new HashMap<InetSocketAddress, Route>();
+        this.connectionsOpened = new AtomicLong();
+        this.requestsSent = new AtomicLong();
+        this.pipelinedRequests = new AtomicLong();
+        this.resentRequests = new AtomicLong();
+        this.openConnections = new AtomicInteger();
+        this.maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        this.pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+        this.maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+        this.bufferSize = DEFAULT_BUFFER_SIZE;
+    }
+
+    /**
+     * Queues an exchange to be sent. The I/O thread is started by the first call.
+     *
+     * @param exchange The exchange to send. An exchange can only be sent once.
+     * @return The exchange's response future. It fails with a {@link CamConnectionException} if the request could not
+     * be completed.
+     */
+    public CompletableFuture<NioHttpResponse> send(NioExchange exchange) {
+        if(exchange == null) {
+            throw new IllegalArgumentException("Exchange cannot be null.");
+        }
+        if(!exchange.bind(this)) {
+            return exchange.getResponseFuture();
+        }
+        if(this.closed) {
+            exchange.fail(new CamConnectionException("NIO HTTP client is closed."));
+            return exchange.getResponseFuture();
+        }
+        Selector started = this.start();
+        this.submitted.add(exchange);
+        if(this.closed) {
+            // The I/O thread may already have drained the queue for the last time.
+            this.failSubmitted();
+        } else {
+            started.wakeup();
+        }
+        return exchange.getResponseFuture();
+    }
+
+    void abort(NioExchange exchange) {
+        this.aborted.add(exchange);
+        Selector current;
+        synchronized(this) {
+            current = this.selector;
+        }
+        if(current != null) {
+            current.wakeup();
+        }
+    }
+
+    private synchronized Selector start() {
+        if(this.selector != null) {
+            return this.selector;
+        }
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new CamConnectionException("Unable to open selector.", e);
+        }
+        this.bufferPool = new DirectBufferPool(this.bufferSize, this.maxConnectionsPerRoute * 2);
+        this.ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "cam-nio-client-" + THREAD_COUNT.incrementAndGet());
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+        return this.selector;
+    }
+
+    private void runLoop() {
+        Throwable failure = null;
+        long lastIdleCheck = System.nanoTime();
+        try {
+            while(!this.closed) {
+                this.selector.select(SELECT_TIMEOUT_MILLIS);
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    this.handle(key);
+                }
+                this.processAborted();
+                this.processSubmitted();
+                for(Route route : this.routes.values()) {
+                    this.dispatch(route);
+                }
+                long now = System.nanoTime();
+                if(now - lastIdleCheck >= TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT_MILLIS)) {
+                    this.closeIdle(now);
+                    lastIdleCheck = now;
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            this.closed = true;
+            CamConnectionException cause = new CamConnectionException("NIO HTTP client is closed.", failure);
+            for(Route route : this.routes.values()) {
+                for(HttpChannel channel : route.channels) {
+                    this.closeChannel(channel, cause);
+                }
+                route.channels.clear();
+                NioExchange exchange;
+                while((exchange = route.pending.pollFirst()) != null) {
+                    exchange.fail(cause);
+                }
+            }
+            this.failSubmitted();
+            try {
+                this.selector.close();
+            } catch (IOException e) {
+                // Nothing more can be done with the selector.
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        HttpChannel channel = (HttpChannel) key.attachment();
+        try {
+            if(!key.isValid()) {
+                return;
+            }
+            if(key.isConnectable()) {
+                channel.finishConnect();
+            }
+            if(key.isValid() && key.isReadable() && !channel.read()) {
+                List<NioExchange> unanswered = channel.takeUnansweredRequests();
+                this.closeChannel(channel, new CamConnectionException(
+                        "Connection closed before all pipelined requests were answered."));
+                this.resend(unanswered);
+                return;
+            }
+            if(key.isValid() && key.isWritable()) {
+                channel.flush();
+            }
+        } catch (IOException e) {
+            this.closeChannel(channel, e);
+        } catch (RuntimeException e) {
+            this.closeChannel(channel, e);
+        }
+    }
+
+    /**
+     * Puts requests back at the front of their route's queue, in their original order, to be sent on a new
+     * connection.
+     */
+    private void resend(List<NioExchange> exchanges) {
+        for(int i = exchanges.size() - 1; i >= 0; i--) {
+            NioExchange exchange = exchanges.get(i);
+            this.routes.get(exchange.getAddress()).pending.addFirst(exchange);
+            this.resentRequests.incrementAndGet();
+        }
+    }
+
+    private void processAborted() {
+        NioExchange exchange;
+        while((exchange = this.aborted.poll()) != null) {
+            for(Route route : this.routes.values()) {
+                for(HttpChannel channel : route.channels) {
+                    if(channel.contains(exchange)) {
+                        // The response can no longer be told apart from the ones pipelined behind it.
+                        this.closeChannel(channel, new CamConnectionException(
+                                "Connection closed after a request on it was aborted."));
+                    }
+                }
+            }
+        }
+    }
+
+    private void processSubmitted() {
+        NioExchange exchange;
+        while((exchange = this.submitted.poll()) != null) {
+            Route route = this.routes.get(exchange.getAddress());
+            if(route == null) {
+                route = new Route(exchange.getAddress());
+                this.routes.put(exchange.getAddress(), route);
+            }
+            route.pending.addLast(exchange);
+        }
+    }
+
+    private void dispatch(Route route) {
+        route.removeClosed();
+        while(!route.pending.isEmpty()) {
+            NioExchange exchange = route.pending.peekFirst();
+            if(exchange.isDone()) {
+                route.pending.pollFirst();
+                continue;
+            }
+            HttpChannel channel;
+            try {
+                channel = this.selectChannel(route, exchange.isResent());
+            } catch (IOException e) {
+                route.pending.pollFirst();
+                exchange.fail(new CamConnectionException("Unable to connect to " + route.address, e));
+                continue;
+            }
+            if(channel == null) {
+                return;
+            }
+            route.pending.pollFirst();
+            if(channel.getInFlightCount() > 0) {
+                this.pipelinedRequests.incrementAndGet();
+            }
+            this.requestsSent.incrementAndGet();
+            try {
+                channel.send(exchange);
+            } catch (IOException e) {
+                this.closeChannel(channel, e);
+                route.removeClosed();
+            }
+        }
+    }
+
+    /**
+     * Picks the connection to send the next request on, opening one if the route has room.
+     *
+     * @param route The route.
+     * @param requireNew True if the request must not go on a connection that has already been used, because it is
+     * being sent again after a reused connection was closed under it. An idle used connection is closed to make room
+     * if the route is full.
+     * @return The connection or null if the request has to wait.
+     * @throws IOException If a new connection could not be started.
+     */
+    private HttpChannel selectChannel(Route route, boolean requireNew) throws IOException {
+        long now = System.nanoTime();
+        HttpChannel spare = null;
+        for(HttpChannel channel : route.channels) {
+            if(!channel.isIdle() || channel.isClosed()) {
+                continue;
+            }
+            if(this.isExpired(channel, now)) {
+                this.closeChannel(channel, null);
+            } else if(!requireNew || !channel.isReused()) {
+                return channel;
+            } else {
+                spare = channel;
+            }
+        }
+        route.removeClosed();
+        if(requireNew && spare != null && route.channels.size() >= this.maxConnectionsPerRoute) {
+            this.closeChannel(spare, null);
+            route.removeClosed();
+        }
+        if(route.channels.size() < this.maxConnectionsPerRoute) {
+            HttpChannel channel = HttpChannel.open(route.address, this.selector, this.bufferPool);
+            route.channels.add(channel);
+            this.connectionsOpened.incrementAndGet();
+            this.openConnections.incrementAndGet();
+            return channel;
+        }
+        HttpChannel leastLoaded = null;
+        if(this.pipelineDepth > 1 && !requireNew) {
+            for(HttpChannel channel : route.channels) {
+                if(channel.isReusable() && channel.getInFlightCount() < this.pipelineDepth
+                        && (leastLoaded == null || channel.getInFlightCount() < leastLoaded.getInFlightCount())) {
+                    leastLoaded = channel;
+                }
+            }
+        }
+        return leastLoaded;
+    }
+
+    private void closeIdle(long now) {
+        for(Route route : this.routes.values()) {
+            for(HttpChannel channel : route.channels) {
+                if(channel.isIdle() && this.isExpired(channel, now)) {
+                    this.closeChannel(channel, null);
+                }
+            }
+            route.removeClosed();
+        }
+    }
+
+    /**
+     * Whether an idle connection has been idle for longer than the client allows or than the server said it would
+     * keep the connection open, whichever is shorter.
+     */
+    private boolean isExpired(HttpChannel channel, long now) {
+        long maxIdle = this.maxIdleMillis;
+        long keepAliveTimeout = channel.getKeepAliveTimeoutMillis();
+        if(keepAliveTimeout >= 0 && keepAliveTimeout < maxIdle) {
+            maxIdle = keepAliveTimeout;
+        }
+        return now - channel.getIdleSince() > TimeUnit.MILLISECONDS.toNanos(maxIdle);
+    }
+
+    private void closeChannel(HttpChannel channel, Throwable cause) {
+        if(!channel.isClosed()) {
+            channel.close(cause);
+            this.openConnections.decrementAndGet();
+        }
+    }
+
+    private void failSubmitted() {
+        NioExchange exchange;
+        while((exchange = this.submitted.poll()) != null) {
+            exchange.fail(new CamConnectionException("NIO HTTP client is closed."));
+        }
+    }
+
+    /**
+     * Stops the I/O thread, closes every connection and fails any requests that have not completed.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        Selector current;
+        synchronized(this) {
+            this.closed = true;
+            thread = this.ioThread;
+            current = this.selector;
+        }
+        if(current == null) {
+            return;
+        }
+        current.wakeup();
+        if(thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return this.maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        if(maxConnectionsPerRoute < 1) {
+            throw new IllegalArgumentException("Max connections per route must be at least one.");
+        }
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public int getPipelineDepth() {
+        return this.pipelineDepth;
+    }
+
+    /**
+     * Sets how many requests may be outstanding on one connection. The default of one disables pipelining.
+     *
+     * @param pipelineDepth The maximum number of outstanding requests per connection.
+     */
+    public void setPipelineDepth(int pipelineDepth) {
+        if(pipelineDepth < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be at least one.");
+        }
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public long getMaxIdleMillis() {
+        return this.maxIdleMillis;
+    }
+
+    /**
+     * Sets how long a connection may sit idle before it is closed. A shorter timeout announced by the server in a
+     * Keep-Alive response header takes precedence.
+     *
+     * @param maxIdleMillis The maximum idle time in milliseconds.
+     */
+    public void setMaxIdleMillis(long maxIdleMillis) {
+        if(maxIdleMillis < 0) {
+            throw new IllegalArgumentException("Max idle time cannot be negative.");
+        }
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    public synchronized int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * Sets the size of the direct buffers each connection reads and writes through. Must be set before the first
+     * request is sent.
+     *
+     * @param bufferSize The buffer size in bytes.
+     */
+    public synchronized void setBufferSize(int bufferSize) {
+        if(bufferSize < 1024) {
+            throw new IllegalArgumentException("Buffer size must be at least 1024 bytes.");
+        }
+        if(this.selector != null) {
+            throw new IllegalStateException("Buffer size cannot be changed once the client has started.");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    public long getConnectionsOpened() {
+        return this.connectionsOpened.get();
+    }
+
+    public int getOpenConnections() {
+        return this.openConnections.get();
+    }
+
+    public long getRequestsSent() {
+        return this.requestsSent.get();
+    }
+
+    /**
+     * Gets the number of requests that were written while another request was still outstanding on the same
+     * connection.
+     *
+     * @return The pipelined request count.
+     */
+    public long getPipelinedRequests() {
+        return this.pipelinedRequests.get();
+    }
+
+    /**
+     * Gets the number of requests that were sent a second time because a reused connection was closed before they
+     * were answered.
+     *
+     * @return The resent request count.
+     */
+    public long getResentRequests() {
+        return this.resentRequests.get();
+    }
+
+    private static final class Route {
+        private final InetSocketAddress address;
+        private final ArrayDeque<NioExchange> pending;
+        private final List<HttpChannel> channels;
+
+        private Route(InetSocketAddress address) {
+            this.address = address;
+            this.pending = new ArrayDeque<NioExchange>();
+            this.channels = new ArrayList<HttpChannel>();
+        }
+
+        private void removeClosed() {
+            Iterator<HttpChannel> iterator = this.channels.iterator();
+            while(iterator.hasNext()) {
+                if(iterator.next().isClosed()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+}
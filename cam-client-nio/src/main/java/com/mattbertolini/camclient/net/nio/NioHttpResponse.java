@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.nio;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A complete HTTP response read by {@link NioHttpClient}. Header names are stored in lower case.
+ *
+ * @author Matt Bertolini
+ */
+public class NioHttpResponse {
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+
+    public NioHttpResponse(int statusCode, String reasonPhrase, Map<String, List<String>> headers, byte[] body) {
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.body = body;
+    }
+
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    public String getReasonPhrase() {
+        return this.reasonPhrase;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * Gets all values of a header.
+     *
+     * @param name The header name, in any case.
+     * @return The values, or an empty list if the header was not sent.
+     */
+    public List<String> getHeaders(String name) {
+        List<String> values = this.headers.get(name.toLowerCase(Locale.ROOT));
+        if(values == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Gets the first value of a header.
+     *
+     * @param name The header name, in any case.
+     * @return The value, or null if the header was not sent.
+     */
+    public String getHeader(String name) {
+        List<String> values = this.headers.get(name.toLowerCase(Locale.ROOT));
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+
+    public byte[] getBody() {
+        return this.body;
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.nio;
+
+import com.mattbertolini.camclient.net.BufferPool;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads HTTP/1.1 responses incrementally from whatever bytes have arrived on a connection. Bodies may be delimited by
+ * Content-Length, chunked transfer coding or the end of the connection. Interim 1xx responses are skipped. A reader
+ * is reused for every response on its connection, so pipelined responses are read one after another from the same
+ * buffer. Body bytes are collected in a buffer borrowed from the shared {@link BufferPool} and returned when the
+ * reader is reset for the next response.
+ *
+ * @author Matt Bertolini
+ */
+final class ResponseReader {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_INITIAL_BODY_CAPACITY = 1024 * 1024;
+    private static final int INITIAL_BODY_CAPACITY = 1024;
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private enum State {
+        STATUS_LINE, HEADERS, FIXED_BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, COMPLETE
+    }
+
+    private State state;
+    private byte[] line;
+    private int lineLength;
+    private byte[] body;
+    private int bodyLength;
+    private long remaining;
+    private boolean http11;
+    private int statusCode;
+    private String reasonPhrase;
+    private Map<String, List<String>> headers;
+
+    ResponseReader() {
+        this.line = new byte[256];
+        this.reset();
+    }
+
+    /**
+     * Prepares the reader for the next response on the connection.
+     */
+    void reset() {
+        this.state = State.STATUS_LINE;
+        this.lineLength = 0;
+        BufferPool.getDefault().releaseBytes(this.body);
+        this.body = null;
+        this.bodyLength = 0;
+        this.remaining = 0;
+        this.statusCode = 0;
+        this.reasonPhrase = null;
+        this.headers = new LinkedHashMap<String, List<String>>();
+    }
+
+    /**
+     * Consumes bytes until the current response is complete or the buffer is exhausted. Bytes after the end of the
+     * response, i.e. the start of the next pipelined response, are left in the buffer.
+     *
+     * @param buffer A buffer ready to be read from.
+     * @return True if a complete response has been read.
+     * @throws ProtocolException If the bytes are not a valid HTTP response.
+     */
+    boolean read(ByteBuffer buffer) throws ProtocolException {
+        while(this.state != State.COMPLETE && buffer.hasRemaining()) {
+            switch(this.state) {
+                case STATUS_LINE:
+                    if(this.readLine(buffer)) {
+                        this.parseStatusLine();
+                    }
+                    break;
+                case HEADERS:
+                    if(this.readLine(buffer)) {
+                        if(this.lineLength == 0) {
+                            this.startBody();
+                        } else {
+                            this.parseHeader();
+                        }
+                    }
+                    break;
+                case FIXED_BODY:
+                case CHUNK_DATA:
+                    this.readBody(buffer);
+                    break;
+                case CHUNK_SIZE:
+                    if(this.readLine(buffer)) {
+                        this.parseChunkSize();
+                    }
+                    break;
+                case CHUNK_END:
+                    if(this.readLine(buffer)) {
+                        if(this.lineLength != 0) {
+                            throw new ProtocolException("Missing line break after chunk data.");
+                        }
+                        this.state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILERS:
+                    if(this.readLine(buffer)) {
+                        if(this.lineLength == 0) {
+                            this.state = State.COMPLETE;
+                        } else {
+                            // Trailer fields are not needed; discard them.
+                            this.lineLength = 0;
+                        }
+                    }
+                    break;
+                case UNTIL_CLOSE:
+                    int length = buffer.remaining();
+                    this.ensureBodyCapacity(length);
+                    buffer.get(this.body, this.bodyLength, length);
+                    this.bodyLength += length;
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected state " + this.state);
+            }
+        }
+        return this.state == State.COMPLETE;
+    }
+
+    /**
+     * Tells the reader that the server has closed the connection.
+     *
+     * @return True if this completes a response whose body runs to the end of the connection.
+     */
+    boolean endOfStream() {
+        if(this.state == State.UNTIL_CLOSE) {
+            this.state = State.COMPLETE;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return True if no part of a response has been read since the last reset.
+     */
+    boolean isIdle() {
+        return this.state == State.STATUS_LINE && this.lineLength == 0;
+    }
+
+    /**
+     * @return True if the server will accept further requests on the connection after this response.
+     */
+    boolean isKeepAlive() {
+        if(this.isBodyDelimitedByClose()) {
+            return false;
+        }
+        String connection = this.getHeader("connection");
+        if(connection == null) {
+            return this.http11;
+        }
+        String lowerCase = connection.toLowerCase(Locale.ROOT);
+        return !lowerCase.contains("close") && (this.http11 || lowerCase.contains("keep-alive"));
+    }
+
+    /**
+     * @return The idle timeout from the response's Keep-Alive header in milliseconds, or -1 if the server did not
+     * send one.
+     */
+    long getKeepAliveTimeoutMillis() {
+        String keepAlive = this.getHeader("keep-alive");
+        if(keepAlive == null) {
+            return -1L;
+        }
+        for(String parameter : keepAlive.split(",")) {
+            int equals = parameter.indexOf('=');
+            if(equals < 0 || !"timeout".equalsIgnoreCase(parameter.substring(0, equals).trim())) {
+                continue;
+            }
+            try {
+                long seconds = Long.parseLong(parameter.substring(equals + 1).trim());
+                return (seconds < 0) ? -1L : TimeUnit.SECONDS.toMillis(seconds);
+            } catch (NumberFormatException e) {
+                return -1L;
+            }
+        }
+        return -1L;
+    }
+
+    NioHttpResponse getResponse() {
+        byte[] bytes = new byte[this.bodyLength];
+        if(this.body != null) {
+            System.arraycopy(this.body, 0, bytes, 0, this.bodyLength);
+        }
+        return new NioHttpResponse(this.statusCode, this.reasonPhrase, this.headers, bytes);
+    }
+
+    private boolean isBodyDelimitedByClose() {
+        return this.getHeader("content-length") == null && !this.isChunked() && this.hasBody();
+    }
+
+    private boolean readLine(ByteBuffer buffer) throws ProtocolException {
+        while(buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if(b == LF) {
+                if(this.lineLength > 0 && this.line[this.lineLength - 1] == CR) {
+                    this.lineLength--;
+                }
+                return true;
+            }
+            if(this.lineLength == MAX_LINE_LENGTH) {
+                throw new ProtocolException("Response line or header longer than " + MAX_LINE_LENGTH + " bytes.");
+            }
+            if(this.lineLength == this.line.length) {
+                byte[] larger = new byte[Math.min(MAX_LINE_LENGTH, this.line.length * 2)];
+                System.arraycopy(this.line, 0, larger, 0, this.lineLength);
+                this.line = larger;
+            }
+            this.line[this.lineLength++] = b;
+        }
+        return false;
+    }
+
+    private String takeLine() {
+        String value = new String(this.line, 0, this.lineLength, ISO_8859_1);
+        this.lineLength = 0;
+        return value;
+    }
+
+    private void parseStatusLine() throws ProtocolException {
+        String statusLine = this.takeLine();
+        if(statusLine.isEmpty()) {
+            // Tolerate a stray line break between responses.
+            return;
+        }
+        if(!statusLine.startsWith("HTTP/1.")) {
+            throw new ProtocolException("Invalid status line: " + statusLine);
+        }
+        int firstSpace = statusLine.indexOf(' ');
+        if(firstSpace < 0) {
+            throw new ProtocolException("Invalid status line: " + statusLine);
+        }
+        int secondSpace = statusLine.indexOf(' ', firstSpace + 1);
+        String code = (secondSpace < 0) ? statusLine.substring(firstSpace + 1)
+                : statusLine.substring(firstSpace + 1, secondSpace);
+        try {
+            this.statusCode = Integer.parseInt(code);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid status code: " + statusLine);
+        }
+        this.http11 = !statusLine.startsWith("HTTP/1.0");
+        this.reasonPhrase = (secondSpace < 0) ? "" : statusLine.substring(secondSpace + 1);
+        this.state = State.HEADERS;
+    }
+
+    private void parseHeader() throws ProtocolException {
+        String header = this.takeLine();
+        int colon = header.indexOf(':');
+        if(colon <= 0) {
+            throw new ProtocolException("Invalid header: " + header);
+        }
+        String name = header.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        String value = header.substring(colon + 1).trim();
+        List<String> values = this.headers.get(name);
+        if(values == null) {
+            values = new ArrayList<String>(1);
+            this.headers.put(name, values);
+        }
+        values.add(value);
+    }
+
+    private void startBody() throws ProtocolException {
+        if(this.statusCode >= 100 && this.statusCode < 200) {
+            // An interim response such as 100 Continue; the real one follows.
+            this.reset();
+            return;
+        }
+        if(!this.hasBody()) {
+            this.state = State.COMPLETE;
+            return;
+        }
+        if(this.isChunked()) {
+            this.body = BufferPool.getDefault().acquireBytes(INITIAL_BODY_CAPACITY);
+            this.state = State.CHUNK_SIZE;
+            return;
+        }
+        String contentLength = this.getHeader("content-length");
+        if(contentLength == null) {
+            this.body = BufferPool.getDefault().acquireBytes(INITIAL_BODY_CAPACITY);
+            this.state = State.UNTIL_CLOSE;
+            return;
+        }
+        try {
+            this.remaining = Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid Content-Length: " + contentLength);
+        }
+        if(this.remaining < 0 || this.remaining > Integer.MAX_VALUE) {
+            throw new ProtocolException("Invalid Content-Length: " + contentLength);
+        }
+        if(this.remaining == 0) {
+            this.state = State.COMPLETE;
+            return;
+        }
+        this.body = BufferPool.getDefault().acquireBytes((int) Math.min(this.remaining, MAX_INITIAL_BODY_CAPACITY));
+        this.state = State.FIXED_BODY;
+    }
+
+    private void parseChunkSize() throws ProtocolException {
+        String chunkSize = this.takeLine();
+        int extension = chunkSize.indexOf(';');
+        if(extension >= 0) {
+            chunkSize = chunkSize.substring(0, extension);
+        }
+        try {
+            this.remaining = Long.parseLong(chunkSize.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid chunk size: " + chunkSize);
+        }
+        if(this.remaining < 0 || this.bodyLength + this.remaining > Integer.MAX_VALUE) {
+            throw new ProtocolException("Invalid chunk size: " + chunkSize);
+        }
+        this.state = (this.remaining == 0) ? State.TRAILERS : State.CHUNK_DATA;
+    }
+
+    private void readBody(ByteBuffer buffer) {
+        int length = (int) Math.min(this.remaining, buffer.remaining());
+        this.ensureBodyCapacity(length);
+        buffer.get(this.body, this.bodyLength, length);
+        this.bodyLength += length;
+        this.remaining -= length;
+        if(this.remaining == 0) {
+            this.state = (this.state == State.CHUNK_DATA) ? State.CHUNK_END : State.COMPLETE;
+        }
+    }
+
+    private void ensureBodyCapacity(int additional) {
+        int required = this.bodyLength + additional;
+        if(required > this.body.length) {
+            this.body = BufferPool.getDefault().growBytes(this.body, this.bodyLength, required);
+        }
+    }
+
+    private boolean hasBody() {
+        return this.statusCode != 204 && this.statusCode != 304;
+    }
+
+    private boolean isChunked() {
+        String transferEncoding = this.getHeader("transfer-encoding");
+        return transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked");
+    }
+
+    private String getHeader(String name) {
+        List<String> values = this.headers.get(name);
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+}
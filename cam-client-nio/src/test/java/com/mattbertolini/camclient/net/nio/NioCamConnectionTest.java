@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.nio;
+
+import com.mattbertolini.camclient.BasicCamCredentials;
+import com.mattbertolini.camclient.net.CamConnectionException;
+import com.mattbertolini.camclient.net.EndpointResolver;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.request.RequestParameter;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class NioCamConnectionTest {
+    private static final String PATH = "/admin/cisco_api.jsp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private HttpServer server;
+    private List<String> requestBodies;
+    private List<String> cookies;
+    private volatile String responseBody;
+    private volatile String keepAlive;
+    private NioHttpClient httpClient;
+    private NioCamConnection connection;
+
+    @Before
+    public void setUp() throws IOException {
+        this.requestBodies = Collections.synchronizedList(new ArrayList<String>());
+        this.cookies = Collections.synchronizedList(new ArrayList<String>());
+        this.responseBody = "<!--error=0-->\n<!--version=4.9.0-->\n";
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = read(exchange.getRequestBody());
+                requestBodies.add(body);
+                cookies.add(exchange.getRequestHeaders().getFirst("Cookie"));
+                if(body.startsWith("op=adminlogin")) {
+                    exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=abc123; Path=/admin");
+                }
+                byte[] response = responseBody.getBytes(UTF_8);
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if(body.startsWith("op=getmaclist") && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                    gzip.write(response);
+                    gzip.close();
+                    response = compressed.toByteArray();
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                }
+                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+                if(keepAlive != null) {
+                    exchange.getResponseHeaders().add("Keep-Alive", keepAlive);
+                }
+                // Alternate between fixed length and chunked bodies.
+                exchange.sendResponseHeaders(200, (requestBodies.size() % 2 == 0) ? 0 : response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        this.server.start();
+        this.httpClient = new NioHttpClient();
+        URI uri = URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + PATH);
+        this.connection = new NioCamConnection(uri, new BasicCamCredentials("admin", "secret"), this.httpClient);
+    }
+
+    @After
+    public void tearDown() {
+        this.httpClient.close();
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testExecuteRequest() {
+        CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertFalse(response.isError());
+        assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+        assertEquals("op=getversion&admin=admin&passwd=secret", this.requestBodies.get(0));
+    }
+
+    @Test
+    public void testConnectionIsReused() {
+        for(int i = 0; i < 20; i++) {
+            CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+        }
+        assertEquals(1, this.httpClient.getConnectionsOpened());
+        assertEquals(20, this.httpClient.getRequestsSent());
+    }
+
+    @Test
+    public void testSessionCookieIsSentInsteadOfCredentials() {
+        this.connection.setSessionAuthentication(true);
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertTrue(this.requestBodies.get(0).startsWith("op=adminlogin"));
+        assertEquals("op=getversion", this.requestBodies.get(1));
+        assertEquals("JSESSIONID=abc123", this.cookies.get(1));
+    }
+
+    @Test
+    public void testGzipResponse() {
+        StringBuilder body = new StringBuilder("<!--error=0-->\n");
+        for(int i = 0; i < 100; i++) {
+            body.append("<!--mac=00:11:22:33:44:55,ip=10.0.0.").append(i).append("-->\n");
+        }
+        this.responseBody = body.toString();
+        CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_MAC_ADDRESS_LIST));
+        assertEquals(100, response.getResponseData().size());
+        assertEquals(1, this.connection.getResponseDecoder().getCompressedResponseCount());
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        this.httpClient.setMaxConnectionsPerRoute(1);
+        this.httpClient.setPipelineDepth(8);
+        // The first response shows the connection stays open, after which requests are pipelined behind each other.
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        List<CompletableFuture<NioHttpResponse>> futures = new ArrayList<CompletableFuture<NioHttpResponse>>();
+        for(int i = 0; i < 50; i++) {
+            futures.add(this.httpClient.send(this.connection.buildRequest(new CamRequestImpl(Operation.GET_VERSION))));
+        }
+        for(CompletableFuture<NioHttpResponse> future : futures) {
+            CamResponse response = this.connection.buildResponse(future.get(10, TimeUnit.SECONDS));
+            assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+        }
+        assertEquals(1, this.httpClient.getConnectionsOpened());
+        assertTrue(this.httpClient.getPipelinedRequests() > 0);
+    }
+
+    @Test
+    public void testConnectionFailure() throws Exception {
+        this.server.stop(0);
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the request to fail.");
+        } catch (CamConnectionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testClosedClientFailsRequests() throws Exception {
+        this.httpClient.close();
+        try {
+            this.httpClient.send(this.connection.buildRequest(new CamRequestImpl(Operation.GET_VERSION)))
+                    .get(5, TimeUnit.SECONDS);
+            fail("Expected the request to fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CamConnectionException);
+        }
+    }
+
+    @Test
+    public void testEndpointResolverIsUsed() throws Exception {
+        EndpointResolver resolver = new EndpointResolver() {
+            @Override
+            protected InetAddress[] lookup(String host) {
+                return new InetAddress[] {InetAddress.getLoopbackAddress()};
+            }
+        };
+        try {
+            URI uri = URI.create("http://cam.invalid:" + this.server.getAddress().getPort() + PATH);
+            NioCamConnection resolved = new NioCamConnection(uri, new BasicCamCredentials("admin", "secret"),
+                    this.httpClient);
+            resolved.setEndpointResolver(resolver);
+            for(int i = 0; i < 3; i++) {
+                CamResponse response = resolved.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+                assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+            }
+            assertEquals(1, resolver.getLookupCount());
+            assertEquals(2, resolver.getCacheHitCount());
+        } finally {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void testServerKeepAliveTimeoutClosesIdleConnection() throws Exception {
+        this.keepAlive = "timeout=1";
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals(1, this.httpClient.getOpenConnections());
+        long deadline = System.currentTimeMillis() + 5000L;
+        while(this.httpClient.getOpenConnections() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+        }
+        assertEquals(0, this.httpClient.getOpenConnections());
+        assertEquals(30000L, this.httpClient.getMaxIdleMillis());
+        this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        assertEquals(2, this.httpClient.getConnectionsOpened());
+    }
+
+    @Test
+    public void testRequestIsResentWhenReusedConnectionIsClosed() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket first = serverSocket.accept();
+                    sockets.add(first);
+                    readRequest(first.getInputStream());
+                    writeResponse(first.getOutputStream());
+                    // Drop the kept-alive connection with the second request unanswered.
+                    readRequest(first.getInputStream());
+                    first.close();
+                    Socket second = serverSocket.accept();
+                    sockets.add(second);
+                    readRequest(second.getInputStream());
+                    writeResponse(second.getOutputStream());
+                } catch (IOException e) {
+                    // The test fails on the client side.
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try {
+            NioCamConnection rawConnection = this.createConnection(serverSocket.getLocalPort());
+            rawConnection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            CamResponse response = rawConnection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+            assertEquals(2, this.httpClient.getConnectionsOpened());
+            assertEquals(1, this.httpClient.getResentRequests());
+        } finally {
+            serverSocket.close();
+            for(Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testNonIdempotentRequestIsNotResent() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+        final AtomicInteger received = new AtomicInteger();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket first = serverSocket.accept();
+                    sockets.add(first);
+                    readRequest(first.getInputStream());
+                    writeResponse(first.getOutputStream());
+                    readRequest(first.getInputStream());
+                    received.incrementAndGet();
+                    first.close();
+                    while(true) {
+                        Socket next = serverSocket.accept();
+                        sockets.add(next);
+                        readRequest(next.getInputStream());
+                        received.incrementAndGet();
+                        writeResponse(next.getOutputStream());
+                    }
+                } catch (IOException e) {
+                    // The server socket was closed at the end of the test.
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try {
+            NioCamConnection rawConnection = this.createConnection(serverSocket.getLocalPort());
+            rawConnection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            CamRequestImpl kick = new CamRequestImpl(Operation.KICK_USER);
+            kick.addParameter(RequestParameter.IP_ADDRESS, "10.0.0.1");
+            try {
+                rawConnection.executeRequest(kick);
+                fail("Expected the request to fail.");
+            } catch (CamConnectionException e) {
+                // expected
+            }
+            assertEquals(1, received.get());
+            assertEquals(0, this.httpClient.getResentRequests());
+            assertEquals(1, this.httpClient.getConnectionsOpened());
+        } finally {
+            serverSocket.close();
+            for(Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testRequestIsNotResentWhenNewConnectionIsClosed() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    readRequest(socket.getInputStream());
+                    socket.close();
+                } catch (IOException e) {
+                    // The test fails on the client side.
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try {
+            NioCamConnection rawConnection = this.createConnection(serverSocket.getLocalPort());
+            rawConnection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the request to fail.");
+        } catch (CamConnectionException e) {
+            assertEquals(0, this.httpClient.getResentRequests());
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHttpsIsRejected() {
+        new NioCamConnection(URI.create("https://127.0.0.1" + PATH), new BasicCamCredentials("admin", "secret"),
+                this.httpClient);
+    }
+
+    private NioCamConnection createConnection(int port) {
+        URI uri = URI.create("http://127.0.0.1:" + port + PATH);
+        return new NioCamConnection(uri, new BasicCamCredentials("admin", "secret"), this.httpClient);
+    }
+
+    private static void readRequest(InputStream in) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        while(!headers.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if(b == -1) {
+                throw new IOException("Connection closed while reading a request.");
+            }
+            headers.append((char) b);
+        }
+        int contentLength = 0;
+        for(String header : headers.toString().split("\r\n")) {
+            if(header.toLowerCase(Locale.ROOT).startsWith("content-length:")) {
+                contentLength = Integer.parseInt(header.substring(header.indexOf(':') + 1).trim());
+            }
+        }
+        for(int i = 0; i < contentLength; i++) {
+            if(in.read() == -1) {
+                throw new IOException("Connection closed while reading a request body.");
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream out) throws IOException {
+        byte[] body = "<!--error=0-->\n<!--version=4.9.0-->\n".getBytes(UTF_8);
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\nContent-Length: " + body.length
+                + "\r\n\r\n";
+        out.write(head.getBytes(UTF_8));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), Charset.forName("ISO-8859-1"));
+    }
+}
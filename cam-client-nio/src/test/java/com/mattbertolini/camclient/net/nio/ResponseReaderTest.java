@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.nio;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matt Bertolini
+ */
+public class ResponseReaderTest {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    @Test
+    public void testContentLengthReadOneByteAtATime() throws ProtocolException {
+        ResponseReader reader = new ResponseReader();
+        byte[] bytes = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nX-Test: a\r\nX-Test: b\r\n\r\nhello".getBytes(ISO_8859_1);
+        for(int i = 0; i < bytes.length - 1; i++) {
+            assertFalse(reader.read(ByteBuffer.wrap(bytes, i, 1)));
+        }
+        assertTrue(reader.read(ByteBuffer.wrap(bytes, bytes.length - 1, 1)));
+        NioHttpResponse response = reader.getResponse();
+        assertEquals(200, response.getStatusCode());
+        assertEquals("OK", response.getReasonPhrase());
+        assertEquals(2, response.getHeaders("x-test").size());
+        assertEquals("hello", new String(response.getBody(), ISO_8859_1));
+        assertTrue(reader.isKeepAlive());
+    }
+
+    @Test
+    public void testChunkedBody() throws ProtocolException {
+        ResponseReader reader = new ResponseReader();
+        ByteBuffer buffer = buffer("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5;ext=1\r\nhello\r\n7\r\n, world\r\n0\r\nX-Trailer: x\r\n\r\n");
+        assertTrue(reader.read(buffer));
+        assertEquals("hello, world", new String(reader.getResponse().getBody(), ISO_8859_1));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testPipelinedResponsesInOneBuffer() throws ProtocolException {
+        ResponseReader reader = new ResponseReader();
+        ByteBuffer buffer = buffer("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\none"
+                + "HTTP/1.1 200 OK\r\nContent-Length: 3\r\nConnection: close\r\n\r\ntwo");
+        assertTrue(reader.read(buffer));
+        assertEquals("one", new String(reader.getResponse().getBody(), ISO_8859_1));
+        assertTrue(reader.isKeepAlive());
+        reader.reset();
+        assertTrue(reader.read(buffer));
+        assertEquals("two", new String(reader.getResponse().getBody(), ISO_8859_1));
+        assertFalse(reader.isKeepAlive());
+    }
+
+    @Test
+    public void testBodyDelimitedByClose() throws ProtocolException {
+        ResponseReader reader = new ResponseReader();
+        assertFalse(reader.read(buffer("HTTP/1.0 200 OK\r\n\r\npartial")));
+        assertFalse(reader.read(buffer(" body")));
+        assertTrue(reader.endOfStream());
+        assertEquals("partial body", new String(reader.getResponse().getBody(), ISO_8859_1));
+        assertFalse(reader.isKeepAlive());
+    }
+
+    @Test
+    public void testInterimResponseIsSkipped() throws ProtocolException {
+        ResponseReader reader = new ResponseReader();
+        assertTrue(reader.read(buffer("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 204 No Content\r\n\r\n")));
+        assertEquals(204, reader.getResponse().getStatusCode());
+        assertEquals(0, reader.getResponse().getBody().length);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testInvalidStatusLine() throws ProtocolException {
+        new ResponseReader().read(buffer("SSH-2.0-OpenSSH\r\n"));
+    }
+
+    private static ByteBuffer buffer(String text) {
+        return ByteBuffer.wrap(text.getBytes(ISO_8859_1));
+    }
+
+    @Test
+    public void testKeepAliveTimeout() throws ProtocolException {
+        ResponseReader reader = new ResponseReader();
+        byte[] bytes = "HTTP/1.1 200 OK\r\nKeep-Alive: max=100, timeout=5\r\nContent-Length: 0\r\n\r\n"
+                .getBytes(ISO_8859_1);
+        assertTrue(reader.read(ByteBuffer.wrap(bytes)));
+        assertEquals(5000L, reader.getKeepAliveTimeoutMillis());
+        reader.reset();
+        bytes = "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(ISO_8859_1);
+        assertTrue(reader.read(ByteBuffer.wrap(bytes)));
+        assertEquals(-1L, reader.getKeepAliveTimeoutMillis());
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.nio;
+
+import com.mattbertolini.camclient.BasicCamCredentials;
+import com.mattbertolini.camclient.CamCredentials;
+import com.mattbertolini.camclient.net.CamConnection;
+import com.mattbertolini.camclient.net.httpclient.HttpClientCamConnection;
+import com.mattbertolini.camclient.net.httpclient.PoolingHttpClientFactory;
+import com.mattbertolini.camclient.net.urlconnection.HttpConnectionCamConnection;
+import com.mattbertolini.camclient.net.urlconnection.support.HttpConnectionImpl;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares request throughput of the HttpURLConnection, Apache HttpClient and NIO transports against a local stub
+ * CAM that answers instantly, so the numbers reflect per-request client overhead. The stub is a bare socket server
+ * rather than com.sun.net.httpserver, whose delayed-ACK stalls would otherwise swamp the difference. Not run as part of the build; run
+ * the main method by hand:
+ *
+ * <pre>
+ * java -cp ... com.mattbertolini.camclient.net.nio.TransportBenchmark [calls] [callerThreads]
+ * </pre>
+ *
+ * @author Matt Bertolini
+ */
+public class TransportBenchmark {
+    private static final String PATH = "/admin/cisco_api.jsp";
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final String BODY = "<!--error=0-->\n<!--version=4.9.0-->\n";
+    private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=ISO-8859-1\r\n"
+            + "Content-Length: " + BODY.length() + "\r\n\r\n" + BODY).getBytes(ISO_8859_1);
+
+    public static void main(String[] args) throws Exception {
+        int calls = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        int callers = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        StubCamServer server = new StubCamServer();
+        URI uri = URI.create("http://127.0.0.1:" + server.getPort() + PATH);
+        CamCredentials credentials = new BasicCamCredentials("admin", "secret");
+        System.out.println(calls + " calls from " + callers + " caller threads");
+
+        try {
+            run("HttpURLConnection", new HttpConnectionCamConnection(uri, credentials, new HttpConnectionImpl()),
+                    calls, callers);
+
+            PoolingHttpClientFactory factory = new PoolingHttpClientFactory();
+            factory.setMaxConnections(callers);
+            factory.setMaxConnectionsPerRoute(callers);
+            CloseableHttpClient apacheClient = factory.createHttpClient();
+            run("Apache HttpClient (pooled)", new HttpClientCamConnection(uri, credentials, apacheClient), calls,
+                    callers);
+            apacheClient.close();
+
+            NioHttpClient nioClient = new NioHttpClient();
+            nioClient.setMaxConnectionsPerRoute(callers);
+            run("NIO (" + callers + " connections)", new NioCamConnection(uri, credentials, nioClient), calls,
+                    callers);
+            nioClient.close();
+
+            NioHttpClient pipelinedClient = new NioHttpClient();
+            pipelinedClient.setMaxConnectionsPerRoute(2);
+            pipelinedClient.setPipelineDepth(callers);
+            run("NIO (2 connections, pipelined)", new NioCamConnection(uri, credentials, pipelinedClient), calls,
+                    callers);
+            System.out.println("  pipelined requests: " + pipelinedClient.getPipelinedRequests() + " of "
+                    + pipelinedClient.getRequestsSent());
+            pipelinedClient.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void run(String name, final CamConnection connection, int calls, int callers) throws Exception {
+        // Warm up the connection pool and the JIT before measuring.
+        measure(connection, calls / 10, callers);
+        long elapsed = measure(connection, calls, callers);
+        System.out.printf("%-32s %6d ms  %8.0f calls/s%n", name, elapsed, calls * 1000.0 / Math.max(1, elapsed));
+    }
+
+    private static long measure(final CamConnection connection, int calls, int callers) throws Exception {
+        final AtomicInteger remaining = new AtomicInteger(calls);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        long start = System.nanoTime();
+        for(int i = 0; i < callers; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    while(remaining.getAndDecrement() > 0) {
+                        connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for(Future<Void> future : futures) {
+            future.get();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        executor.shutdown();
+        return elapsed;
+    }
+
+    /**
+     * Answers every request on a connection, in order, with the same version response. Responses to pipelined
+     * requests are flushed together once no more requests are waiting.
+     */
+    private static class StubCamServer implements Runnable {
+        private final ServerSocket serverSocket;
+
+        private StubCamServer() throws IOException {
+            this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(this, "stub-cam-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private int getPort() {
+            return this.serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while(!this.serverSocket.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = this.serverSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "stub-cam-connection");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        }
+
+        private static void serve(Socket socket) {
+            try {
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                while(true) {
+                    int contentLength = 0;
+                    String line = readLine(in);
+                    if(line == null) {
+                        break;
+                    }
+                    while(!(line = readLine(in)).isEmpty()) {
+                        if(line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                            contentLength = Integer.parseInt(line.substring(15).trim());
+                        }
+                    }
+                    for(int i = 0; i < contentLength; i++) {
+                        in.read();
+                    }
+                    out.write(RESPONSE);
+                    if(in.available() == 0) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // Client went away.
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while((b = in.read()) != '\n') {
+                if(b == -1) {
+                    return null;
+                }
+                if(b != '\r') {
+                    sb.append((char) b);
+                }
+            }
+            return sb.toString();
+        }
+
+        private void close() throws IOException {
+            this.serverSocket.close();
+        }
+    }
+}
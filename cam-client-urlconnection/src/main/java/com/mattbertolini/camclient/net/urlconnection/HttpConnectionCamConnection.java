@@ -32,33 +32,44 @@ package com.mattbertolini.camclient.net.urlconnection;
 
 import com.mattbertolini.camclient.CamCredentials;
 import com.mattbertolini.camclient.net.AbstractCamConnection;
-import com.mattbertolini.camclient.net.Parameter;
+import com.mattbertolini.camclient.net.CamConnectionException;
+import com.mattbertolini.camclient.net.FormRequestEncoder;
+import com.mattbertolini.camclient.net.ResponseDecoder;
+import com.mattbertolini.camclient.net.TlsContext;
+import com.mattbertolini.camclient.net.urlconnection.support.ByteArrayPayload;
+import com.mattbertolini.camclient.net.urlconnection.support.ContentType;
 import com.mattbertolini.camclient.net.urlconnection.support.HttpConnection;
 import com.mattbertolini.camclient.net.urlconnection.support.HttpPayload;
 import com.mattbertolini.camclient.net.urlconnection.support.HttpRequest;
 import com.mattbertolini.camclient.net.urlconnection.support.HttpRequestImpl;
 import com.mattbertolini.camclient.net.urlconnection.support.HttpResponse;
 import com.mattbertolini.camclient.net.urlconnection.support.Method;
+import com.mattbertolini.camclient.net.urlconnection.support.MultivaluedMap;
 import com.mattbertolini.camclient.net.urlconnection.support.Url;
-import com.mattbertolini.camclient.net.urlconnection.support.UrlEncodedFormPayload;
 import com.mattbertolini.camclient.request.CamRequest;
-import com.mattbertolini.camclient.request.RequestParameter;
 import com.mattbertolini.camclient.response.CamResponse;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Map;
 
 /**
  * @author Matt Bertolini
  */
 public class HttpConnectionCamConnection extends AbstractCamConnection<HttpRequest, HttpResponse> {
+    private static final ContentType FORM_CONTENT_TYPE = ContentType.APPLICATION_FORM_URLENCODED.withCharset("ISO-8859-1");
+
     private HttpConnection connection;
+    private final FormRequestEncoder requestEncoder;
+    private volatile TlsContext tlsContext;
 
     public HttpConnectionCamConnection(URI uri, CamCredentials credentials, HttpConnection connection) {
         super(uri, credentials);
         this.connection = connection;
+        this.requestEncoder = new FormRequestEncoder(Charset.forName(FORM_CONTENT_TYPE.getCharsetOrDefault()));
     }
 
     @Override
@@ -70,17 +81,24 @@ public class HttpConnectionCamConnection extends AbstractCamConnection<HttpReque
         HttpRequest request = new HttpRequestImpl();
         request.setMethod(Method.POST);
         request.setUrl(new Url(this.getUri()));
+        TlsContext tls = this.tlsContext;
+        if(tls != null) {
+            request.setSSLSocketFactory(tls.getSocketFactory());
+        }
 
-        UrlEncodedFormPayload postData = new UrlEncodedFormPayload();
-        postData.addParameter(RequestParameter.OPERATION.getName(), camRequest.getOperation().getName());
-        Map<Parameter, String> parameters = camRequest.getParameters();
-        for(Map.Entry<Parameter, String> entry : parameters.entrySet()) {
-            postData.addParameter(entry.getKey().getName(), entry.getValue());
+        String sessionCookie = this.getSessionCookie(camRequest);
+        CamCredentials credentials = null;
+        if(sessionCookie == null) {
+            credentials = this.getCredentials();
+        } else {
+            request.setHeader(COOKIE, sessionCookie);
         }
-        postData.addParameter(RequestParameter.ADMIN_USERNAME.getName(), this.getCredentials().getUsername());
-        postData.addParameter(RequestParameter.ADMIN_PASSWORD.getName(), this.getCredentials().getPassword());
-        request.setPayload(postData);
+        request.setPayload(new ByteArrayPayload(this.requestEncoder.encode(camRequest, credentials), FORM_CONTENT_TYPE));
         request.setHeader(USER_AGENT, this.getUserAgent());
+        String acceptEncoding = this.getAcceptEncoding();
+        if(acceptEncoding != null) {
+            request.setHeader(ResponseDecoder.ACCEPT_ENCODING, acceptEncoding);
+        }
         return request;
     }
 
@@ -88,7 +106,67 @@ public class HttpConnectionCamConnection extends AbstractCamConnection<HttpReque
     public CamResponse buildResponse(HttpResponse httpResponse) {
         HttpPayload payload = httpResponse.getPayload();
         InputStream inputStream = payload.getInputStream();
-        return this.parseResponse(inputStream, payload.getContentType().getCharsetOrDefault());
+        if(inputStream == null) {
+            throw new CamConnectionException("Response from " + this.getUri() + " has no body (HTTP "
+                    + httpResponse.getStatusCode() + ").");
+        }
+        String contentEncoding = getHeader(httpResponse, ResponseDecoder.CONTENT_ENCODING);
+        return this.parseResponse(this.decodeResponseBody(inputStream, contentEncoding),
+                payload.getContentType().getCharsetOrDefault());
+    }
+
+    private static String getHeader(HttpResponse httpResponse, String name) {
+        MultivaluedMap<String, String> headers = httpResponse.getHeaders();
+        if(headers == null) {
+            return null;
+        }
+        // HttpURLConnection keeps the header name case the server used.
+        for(Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if(name.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String extractSessionCookie(HttpResponse httpResponse) {
+        MultivaluedMap<String, String> headers = httpResponse.getHeaders();
+        if(headers == null) {
+            return null;
+        }
+        // HttpURLConnection keeps the header name case the server used.
+        for(Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if(SET_COOKIE.equalsIgnoreCase(header.getKey())) {
+                return toCookieHeader(header.getValue());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void setTimeout(HttpRequest httpRequest, int timeoutMillis) {
+        httpRequest.setConnectTimeout(timeoutMillis);
+        httpRequest.setReadTimeout(timeoutMillis);
+    }
+
+    @Override
+    public void abortRequest(HttpRequest httpRequest) {
+        httpRequest.abort();
+    }
+
+    public TlsContext getTlsContext() {
+        return this.tlsContext;
+    }
+
+    /**
+     * Sets the TLS configuration for HTTPS requests. Share one context between connections to the same CAMs so they
+     * share its session cache.
+     *
+     * @param tlsContext The TLS context, or null to use the HttpsURLConnection defaults.
+     */
+    public void setTlsContext(TlsContext tlsContext) {
+        this.tlsContext = tlsContext;
     }
 
     @Override
@@ -96,8 +174,7 @@ public class HttpConnectionCamConnection extends AbstractCamConnection<HttpReque
         try {
             return this.connection.executeRequest(httpRequest);
         } catch (IOException e) {
-            // TODO: Finish
-            throw new RuntimeException(e);
+            throw new CamConnectionException("Unable to complete request to " + this.getUri(), e);
         }
     }
 }
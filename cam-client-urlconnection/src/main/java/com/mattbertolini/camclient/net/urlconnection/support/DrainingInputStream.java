@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.urlconnection.support;
+
+import com.mattbertolini.camclient.net.BufferPool;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * A response stream that reads whatever the caller left unread before closing. HttpURLConnection only returns a
+ * socket to its keep-alive cache once the response has been read to the end, so closing a stream early would
+ * otherwise throw the connection away. If more than a small amount is left the connection is dropped instead, since
+ * reading it would cost more than a new connection.
+ *
+ * @author Matt Bertolini
+ */
+class DrainingInputStream extends FilterInputStream {
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+    private static final int SKIP_BUFFER_SIZE = 4096;
+
+    private final HttpURLConnection connection;
+    private boolean closed;
+
+    DrainingInputStream(InputStream in, HttpURLConnection connection) {
+        super(in);
+        this.connection = connection;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(this.closed) {
+            return;
+        }
+        this.closed = true;
+        boolean drained = false;
+        try {
+            drained = drain(this.in);
+        } finally {
+            try {
+                this.in.close();
+            } finally {
+                if(!drained) {
+                    this.connection.disconnect();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the stream to the end, up to a limit.
+     *
+     * @param in The stream to drain.
+     * @return True if the end of the stream was reached.
+     */
+    static boolean drain(InputStream in) {
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquireBytes(SKIP_BUFFER_SIZE);
+        int total = 0;
+        try {
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                total += read;
+                if(total > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            pool.releaseBytes(buffer);
+        }
+    }
+}
@@ -30,6 +30,8 @@
 
 package com.mattbertolini.camclient.net.urlconnection.support;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -38,8 +40,19 @@ import java.net.Proxy;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * An HttpConnection built on HttpURLConnection. The JDK keeps connections alive between requests as long as every
+ * response is read to the end and closed, so the response stream handed back drains itself on close, and any error
+ * body is drained before an exception is thrown. Request payloads of known length are streamed with a fixed
+ * Content-Length.
+ * <p>
+ * For HTTPS requests the connection records whether each request opened a new connection or reused one; see
+ * {@link HttpResponse#getConnectionReuse()} and the counters on this class.
+ *
  * @author Matt Bertolini
  */
 public class HttpConnectionImpl implements HttpConnection {
@@ -47,6 +60,18 @@ public class HttpConnectionImpl implements HttpConnection {
     private static final String HTTP = "HTTP";
     private static final String HTTPS = "HTTPS";
 
+    private final AtomicLong newConnectionCount;
+    private final AtomicLong reusedConnectionCount;
+    private final AtomicLong untrackedCount;
+    private final ConcurrentMap<SSLSocketFactory, TrackingSSLSocketFactory> trackingSocketFactories;
+
+    public HttpConnectionImpl() {
+        this.newConnectionCount = new AtomicLong();
+        this.reusedConnectionCount = new AtomicLong();
+        this.untrackedCount = new AtomicLong();
+        this.trackingSocketFactories = new ConcurrentHashMap<SSLSocketFactory, TrackingSSLSocketFactory>();
+    }
+
     @Override
     public HttpResponse executeRequest(HttpRequest request) throws IOException {
         if(request == null) {
@@ -61,15 +86,35 @@ public class HttpConnectionImpl implements HttpConnection {
             throw new IllegalStateException("Only HTTP and HTTPS protocols are supported.");
         }
         InputStream responseStream = null;
+        HttpURLConnection conn = null;
         HttpResponse response;
         try {
             Proxy proxy = request.getProxy();
-            HttpURLConnection conn;
             if(proxy != null) {
                 conn = url.openConnection(proxy);
             } else {
                 conn = url.openConnection();
             }
+            if(request.getConnectTimeout() > 0) {
+                conn.setConnectTimeout(request.getConnectTimeout());
+            }
+            if(request.getReadTimeout() > 0) {
+                conn.setReadTimeout(request.getReadTimeout());
+            }
+            final HttpURLConnection abortableConnection = conn;
+            request.setAbortHandler(new Runnable() {
+                @Override
+                public void run() {
+                    abortableConnection.disconnect();
+                }
+            });
+            if(request.isAborted()) {
+                throw new IOException("Request was aborted.");
+            }
+            if(request.getSSLSocketFactory() != null && conn instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) conn).setSSLSocketFactory(request.getSSLSocketFactory());
+            }
+            boolean tracked = this.trackConnection(conn);
             Method method = request.getMethod();
             conn.setRequestMethod(method.toString().toUpperCase(Locale.ROOT));
 
@@ -87,6 +132,11 @@ public class HttpConnectionImpl implements HttpConnection {
                 // We override any content type that has already been set with the content type in the payload object.
                 ContentType contentType = requestPayload.getContentType();
                 conn.setRequestProperty(CONTENT_TYPE, contentType.toString());
+                long contentLength = requestPayload.getContentLength();
+                if(contentLength >= 0) {
+                    // Stream the body instead of letting HttpURLConnection buffer all of it to work out the length.
+                    conn.setFixedLengthStreamingMode(contentLength);
+                }
                 OutputStream outputStream = conn.getOutputStream();
                 requestPayload.writeTo(outputStream);
                 outputStream.close();
@@ -101,12 +151,16 @@ public class HttpConnectionImpl implements HttpConnection {
             } else {
                 responseStream = conn.getInputStream();
             }
+            if(responseStream != null) {
+                responseStream = new DrainingInputStream(responseStream, conn);
+            }
+            ConnectionReuse reuse = this.recordConnectionReuse(tracked);
             String contentTypeHeader = conn.getHeaderField(CONTENT_TYPE);
             ContentType responseContentType = ContentType.valueOf(contentTypeHeader);
             HttpPayload responsePayload = new InputStreamPayload(responseStream, responseContentType);
             String responseMessage = conn.getResponseMessage();
             MultivaluedMap<String, String> responseHeaders = new MultivaluedHashMap<String, String>(conn.getHeaderFields());
-            response = new HttpResponseImpl(responseCode, responseMessage, responsePayload, responseHeaders);
+            response = new HttpResponseImpl(responseCode, responseMessage, responsePayload, responseHeaders, reuse);
         } catch (IOException e) {
             // We are only closing the response input stream if there is an exception because the input stream is given
             // to the response object in a non-exception scenario. It is the user's responsibility to close the stream
@@ -117,6 +171,9 @@ public class HttpConnectionImpl implements HttpConnection {
                 } catch (IOException e1) {
                     // Do nothing
                 }
+            } else if(conn != null) {
+                // An error status makes getInputStream() throw; reading the error body lets the socket be kept.
+                drainErrorStream(conn);
             }
             // Re-throw IOException after closing input stream.
             throw e;
@@ -124,6 +181,80 @@ public class HttpConnectionImpl implements HttpConnection {
         return response;
     }
 
+    /**
+     * Gets the number of HTTPS requests that opened a new connection.
+     *
+     * @return The number of new connections.
+     */
+    public long getNewConnectionCount() {
+        return this.newConnectionCount.get();
+    }
+
+    /**
+     * Gets the number of HTTPS requests sent over a connection kept alive from an earlier request.
+     *
+     * @return The number of reused connections.
+     */
+    public long getReusedConnectionCount() {
+        return this.reusedConnectionCount.get();
+    }
+
+    /**
+     * Gets the number of requests for which reuse could not be tracked, i.e. plain HTTP requests.
+     *
+     * @return The number of untracked requests.
+     */
+    public long getUntrackedCount() {
+        return this.untrackedCount.get();
+    }
+
+    private boolean trackConnection(HttpURLConnection conn) {
+        if(!(conn instanceof HttpsURLConnection)) {
+            return false;
+        }
+        HttpsURLConnection httpsConn = (HttpsURLConnection) conn;
+        SSLSocketFactory socketFactory = httpsConn.getSSLSocketFactory();
+        // One wrapper per underlying factory, reused for every request through it, so the keep-alive cache (which
+        // matches connections by socket factory) still finds connections when requests alternate between factories.
+        TrackingSSLSocketFactory tracking = this.trackingSocketFactories.get(socketFactory);
+        if(tracking == null) {
+            TrackingSSLSocketFactory created = new TrackingSSLSocketFactory(socketFactory);
+            tracking = this.trackingSocketFactories.putIfAbsent(socketFactory, created);
+            if(tracking == null) {
+                tracking = created;
+            }
+        }
+        httpsConn.setSSLSocketFactory(tracking);
+        TrackingSSLSocketFactory.reset();
+        return true;
+    }
+
+    private ConnectionReuse recordConnectionReuse(boolean tracked) {
+        if(!tracked) {
+            this.untrackedCount.incrementAndGet();
+            return ConnectionReuse.UNKNOWN;
+        }
+        if(TrackingSSLSocketFactory.isSocketCreated()) {
+            this.newConnectionCount.incrementAndGet();
+            return ConnectionReuse.NEW;
+        }
+        this.reusedConnectionCount.incrementAndGet();
+        return ConnectionReuse.REUSED;
+    }
+
+    private static void drainErrorStream(HttpURLConnection conn) {
+        InputStream errorStream = conn.getErrorStream();
+        if(errorStream == null) {
+            return;
+        }
+        DrainingInputStream.drain(errorStream);
+        try {
+            errorStream.close();
+        } catch (IOException e) {
+            // Do nothing
+        }
+    }
+
     /**
      * Builds a comma separated string of values for a multi-valued header.
      *
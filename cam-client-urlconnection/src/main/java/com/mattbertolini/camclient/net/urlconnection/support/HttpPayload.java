@@ -41,4 +41,12 @@ public interface HttpPayload {
     ContentType getContentType();
     InputStream getInputStream();
     void writeTo(OutputStream outputStream) throws IOException;
+
+    /**
+     * Gets the number of bytes {@link #writeTo(OutputStream)} will write, if it is known in advance. A known length
+     * lets the request be streamed with a Content-Length header instead of being buffered in full first.
+     *
+     * @return The length in bytes or -1 if unknown.
+     */
+    long getContentLength();
 }
@@ -30,6 +30,7 @@
 
 package com.mattbertolini.camclient.net.urlconnection.support;
 
+import javax.net.ssl.SSLSocketFactory;
 import java.net.Proxy;
 import java.util.List;
 
@@ -54,4 +55,13 @@ public interface HttpRequest {
     void setUrl(Url url);
     Proxy getProxy();
     void setProxy(Proxy proxy);
+    SSLSocketFactory getSSLSocketFactory();
+    void setSSLSocketFactory(SSLSocketFactory sslSocketFactory);
+    int getConnectTimeout();
+    void setConnectTimeout(int connectTimeout);
+    int getReadTimeout();
+    void setReadTimeout(int readTimeout);
+    void abort();
+    boolean isAborted();
+    void setAbortHandler(Runnable abortHandler);
 }
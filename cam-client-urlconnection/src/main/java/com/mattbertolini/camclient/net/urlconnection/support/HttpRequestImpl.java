@@ -30,6 +30,7 @@
 
 package com.mattbertolini.camclient.net.urlconnection.support;
 
+import javax.net.ssl.SSLSocketFactory;
 import java.net.Proxy;
 import java.util.Arrays;
 import java.util.List;
@@ -40,12 +41,19 @@ import java.util.List;
 public final class HttpRequestImpl implements HttpRequest {
     private Url url;
     private Proxy proxy;
+    private SSLSocketFactory sslSocketFactory;
     private HttpPayload payload;
     private Method method;
     private MultivaluedMap<String, String> headers;
+    private volatile int connectTimeout;
+    private volatile int readTimeout;
+    private final Object abortLock;
+    private boolean aborted;
+    private Runnable abortHandler;
 
     public HttpRequestImpl() {
         this.headers = new MultivaluedHashMap<String, String>();
+        this.abortLock = new Object();
     }
 
     @Override
@@ -132,4 +140,95 @@ public final class HttpRequestImpl implements HttpRequest {
     public void setProxy(Proxy proxy) {
         this.proxy = proxy;
     }
+
+    @Override
+    public SSLSocketFactory getSSLSocketFactory() {
+        return this.sslSocketFactory;
+    }
+
+    /**
+     * @param sslSocketFactory The factory for HTTPS connections, or null to use the HttpsURLConnection default. Use
+     * the same instance for every request so that connections can be kept alive.
+     */
+    @Override
+    public void setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout The connect timeout in milliseconds. Zero uses the default.
+     */
+    @Override
+    public void setConnectTimeout(int connectTimeout) {
+        if(connectTimeout < 0) {
+            throw new IllegalArgumentException("Connect timeout cannot be negative.");
+        }
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    /**
+     * @param readTimeout The read timeout in milliseconds. Zero uses the default.
+     */
+    @Override
+    public void setReadTimeout(int readTimeout) {
+        if(readTimeout < 0) {
+            throw new IllegalArgumentException("Read timeout cannot be negative.");
+        }
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Aborts the request, running the abort handler set by the connection executing it. Safe to call from any thread.
+     */
+    @Override
+    public void abort() {
+        Runnable handler;
+        synchronized(this.abortLock) {
+            if(this.aborted) {
+                return;
+            }
+            this.aborted = true;
+            handler = this.abortHandler;
+            this.abortHandler = null;
+        }
+        if(handler != null) {
+            handler.run();
+        }
+    }
+
+    @Override
+    public boolean isAborted() {
+        synchronized(this.abortLock) {
+            return this.aborted;
+        }
+    }
+
+    /**
+     * Sets the action that tears down the underlying connection when the request is aborted. Runs the handler
+     * immediately if the request has already been aborted.
+     *
+     * @param abortHandler The abort handler.
+     */
+    @Override
+    public void setAbortHandler(Runnable abortHandler) {
+        synchronized(this.abortLock) {
+            if(!this.aborted) {
+                this.abortHandler = abortHandler;
+                return;
+            }
+        }
+        if(abortHandler != null) {
+            abortHandler.run();
+        }
+    }
 }
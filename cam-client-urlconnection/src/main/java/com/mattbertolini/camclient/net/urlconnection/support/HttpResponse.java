@@ -38,4 +38,5 @@ public interface HttpResponse {
     MultivaluedMap<String, String> getHeaders();
     int getStatusCode();
     String getStatusMessage();
+    ConnectionReuse getConnectionReuse();
 }
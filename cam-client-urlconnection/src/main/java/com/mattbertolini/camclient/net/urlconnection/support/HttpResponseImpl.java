@@ -38,12 +38,19 @@ public final class HttpResponseImpl implements HttpResponse {
     private final String message;
     private final HttpPayload payload;
     private final MultivaluedMap<String, String> headers;
+    private final ConnectionReuse connectionReuse;
 
     public HttpResponseImpl(int code, String message, HttpPayload payload, MultivaluedMap<String, String> headers) {
+        this(code, message, payload, headers, ConnectionReuse.UNKNOWN);
+    }
+
+    public HttpResponseImpl(int code, String message, HttpPayload payload, MultivaluedMap<String, String> headers,
+                            ConnectionReuse connectionReuse) {
         this.code = code;
         this.message = message;
         this.payload = payload;
         this.headers = headers;
+        this.connectionReuse = connectionReuse;
     }
 
     @Override
@@ -65,4 +72,9 @@ public final class HttpResponseImpl implements HttpResponse {
     public String getStatusMessage() {
         return this.message;
     }
+
+    @Override
+    public ConnectionReuse getConnectionReuse() {
+        return this.connectionReuse;
+    }
 }
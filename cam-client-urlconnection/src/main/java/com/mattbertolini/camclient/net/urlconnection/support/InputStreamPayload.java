@@ -30,15 +30,25 @@
 
 package com.mattbertolini.camclient.net.urlconnection.support;
 
+import com.mattbertolini.camclient.net.BufferPool;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Scanner;
+import java.nio.channels.FileChannel;
 
 /**
+ * A payload backed by a stream, such as a response body being proxied or recorded. The stream's bytes are copied to
+ * the output unchanged: file to file with a channel transfer, which the operating system can do without copying
+ * through the heap, and otherwise through a buffer borrowed from the shared {@link BufferPool}.
+ *
  * @author Matt Bertolini
  */
 public class InputStreamPayload implements HttpPayload {
+    private static final int COPY_BUFFER_SIZE = 16384;
+
     private InputStream payload;
     private ContentType contentType;
 
@@ -57,11 +67,40 @@ public class InputStreamPayload implements HttpPayload {
         return this.payload;
     }
 
+    @Override
+    public long getContentLength() {
+        return -1L;
+    }
+
     @Override
     public void writeTo(OutputStream outputStream) throws IOException {
-        Scanner scanner = new Scanner(this.payload, this.getContentType().getCharsetOrDefault());
-        while(scanner.hasNextByte()) {
-            outputStream.write(scanner.nextByte());
+        if(this.payload instanceof FileInputStream && outputStream instanceof FileOutputStream) {
+            transfer(((FileInputStream) this.payload).getChannel(), ((FileOutputStream) outputStream).getChannel());
+            return;
+        }
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquireBytes(COPY_BUFFER_SIZE);
+        try {
+            int read;
+            while((read = this.payload.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            pool.releaseBytes(buffer);
+        }
+    }
+
+    private static void transfer(FileChannel source, FileChannel target) throws IOException {
+        long position = source.position();
+        long size = source.size();
+        // transferTo may move fewer bytes than asked for, so keep going until the end of the file.
+        while(position < size) {
+            long transferred = source.transferTo(position, size - position, target);
+            if(transferred <= 0) {
+                break;
+            }
+            position += transferred;
         }
+        source.position(position);
     }
 }
@@ -30,27 +30,38 @@
 
 package com.mattbertolini.camclient.net.urlconnection.support;
 
+import com.mattbertolini.camclient.net.BufferPool;
+import com.mattbertolini.camclient.net.FormUrlEncoder;
+
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * A special HttpPayload type that enables quick building of URL encoded form requests.
+ * <p>
+ * Parameters are percent-encoded in the declared charset straight into the output stream by a {@link FormUrlEncoder},
+ * the same way {@link java.net.URLEncoder} encodes them, without building the payload as a string first. The encoded
+ * length is known before writing, so the request can be sent with a Content-Length header.
+ * <p>
+ * This class is for callers building their own requests with {@link HttpConnection}. HttpConnectionCamConnection
+ * does not use it: CAM requests are encoded by {@link com.mattbertolini.camclient.net.FormRequestEncoder}, which
+ * reuses the pre-encoded credentials, and sent as a {@link ByteArrayPayload}.
  *
  * @author Matt Bertolini
  */
 public class UrlEncodedFormPayload implements HttpPayload {
-    private static final char EQUALS_SIGN = '=';
-    private static final char AMPERSAND = '&';
+    private static final byte EQUALS_SIGN = '=';
+    private static final byte AMPERSAND = '&';
+    private static final int WRITE_BUFFER_SIZE = 4096;
 
     private Map<String, String> parameters;
     private ContentType contentType;
+    private long contentLength;
 
     public UrlEncodedFormPayload() {
         this(ContentType.APPLICATION_FORM_URLENCODED);
@@ -63,10 +74,12 @@ public class UrlEncodedFormPayload implements HttpPayload {
     private UrlEncodedFormPayload(ContentType contentType) {
         this.parameters = new LinkedHashMap<String, String>();
         this.contentType = contentType;
+        this.contentLength = -1L;
     }
 
     public void addParameter(String name, String value) {
         this.parameters.put(name, value);
+        this.contentLength = -1L;
     }
 
     @Override
@@ -76,45 +89,125 @@ public class UrlEncodedFormPayload implements HttpPayload {
 
     @Override
     public InputStream getInputStream() {
-        String s = this.buildPayloadString();
-        try {
-            return new ByteArrayInputStream(s.getBytes(this.getEncoding()));
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+        ByteArraySink sink = new ByteArraySink((int) this.getContentLength());
+        this.encode(sink);
+        return new ByteArrayInputStream(sink.bytes);
+    }
+
+    @Override
+    public long getContentLength() {
+        if(this.contentLength < 0) {
+            CountingSink sink = new CountingSink();
+            this.encode(sink);
+            this.contentLength = sink.count;
         }
+        return this.contentLength;
     }
 
     @Override
     public void writeTo(OutputStream outputStream) throws IOException {
-        String s = this.buildPayloadString();
-        OutputStreamWriter writer = new OutputStreamWriter(outputStream);
-        writer.write(s);
-        writer.flush();
+        StreamSink sink = new StreamSink(outputStream);
+        try {
+            this.encode(sink);
+            sink.flush();
+            outputStream.flush();
+        } catch (SinkException e) {
+            throw e.getCause();
+        } finally {
+            sink.release();
+        }
     }
 
-    private String buildPayloadString() {
-        StringBuilder sb = new StringBuilder();
+    private void encode(FormUrlEncoder.Sink sink) {
+        FormUrlEncoder encoder = new FormUrlEncoder(Charset.forName(this.getEncoding()));
         boolean first = true;
         for(Map.Entry<String, String> entry : this.parameters.entrySet()) {
             if(first) {
                 first = false;
             } else {
-                sb.append(AMPERSAND);
+                sink.write(AMPERSAND);
             }
-            sb.append(this.urlEncode(entry.getKey(), this.getEncoding())).append(EQUALS_SIGN).append(this.urlEncode(entry.getValue(), this.getEncoding()));
+            encoder.encode(entry.getKey(), sink);
+            sink.write(EQUALS_SIGN);
+            encoder.encode(entry.getValue(), sink);
         }
-        return sb.toString();
     }
 
-    private String urlEncode(String input, String encoding) {
-        try {
-            return URLEncoder.encode(input, encoding);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+    private String getEncoding() {
+        return this.contentType.getCharsetOrDefault();
+    }
+
+    private static final class CountingSink implements FormUrlEncoder.Sink {
+        private long count;
+
+        @Override
+        public void write(byte b) {
+            this.count++;
         }
     }
 
-    private String getEncoding() {
-        return this.contentType.getCharsetOrDefault();
+    private static final class ByteArraySink implements FormUrlEncoder.Sink {
+        private final byte[] bytes;
+        private int position;
+
+        private ByteArraySink(int length) {
+            this.bytes = new byte[length];
+        }
+
+        @Override
+        public void write(byte b) {
+            this.bytes[this.position++] = b;
+        }
+    }
+
+    /**
+     * Collects encoded bytes in a buffer borrowed from the shared {@link BufferPool} and writes them to the stream a
+     * buffer at a time.
+     */
+    private static final class StreamSink implements FormUrlEncoder.Sink {
+        private final OutputStream outputStream;
+        private byte[] buffer;
+        private int position;
+
+        private StreamSink(OutputStream outputStream) {
+            this.outputStream = outputStream;
+            this.buffer = BufferPool.getDefault().acquireBytes(WRITE_BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(byte b) {
+            if(this.position == this.buffer.length) {
+                this.flush();
+            }
+            this.buffer[this.position++] = b;
+        }
+
+        private void flush() {
+            try {
+                this.outputStream.write(this.buffer, 0, this.position);
+            } catch (IOException e) {
+                throw new SinkException(e);
+            }
+            this.position = 0;
+        }
+
+        private void release() {
+            BufferPool.getDefault().releaseBytes(this.buffer);
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Carries an IOException out of {@link FormUrlEncoder.Sink#write(byte)} so one encoding routine serves every sink.
+     */
+    private static final class SinkException extends RuntimeException {
+        private SinkException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
     }
 }
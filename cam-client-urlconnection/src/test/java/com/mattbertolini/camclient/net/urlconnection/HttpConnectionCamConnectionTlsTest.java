@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.urlconnection;
+
+import com.mattbertolini.camclient.BasicCamCredentials;
+import com.mattbertolini.camclient.net.CamConnectionException;
+import com.mattbertolini.camclient.net.TlsContext;
+import com.mattbertolini.camclient.net.urlconnection.support.HttpConnectionImpl;
+import com.mattbertolini.camclient.request.CamRequestImpl;
+import com.mattbertolini.camclient.request.Operation;
+import com.mattbertolini.camclient.response.CamResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matt Bertolini
+ */
+public class HttpConnectionCamConnectionTlsTest {
+    private static final String PATH = "/admin/cisco_api.jsp";
+    private static final String KEYSTORE = "/com/mattbertolini/camclient/net/urlconnection/support/test-keystore.p12";
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private KeyStore keyStore;
+    private HttpsServer server;
+    private volatile boolean closeConnections;
+    private HttpConnectionImpl httpConnection;
+    private HttpConnectionCamConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        this.keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = this.getClass().getResourceAsStream(KEYSTORE);
+        try {
+            this.keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(this.keyStore, PASSWORD);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+        this.server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+        this.server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream body = exchange.getRequestBody();
+                while(body.read() != -1) {
+                    //
+                }
+                byte[] response = "<!--error=0-->\n<!--version=4.9.0-->\n".getBytes(Charset.forName("ISO-8859-1"));
+                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=ISO-8859-1");
+                if(closeConnections) {
+                    // Force a new connection, and so a new handshake, for every request.
+                    exchange.getResponseHeaders().add("Connection", "close");
+                }
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        this.closeConnections = true;
+        this.server.start();
+        this.httpConnection = new HttpConnectionImpl();
+        URI uri = URI.create("https://localhost:" + this.server.getAddress().getPort() + PATH);
+        this.connection = new HttpConnectionCamConnection(uri, new BasicCamCredentials("admin", "secret"),
+                this.httpConnection);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testNewConnectionsResumeTheSession() throws Exception {
+        TlsContext tlsContext = new TlsContext();
+        tlsContext.setTrustStore(this.keyStore);
+        this.connection.setTlsContext(tlsContext);
+        for(int i = 0; i < 3; i++) {
+            CamResponse response = this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            assertEquals("4.9.0", response.getResponseData().get(0).get("version"));
+        }
+        // Handshake events arrive on a separate thread.
+        long deadline = System.currentTimeMillis() + 5000;
+        while(tlsContext.getHandshakeCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, tlsContext.getHandshakeCount());
+        assertEquals(1, tlsContext.getFullHandshakeCount());
+        assertEquals(2, tlsContext.getResumedHandshakeCount());
+        assertEquals(2.0 / 3.0, tlsContext.getResumptionRatio(), 0.0001);
+    }
+
+    @Test
+    public void testConnectionsAreReusedWhenAlternatingTlsContexts() {
+        this.closeConnections = false;
+        TlsContext first = new TlsContext();
+        first.setTrustStore(this.keyStore);
+        TlsContext second = new TlsContext();
+        second.setTrustStore(this.keyStore);
+        HttpConnectionCamConnection other = new HttpConnectionCamConnection(this.connection.getUri(),
+                new BasicCamCredentials("admin", "secret"), this.httpConnection);
+        this.connection.setTlsContext(first);
+        other.setTlsContext(second);
+        for(int i = 0; i < 3; i++) {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            other.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+        }
+        assertEquals(2, this.httpConnection.getNewConnectionCount());
+        assertEquals(4, this.httpConnection.getReusedConnectionCount());
+    }
+
+    @Test
+    public void testPinnedTrustStoreRejectsOtherCertificates() throws Exception {
+        KeyStore empty = KeyStore.getInstance("PKCS12");
+        empty.load(null, null);
+        TlsContext tlsContext = new TlsContext();
+        tlsContext.setTrustStore(empty);
+        this.connection.setTlsContext(tlsContext);
+        try {
+            this.connection.executeRequest(new CamRequestImpl(Operation.GET_VERSION));
+            fail("Expected the server certificate to be rejected.");
+        } catch (CamConnectionException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSettingsAreFixedOnceInUse() {
+        TlsContext tlsContext = new TlsContext();
+        tlsContext.getSocketFactory();
+        tlsContext.setSessionCacheSize(10);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.mattbertolini.camclient.net.urlconnection.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Matt Bertolini
+ */
+public class HttpConnectionKeepAliveTest {
+    private static final String PATH = "/admin/cisco_api.jsp";
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final ContentType FORM = ContentType.APPLICATION_FORM_URLENCODED.withCharset("ISO-8859-1");
+
+    private HttpServer server;
+    private List<String> contentLengths;
+    private List<String> transferEncodings;
+    private volatile int status;
+    private SSLSocketFactory defaultSocketFactory;
+    private HttpConnectionImpl connection;
+
+    @Before
+    public void setUp() {
+        this.contentLengths = Collections.synchronizedList(new ArrayList<String>());
+        this.transferEncodings = Collections.synchronizedList(new ArrayList<String>());
+        this.status = 200;
+        this.defaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        this.connection = new HttpConnectionImpl();
+    }
+
+    @After
+    public void tearDown() {
+        HttpsURLConnection.setDefaultSSLSocketFactory(this.defaultSocketFactory);
+        if(this.server != null) {
+            this.server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHttpsConnectionIsReused() throws Exception {
+        URI uri = this.startHttpsServer();
+        HttpResponse first = this.post(uri);
+        readFully(first.getPayload().getInputStream());
+        HttpResponse second = this.post(uri);
+        // Closed without being read; the stream drains itself so the connection can still be kept.
+        second.getPayload().getInputStream().close();
+        HttpResponse third = this.post(uri);
+        third.getPayload().getInputStream().close();
+
+        assertEquals(ConnectionReuse.NEW, first.getConnectionReuse());
+        assertEquals(ConnectionReuse.REUSED, second.getConnectionReuse());
+        assertEquals(ConnectionReuse.REUSED, third.getConnectionReuse());
+        assertEquals(1, this.connection.getNewConnectionCount());
+        assertEquals(2, this.connection.getReusedConnectionCount());
+    }
+
+    @Test
+    public void testErrorResponseDoesNotCostTheConnection() throws Exception {
+        URI uri = this.startHttpsServer();
+        this.status = 500;
+        HttpResponse error = this.post(uri);
+        assertEquals(500, error.getStatusCode());
+        error.getPayload().getInputStream().close();
+        this.status = 200;
+        HttpResponse next = this.post(uri);
+        next.getPayload().getInputStream().close();
+        assertEquals(ConnectionReuse.REUSED, next.getConnectionReuse());
+    }
+
+    @Test
+    public void testKnownLengthBodyIsNotChunked() throws Exception {
+        URI uri = this.startServer(HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0),
+                "http");
+        HttpResponse response = this.post(uri);
+        response.getPayload().getInputStream().close();
+        assertEquals("13", this.contentLengths.get(0));
+        assertNull(this.transferEncodings.get(0));
+        assertEquals(ConnectionReuse.UNKNOWN, response.getConnectionReuse());
+        assertEquals(1, this.connection.getUntrackedCount());
+    }
+
+    private HttpResponse post(URI uri) throws IOException {
+        HttpRequest request = new HttpRequestImpl();
+        request.setMethod(Method.POST);
+        request.setUrl(new Url(uri));
+        request.setPayload(new ByteArrayPayload("op=getversion".getBytes(Charset.forName("ISO-8859-1")), FORM));
+        return this.connection.executeRequest(request);
+    }
+
+    private URI startHttpsServer() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = this.getClass().getResourceAsStream("test-keystore.p12");
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        HttpsURLConnection.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
+
+        HttpsServer httpsServer = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        return this.startServer(httpsServer, "https");
+    }
+
+    private URI startServer(HttpServer httpServer, String scheme) {
+        this.server = httpServer;
+        this.server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentLengths.add(exchange.getRequestHeaders().getFirst("Content-Length"));
+                transferEncodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+                readFully(exchange.getRequestBody());
+                byte[] response = "<!--error=0-->\n<!--version=4.9.0-->\n".getBytes(Charset.forName("ISO-8859-1"));
+                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=ISO-8859-1");
+                exchange.sendResponseHeaders(status, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        this.server.start();
+        return URI.create(scheme + "://127.0.0.1:" + this.server.getAddress().getPort() + PATH);
+    }
+
+    private static void readFully(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while(in.read(buffer) != -1) {
+            //
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.urlconnection.support;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * @author Matt Bertolini
+ */
+public class InputStreamPayloadTest {
+    private static final ContentType OCTET_STREAM = ContentType.create("application", "octet-stream");
+
+    @Test
+    public void testWriteToCopiesBinaryBytesUnchanged() throws IOException {
+        byte[] body = randomBytes(100000);
+        InputStreamPayload payload = new InputStreamPayload(new ByteArrayInputStream(body), OCTET_STREAM);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        payload.writeTo(outputStream);
+        Assert.assertArrayEquals(body, outputStream.toByteArray());
+    }
+
+    @Test
+    public void testWriteToFileUsesChannelTransfer() throws IOException {
+        byte[] body = randomBytes(300000);
+        File source = File.createTempFile("payload", ".in");
+        File target = File.createTempFile("payload", ".out");
+        try {
+            Files.write(source.toPath(), body);
+            FileInputStream in = new FileInputStream(source);
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                new InputStreamPayload(in, OCTET_STREAM).writeTo(out);
+                Assert.assertEquals(body.length, in.getChannel().position());
+            } finally {
+                in.close();
+                out.close();
+            }
+            Assert.assertArrayEquals(body, Files.readAllBytes(target.toPath()));
+        } finally {
+            source.delete();
+            target.delete();
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42L).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2013, Matthew Bertolini
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ *     * Neither the name of CamClient nor the names of its contributors may be
+ *       used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mattbertolini.camclient.net.urlconnection.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * Measures how fast {@link InputStreamPayload#writeTo(OutputStream)} copies multi-megabyte bodies, stream to stream
+ * and file to file, next to the Scanner based copy it replaced. The old copy parses the body as whitespace separated
+ * decimal numbers, so it is given a body of small numbers it can actually read; it still only writes one byte per
+ * token. Not run as part of the build; run the main method by hand:
+ *
+ * <pre>
+ * java -cp ... com.mattbertolini.camclient.net.urlconnection.support.PayloadBenchmark [megabytes] [iterations]
+ * </pre>
+ *
+ * @author Matt Bertolini
+ */
+public class PayloadBenchmark {
+    private static final ContentType OCTET_STREAM = ContentType.create("application", "octet-stream");
+    private static final int MEGABYTE = 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        byte[] body = new byte[megabytes * MEGABYTE];
+        new Random(42L).nextBytes(body);
+        File source = File.createTempFile("payload-benchmark", ".in");
+        File target = File.createTempFile("payload-benchmark", ".out");
+        try {
+            Files.write(source.toPath(), body);
+            for(int round = 0; round < 2; round++) {
+                String label = (round == 0) ? "warm-up" : "measured";
+                System.out.println("-- " + label + " (" + megabytes + " MB x " + iterations + ")");
+                report("stream to stream", megabytes, iterations, streamToStream(body, iterations));
+                report("file to file", megabytes, iterations, fileToFile(source, target, iterations));
+            }
+            byte[] tokens = numberTokens(MEGABYTE);
+            long start = System.nanoTime();
+            CountingOutputStream out = new CountingOutputStream();
+            legacyWriteTo(new ByteArrayInputStream(tokens), out);
+            report("legacy Scanner (1 MB of tokens, " + out.count + " bytes written)", 1, 1, System.nanoTime() - start);
+        } finally {
+            source.delete();
+            target.delete();
+        }
+    }
+
+    private static long streamToStream(byte[] body, int iterations) throws IOException {
+        long elapsed = 0L;
+        for(int i = 0; i < iterations; i++) {
+            CountingOutputStream out = new CountingOutputStream();
+            long start = System.nanoTime();
+            new InputStreamPayload(new ByteArrayInputStream(body), OCTET_STREAM).writeTo(out);
+            elapsed += System.nanoTime() - start;
+            check(body.length, out.count);
+        }
+        return elapsed;
+    }
+
+    private static long fileToFile(File source, File target, int iterations) throws IOException {
+        long elapsed = 0L;
+        for(int i = 0; i < iterations; i++) {
+            FileInputStream in = new FileInputStream(source);
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                long start = System.nanoTime();
+                new InputStreamPayload(in, OCTET_STREAM).writeTo(out);
+                elapsed += System.nanoTime() - start;
+            } finally {
+                in.close();
+                out.close();
+            }
+            check(source.length(), target.length());
+        }
+        return elapsed;
+    }
+
+    private static void legacyWriteTo(InputStream payload, OutputStream outputStream) throws IOException {
+        Scanner scanner = new Scanner(payload, "ISO-8859-1");
+        while(scanner.hasNextByte()) {
+            outputStream.write(scanner.nextByte());
+        }
+    }
+
+    private static byte[] numberTokens(int length) {
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) {
+            bytes[i] = (byte) ((i % 3 == 2) ? ' ' : '1');
+        }
+        return bytes;
+    }
+
+    private static void check(long expected, long actual) {
+        if(expected != actual) {
+            throw new IllegalStateException("Copied " + actual + " bytes, expected " + expected);
+        }
+    }
+
+    private static void report(String name, int megabytes, int iterations, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%-60s %10.1f ms %10.1f MB/s%n", name, seconds * 1000 / iterations,
+                megabytes * iterations / seconds);
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.junit.Test;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
 import java.util.Scanner;
 
 /**
@@ -90,4 +91,57 @@ public class UrlEncodedFormPayloadTest {
         outputStream.close();
         Assert.assertEquals(expected, outputStream.toString("UTF-8"));
     }
+
+    @Test
+    public void testWriteToUsesDeclaredCharset() throws IOException {
+        String value = "caf\u00e9 \u20ac~\uD83D\uDE00";
+        UrlEncodedFormPayload payload = new UrlEncodedFormPayload("UTF-8");
+        payload.addParameter("name", value);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        payload.writeTo(outputStream);
+        Assert.assertEquals("name=" + URLEncoder.encode(value, "UTF-8"), outputStream.toString("US-ASCII"));
+
+        UrlEncodedFormPayload latin1 = new UrlEncodedFormPayload();
+        latin1.addParameter("name", "caf\u00e9");
+        outputStream = new ByteArrayOutputStream();
+        latin1.writeTo(outputStream);
+        Assert.assertEquals("name=caf%E9", outputStream.toString("US-ASCII"));
+    }
+
+    @Test
+    public void testWriteToEscapesAsciiInWideCharsets() throws IOException {
+        UrlEncodedFormPayload payload = new UrlEncodedFormPayload("UTF-16");
+        payload.addParameter("path", "a/b");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        payload.writeTo(outputStream);
+        Assert.assertEquals("path=" + URLEncoder.encode("a/b", "UTF-16"), outputStream.toString("US-ASCII"));
+    }
+
+    @Test
+    public void testContentLengthMatchesBytesWritten() throws IOException {
+        UrlEncodedFormPayload payload = new UrlEncodedFormPayload("UTF-8");
+        payload.addParameter("op", "addmac");
+        payload.addParameter("desc", "\u00fcber printer #2");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        payload.writeTo(outputStream);
+        Assert.assertEquals(outputStream.size(), payload.getContentLength());
+
+        payload.addParameter("extra", "1");
+        outputStream = new ByteArrayOutputStream();
+        payload.writeTo(outputStream);
+        Assert.assertEquals(outputStream.size(), payload.getContentLength());
+    }
+
+    @Test
+    public void testLargePayloadSpansWriteBuffers() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 5000; i++) {
+            sb.append("a b&");
+        }
+        UrlEncodedFormPayload payload = new UrlEncodedFormPayload();
+        payload.addParameter("data", sb.toString());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        payload.writeTo(outputStream);
+        Assert.assertEquals("data=" + URLEncoder.encode(sb.toString(), "ISO-8859-1"), outputStream.toString("US-ASCII"));
+    }
 }